@@ -9,10 +9,13 @@
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import tinycc.diagnostic.Location;
 import tinycc.diagnostic.PrintDiagnostic;
 import tinycc.implementation.Compiler;
+import tinycc.implementation.optimization.PassManager;
 import tinycc.logic.Formula;
 import tinycc.logic.UnaryOperator;
 import tinycc.logic.UnaryOpFormula;
@@ -21,6 +24,7 @@
 import tinycc.logic.solver.SolverResult;
 import tinycc.logic.solver.z3.Z3Translator;
 import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.PeepholeOptimizer;
 import tinycc.parser.Lexer;
 
 class ArgumentParser {
@@ -50,6 +54,15 @@ public int getOption() {
 		return 0;
 	}
 
+	public String getAttachedValue() {
+		final String arg = args[idx];
+		if (pos == arg.length())
+			return null;
+		final String value = arg.substring(pos);
+		pos = arg.length();
+		return value;
+	}
+
 	public String getValue() {
 		String arg = args[idx++];
 		if (arg.length() >= 2 && arg.charAt(0) == '-') {
@@ -75,11 +88,23 @@ public class TinyC {
 	 * Runs the compiler
 	 *
 	 * @param diagnostic The diagnostic instance to use
+	 * @param err        The stream for remarks and statistics
 	 * @param args       The command line arguments
 	 */
-	private static void run(final PrintDiagnostic diagnostic, final String[] args) {
+	private static void run(final PrintDiagnostic diagnostic, final PrintStream err, final String[] args) {
 		final List<String> inputNames = new ArrayList<String>();
 		boolean optimize = false;
+		int optimizationLevel = PassManager.DEFAULT_LEVEL;
+		final List<String> enabledPasses = new ArrayList<String>();
+		final List<String> disabledPasses = new ArrayList<String>();
+		final List<String> disabledRules = new ArrayList<String>();
+		Boolean peephole = null;
+		boolean passStatistics = false;
+		int parallelism = 0;
+		long workBudget = -1;
+		long timeBudget = -1;
+		Pattern passedRemarks = null;
+		Pattern missedRemarks = null;
 		boolean compile = false;
 		boolean verify = false;
 		String outName = null;
@@ -95,10 +120,103 @@ private static void run(final PrintDiagnostic diagnostic, final String[] args) {
 				continue;
 
 			case 'O': {
+				final String level = argParser.getAttachedValue();
+				if (level == null) {
+					optimizationLevel = PassManager.DEFAULT_LEVEL;
+				} else if (level.length() == 1 && level.charAt(0) >= '0'
+						&& level.charAt(0) - '0' <= PassManager.MAX_LEVEL) {
+					optimizationLevel = level.charAt(0) - '0';
+				} else {
+					diagnostic.printError(null, "invalid optimization level '%s'", level);
+				}
 				optimize = true;
 				continue;
 			}
 
+			case 'f': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				final boolean enable = !arg.startsWith("no-");
+				final String pass = enable ? arg : arg.substring(3);
+				if (pass.equals("peephole")) {
+					peephole = enable;
+				} else if (pass.startsWith("peephole-") && PeepholeOptimizer.hasRule(pass.substring(9))) {
+					if (enable)
+						disabledRules.remove(pass.substring(9));
+					else
+						disabledRules.add(pass.substring(9));
+				} else if (!new PassManager().hasPass(pass)) {
+					diagnostic.printError(null, "unknown optimization pass '%s'", pass);
+				} else if (enable) {
+					enabledPasses.add(pass);
+				} else {
+					disabledPasses.add(pass);
+				}
+				continue;
+			}
+
+			case 't':
+				passStatistics = true;
+				continue;
+
+			case 'R': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				final int eq = arg.indexOf('=');
+				final String kind = eq < 0 ? arg : arg.substring(0, eq);
+				Pattern pattern = null;
+				try {
+					pattern = Pattern.compile(eq < 0 ? ".*" : arg.substring(eq + 1));
+				} catch (final PatternSyntaxException e) {
+					diagnostic.printError(null, "invalid remark pattern '%s'", arg.substring(eq + 1));
+					continue;
+				}
+				if (kind.equals("pass")) {
+					passedRemarks = pattern;
+				} else if (kind.equals("pass-missed")) {
+					missedRemarks = pattern;
+				} else {
+					diagnostic.printError(null, "unknown remark option '-R%s'", arg);
+				}
+				continue;
+			}
+
+			case 'j': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				try {
+					parallelism = Integer.parseInt(arg);
+				} catch (final NumberFormatException e) {
+					parallelism = -1;
+				}
+				if (parallelism < 1)
+					diagnostic.printError(null, "invalid number of threads '%s'", arg);
+				continue;
+			}
+
+			case 'b':
+			case 'T': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				long budget;
+				try {
+					budget = Long.parseLong(arg);
+				} catch (final NumberFormatException e) {
+					budget = -1;
+				}
+				if (budget < 0)
+					diagnostic.printError(null, "invalid optimization budget '%s'", arg);
+				else if (option == 'b')
+					workBudget = budget;
+				else
+					timeBudget = budget;
+				continue;
+			}
+
 			case 'o': {
 				final String arg = argParser.getValue();
 				if (arg == null)
@@ -185,19 +303,49 @@ private static void run(final PrintDiagnostic diagnostic, final String[] args) {
 						}
 					}
 
-					if (optimize)
+					// The level also selects the register allocator of the code generator.
+					final PassManager passes = compiler.getPassManager();
+					passes.setLevel(optimize ? optimizationLevel : 0);
+					if (optimize || !enabledPasses.isEmpty()) {
+						if (parallelism > 0)
+							passes.setParallelism(parallelism);
+						passes.setWorkBudget(workBudget);
+						passes.setTimeBudget(timeBudget);
+						for (final String pass : enabledPasses)
+							passes.enable(pass);
+						for (final String pass : disabledPasses)
+							passes.disable(pass);
+						passes.getRemarks().setEnabled(passedRemarks != null || missedRemarks != null);
 						compiler.performOptimizations();
+						passes.getRemarks().print(err, passedRemarks, missedRemarks);
+						if (passStatistics)
+							passes.printStatistics(err);
+					}
 
 					// 3) Generate code
 
 					if (compile) {
 						final PrintStream out = makeOutputStream(outName, inName);
 						try {
+							// The peephole optimizer runs with -O1 and above.
+							final boolean runPeephole = peephole != null ? peephole : optimize && optimizationLevel > 0;
+							compiler.setPeephole(runPeephole);
+							final PeepholeOptimizer peepholeOptimizer = compiler.getPeepholeOptimizer();
+							for (final String rule : disabledRules)
+								peepholeOptimizer.disable(rule);
 							compiler.generateCode(new MipsAsmGen(out));
+							if (passStatistics && runPeephole)
+								peepholeOptimizer.printCounters(err);
 						} finally {
 							if (out != System.out)
 								out.close();
 						}
+						// The counters of the passes go next to the assembly.
+						if ((optimize || !enabledPasses.isEmpty()) && !"-".equals(outName)) {
+							try (PrintStream json = new PrintStream(new FileOutputStream(countersName(outName, inName)))) {
+								passes.writeCounters(json);
+							}
+						}
 					}
 				} finally {
 					if (r != null)
@@ -221,6 +369,21 @@ private static PrintStream makeOutputStream(String outName, final String inName)
 		return new PrintStream(new FileOutputStream(outName));
 	}
 
+	/**
+	 * Returns the name of the file with the optimization counters which belongs
+	 * to the given assembly output, e.g. "foo.opt.json" for "foo.s".
+	 */
+	private static String countersName(String outName, final String inName) {
+		if (outName == null) {
+			outName = inName.substring(inName.lastIndexOf('/') + 1);
+			if (outName.endsWith(".c"))
+				outName = outName.substring(0, outName.length() - 2);
+		} else if (outName.endsWith(".s")) {
+			outName = outName.substring(0, outName.length() - 2);
+		}
+		return outName + ".opt.json";
+	}
+
 	/**
 	 * Entry point of the program
 	 *
@@ -228,9 +391,20 @@ private static PrintStream makeOutputStream(String outName, final String inName)
 	 */
 	public static void main(final String[] args) {
 		// Instantiate default diagnostic module and run the compiler
-		final PrintDiagnostic diagnostic = new PrintDiagnostic(System.err);
-		run(diagnostic, args);
+		System.exit(run(System.err, args));
+	}
+
+	/**
+	 * Runs the compiler without exiting
+	 *
+	 * @param err  The stream for diagnostics, remarks and statistics
+	 * @param args The command line arguments
+	 * @return The exit code, 0 if there were no errors
+	 */
+	public static int run(final PrintStream err, final String... args) {
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(err);
+		run(diagnostic, err, args);
 		// Print a summary and use the return code as exit code
-		System.exit(diagnostic.printSummary());
+		return diagnostic.printSummary();
 	}
 }
@@ -1,16 +1,20 @@
 package tinycc.implementation;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import tinycc.diagnostic.Locatable;
 import tinycc.implementation.expression.BinaryExpression;
 import tinycc.implementation.expression.CallExpression;
-
+import tinycc.implementation.expression.ConditionalExpression;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.expression.FunctionDefinition;
 import tinycc.implementation.expression.PrimaryExpression;
 import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.optimization.Expressions;
+import tinycc.implementation.optimization.Statements;
 import tinycc.implementation.statement.BlockStatement;
 import tinycc.implementation.statement.DeclarationStatement;
 import tinycc.implementation.statement.ExpressionStatement;
@@ -91,7 +95,7 @@ public Expression createCallExpression(Token token, Expression callee, List<Expr
    @Override
    public Expression createConditionalExpression(Token token, Expression condition, Expression consequence,
          Expression alternative) {
-      return condition; // return new ConditionalExpression(token,condition,consequence,alternative);
+      return new ConditionalExpression(token, condition, consequence, alternative);
    }
 
    @Override
@@ -117,4 +121,25 @@ public void createFunctionDefinition(Type type, Token name, List<Token> paramete
       functionDefinition.add(function);
    }
 
+   public List<ExternalDeclaration> getExternalDeclarations() {
+      return externalDeclarations;
+   }
+
+   public List<FunctionDefinition> getFunctionDefinitions() {
+      return functionDefinition;
+   }
+
+   /**
+    * Returns the string literals used by the remaining function definitions in
+    * order of appearance. Code generation only needs to emit these with
+    * emitASCIIZ, literals of removed code are dropped.
+    */
+   public Set<String> getStringLiterals() {
+      Set<String> literals = new LinkedHashSet<>();
+      for (FunctionDefinition function : functionDefinition) {
+         Statements.forEachExpression(function.getBody(), e -> Expressions.collectStringLiterals(e, literals));
+      }
+      return literals;
+   }
+
 }
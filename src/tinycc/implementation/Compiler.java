@@ -1,11 +1,15 @@
 package tinycc.implementation;
 
 import tinycc.diagnostic.Diagnostic;
+import tinycc.implementation.codegen.CodeGenerator;
+import tinycc.implementation.optimization.PassManager;
+import tinycc.implementation.semantics.SemanticAnalysis;
 import tinycc.parser.ASTFactory;
 import tinycc.parser.Lexer;
 import tinycc.parser.Parser;
 import tinycc.logic.Formula;
 import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.PeepholeOptimizer;
 
 /**
  * The main compiler class.
@@ -18,7 +22,10 @@
 public class Compiler {
 
 	Diagnostic diagnostic;
-	private ASTFactory AST;
+	private final AST ast = new AST();
+	private final PassManager passManager = new PassManager();
+	private final PeepholeOptimizer peepholeOptimizer = new PeepholeOptimizer();
+	private Boolean peephole = null;
 
 	/**
 	 * Initializes the compiler class with the given diagnostic module
@@ -37,7 +44,7 @@ public Compiler(final Diagnostic diagnostic) {
 	 * @see ASTFactory
 	 */
 	public ASTFactory getASTFactory() {
-		return AST;
+		return ast;
 	}
 
 	/**
@@ -62,7 +69,7 @@ public void parseTranslationUnit(final Lexer lexer) {
 	 *          invoked only once in each instance of the compiler class.
 	 */
 	public void checkSemantics() {
-		throw new UnsupportedOperationException("TODO: implement this");
+		new SemanticAnalysis(diagnostic).check(ast);
 	}
 
 	/**
@@ -71,18 +78,55 @@ public void checkSemantics() {
 	 * @remarks Bonus exercise.
 	 */
 	public void performOptimizations() {
-		throw new UnsupportedOperationException("TODO: implement this");
+		passManager.run(ast);
+	}
+
+	/**
+	 * Returns the pass manager which performs the optimizations. It may be
+	 * configured before {@link #performOptimizations()} is invoked.
+	 *
+	 * @return The pass manager of this compiler.
+	 */
+	public PassManager getPassManager() {
+		return passManager;
+	}
+
+	/**
+	 * Returns the peephole optimizer which runs over the generated code. Its
+	 * rules may be configured before {@link #generateCode(MipsAsmGen)} is
+	 * invoked.
+	 *
+	 * @return The peephole optimizer of this compiler.
+	 */
+	public PeepholeOptimizer getPeepholeOptimizer() {
+		return peepholeOptimizer;
 	}
 
 	/**
-	 * Generates code for the input program.
+	 * Enables or disables the peephole optimizer. By default it runs with -O1
+	 * and above.
+	 *
+	 * @param enabled Whether the peephole optimizer runs.
+	 */
+	public void setPeephole(final boolean enabled) {
+		this.peephole = enabled;
+	}
+
+	/**
+	 * Generates code for the input program. The optimization level of the
+	 * pass manager selects the register allocator and whether the peephole
+	 * optimizer runs. The code is written to the output stream of the
+	 * generator when this method returns.
 	 *
 	 * @param out The target output stream.
 	 * @remarks This function is invoked only once in each instance of the compiler
 	 *          class. Only necessary if mentioned in the project description.
 	 */
 	public void generateCode(final MipsAsmGen out) {
-		throw new UnsupportedOperationException("TODO: implement this");
+		new CodeGenerator(out, passManager.getLevel()).generate(ast);
+		if (peephole != null ? peephole : passManager.getLevel() > 0)
+			peepholeOptimizer.run(out);
+		out.flush();
 	}
 
 	/**
@@ -12,4 +12,12 @@ public ExternalDeclaration(Type type2, Token name) {
    this.type =type2;
    this.name= name; 
 }
+
+   public Type getType() {
+      return type;
+   }
+
+   public Token getName() {
+      return name;
+   }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package tinycc.implementation.codegen;
+
+import tinycc.mipsasmgen.GPRegister;
+
+/**
+ * The calling convention of the generated code, which follows the MIPS o32
+ * convention without the home area of the register arguments:
+ *
+ * - The first four arguments are passed in $a0 to $a3, argument i &gt;= 4 is
+ *   passed at offset 4 * (i - 4) of the stack pointer of the caller.
+ * - The result is returned in $v0.
+ * - $t0 to $t9 are caller-saved, $s0 to $s7 and $ra are callee-saved.
+ *
+ * The register allocator only assigns the $t and $s registers. $at, $v1,
+ * $k0, $k1, $gp and $fp are never used.
+ */
+public final class CallingConvention {
+    private CallingConvention() {
+    }
+
+    /** The registers which pass the first arguments. */
+    public static final GPRegister[] ARGUMENTS = { GPRegister.A0, GPRegister.A1, GPRegister.A2, GPRegister.A3 };
+
+    /** The register which returns the result. */
+    public static final GPRegister RESULT = GPRegister.V0;
+
+    /** The allocatable registers which a call may clobber. */
+    public static final GPRegister[] CALLER_SAVED = { GPRegister.T0, GPRegister.T1, GPRegister.T2, GPRegister.T3,
+            GPRegister.T4, GPRegister.T5, GPRegister.T6, GPRegister.T7, GPRegister.T8, GPRegister.T9 };
+
+    /** The allocatable registers which a function must restore before it returns. */
+    public static final GPRegister[] CALLEE_SAVED = { GPRegister.S0, GPRegister.S1, GPRegister.S2, GPRegister.S3,
+            GPRegister.S4, GPRegister.S5, GPRegister.S6, GPRegister.S7 };
+
+    /**
+     * Returns true if the register must be saved by a function which writes
+     * it.
+     */
+    public static boolean isCalleeSaved(final GPRegister r) {
+        for (final GPRegister s : CALLEE_SAVED) {
+            if (s == r) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
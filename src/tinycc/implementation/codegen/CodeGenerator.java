@@ -0,0 +1,149 @@
+package tinycc.implementation.codegen;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.optimization.LocalVariables;
+import tinycc.implementation.optimization.ValueRanges;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.mipsasmgen.DataLabel;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.TextLabel;
+
+/**
+ * Generates the MIPS code of a translation unit.
+ *
+ * Every function is lowered to {@link MachineInstruction}s on virtual
+ * registers, its registers are allocated and the result is emitted with its
+ * prologue and epilogue. The optimization level selects the allocator:
+ *
+ * - At -O0 the local variables live in the stack frame and only the
+ *   temporaries of the expressions get registers, by a linear scan.
+ * - At -O1 the local variables whose address is not taken live in registers,
+ *   allocated by a linear scan.
+ * - At -O2 the registers are allocated by graph coloring, which also removes
+ *   most copies, and the {@link ValueRanges} of a function remove the sign
+ *   extensions of values converted to char which already fit.
+ */
+public final class CodeGenerator {
+    private final MipsAsmGen gen;
+    private final int level;
+    private final RegisterAllocator allocator;
+    private final Map<String, TextLabel> functions = new HashMap<>();
+    private final Map<String, DataLabel> globals = new HashMap<>();
+    private final Map<String, Type> globalTypes = new HashMap<>();
+    private final Map<String, FunctionType> functionTypes = new HashMap<>();
+    private final Map<String, DataLabel> strings = new HashMap<>();
+
+    /**
+     * Creates a code generator.
+     *
+     * @param gen   The generator to emit to.
+     * @param level The optimization level.
+     */
+    public CodeGenerator(final MipsAsmGen gen, final int level) {
+        this.gen = gen;
+        this.level = level;
+        this.allocator = level >= 2 ? new GraphColoringAllocator() : new LinearScanAllocator();
+    }
+
+    /**
+     * Emits the global variables, the string literals and the functions of
+     * the translation unit.
+     */
+    public void generate(final AST ast) {
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            final String name = d.getName().getText();
+            if (d.getType() instanceof FunctionType) {
+                functionTypes.put(name, (FunctionType) d.getType());
+            } else if (!globals.containsKey(name)) {
+                // Every global takes a word, which keeps the words aligned.
+                final DataLabel label = gen.makeDataLabel(name);
+                globals.put(name, label);
+                globalTypes.put(name, d.getType());
+                gen.emitWord(label, 0);
+            }
+        }
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            if (f.getType() instanceof FunctionType) {
+                functionTypes.put(f.getName().getText(), (FunctionType) f.getType());
+            }
+        }
+        for (final String literal : ast.getStringLiterals()) {
+            final DataLabel label = gen.makeUniqueDataLabel("str");
+            strings.put(literal, label);
+            gen.emitASCIIZ(label, literal);
+        }
+
+        final Set<String> globalNames = level >= 2 ? LocalVariables.globalNames(ast) : null;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            final ValueRanges ranges = level >= 2 ? new ValueRanges(ast, f, new LocalVariables(f, globalNames)) : null;
+            final MachineFunction function = new FunctionLowering(this, f, ranges).lower();
+            final Map<VirtualRegister, GPRegister> assignment = allocator.allocate(function);
+            function.emit(gen, assignment);
+        }
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the label of a function, which is created on first use.
+     */
+    TextLabel functionLabel(final String name) {
+        return functions.computeIfAbsent(name, gen::makeTextLabel);
+    }
+
+    /**
+     * Returns a fresh label within a function.
+     */
+    TextLabel newLabel() {
+        return gen.makeUniqueTextLabel();
+    }
+
+    /**
+     * Returns a fresh label for the epilogue of a function.
+     */
+    TextLabel newExitLabel() {
+        return gen.makeUniqueTextLabel("exit");
+    }
+
+    /**
+     * Returns the type of a function, null if it is not declared.
+     */
+    FunctionType functionType(final String name) {
+        return functionTypes.get(name);
+    }
+
+    /**
+     * Returns the label of a global variable, null if there is none.
+     */
+    DataLabel globalLabel(final String name) {
+        return globals.get(name);
+    }
+
+    /**
+     * Returns the type of a global variable.
+     */
+    Type globalType(final String name) {
+        return globalTypes.get(name);
+    }
+
+    /**
+     * Returns the label of a string literal.
+     */
+    DataLabel stringLabel(final String literal) {
+        final DataLabel label = strings.get(literal);
+        if (label == null) {
+            throw new IllegalStateException("string literal \"" + literal + "\" was not emitted");
+        }
+        return label;
+    }
+}
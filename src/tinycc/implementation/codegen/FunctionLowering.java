@@ -0,0 +1,784 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.optimization.ExpressionTypes;
+import tinycc.implementation.optimization.Expressions;
+import tinycc.implementation.optimization.Interval;
+import tinycc.implementation.optimization.Statements;
+import tinycc.implementation.optimization.ValueRanges;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.mipsasmgen.BranchInstruction;
+import tinycc.mipsasmgen.DataLabel;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.RegisterInstruction;
+import tinycc.mipsasmgen.TextLabel;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Lowers a function definition to {@link MachineInstruction}s.
+ *
+ * The statements and the expressions with control flow or side effects are
+ * lowered here, the instructions of the other expressions are selected by the
+ * {@link InstructionSelector}. Every expression computes its value into a
+ * fresh virtual register, or reads the register of a variable. A local
+ * variable lives in a virtual register of its own, unless its address is
+ * taken or the function is compiled at -O0, in which case it lives in a stack
+ * slot. Values of type char are kept sign-extended in registers. A value
+ * converted to char is only sign-extended again if its {@link ValueRanges},
+ * which are computed at -O2, do not prove that it already lies within
+ * {@link Interval#CHAR}.
+ *
+ * The operands of an operator are evaluated in the order which needs the
+ * fewest registers (Sethi and Ullman), unless the side effects of one operand
+ * might change the value of the other one.
+ */
+final class FunctionLowering {
+    private static final VirtualRegister ZERO = VirtualRegister.of(GPRegister.ZERO);
+    private static final VirtualRegister SP = VirtualRegister.of(GPRegister.SP);
+
+    /**
+     * The most instructions both arms of a conditional may take together to be
+     * evaluated without a branch, about what the branch, the jump around the
+     * other arm and the copies of the branching form cost.
+     */
+    private static final int SELECT_LIMIT = 3;
+
+    /**
+     * The storage of a variable: a virtual register, a stack slot or the label
+     * of a global.
+     */
+    private static final class Variable {
+        final Type type;
+        final VirtualRegister register;
+        final StackSlot slot;
+        final DataLabel global;
+
+        Variable(final Type type, final VirtualRegister register, final StackSlot slot, final DataLabel global) {
+            this.type = type;
+            this.register = register;
+            this.slot = slot;
+            this.global = global;
+        }
+    }
+
+    private final CodeGenerator generator;
+    private final FunctionDefinition definition;
+    private final ValueRanges ranges;
+    private final Deque<Map<String, Variable>> scopes = new ArrayDeque<>();
+    private final Set<String> addressTaken = new HashSet<>();
+    private final RegisterNeeds needs = new RegisterNeeds();
+    private MachineFunction function;
+    private InstructionSelector selector;
+
+    /**
+     * @param ranges The value ranges of the function, or null if they are not
+     *               known.
+     */
+    FunctionLowering(final CodeGenerator generator, final FunctionDefinition definition,
+            final ValueRanges ranges) {
+        this.generator = generator;
+        this.definition = definition;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Lowers the function.
+     */
+    MachineFunction lower() {
+        final String name = definition.getName().getText();
+        function = new MachineFunction(name, generator.functionLabel(name), generator.newExitLabel());
+        selector = new InstructionSelector(this, function, generator);
+        Statements.collectAddressTaken(definition.getBody(), addressTaken);
+
+        scopes.push(new HashMap<>());
+        final List<Type> types = ((FunctionType) definition.getType()).getParameters();
+        final List<Token> names = definition.getParameterNames();
+        for (int i = 0; i < names.size() && i < types.size(); ++i) {
+            final Token parameter = names.get(i);
+            if (parameter == null) {
+                continue;
+            }
+            final Type type = types.get(i);
+            if (i < CallingConvention.ARGUMENTS.length) {
+                final Variable v = declare(parameter.getText(), type);
+                store(location(v), VirtualRegister.of(CallingConvention.ARGUMENTS[i]), false, false);
+            } else if (isInMemory(parameter.getText())) {
+                scopes.peek().put(parameter.getText(),
+                        new Variable(type, null, function.incomingSlot(parameter.getText(), i - 4), null));
+            } else {
+                final Variable v = declare(parameter.getText(), type);
+                function.add(MachineInstruction.load(loadOf(type), v.register, null, null, 0,
+                        function.incomingSlot(parameter.getText(), i - 4)));
+            }
+        }
+        lower(definition.getBody());
+        scopes.pop();
+        return function;
+    }
+
+    private boolean isInMemory(final String name) {
+        return generator.getLevel() == 0 || addressTaken.contains(name);
+    }
+
+    private Variable declare(final String name, final Type type) {
+        final Variable v = isInMemory(name) ? new Variable(type, null, function.newSlot(name), null)
+                : new Variable(type, function.newRegister(), null, null);
+        scopes.peek().put(name, v);
+        return v;
+    }
+
+    /**
+     * Returns the variable a name refers to, null if it names a function.
+     */
+    private Variable lookup(final String name) {
+        for (final Map<String, Variable> scope : scopes) {
+            final Variable v = scope.get(name);
+            if (v != null) {
+                return v;
+            }
+        }
+        final DataLabel global = generator.globalLabel(name);
+        return global != null ? new Variable(generator.globalType(name), null, null, global) : null;
+    }
+
+    private void add(final MachineInstruction insn) {
+        function.add(insn);
+    }
+
+    // Statements
+
+    private void lower(final Statement s) {
+        if (s instanceof BlockStatement) {
+            scopes.push(new HashMap<>());
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                lower(inner);
+            }
+            scopes.pop();
+        } else if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            if (d.getType() instanceof FunctionType) {
+                return;
+            }
+            final Variable v = declare(d.getName().getText(), d.getType());
+            if (d.getInit() != null) {
+                store(location(v), value(d.getInit()), false, fitsChar(d.getInit()));
+            }
+        } else if (s instanceof ExpressionStatement) {
+            effect(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            if (selectAssignment(i)) {
+                return;
+            }
+            final TextLabel otherwise = generator.newLabel();
+            branch(i.getCondition(), otherwise, false);
+            lower(i.getConsequence());
+            if (i.getAlternative() != null) {
+                final TextLabel end = generator.newLabel();
+                add(MachineInstruction.jump(end));
+                add(MachineInstruction.label(otherwise));
+                lower(i.getAlternative());
+                add(MachineInstruction.label(end));
+            } else {
+                add(MachineInstruction.label(otherwise));
+            }
+        } else if (s instanceof WhileStatement) {
+            // The condition is tested at the bottom, so an iteration takes a
+            // single branch.
+            final WhileStatement w = (WhileStatement) s;
+            final TextLabel body = generator.newLabel();
+            final TextLabel test = generator.newLabel();
+            add(MachineInstruction.jump(test));
+            add(MachineInstruction.label(body));
+            lower(w.getBody());
+            add(MachineInstruction.label(test));
+            branch(w.getCondition(), body, true);
+        } else if (s instanceof ReturnStatement) {
+            final Expression e = ((ReturnStatement) s).getExpression();
+            if (e != null) {
+                VirtualRegister result = value(e);
+                if (isChar(((FunctionType) definition.getType()).getReturnType()) && !fitsChar(e)) {
+                    result = truncate(result, function.newRegister());
+                }
+                add(MachineInstruction.move(VirtualRegister.of(CallingConvention.RESULT), result));
+            }
+            add(MachineInstruction.jump(function.getExit()));
+        } else {
+            throw new IllegalArgumentException("unsupported statement " + s);
+        }
+    }
+
+    /**
+     * Lowers {@code if (c) x = a; else x = b;} for a variable x in a register
+     * to {@code x = c ? a : b} without branches, if the arms are cheap enough.
+     * Without else, the other arm is x itself.
+     *
+     * @return False if the statement has a different form.
+     */
+    private boolean selectAssignment(final IfStatement i) {
+        final BinaryExpression consequence = assignmentOf(i.getConsequence());
+        final String name = consequence != null ? Expressions.identifierName(consequence.getLeft()) : null;
+        final Variable v = name != null ? lookup(name) : null;
+        if (v == null || v.register == null) {
+            return false;
+        }
+        Expression alternative = consequence.getLeft();
+        if (i.getAlternative() != null) {
+            final BinaryExpression other = assignmentOf(i.getAlternative());
+            if (other == null || !name.equals(Expressions.identifierName(other.getLeft()))) {
+                return false;
+            }
+            alternative = other.getRight();
+        }
+        if (!isSelectable(i.getCondition(), consequence.getRight(), alternative)) {
+            return false;
+        }
+        if (isChar(v.type)) {
+            store(location(v), selector.select(i.getCondition(), consequence.getRight(), alternative,
+                    function.newRegister()), false, fitsChar(consequence.getRight()) && fitsChar(alternative));
+        } else {
+            selector.select(i.getCondition(), consequence.getRight(), alternative, v.register);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the assignment a statement, possibly in a block of its own,
+     * consists of, null if it is anything else.
+     */
+    private static BinaryExpression assignmentOf(final Statement s) {
+        if (s instanceof BlockStatement && ((BlockStatement) s).getStatements().size() == 1) {
+            return assignmentOf(((BlockStatement) s).getStatements().get(0));
+        }
+        if (!(s instanceof ExpressionStatement)) {
+            return null;
+        }
+        final Expression e = ((ExpressionStatement) s).getExpression();
+        return Expressions.isAssignment(e) ? (BinaryExpression) e : null;
+    }
+
+    /**
+     * Returns true if a conditional is evaluated without a branch: the
+     * condition is not a chain of branches itself, and both arms may be
+     * evaluated speculatively and together take at most {@link #SELECT_LIMIT}
+     * instructions. At -O0 it always branches.
+     */
+    private boolean isSelectable(final Expression condition, final Expression consequence,
+            final Expression alternative) {
+        if (generator.getLevel() == 0 || isLogical(condition)) {
+            return false;
+        }
+        final int then = selector.speculationCost(consequence);
+        final int otherwise = selector.speculationCost(alternative);
+        return then >= 0 && otherwise >= 0 && then + otherwise <= SELECT_LIMIT;
+    }
+
+    /**
+     * Returns true if a condition is a possibly negated &amp;&amp; or ||.
+     */
+    private static boolean isLogical(final Expression condition) {
+        if (condition instanceof UnaryExpression
+                && ((UnaryExpression) condition).getOperator().getKind() == TokenKind.BANG) {
+            return isLogical(((UnaryExpression) condition).getOperand());
+        }
+        if (!(condition instanceof BinaryExpression)) {
+            return false;
+        }
+        final TokenKind kind = ((BinaryExpression) condition).getOperator().getKind();
+        return kind == TokenKind.AND_AND || kind == TokenKind.PIPE_PIPE;
+    }
+
+    // Expressions
+
+    /**
+     * Branches to a target if a condition has the given truth value and falls
+     * through otherwise. The logical operators become chains of branches, and
+     * comparisons branch on their operands without computing a truth value.
+     */
+    private void branch(final Expression condition, final TextLabel target, final boolean when) {
+        if (condition instanceof UnaryExpression
+                && ((UnaryExpression) condition).getOperator().getKind() == TokenKind.BANG) {
+            branch(((UnaryExpression) condition).getOperand(), target, !when);
+            return;
+        }
+        if (condition instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) condition;
+            final TokenKind kind = b.getOperator().getKind();
+            if (kind == TokenKind.AND_AND || kind == TokenKind.PIPE_PIPE) {
+                // a && b is true if both are, a || b is false if both are.
+                if (when == (kind == TokenKind.AND_AND)) {
+                    final TextLabel skip = generator.newLabel();
+                    branch(b.getLeft(), skip, !when);
+                    branch(b.getRight(), target, when);
+                    add(MachineInstruction.label(skip));
+                } else {
+                    branch(b.getLeft(), target, when);
+                    branch(b.getRight(), target, when);
+                }
+                return;
+            }
+            if (kind == TokenKind.COMMA) {
+                effect(b.getLeft());
+                branch(b.getRight(), target, when);
+                return;
+            }
+        }
+        final InstructionSelector.Branch taken = when ? selector.condition(condition)
+                : selector.condition(condition).negate();
+        if (taken == InstructionSelector.Branch.ALWAYS) {
+            add(MachineInstruction.jump(target));
+        } else if (taken != InstructionSelector.Branch.NEVER) {
+            add(MachineInstruction.branch(taken.opcode, taken.left, taken.right, target));
+        }
+    }
+
+    /**
+     * Evaluates an expression whose value is not needed.
+     */
+    private void effect(final Expression e) {
+        if (Expressions.isAssignment(e)) {
+            final BinaryExpression b = (BinaryExpression) e;
+            assign(b.getLeft(), b.getRight(), false);
+        } else {
+            value(e);
+        }
+    }
+
+    /**
+     * Evaluates an expression.
+     *
+     * @return The register which holds the value. It may be the register of a
+     *         variable, which must not be written.
+     */
+    private VirtualRegister value(final Expression e) {
+        return selector.value(e);
+    }
+
+    /**
+     * Evaluates an expression which the instruction selector treats as a
+     * leaf: a call, an assignment, an increment or decrement, a comma, a
+     * logical operator or a conditional.
+     */
+    VirtualRegister evaluate(final Expression e) {
+        if (e instanceof CallExpression) {
+            return call((CallExpression) e);
+        } else if (e instanceof ConditionalExpression) {
+            return conditional((ConditionalExpression) e);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            final TokenKind kind = u.getOperator().getKind();
+            if (kind == TokenKind.PLUS_PLUS || kind == TokenKind.MINUS_MINUS) {
+                final Location l = location(u.getOperand());
+                final VirtualRegister old = load(l);
+                final int step = isPointer(l.type) ? elementSize(l.type) : 1;
+                final VirtualRegister updated = immediate(ImmediateInstruction.ADDIU, old,
+                        kind == TokenKind.PLUS_PLUS ? step : -step);
+                if (!u.isPostfix()) {
+                    return store(l, updated, true, false);
+                }
+                // The register of a variable is overwritten by the store.
+                final VirtualRegister result = l.register != null ? copy(old) : old;
+                store(l, updated, false, false);
+                return result;
+            }
+        } else if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            final TokenKind kind = b.getOperator().getKind();
+            switch (kind) {
+            case EQUAL:
+                return assign(b.getLeft(), b.getRight(), true);
+            case COMMA:
+                effect(b.getLeft());
+                return value(b.getRight());
+            case AND_AND:
+            case PIPE_PIPE: {
+                final VirtualRegister result = function.newRegister();
+                final TextLabel end = generator.newLabel();
+                add(MachineInstruction.register(RegisterInstruction.SLTU, result, ZERO, value(b.getLeft())));
+                add(MachineInstruction.branch(kind == TokenKind.AND_AND ? BranchInstruction.BEQ
+                        : BranchInstruction.BNE, result, ZERO, end));
+                add(MachineInstruction.register(RegisterInstruction.SLTU, result, ZERO, value(b.getRight())));
+                add(MachineInstruction.label(end));
+                return result;
+            }
+            default:
+                break;
+            }
+        }
+        throw new IllegalArgumentException("unsupported expression " + e);
+    }
+
+    /**
+     * Evaluates c ? a : b, with a conditional move if the arms are cheap and
+     * with branches to the arm to evaluate otherwise.
+     */
+    private VirtualRegister conditional(final ConditionalExpression e) {
+        if (isSelectable(e.getCondition(), e.getConsequence(), e.getAlternative())) {
+            return selector.select(e.getCondition(), e.getConsequence(), e.getAlternative(), function.newRegister());
+        }
+        final VirtualRegister result = function.newRegister();
+        final TextLabel otherwise = generator.newLabel();
+        final TextLabel end = generator.newLabel();
+        branch(e.getCondition(), otherwise, false);
+        add(MachineInstruction.move(result, value(e.getConsequence())));
+        add(MachineInstruction.jump(end));
+        add(MachineInstruction.label(otherwise));
+        add(MachineInstruction.move(result, value(e.getAlternative())));
+        add(MachineInstruction.label(end));
+        return result;
+    }
+
+    private VirtualRegister call(final CallExpression e) {
+        final String name = Expressions.identifierName(e.getCallee());
+        final boolean direct = name != null && lookup(name) == null;
+        final List<VirtualRegister> arguments = arguments(e.getArguments());
+        final VirtualRegister address = direct ? null : value(e.getCallee());
+
+        final int registers = Math.min(arguments.size(), CallingConvention.ARGUMENTS.length);
+        if (arguments.size() > registers) {
+            function.reserveOutgoing(arguments.size() - registers);
+        }
+        for (int i = registers; i < arguments.size(); ++i) {
+            add(MachineInstruction.store(MemoryInstruction.SW, arguments.get(i), SP, null, 4 * (i - registers),
+                    null));
+        }
+        for (int i = 0; i < registers; ++i) {
+            add(MachineInstruction.move(VirtualRegister.of(CallingConvention.ARGUMENTS[i]), arguments.get(i)));
+        }
+        add(MachineInstruction.call(direct ? generator.functionLabel(name) : null, address, registers));
+        return copy(VirtualRegister.of(CallingConvention.RESULT));
+    }
+
+    /**
+     * Assigns the value of an expression to an lvalue.
+     *
+     * @param needed Whether the value of the assignment is used.
+     * @return The assigned value if needed, null otherwise.
+     */
+    private VirtualRegister assign(final Expression target, final Expression source, final boolean needed) {
+        final List<Expression> address = addressOperands(target);
+        if (!address.isEmpty() && needs.of(source) > needs.of(target) && mayEvaluateBefore(source, address)) {
+            final VirtualRegister value = value(source);
+            return store(location(target), value, needed, fitsChar(source));
+        }
+        final Location l = location(target);
+        return store(l, value(source), needed, fitsChar(source));
+    }
+
+    /**
+     * Returns true if the right operand of an operator is to be evaluated
+     * first, as it needs more registers and may be evaluated before the left
+     * one.
+     */
+    boolean evaluateRightFirst(final Expression left, final Expression right) {
+        return needs.of(right) > needs.of(left) && mayEvaluateBefore(right, Collections.singletonList(left));
+    }
+
+    /**
+     * Evaluates the arguments of a call by decreasing register need, so that
+     * nested calls come first and the values of the other arguments need not
+     * survive them.
+     */
+    private List<VirtualRegister> arguments(final List<Expression> arguments) {
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); ++i) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(needs.of(arguments.get(b)), needs.of(arguments.get(a))));
+        for (int i = 0; i < order.size(); ++i) {
+            for (int j = i + 1; j < order.size(); ++j) {
+                final int first = order.get(i);
+                final int second = order.get(j);
+                if (first > second && !mayEvaluateBefore(arguments.get(first),
+                        Collections.singletonList(arguments.get(second)))) {
+                    order.sort(null);
+                    i = order.size();
+                    break;
+                }
+            }
+        }
+
+        final VirtualRegister[] values = new VirtualRegister[arguments.size()];
+        for (final int i : order) {
+            values[i] = value(arguments.get(i));
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Returns true if an expression may be evaluated before expressions which
+     * precede it: they have no side effects, and the side effects of the
+     * expression do not change their values. Then they only read locals whose
+     * address is not taken and which the expression does not assign.
+     */
+    private boolean mayEvaluateBefore(final Expression first, final List<Expression> others) {
+        final Set<String> assigned = new HashSet<>();
+        Expressions.collectAssignedNames(first, assigned);
+        final boolean effects = Expressions.hasSideEffects(first);
+        for (final Expression other : others) {
+            if (Expressions.hasSideEffects(other)) {
+                return false;
+            }
+            if (!effects) {
+                continue;
+            }
+            if (Expressions.containsLoad(other)) {
+                return false;
+            }
+            final Set<String> read = new HashSet<>();
+            Expressions.collectReadNames(other, read);
+            for (final String name : read) {
+                if (!isLocal(name) || addressTaken.contains(name) || assigned.contains(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isLocal(final String name) {
+        for (final Map<String, Variable> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the expressions which compute the address of an lvalue, empty
+     * for a variable.
+     */
+    private static List<Expression> addressOperands(final Expression target) {
+        if (target instanceof UnaryExpression) {
+            return Collections.singletonList(((UnaryExpression) target).getOperand());
+        }
+        if (target instanceof BinaryExpression) {
+            return Arrays.asList(((BinaryExpression) target).getLeft(), ((BinaryExpression) target).getRight());
+        }
+        return Collections.emptyList();
+    }
+
+    // Locations
+
+    private static Location location(final Variable v) {
+        if (v.register != null) {
+            return Location.ofRegister(v.type, v.register);
+        }
+        return new Location(v.type, null, null, v.global, v.slot, 0);
+    }
+
+    /**
+     * Returns the location of the variable a name refers to, null if it names
+     * a function.
+     */
+    Location variable(final String name) {
+        final Variable v = lookup(name);
+        return v != null ? location(v) : null;
+    }
+
+    private Location location(final Expression e) {
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            final Variable v = lookup(name);
+            if (v == null) {
+                throw new IllegalArgumentException("'" + name + "' is not a variable");
+            }
+            return location(v);
+        }
+        final Location l = selector.location(e);
+        if (l == null) {
+            throw new IllegalArgumentException("not an lvalue: " + e);
+        }
+        return l;
+    }
+
+    private VirtualRegister load(final Location l) {
+        if (l.register != null) {
+            return l.register;
+        }
+        final VirtualRegister d = function.newRegister();
+        add(MachineInstruction.load(loadOf(l.type), d, l.base, l.label, l.offset, l.slot));
+        return d;
+    }
+
+    /**
+     * Stores a value to a location, converting it to its type.
+     *
+     * @param needed Whether the converted value is used.
+     * @param fits   Whether the value is known to lie within the range of a
+     *               char, so a conversion to char keeps it as is.
+     * @return The converted value if needed, null otherwise.
+     */
+    private VirtualRegister store(final Location l, final VirtualRegister value, final boolean needed,
+            final boolean fits) {
+        if (l.register != null) {
+            if (isChar(l.type) && !fits) {
+                truncate(value, l.register);
+            } else {
+                add(MachineInstruction.move(l.register, value));
+            }
+            return l.register;
+        }
+        add(MachineInstruction.store(isChar(l.type) ? MemoryInstruction.SB : MemoryInstruction.SW, value, l.base,
+                l.label, l.offset, l.slot));
+        if (!needed) {
+            return null;
+        }
+        return isChar(l.type) && !fits ? truncate(value, function.newRegister()) : value;
+    }
+
+    /**
+     * Returns true if the value of an expression is known to lie within the
+     * range of a char.
+     */
+    private boolean fitsChar(final Expression e) {
+        final Interval range = ranges != null ? ranges.getRange(e) : null;
+        return range != null && range.isSubsetOf(Interval.CHAR);
+    }
+
+    // Helpers
+
+    private VirtualRegister immediate(final ImmediateInstruction op, final VirtualRegister left, final int imm) {
+        final VirtualRegister d = function.newRegister();
+        add(MachineInstruction.immediate(op, d, left, imm));
+        return d;
+    }
+
+    private VirtualRegister copy(final VirtualRegister r) {
+        final VirtualRegister d = function.newRegister();
+        add(MachineInstruction.move(d, r));
+        return d;
+    }
+
+    /**
+     * Sign-extends the low byte of a value.
+     */
+    private VirtualRegister truncate(final VirtualRegister value, final VirtualRegister dest) {
+        final VirtualRegister shifted = immediate(ImmediateInstruction.SLL, value, 24);
+        add(MachineInstruction.immediate(ImmediateInstruction.SRA, dest, shifted, 24));
+        return dest;
+    }
+
+    // Types
+
+    private static boolean isPointer(final Type t) {
+        return t instanceof PointerType;
+    }
+
+    private static boolean isChar(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.CHAR;
+    }
+
+    static MemoryInstruction loadOf(final Type t) {
+        return isChar(t) ? MemoryInstruction.LB : MemoryInstruction.LW;
+    }
+
+    /**
+     * Returns the size of the elements a pointer points to, 1 for void.
+     */
+    private static int elementSize(final Type pointer) {
+        return Math.max(ExpressionTypes.sizeOf(ExpressionTypes.pointee(pointer)), 1);
+    }
+
+    /**
+     * Returns the type of an expression in the current scope.
+     */
+    Type typeOf(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            switch (t.getKind()) {
+            case STRING:
+                return new PointerType(ExpressionTypes.CHAR);
+            case IDENTIFIER: {
+                final Variable v = lookup(t.getText());
+                return v != null ? v.type : generator.functionType(t.getText());
+            }
+            default:
+                return ExpressionTypes.INT;
+            }
+        }
+        if (e instanceof CallExpression) {
+            Type callee = typeOf(((CallExpression) e).getCallee());
+            if (isPointer(callee)) {
+                callee = ExpressionTypes.pointee(callee);
+            }
+            return callee instanceof FunctionType ? ((FunctionType) callee).getReturnType() : ExpressionTypes.INT;
+        }
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            switch (u.getOperator().getKind()) {
+            case ASTERISK:
+                return ExpressionTypes.pointee(typeOf(u.getOperand()));
+            case AND:
+                return new PointerType(typeOf(u.getOperand()));
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                return typeOf(u.getOperand());
+            default:
+                return ExpressionTypes.INT;
+            }
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            switch (b.getOperator().getKind()) {
+            case EQUAL:
+                return typeOf(b.getLeft());
+            case COMMA:
+                return typeOf(b.getRight());
+            case LBRACKET: {
+                final Type left = typeOf(b.getLeft());
+                return ExpressionTypes.pointee(isPointer(left) ? left : typeOf(b.getRight()));
+            }
+            case PLUS: {
+                final Type left = typeOf(b.getLeft());
+                final Type right = typeOf(b.getRight());
+                return isPointer(left) ? left : isPointer(right) ? right : ExpressionTypes.INT;
+            }
+            case MINUS: {
+                final Type left = typeOf(b.getLeft());
+                return isPointer(left) && !isPointer(typeOf(b.getRight())) ? left : ExpressionTypes.INT;
+            }
+            default:
+                return ExpressionTypes.INT;
+            }
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            final Type consequence = typeOf(c.getConsequence());
+            final Type alternative = typeOf(c.getAlternative());
+            return isPointer(consequence) ? consequence : isPointer(alternative) ? alternative : ExpressionTypes.INT;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,423 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.mipsasmgen.GPRegister;
+
+/**
+ * Allocates registers by coloring the interference graph (Chaitin and
+ * Briggs), which takes longer than the linear scan but assigns registers to
+ * more values and removes copies. It is used at -O2.
+ *
+ * - Two registers interfere if one is defined where the other is live. The
+ *   source of a copy does not interfere with its destination.
+ * - Copies are coalesced conservatively (Briggs): the two registers are merged
+ *   if they do not interfere and the merged node has fewer neighbors of
+ *   significant degree than there are registers, so the graph stays
+ *   colorable.
+ * - The argument registers and $v0 are precolored nodes. They are live from
+ *   a copy into them to the call or return which reads them, and at the
+ *   entry until the parameters are copied out. A copy from or to one of them
+ *   is coalesced if the other register does not interfere with it (George):
+ *   no other node may be colored with them, so every neighbor already
+ *   interferes with the precolored node.
+ * - Nodes of lower degree than there are registers are removed from the graph
+ *   and colored in reverse order. If none is left, the node with the lowest
+ *   spill cost per neighbor is removed optimistically, as its neighbors may
+ *   still share registers.
+ * - Nodes which cannot be colored are spilled by splitting their live ranges
+ *   at labels, branches and calls, and the allocation is repeated. A piece of
+ *   a split range which cannot be colored either is reloaded before every use.
+ *
+ * Registers which are live across a call may only be colored with the
+ * callee-saved registers.
+ */
+public final class GraphColoringAllocator implements RegisterAllocator {
+    /** The registers of the calling convention which copies are coalesced with. */
+    private static final GPRegister[] PRECOLORED = { GPRegister.A0, GPRegister.A1, GPRegister.A2, GPRegister.A3,
+            CallingConvention.RESULT };
+
+    @Override
+    public Map<VirtualRegister, GPRegister> allocate(final MachineFunction function) {
+        final SpillCodeInserter spiller = new SpillCodeInserter(function);
+        while (true) {
+            final Graph graph = new Graph(function, new Liveness(function));
+            graph.coalesce();
+            final List<VirtualRegister> spilled = graph.color();
+            if (spilled.isEmpty()) {
+                return graph.getAssignment();
+            }
+            final List<VirtualRegister> split = new ArrayList<>();
+            final List<VirtualRegister> everywhere = new ArrayList<>();
+            for (final VirtualRegister r : spilled) {
+                (spiller.isSplitPiece(r) ? everywhere : split).add(r);
+            }
+            if (!split.isEmpty()) {
+                spiller.spill(split, SpillCodeInserter.Mode.SPLIT);
+            }
+            if (!everywhere.isEmpty()) {
+                spiller.spill(everywhere, SpillCodeInserter.Mode.EVERYWHERE);
+            }
+        }
+    }
+
+    /**
+     * The interference graph of a function. The nodes are the ids of the
+     * virtual registers, a coalesced node is represented by one of its
+     * members.
+     */
+    private static final class Graph {
+        private final MachineFunction function;
+        private final List<VirtualRegister> registers;
+        private final BitSet[] adjacent;
+        private final int[] parent;
+        private final boolean[] acrossCall;
+        private final boolean[] unspillable;
+        private final double[] costs;
+        private final GPRegister[] colors;
+        /** The precolored registers each node interferes with. */
+        private final BitSet[] fixedConflicts;
+        /** The index of the precolored register of a node, -1 if it has none. */
+        private final int[] precolored;
+
+        Graph(final MachineFunction function, final Liveness liveness) {
+            this.function = function;
+            this.registers = liveness.getRegisters();
+            final int n = function.getRegisterCount();
+            adjacent = new BitSet[n];
+            parent = new int[n];
+            acrossCall = new boolean[n];
+            unspillable = new boolean[n];
+            costs = liveness.spillCosts();
+            colors = new GPRegister[n];
+            fixedConflicts = new BitSet[n];
+            precolored = new int[n];
+            for (int i = 0; i < n; ++i) {
+                adjacent[i] = new BitSet();
+                parent[i] = i;
+                fixedConflicts[i] = new BitSet();
+                precolored[i] = -1;
+            }
+            for (final VirtualRegister r : registers) {
+                acrossCall[r.getId()] = liveness.isLiveAcrossCall(r);
+                unspillable[r.getId()] = !function.isSpillable(r);
+            }
+
+            final List<MachineInstruction> code = function.getCode();
+            for (int i = 0; i < code.size(); ++i) {
+                final MachineInstruction insn = code.get(i);
+                final VirtualRegister d = insn.def();
+                if (d == null || d.isPhysical()) {
+                    continue;
+                }
+                final BitSet live = liveness.getLiveOut(i);
+                final VirtualRegister source = insn.getKind() == MachineInstruction.Kind.MOVE ? insn.getLeft() : null;
+                for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+                    if (r != d.getId() && (source == null || source.getId() != r)) {
+                        adjacent[d.getId()].set(r);
+                        adjacent[r].set(d.getId());
+                    }
+                }
+            }
+            collectFixedConflicts(liveness);
+        }
+
+        /**
+         * Computes the live ranges of the precolored registers backwards
+         * through every block and records the registers which interfere with
+         * them. A return reads $v0, a call reads the arguments it passes and
+         * writes all precolored registers. If one is live into a block other
+         * than the first, it interferes with every register.
+         */
+        private void collectFixedConflicts(final Liveness liveness) {
+            final List<MachineInstruction> code = function.getCode();
+            final BitSet live = new BitSet();
+            for (int i = code.size() - 1; i >= 0; --i) {
+                final MachineInstruction insn = code.get(i);
+                if (i == code.size() - 1 || isTerminator(insn)
+                        || code.get(i + 1).getKind() == MachineInstruction.Kind.LABEL) {
+                    // The epilogue reads the result.
+                    live.clear();
+                    if (i == code.size() - 1 || insn.getLabel() == function.getExit()) {
+                        live.set(PRECOLORED.length - 1);
+                    }
+                }
+                final BitSet liveOut = liveness.getLiveOut(i);
+                final VirtualRegister d = insn.def();
+                final VirtualRegister source = insn.getKind() == MachineInstruction.Kind.MOVE ? insn.getLeft() : null;
+                if (insn.getKind() == MachineInstruction.Kind.CALL) {
+                    for (int r = liveOut.nextSetBit(0); r >= 0; r = liveOut.nextSetBit(r + 1)) {
+                        fixedConflicts[r].set(0, PRECOLORED.length);
+                    }
+                    live.clear();
+                } else if (d != null && d.isPhysical()) {
+                    final int f = indexOf(d.getPhysical());
+                    if (f >= 0) {
+                        for (int r = liveOut.nextSetBit(0); r >= 0; r = liveOut.nextSetBit(r + 1)) {
+                            if (source == null || source.getId() != r) {
+                                fixedConflicts[r].set(f);
+                            }
+                        }
+                        live.clear(f);
+                    }
+                } else if (d != null) {
+                    final int copied = source != null && source.isPhysical() ? indexOf(source.getPhysical()) : -1;
+                    for (int f = live.nextSetBit(0); f >= 0; f = live.nextSetBit(f + 1)) {
+                        if (f != copied) {
+                            fixedConflicts[d.getId()].set(f);
+                        }
+                    }
+                }
+                for (final VirtualRegister u : insn.uses()) {
+                    if (u.isPhysical() && indexOf(u.getPhysical()) >= 0) {
+                        live.set(indexOf(u.getPhysical()));
+                    }
+                }
+                final boolean blockStart = insn.getKind() == MachineInstruction.Kind.LABEL
+                        || i > 0 && isTerminator(code.get(i - 1));
+                if (blockStart && i > 0 && !live.isEmpty()) {
+                    for (final VirtualRegister r : registers) {
+                        fixedConflicts[r.getId()].or(live);
+                    }
+                }
+            }
+        }
+
+        private static boolean isTerminator(final MachineInstruction insn) {
+            return insn.getKind() == MachineInstruction.Kind.BRANCH || insn.getKind() == MachineInstruction.Kind.JUMP;
+        }
+
+        private static int indexOf(final GPRegister r) {
+            for (int f = 0; f < PRECOLORED.length; ++f) {
+                if (PRECOLORED[f] == r) {
+                    return f;
+                }
+            }
+            return -1;
+        }
+
+        private int find(final int r) {
+            int root = r;
+            while (parent[root] != root) {
+                root = parent[root];
+            }
+            return root;
+        }
+
+        /**
+         * Returns the number of registers a node may be colored with.
+         */
+        private int colorCount(final int r) {
+            return acrossCall[r] ? CallingConvention.CALLEE_SAVED.length
+                    : CallingConvention.CALLER_SAVED.length + CallingConvention.CALLEE_SAVED.length;
+        }
+
+        /**
+         * Returns true if the node may be colored with the precolored
+         * register.
+         */
+        private boolean mayPrecolor(final int r, final int f) {
+            if (fixedConflicts[r].get(f)) {
+                return false;
+            }
+            for (int c = adjacent[r].nextSetBit(0); c >= 0; c = adjacent[r].nextSetBit(c + 1)) {
+                if (precolored[c] == f) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Merges the registers of the copies while the Briggs criterion holds,
+         * and the registers copied from or to a precolored one with it.
+         */
+        void coalesce() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (final MachineInstruction insn : function.getCode()) {
+                    if (insn.getKind() != MachineInstruction.Kind.MOVE
+                            || insn.getDest().isPhysical() && insn.getLeft().isPhysical()) {
+                        continue;
+                    }
+                    if (insn.getDest().isPhysical() || insn.getLeft().isPhysical()) {
+                        final VirtualRegister fixed = insn.getDest().isPhysical() ? insn.getDest() : insn.getLeft();
+                        final VirtualRegister other = fixed == insn.getDest() ? insn.getLeft() : insn.getDest();
+                        final int f = indexOf(fixed.getPhysical());
+                        final int r = find(other.getId());
+                        if (f >= 0 && precolored[r] < 0 && mayPrecolor(r, f)) {
+                            precolored[r] = f;
+                            changed = true;
+                        }
+                        continue;
+                    }
+                    final int a = find(insn.getDest().getId());
+                    final int b = find(insn.getLeft().getId());
+                    if (a == b || adjacent[a].get(b) || unspillable[a] || unspillable[b]) {
+                        continue;
+                    }
+                    final int fixed = precolored[a] >= 0 ? precolored[a] : precolored[b];
+                    if (precolored[a] >= 0 && precolored[b] >= 0 && precolored[a] != precolored[b]
+                            || fixed >= 0 && (!mayPrecolor(a, fixed) || !mayPrecolor(b, fixed))) {
+                        continue;
+                    }
+                    final BitSet neighbors = (BitSet) adjacent[a].clone();
+                    neighbors.or(adjacent[b]);
+                    final boolean merged = acrossCall[a] || acrossCall[b];
+                    final int k = merged ? CallingConvention.CALLEE_SAVED.length
+                            : CallingConvention.CALLER_SAVED.length + CallingConvention.CALLEE_SAVED.length;
+                    int significant = 0;
+                    for (int c = neighbors.nextSetBit(0); c >= 0; c = neighbors.nextSetBit(c + 1)) {
+                        // A common neighbor loses one edge by the merge.
+                        final int degree = adjacent[c].cardinality()
+                                - (adjacent[a].get(c) && adjacent[b].get(c) ? 1 : 0);
+                        if (degree >= colorCount(c)) {
+                            ++significant;
+                        }
+                    }
+                    if (significant >= k) {
+                        continue;
+                    }
+                    parent[b] = a;
+                    for (int c = adjacent[b].nextSetBit(0); c >= 0; c = adjacent[b].nextSetBit(c + 1)) {
+                        adjacent[c].clear(b);
+                        adjacent[c].set(a);
+                    }
+                    adjacent[a].or(adjacent[b]);
+                    adjacent[b].clear();
+                    acrossCall[a] = merged;
+                    costs[a] += costs[b];
+                    fixedConflicts[a].or(fixedConflicts[b]);
+                    precolored[a] = fixed;
+                    changed = true;
+                }
+            }
+        }
+
+        /**
+         * Colors the graph.
+         *
+         * @return The registers which have to be spilled, empty if the coloring
+         *         succeeded.
+         */
+        List<VirtualRegister> color() {
+            // The precolored nodes keep their registers, which no other node
+            // may be colored with.
+            final BitSet remaining = new BitSet();
+            for (final VirtualRegister r : registers) {
+                final int root = find(r.getId());
+                if (precolored[root] >= 0) {
+                    colors[root] = PRECOLORED[precolored[root]];
+                } else {
+                    remaining.set(root);
+                }
+            }
+            final int[] degree = new int[adjacent.length];
+            for (int r = remaining.nextSetBit(0); r >= 0; r = remaining.nextSetBit(r + 1)) {
+                final BitSet neighbors = (BitSet) adjacent[r].clone();
+                neighbors.and(remaining);
+                degree[r] = neighbors.cardinality();
+            }
+
+            final Deque<Integer> stack = new ArrayDeque<>();
+            while (!remaining.isEmpty()) {
+                int next = -1;
+                for (int r = remaining.nextSetBit(0); r >= 0; r = remaining.nextSetBit(r + 1)) {
+                    if (degree[r] < colorCount(r)) {
+                        next = r;
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    double best = Double.POSITIVE_INFINITY;
+                    for (int r = remaining.nextSetBit(0); r >= 0; r = remaining.nextSetBit(r + 1)) {
+                        final double cost = unspillable[r] ? Double.MAX_VALUE : costs[r] / Math.max(degree[r], 1);
+                        if (next < 0 || cost < best) {
+                            next = r;
+                            best = cost;
+                        }
+                    }
+                }
+                remaining.clear(next);
+                stack.push(next);
+                for (int c = adjacent[next].nextSetBit(0); c >= 0; c = adjacent[next].nextSetBit(c + 1)) {
+                    --degree[c];
+                }
+            }
+
+            final BitSet failed = new BitSet();
+            while (!stack.isEmpty()) {
+                final int r = stack.pop();
+                colors[r] = pick(r);
+                if (colors[r] == null) {
+                    failed.set(r);
+                }
+            }
+
+            final List<VirtualRegister> spilled = new ArrayList<>();
+            for (int r = failed.nextSetBit(0); r >= 0; r = failed.nextSetBit(r + 1)) {
+                if (unspillable[r]) {
+                    // Make room by spilling the cheapest neighbor instead.
+                    int cheapest = -1;
+                    for (int c = adjacent[r].nextSetBit(0); c >= 0; c = adjacent[r].nextSetBit(c + 1)) {
+                        if (!unspillable[c] && precolored[c] < 0 && (cheapest < 0 || costs[c] < costs[cheapest])) {
+                            cheapest = c;
+                        }
+                    }
+                    if (cheapest < 0) {
+                        throw new IllegalStateException("no register left in " + function.getName());
+                    }
+                    addMembers(cheapest, spilled);
+                } else {
+                    addMembers(r, spilled);
+                }
+            }
+            return spilled;
+        }
+
+        private GPRegister pick(final int r) {
+            final List<GPRegister> used = new ArrayList<>();
+            for (int c = adjacent[r].nextSetBit(0); c >= 0; c = adjacent[r].nextSetBit(c + 1)) {
+                if (colors[c] != null) {
+                    used.add(colors[c]);
+                }
+            }
+            if (!acrossCall[r]) {
+                for (final GPRegister color : CallingConvention.CALLER_SAVED) {
+                    if (!used.contains(color)) {
+                        return color;
+                    }
+                }
+            }
+            for (final GPRegister color : CallingConvention.CALLEE_SAVED) {
+                if (!used.contains(color)) {
+                    return color;
+                }
+            }
+            return null;
+        }
+
+        private void addMembers(final int node, final List<VirtualRegister> spilled) {
+            for (final VirtualRegister r : registers) {
+                if (find(r.getId()) == node && !spilled.contains(r)) {
+                    spilled.add(r);
+                }
+            }
+        }
+
+        Map<VirtualRegister, GPRegister> getAssignment() {
+            final Map<VirtualRegister, GPRegister> assignment = new HashMap<>();
+            for (final VirtualRegister r : registers) {
+                assignment.put(r, colors[find(r.getId())]);
+            }
+            return assignment;
+        }
+    }
+}
@@ -0,0 +1,1087 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.optimization.ExpressionTypes;
+import tinycc.implementation.optimization.Expressions;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.mipsasmgen.BranchInstruction;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.RegisterInstruction;
+import tinycc.mipsasmgen.SpecialInstruction;
+import tinycc.mipsasmgen.SpecialRegisterInstruction;
+import tinycc.parser.Token;
+
+/**
+ * Selects the instructions of expression trees by bottom-up rewriting (BURS).
+ *
+ * An expression is turned into a tree of {@link Op}s, in which constant
+ * subtrees are folded and the expressions with control flow or side effects
+ * (calls, assignments, increments, comma, &amp;&amp;, || and ?:) are opaque
+ * leaves which {@link FunctionLowering} evaluates. Every rule of the table
+ * below rewrites an operator whose operands are reduced to the given
+ * nonterminals into a nonterminal, at a cost of the number of instructions it
+ * emits. The tree is labeled bottom-up with the cheapest rule for every
+ * nonterminal at every node, including the chain rules which convert between
+ * the nonterminals, and the cover of least total cost is then reduced top-down.
+ *
+ * The nonterminals are:
+ *
+ * - REG: the value in a register.
+ * - CONST: a constant, which the rules fold into the immediates of
+ *   {@link ImmediateInstruction}s if it is in their range.
+ * - ADDR: a pointer value as an addressing mode, a base register or stack
+ *   slot or label plus a constant offset.
+ * - MEM: an object in memory, which a {@link MemoryInstruction} accesses
+ *   with the addressing mode of its address.
+ *
+ * A condition is selected into a {@link Branch} instead of a truth value:
+ * comparisons branch on their operands directly. A conditional expression
+ * whose arms are cheap may instead select its value with a conditional move
+ * on the register the branch tests.
+ */
+final class InstructionSelector {
+    /**
+     * The nonterminals of the rules.
+     */
+    enum Goal {
+        REG, CONST, ADDR, MEM
+    }
+
+    /**
+     * The operators of the subject trees.
+     */
+    enum Op {
+        CONST, REGVAR, MEMVAR, FUNCTION, STRING, OPAQUE, ADD, SUB, MUL, DIV, MOD, SHL, SHR, AND, OR, XOR, LT, GT,
+        LE, GE, EQ, NE, NEG, NOT, COMPL, IDENTITY, DEREF, ADDR_OF, INDEX
+    }
+
+    private static final int INFINITE = Integer.MAX_VALUE;
+    private static final VirtualRegister ZERO = VirtualRegister.of(GPRegister.ZERO);
+
+    /**
+     * A node of the subject tree with its labels: the cost and the rule of
+     * the cheapest derivation of every nonterminal.
+     */
+    static final class Node {
+        final Expression expression;
+        final Op op;
+        final Node left;
+        final Node right;
+        final Type type;
+        final int value;
+        final Location variable;
+        final int[] costs = new int[Goal.values().length];
+        final Rule[] rules = new Rule[Goal.values().length];
+
+        Node(final Expression expression, final Op op, final Node left, final Node right, final Type type,
+                final int value, final Location variable) {
+            this.expression = expression;
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.type = type;
+            this.value = value;
+            this.variable = variable;
+            Arrays.fill(costs, INFINITE);
+        }
+
+        Node child(final int index) {
+            return index == 0 ? left : right;
+        }
+    }
+
+    /**
+     * A conditional branch, which compares the left with the right register
+     * or, except for beq and bne, the left register with zero.
+     */
+    static final class Branch {
+        /** The branch of a condition which always holds. */
+        static final Branch ALWAYS = new Branch(BranchInstruction.BEQ, ZERO, ZERO);
+        /** The branch of a condition which never holds. */
+        static final Branch NEVER = new Branch(BranchInstruction.BNE, ZERO, ZERO);
+
+        final BranchInstruction opcode;
+        final VirtualRegister left;
+        final VirtualRegister right;
+
+        Branch(final BranchInstruction opcode, final VirtualRegister left, final VirtualRegister right) {
+            this.opcode = opcode;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * Returns the branch which is taken if this one is not.
+         */
+        Branch negate() {
+            if (this == ALWAYS) {
+                return NEVER;
+            }
+            if (this == NEVER) {
+                return ALWAYS;
+            }
+            switch (opcode) {
+            case BEQ:
+                return new Branch(BranchInstruction.BNE, left, right);
+            case BNE:
+                return new Branch(BranchInstruction.BEQ, left, right);
+            case BLEZ:
+                return new Branch(BranchInstruction.BGTZ, left, right);
+            case BGTZ:
+                return new Branch(BranchInstruction.BLEZ, left, right);
+            case BLTZ:
+                return new Branch(BranchInstruction.BGEZ, left, right);
+            case BGEZ:
+                return new Branch(BranchInstruction.BLTZ, left, right);
+            default:
+                throw new IllegalStateException("unknown branch " + opcode);
+            }
+        }
+    }
+
+    /**
+     * The cost of a rule at a node, without its operands, or -1 if the rule
+     * does not apply.
+     */
+    private interface Cost {
+        int of(Node n);
+    }
+
+    /**
+     * Emits the instructions of a rule. Returns a VirtualRegister for REG, an
+     * Integer for CONST and a Location for ADDR and MEM.
+     */
+    private interface Reduction {
+        Object reduce(InstructionSelector s, Node n);
+    }
+
+    /**
+     * A rule goal &lt;- op(operands) or, if op is null, a chain rule
+     * goal &lt;- operand.
+     */
+    private static final class Rule {
+        final Goal goal;
+        final Op op;
+        final Goal[] operands;
+        final Cost cost;
+        final Reduction reduction;
+
+        Rule(final Goal goal, final Op op, final Goal[] operands, final Cost cost, final Reduction reduction) {
+            this.goal = goal;
+            this.op = op;
+            this.operands = operands;
+            this.cost = cost;
+            this.reduction = reduction;
+        }
+    }
+
+    private static final List<Rule> RULES = new ArrayList<>();
+    private static final List<Rule> CHAIN_RULES = new ArrayList<>();
+
+    private static void rule(final Goal goal, final Op op, final Cost cost, final Reduction reduction,
+            final Goal... operands) {
+        (op == null ? CHAIN_RULES : RULES).add(new Rule(goal, op, operands, cost, reduction));
+    }
+
+    static {
+        final Goal REG = Goal.REG;
+        final Goal CONST = Goal.CONST;
+        final Goal ADDR = Goal.ADDR;
+        final Goal MEM = Goal.MEM;
+
+        // Leaves.
+        rule(CONST, Op.CONST, n -> 0, (s, n) -> n.value);
+        rule(REG, Op.REGVAR, n -> 0, (s, n) -> n.variable.register);
+        rule(MEM, Op.MEMVAR, n -> 0, (s, n) -> n.variable);
+        rule(REG, Op.FUNCTION, n -> 1, (s, n) -> s.loadAddress(n));
+        rule(REG, Op.STRING, n -> 1, (s, n) -> s.loadAddress(n));
+        rule(REG, Op.OPAQUE, n -> 1, (s, n) -> s.lowering.evaluate(n.expression));
+
+        // Chain rules.
+        rule(REG, null, n -> constantCost(n.value), (s, n) -> s.constant(s.constantOf(n)), CONST);
+        rule(REG, null, n -> 1, (s, n) -> s.load(s.memory(n)), MEM);
+        rule(REG, null, n -> 1, (s, n) -> s.materialize(s.address(n)), ADDR);
+        rule(ADDR, null, n -> 0, (s, n) -> Location.ofAddress(pointee(n.type), s.reg(n), 0), REG);
+
+        // Addressing modes. A constant offset is folded into the address.
+        rule(ADDR, Op.ADD, n -> isPointer(n.left.type) && fitsOffset(n.right.value, n.left.type) ? 0 : -1,
+                (s, n) -> s.displace(s.address(n.left), n.right.value * size(n.left.type)), ADDR, CONST);
+        rule(ADDR, Op.ADD, n -> isPointer(n.right.type) && fitsOffset(n.left.value, n.right.type) ? 0 : -1,
+                (s, n) -> s.displace(s.address(n.right), n.left.value * size(n.right.type)), CONST, ADDR);
+        rule(ADDR, Op.SUB, n -> isPointer(n.left.type) && fitsOffset(-(long) n.right.value, n.left.type) ? 0 : -1,
+                (s, n) -> s.displace(s.address(n.left), -n.right.value * size(n.left.type)), ADDR, CONST);
+        rule(ADDR, Op.ADDR_OF, n -> 0, (s, n) -> s.memory(n.left), MEM);
+        rule(MEM, Op.DEREF, n -> 0, (s, n) -> s.address(n.left).withType(n.type), ADDR);
+        rule(MEM, Op.INDEX, n -> isPointer(n.left.type) && fitsOffset(n.right.value, n.left.type) ? 0 : -1,
+                (s, n) -> s.displace(s.address(n.left), n.right.value * size(n.left.type)).withType(n.type),
+                ADDR, CONST);
+        rule(MEM, Op.INDEX, n -> isPointer(n.right.type) && fitsOffset(n.left.value, n.right.type) ? 0 : -1,
+                (s, n) -> s.displace(s.address(n.right), n.left.value * size(n.right.type)).withType(n.type),
+                CONST, ADDR);
+        rule(MEM, Op.INDEX, n -> 1 + scaleCost(pointerSide(n)), (s, n) -> {
+            final VirtualRegister[] operands = s.regs(n);
+            return Location.ofAddress(n.type, s.pointerPlus(n, operands[0], operands[1]), 0);
+        }, REG, REG);
+
+        // Addition and subtraction, scaled for pointers.
+        rule(REG, Op.ADD, n -> 1 + scaleCost(pointerSide(n)), (s, n) -> {
+            final VirtualRegister[] operands = s.regs(n);
+            return s.pointerPlus(n, operands[0], operands[1]);
+        }, REG, REG);
+        rule(REG, Op.ADD, n -> fitsOffset(n.right.value, n.left.type) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.ADDIU, s.reg(n.left), n.right.value * size(n.left.type)),
+                REG, CONST);
+        rule(REG, Op.ADD, n -> fitsOffset(n.left.value, n.right.type) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.ADDIU, s.reg(n.right), n.left.value * size(n.right.type)),
+                CONST, REG);
+        rule(REG, Op.SUB, n -> isPointer(n.right.type) ? 1 + divideCost(n.left.type) : 1 + scaleCost(n.left.type),
+                (s, n) -> {
+                    final VirtualRegister[] operands = s.regs(n);
+                    if (isPointer(n.right.type)) {
+                        return s.divide(s.register(RegisterInstruction.SUBU, operands[0], operands[1]),
+                                size(n.left.type));
+                    }
+                    return s.register(RegisterInstruction.SUBU, operands[0], s.scale(operands[1], size(n.left.type)));
+                }, REG, REG);
+        rule(REG, Op.SUB, n -> fitsOffset(-(long) n.right.value, n.left.type) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.ADDIU, s.reg(n.left), -n.right.value * size(n.left.type)),
+                REG, CONST);
+
+        // Multiplication and division.
+        rule(REG, Op.MUL, n -> 1, (s, n) -> s.binary(RegisterInstruction.MUL, n), REG, REG);
+        rule(REG, Op.MUL, n -> isPowerOfTwo(n.right.value) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.SLL, s.reg(n.left), log2(n.right.value)), REG, CONST);
+        rule(REG, Op.MUL, n -> isPowerOfTwo(n.left.value) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.SLL, s.reg(n.right), log2(n.left.value)), CONST, REG);
+        rule(REG, Op.DIV, n -> 2, (s, n) -> s.divide(SpecialRegisterInstruction.MFLO, n), REG, REG);
+        rule(REG, Op.MOD, n -> 2, (s, n) -> s.divide(SpecialRegisterInstruction.MFHI, n), REG, REG);
+
+        // Shifts and bitwise operators.
+        rule(REG, Op.SHL, n -> 1, (s, n) -> s.binary(RegisterInstruction.SLLV, n), REG, REG);
+        rule(REG, Op.SHR, n -> 1, (s, n) -> s.binary(RegisterInstruction.SRAV, n), REG, REG);
+        rule(REG, Op.SHL, n -> fits(ImmediateInstruction.SLL, n.right.value) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.SLL, s.reg(n.left), n.right.value), REG, CONST);
+        rule(REG, Op.SHR, n -> fits(ImmediateInstruction.SRA, n.right.value) ? 1 : -1,
+                (s, n) -> s.immediate(ImmediateInstruction.SRA, s.reg(n.left), n.right.value), REG, CONST);
+        bitwise(Op.AND, RegisterInstruction.AND, ImmediateInstruction.ANDI);
+        bitwise(Op.OR, RegisterInstruction.OR, ImmediateInstruction.ORI);
+        bitwise(Op.XOR, RegisterInstruction.XOR, ImmediateInstruction.XORI);
+
+        // Comparisons. x > c is !(x < c + 1) and x <= c is x < c + 1.
+        rule(REG, Op.LT, n -> 1, (s, n) -> s.lessThan(n, false), REG, REG);
+        rule(REG, Op.GT, n -> 1, (s, n) -> s.lessThan(n, true), REG, REG);
+        rule(REG, Op.LE, n -> 2, (s, n) -> s.not(s.lessThan(n, true)), REG, REG);
+        rule(REG, Op.GE, n -> 2, (s, n) -> s.not(s.lessThan(n, false)), REG, REG);
+        rule(REG, Op.LT, n -> fits(ImmediateInstruction.SLTI, n.right.value) ? 1 : -1,
+                (s, n) -> s.lessThan(n, s.reg(n.left), n.right.value), REG, CONST);
+        rule(REG, Op.LE, n -> fitsSuccessor(n, n.right.value) ? 1 : -1,
+                (s, n) -> s.lessThan(n, s.reg(n.left), n.right.value + 1), REG, CONST);
+        rule(REG, Op.GT, n -> fitsSuccessor(n, n.right.value) ? 2 : -1,
+                (s, n) -> s.not(s.lessThan(n, s.reg(n.left), n.right.value + 1)), REG, CONST);
+        rule(REG, Op.GE, n -> fits(ImmediateInstruction.SLTI, n.right.value) ? 2 : -1,
+                (s, n) -> s.not(s.lessThan(n, s.reg(n.left), n.right.value)), REG, CONST);
+        rule(REG, Op.GT, n -> fits(ImmediateInstruction.SLTI, n.left.value) ? 1 : -1,
+                (s, n) -> s.lessThan(n, s.reg(n.right), n.left.value), CONST, REG);
+        rule(REG, Op.GE, n -> fitsSuccessor(n, n.left.value) ? 1 : -1,
+                (s, n) -> s.lessThan(n, s.reg(n.right), n.left.value + 1), CONST, REG);
+        rule(REG, Op.LT, n -> fitsSuccessor(n, n.left.value) ? 2 : -1,
+                (s, n) -> s.not(s.lessThan(n, s.reg(n.right), n.left.value + 1)), CONST, REG);
+        rule(REG, Op.LE, n -> fits(ImmediateInstruction.SLTI, n.left.value) ? 2 : -1,
+                (s, n) -> s.not(s.lessThan(n, s.reg(n.right), n.left.value)), CONST, REG);
+
+        // Equality: x == c is (x ^ c) == 0 or (x - c) == 0.
+        rule(REG, Op.EQ, n -> 2, (s, n) -> s.isZero(s.binary(RegisterInstruction.XOR, n)), REG, REG);
+        rule(REG, Op.NE, n -> 2, (s, n) -> s.isNonZero(s.binary(RegisterInstruction.XOR, n)), REG, REG);
+        equality(Op.EQ, false);
+        equality(Op.NE, true);
+
+        // Unary operators.
+        rule(REG, Op.NEG, n -> 1, (s, n) -> s.register(RegisterInstruction.SUBU, ZERO, s.reg(n.left)), REG);
+        rule(REG, Op.COMPL, n -> 1, (s, n) -> s.register(RegisterInstruction.NOR, s.reg(n.left), ZERO), REG);
+        rule(REG, Op.NOT, n -> 1, (s, n) -> s.isZero(s.reg(n.left)), REG);
+        rule(REG, Op.IDENTITY, n -> 0, (s, n) -> s.reg(n.left), REG);
+    }
+
+    private static void bitwise(final Op op, final RegisterInstruction register, final ImmediateInstruction immediate) {
+        rule(Goal.REG, op, n -> 1, (s, n) -> s.binary(register, n), Goal.REG, Goal.REG);
+        rule(Goal.REG, op, n -> fits(immediate, n.right.value) ? 1 : -1,
+                (s, n) -> s.immediate(immediate, s.reg(n.left), n.right.value), Goal.REG, Goal.CONST);
+        rule(Goal.REG, op, n -> fits(immediate, n.left.value) ? 1 : -1,
+                (s, n) -> s.immediate(immediate, s.reg(n.right), n.left.value), Goal.CONST, Goal.REG);
+    }
+
+    private static void equality(final Op op, final boolean negated) {
+        for (int side = 0; side < 2; ++side) {
+            final int constant = side;
+            final Goal[] operands = side == 0 ? new Goal[] { Goal.CONST, Goal.REG }
+                    : new Goal[] { Goal.REG, Goal.CONST };
+            rule(Goal.REG, op, n -> n.child(constant).value == 0 ? 1 : -1,
+                    (s, n) -> s.compareZero(s.reg(n.child(1 - constant)), negated), operands);
+            rule(Goal.REG, op, n -> fits(ImmediateInstruction.XORI, n.child(constant).value) ? 2 : -1,
+                    (s, n) -> s.compareZero(s.immediate(ImmediateInstruction.XORI, s.reg(n.child(1 - constant)),
+                            n.child(constant).value), negated),
+                    operands);
+            rule(Goal.REG, op, n -> fits(ImmediateInstruction.ADDIU, -(long) n.child(constant).value) ? 2 : -1,
+                    (s, n) -> s.compareZero(s.immediate(ImmediateInstruction.ADDIU, s.reg(n.child(1 - constant)),
+                            -n.child(constant).value), negated),
+                    operands);
+        }
+    }
+
+    private final FunctionLowering lowering;
+    private final MachineFunction function;
+    private final CodeGenerator generator;
+
+    InstructionSelector(final FunctionLowering lowering, final MachineFunction function,
+            final CodeGenerator generator) {
+        this.lowering = lowering;
+        this.function = function;
+        this.generator = generator;
+    }
+
+    /**
+     * Evaluates an expression into a register.
+     *
+     * @return The register which holds the value. It may be the register of a
+     *         variable, which must not be written.
+     */
+    VirtualRegister value(final Expression e) {
+        final Node n = build(e);
+        label(n);
+        return reg(n);
+    }
+
+    /**
+     * Computes the location of an lvalue in memory, null if the expression
+     * does not designate an object in memory.
+     */
+    Location location(final Expression e) {
+        final Node n = build(e);
+        label(n);
+        return n.costs[Goal.MEM.ordinal()] == INFINITE ? null : memory(n);
+    }
+
+    /**
+     * Evaluates a condition into the branch which is taken if it holds.
+     */
+    Branch condition(final Expression e) {
+        final Node n = build(e);
+        label(n);
+        return branch(n);
+    }
+
+    /**
+     * Selects between the values of two expressions by a condition without a
+     * branch: the alternative is copied into the result, which a conditional
+     * move overwrites with the consequence if the condition holds. Both
+     * expressions are evaluated, so they must be speculatable, see
+     * {@link #speculationCost(Expression)}.
+     *
+     * @param result The register to select into. It may be the register of a
+     *               variable which the condition or the expressions read.
+     * @return The result register.
+     */
+    VirtualRegister select(final Expression condition, final Expression consequence, final Expression alternative,
+            final VirtualRegister result) {
+        final Branch taken = condition(condition);
+        if (taken == Branch.ALWAYS || taken == Branch.NEVER) {
+            function.add(MachineInstruction.move(result, value(taken == Branch.ALWAYS ? consequence : alternative)));
+            return result;
+        }
+        // The branch compares with zero, or beq and bne compare two registers.
+        final VirtualRegister flag;
+        final boolean nonZero;
+        switch (taken.opcode) {
+        case BEQ:
+        case BNE:
+            flag = taken.right == ZERO ? taken.left : register(RegisterInstruction.XOR, taken.left, taken.right);
+            nonZero = taken.opcode == BranchInstruction.BNE;
+            break;
+        case BLTZ:
+        case BGEZ:
+            flag = register(RegisterInstruction.SLT, taken.left, ZERO);
+            nonZero = taken.opcode == BranchInstruction.BLTZ;
+            break;
+        case BGTZ:
+        case BLEZ:
+            flag = register(RegisterInstruction.SLT, ZERO, taken.left);
+            nonZero = taken.opcode == BranchInstruction.BGTZ;
+            break;
+        default:
+            throw new IllegalStateException("unknown branch " + taken.opcode);
+        }
+        final VirtualRegister otherwise = value(alternative);
+        final VirtualRegister then = value(consequence);
+        if (otherwise == result) {
+            conditionalMove(nonZero, result, then, flag);
+        } else if (then == result) {
+            conditionalMove(!nonZero, result, otherwise, flag);
+        } else if (flag != result) {
+            function.add(MachineInstruction.move(result, otherwise));
+            conditionalMove(nonZero, result, then, flag);
+        } else {
+            // The copy would overwrite the flag.
+            final VirtualRegister selected = function.newRegister();
+            function.add(MachineInstruction.move(selected, otherwise));
+            conditionalMove(nonZero, selected, then, flag);
+            function.add(MachineInstruction.move(result, selected));
+        }
+        return result;
+    }
+
+    private void conditionalMove(final boolean nonZero, final VirtualRegister dest, final VirtualRegister src,
+            final VirtualRegister flag) {
+        function.add(MachineInstruction.conditionalMove(nonZero ? RegisterInstruction.MOVN : RegisterInstruction.MOVZ,
+                dest, src, flag));
+    }
+
+    /**
+     * Returns the number of instructions which evaluate an expression into a
+     * register, or -1 if it must not be evaluated unless its value is used: it
+     * has side effects or control flow, reads memory through a pointer, which
+     * may be invalid, or divides, possibly by zero.
+     */
+    int speculationCost(final Expression e) {
+        final Node n = build(e);
+        label(n);
+        return isSpeculatable(n) ? n.costs[Goal.REG.ordinal()] : -1;
+    }
+
+    private static boolean isSpeculatable(final Node n) {
+        switch (n.op) {
+        case OPAQUE:
+        case DEREF:
+        case INDEX:
+        case DIV:
+        case MOD:
+            return false;
+        default:
+            return (n.left == null || isSpeculatable(n.left)) && (n.right == null || isSpeculatable(n.right));
+        }
+    }
+
+    // Building and labeling the subject tree
+
+    private Node build(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            switch (t.getKind()) {
+            case NUMBER:
+            case CHARACTER:
+                return constantNode(e, Expressions.constantValue(e));
+            case STRING:
+                return new Node(e, Op.STRING, null, null, new PointerType(ExpressionTypes.CHAR), 0, null);
+            case IDENTIFIER: {
+                final Location v = lowering.variable(t.getText());
+                if (v == null) {
+                    return new Node(e, Op.FUNCTION, null, null, lowering.typeOf(e), 0, null);
+                }
+                return new Node(e, v.isMemory() ? Op.MEMVAR : Op.REGVAR, null, null, v.type, 0, v);
+            }
+            default:
+                break;
+            }
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            switch (u.getOperator().getKind()) {
+            case PLUS:
+                return unary(e, Op.IDENTITY, build(u.getOperand()));
+            case MINUS:
+                return unary(e, Op.NEG, build(u.getOperand()));
+            case TILDE:
+                return unary(e, Op.COMPL, build(u.getOperand()));
+            case BANG:
+                return unary(e, Op.NOT, build(u.getOperand()));
+            case SIZEOF:
+                return constantNode(e, Math.max(ExpressionTypes.sizeOf(lowering.typeOf(u.getOperand())), 1));
+            case AND: {
+                final Node operand = build(u.getOperand());
+                // The address of a function is the function designator itself.
+                return operand.op == Op.FUNCTION ? operand
+                        : new Node(e, Op.ADDR_OF, operand, null, new PointerType(operand.type), 0, null);
+            }
+            case ASTERISK: {
+                final Node operand = build(u.getOperand());
+                final Type type = pointee(operand.type);
+                // Dereferencing a function pointer yields the function designator.
+                return type instanceof FunctionType ? operand : new Node(e, Op.DEREF, operand, null, type, 0, null);
+            }
+            default:
+                break;
+            }
+        } else if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            final Op op = binaryOp(b);
+            if (op != null) {
+                final Node left = build(b.getLeft());
+                final Node right = build(b.getRight());
+                return binary(e, op, left, right);
+            }
+        }
+        return new Node(e, Op.OPAQUE, null, null, lowering.typeOf(e), 0, null);
+    }
+
+    private static Op binaryOp(final BinaryExpression b) {
+        switch (b.getOperator().getKind()) {
+        case PLUS:
+            return Op.ADD;
+        case MINUS:
+            return Op.SUB;
+        case ASTERISK:
+            return Op.MUL;
+        case SLASH:
+            return Op.DIV;
+        case PERCENT:
+            return Op.MOD;
+        case LESS_LESS:
+            return Op.SHL;
+        case GREATER_GREATER:
+            return Op.SHR;
+        case AND:
+            return Op.AND;
+        case PIPE:
+            return Op.OR;
+        case HAT:
+            return Op.XOR;
+        case LESS:
+            return Op.LT;
+        case GREATER:
+            return Op.GT;
+        case LESS_EQUAL:
+            return Op.LE;
+        case GREATER_EQUAL:
+            return Op.GE;
+        case EQUAL_EQUAL:
+            return Op.EQ;
+        case BANG_EQUAL:
+            return Op.NE;
+        case LBRACKET:
+            return Op.INDEX;
+        default:
+            return null;
+        }
+    }
+
+    private static Node constantNode(final Expression e, final int value) {
+        return new Node(e, Op.CONST, null, null, ExpressionTypes.INT, value, null);
+    }
+
+    private static Node unary(final Expression e, final Op op, final Node operand) {
+        if (operand.op == Op.CONST) {
+            switch (op) {
+            case IDENTITY:
+                return constantNode(e, operand.value);
+            case NEG:
+                return constantNode(e, -operand.value);
+            case COMPL:
+                return constantNode(e, ~operand.value);
+            case NOT:
+                return constantNode(e, operand.value == 0 ? 1 : 0);
+            default:
+                break;
+            }
+        }
+        return new Node(e, op, operand, null, op == Op.IDENTITY ? operand.type : ExpressionTypes.INT, 0, null);
+    }
+
+    private static Node binary(final Expression e, final Op op, final Node left, final Node right) {
+        final Type type;
+        switch (op) {
+        case ADD:
+            type = isPointer(left.type) ? left.type : isPointer(right.type) ? right.type : ExpressionTypes.INT;
+            break;
+        case SUB:
+            type = isPointer(left.type) && !isPointer(right.type) ? left.type : ExpressionTypes.INT;
+            break;
+        case INDEX:
+            type = pointee(isPointer(left.type) ? left.type : right.type);
+            break;
+        default:
+            type = ExpressionTypes.INT;
+            break;
+        }
+        if (left.op == Op.CONST && right.op == Op.CONST) {
+            final Integer folded = fold(op, left.value, right.value);
+            if (folded != null) {
+                return constantNode(e, folded);
+            }
+        }
+        return new Node(e, op, left, right, type, 0, null);
+    }
+
+    /**
+     * Folds an operator with constant operands, null if it cannot be folded.
+     */
+    private static Integer fold(final Op op, final int a, final int b) {
+        switch (op) {
+        case ADD:
+            return a + b;
+        case SUB:
+            return a - b;
+        case MUL:
+            return a * b;
+        case DIV:
+            return b == 0 ? null : a / b;
+        case MOD:
+            return b == 0 ? null : a % b;
+        case SHL:
+            return a << b;
+        case SHR:
+            return a >> b;
+        case AND:
+            return a & b;
+        case OR:
+            return a | b;
+        case XOR:
+            return a ^ b;
+        case LT:
+            return a < b ? 1 : 0;
+        case GT:
+            return a > b ? 1 : 0;
+        case LE:
+            return a <= b ? 1 : 0;
+        case GE:
+            return a >= b ? 1 : 0;
+        case EQ:
+            return a == b ? 1 : 0;
+        case NE:
+            return a != b ? 1 : 0;
+        default:
+            return null;
+        }
+    }
+
+    private static void label(final Node n) {
+        if (n.left != null) {
+            label(n.left);
+        }
+        if (n.right != null) {
+            label(n.right);
+        }
+        labelNode(n);
+    }
+
+    /**
+     * Labels a node whose operands are labeled.
+     */
+    private static void labelNode(final Node n) {
+        for (final Rule r : RULES) {
+            if (r.op != n.op) {
+                continue;
+            }
+            long cost = 0;
+            for (int i = 0; i < r.operands.length; ++i) {
+                cost += n.child(i).costs[r.operands[i].ordinal()];
+            }
+            if (cost >= INFINITE) {
+                continue;
+            }
+            final int own = r.cost.of(n);
+            if (own >= 0) {
+                record(n, r, cost + own);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Rule r : CHAIN_RULES) {
+                final int from = n.costs[r.operands[0].ordinal()];
+                if (from == INFINITE) {
+                    continue;
+                }
+                final int own = r.cost.of(n);
+                if (own >= 0 && record(n, r, (long) from + own)) {
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static boolean record(final Node n, final Rule r, final long cost) {
+        final int goal = r.goal.ordinal();
+        if (cost >= n.costs[goal]) {
+            return false;
+        }
+        n.costs[goal] = (int) cost;
+        n.rules[goal] = r;
+        return true;
+    }
+
+    // Reducing the cover
+
+    private Object reduce(final Node n, final Goal goal) {
+        final Rule r = n.rules[goal.ordinal()];
+        if (r == null) {
+            throw new IllegalStateException("no instructions for " + n.expression + " as " + goal);
+        }
+        return r.reduction.reduce(this, n);
+    }
+
+    /**
+     * Selects the branch of a condition at the root of the tree. A comparison
+     * with zero is a single branch, other comparisons set a flag with the
+     * cheaper one of their own form and their complement.
+     */
+    private Branch branch(final Node n) {
+        switch (n.op) {
+        case CONST:
+            return n.value != 0 ? Branch.ALWAYS : Branch.NEVER;
+        case NOT:
+            return branch(n.left).negate();
+        case EQ:
+        case NE: {
+            final VirtualRegister[] operands = regs(n);
+            return new Branch(n.op == Op.EQ ? BranchInstruction.BEQ : BranchInstruction.BNE, operands[0],
+                    operands[1]);
+        }
+        case LT:
+        case GT:
+        case LE:
+        case GE: {
+            if (!isUnsigned(n) && n.right.op == Op.CONST && n.right.value == 0) {
+                return new Branch(signedZeroBranch(n.op), reg(n.left), ZERO);
+            }
+            if (!isUnsigned(n) && n.left.op == Op.CONST && n.left.value == 0) {
+                return new Branch(signedZeroBranch(mirror(n.op)), reg(n.right), ZERO);
+            }
+            final Node complement = new Node(n.expression, complement(n.op), n.left, n.right, n.type, 0, null);
+            labelNode(complement);
+            if (complement.costs[Goal.REG.ordinal()] < n.costs[Goal.REG.ordinal()]) {
+                return new Branch(BranchInstruction.BEQ, reg(complement), ZERO);
+            }
+            return new Branch(BranchInstruction.BNE, reg(n), ZERO);
+        }
+        default:
+            return new Branch(BranchInstruction.BNE, reg(n), ZERO);
+        }
+    }
+
+    private VirtualRegister reg(final Node n) {
+        return (VirtualRegister) reduce(n, Goal.REG);
+    }
+
+    private int constantOf(final Node n) {
+        return (Integer) reduce(n, Goal.CONST);
+    }
+
+    private Location address(final Node n) {
+        return (Location) reduce(n, Goal.ADDR);
+    }
+
+    private Location memory(final Node n) {
+        return (Location) reduce(n, Goal.MEM);
+    }
+
+    /**
+     * Reduces both operands to registers, the one which needs more registers
+     * first.
+     */
+    private VirtualRegister[] regs(final Node n) {
+        if (lowering.evaluateRightFirst(n.left.expression, n.right.expression)) {
+            final VirtualRegister right = reg(n.right);
+            return new VirtualRegister[] { reg(n.left), right };
+        }
+        final VirtualRegister left = reg(n.left);
+        return new VirtualRegister[] { left, reg(n.right) };
+    }
+
+    // Emitting
+
+    private VirtualRegister register(final RegisterInstruction op, final VirtualRegister left,
+            final VirtualRegister right) {
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.register(op, d, left, right));
+        return d;
+    }
+
+    private VirtualRegister binary(final RegisterInstruction op, final Node n) {
+        final VirtualRegister[] operands = regs(n);
+        return register(op, operands[0], operands[1]);
+    }
+
+    private VirtualRegister immediate(final ImmediateInstruction op, final VirtualRegister left, final int imm) {
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.immediate(op, d, left, imm));
+        return d;
+    }
+
+    private VirtualRegister constant(final int value) {
+        if (value == 0) {
+            return ZERO;
+        }
+        if (fits(ImmediateInstruction.ADDIU, value)) {
+            return immediate(ImmediateInstruction.ADDIU, ZERO, value);
+        }
+        if (fits(ImmediateInstruction.ORI, value)) {
+            return immediate(ImmediateInstruction.ORI, ZERO, value);
+        }
+        final VirtualRegister high = immediate(ImmediateInstruction.LUI, ZERO, value >>> 16);
+        return (value & 0xffff) == 0 ? high : immediate(ImmediateInstruction.ORI, high, value & 0xffff);
+    }
+
+    private VirtualRegister load(final Location l) {
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.load(FunctionLowering.loadOf(l.type), d, l.base, l.label, l.offset, l.slot));
+        return d;
+    }
+
+    private VirtualRegister loadAddress(final Node n) {
+        final Token t = ((PrimaryExpression) n.expression).getToken();
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.load(MemoryInstruction.LA, d, null,
+                n.op == Op.STRING ? generator.stringLabel(t.getText()) : generator.functionLabel(t.getText()), 0,
+                null));
+        return d;
+    }
+
+    /**
+     * Computes an address into a register.
+     */
+    private VirtualRegister materialize(final Location l) {
+        if (l.slot != null) {
+            final VirtualRegister d = function.newRegister();
+            function.add(MachineInstruction.frameAddress(d, l.slot, l.offset));
+            return d;
+        }
+        if (l.label != null) {
+            final VirtualRegister d = function.newRegister();
+            function.add(MachineInstruction.load(MemoryInstruction.LA, d, l.base, l.label, l.offset, null));
+            return d;
+        }
+        return l.offset == 0 ? l.base : immediate(ImmediateInstruction.ADDIU, l.base, l.offset);
+    }
+
+    /**
+     * Returns the memory at the given distance from a location. If the offset
+     * leaves the range of the addressing mode, the address is materialized.
+     */
+    private Location displace(final Location l, final int bytes) {
+        if (fits(ImmediateInstruction.ADDIU, (long) l.offset + bytes)) {
+            return l.plus(bytes);
+        }
+        return Location.ofAddress(l.type, materialize(l), bytes);
+    }
+
+    /**
+     * Adds a pointer and a scaled index, or two integers.
+     */
+    private VirtualRegister pointerPlus(final Node n, final VirtualRegister left, final VirtualRegister right) {
+        if (isPointer(n.left.type)) {
+            return register(RegisterInstruction.ADDU, left, scale(right, size(n.left.type)));
+        }
+        if (isPointer(n.right.type)) {
+            return register(RegisterInstruction.ADDU, scale(left, size(n.right.type)), right);
+        }
+        return register(RegisterInstruction.ADDU, left, right);
+    }
+
+    /**
+     * Multiplies an index by the size of the elements.
+     */
+    private VirtualRegister scale(final VirtualRegister index, final int size) {
+        if (size == 1) {
+            return index;
+        }
+        if (isPowerOfTwo(size)) {
+            return immediate(ImmediateInstruction.SLL, index, log2(size));
+        }
+        return register(RegisterInstruction.MUL, index, constant(size));
+    }
+
+    /**
+     * Divides a pointer difference by the size of the elements. The difference
+     * is a multiple of the size, so a power of two is an arithmetic shift.
+     */
+    private VirtualRegister divide(final VirtualRegister difference, final int size) {
+        if (size == 1) {
+            return difference;
+        }
+        if (isPowerOfTwo(size)) {
+            return immediate(ImmediateInstruction.SRA, difference, log2(size));
+        }
+        function.add(MachineInstruction.special(SpecialInstruction.DIV, difference, constant(size)));
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.moveFrom(SpecialRegisterInstruction.MFLO, d));
+        return d;
+    }
+
+    private VirtualRegister divide(final SpecialRegisterInstruction result, final Node n) {
+        final VirtualRegister[] operands = regs(n);
+        function.add(MachineInstruction.special(SpecialInstruction.DIV, operands[0], operands[1]));
+        final VirtualRegister d = function.newRegister();
+        function.add(MachineInstruction.moveFrom(result, d));
+        return d;
+    }
+
+    private VirtualRegister lessThan(final Node n, final boolean swapped) {
+        final VirtualRegister[] operands = regs(n);
+        final RegisterInstruction op = isUnsigned(n) ? RegisterInstruction.SLTU : RegisterInstruction.SLT;
+        return swapped ? register(op, operands[1], operands[0]) : register(op, operands[0], operands[1]);
+    }
+
+    private VirtualRegister lessThan(final Node n, final VirtualRegister left, final int imm) {
+        return immediate(isUnsigned(n) ? ImmediateInstruction.SLTIU : ImmediateInstruction.SLTI, left, imm);
+    }
+
+    private VirtualRegister not(final VirtualRegister flag) {
+        return immediate(ImmediateInstruction.XORI, flag, 1);
+    }
+
+    private VirtualRegister isZero(final VirtualRegister value) {
+        return immediate(ImmediateInstruction.SLTIU, value, 1);
+    }
+
+    private VirtualRegister isNonZero(final VirtualRegister value) {
+        return register(RegisterInstruction.SLTU, ZERO, value);
+    }
+
+    private VirtualRegister compareZero(final VirtualRegister value, final boolean negated) {
+        return negated ? isNonZero(value) : isZero(value);
+    }
+
+    // Costs and types
+
+    private static int constantCost(final int value) {
+        if (value == 0) {
+            return 0;
+        }
+        return fits(ImmediateInstruction.ADDIU, value) || fits(ImmediateInstruction.ORI, value) ? 1 : 2;
+    }
+
+    private static int scaleCost(final Type pointer) {
+        if (!isPointer(pointer)) {
+            return 0;
+        }
+        final int size = size(pointer);
+        return size == 1 ? 0 : isPowerOfTwo(size) ? 1 : 2;
+    }
+
+    private static int divideCost(final Type pointer) {
+        final int size = size(pointer);
+        return size == 1 ? 0 : isPowerOfTwo(size) ? 1 : 3;
+    }
+
+    /**
+     * Returns the pointer operand of an addition or index, null for integers.
+     */
+    private static Type pointerSide(final Node n) {
+        return isPointer(n.left.type) ? n.left.type : isPointer(n.right.type) ? n.right.type : null;
+    }
+
+    /**
+     * Returns the branch which compares a signed value with zero.
+     */
+    private static BranchInstruction signedZeroBranch(final Op op) {
+        switch (op) {
+        case LT:
+            return BranchInstruction.BLTZ;
+        case GT:
+            return BranchInstruction.BGTZ;
+        case LE:
+            return BranchInstruction.BLEZ;
+        case GE:
+            return BranchInstruction.BGEZ;
+        default:
+            throw new IllegalArgumentException("not a comparison: " + op);
+        }
+    }
+
+    /**
+     * Returns the comparison with swapped operands.
+     */
+    private static Op mirror(final Op op) {
+        switch (op) {
+        case LT:
+            return Op.GT;
+        case GT:
+            return Op.LT;
+        case LE:
+            return Op.GE;
+        case GE:
+            return Op.LE;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * Returns the comparison which holds if the given one does not.
+     */
+    private static Op complement(final Op op) {
+        switch (op) {
+        case LT:
+            return Op.GE;
+        case GT:
+            return Op.LE;
+        case LE:
+            return Op.GT;
+        case GE:
+            return Op.LT;
+        case EQ:
+            return Op.NE;
+        case NE:
+            return Op.EQ;
+        default:
+            throw new IllegalArgumentException("not a comparison: " + op);
+        }
+    }
+
+    /**
+     * Returns true if c + 1 fits the immediate of a slti or sltiu, which
+     * compares with c + 1 instead of c. The unsigned maximum has no successor.
+     */
+    private static boolean fitsSuccessor(final Node n, final int c) {
+        return fits(ImmediateInstruction.SLTI, c + 1L) && !(isUnsigned(n) && c == -1);
+    }
+
+    private static boolean isUnsigned(final Node n) {
+        return isPointer(n.left.type) || isPointer(n.right.type);
+    }
+
+    private static boolean fits(final ImmediateInstruction op, final long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE && op.getRange().inRange((int) value);
+    }
+
+    /**
+     * Returns true if the constant index, scaled for a pointer type, fits the
+     * offset of an addiu or a memory access.
+     */
+    private static boolean fitsOffset(final long index, final Type type) {
+        return fits(ImmediateInstruction.ADDIU, index * (isPointer(type) ? size(type) : 1));
+    }
+
+    private static boolean isPointer(final Type t) {
+        return t instanceof PointerType;
+    }
+
+    private static Type pointee(final Type t) {
+        return ExpressionTypes.pointee(t);
+    }
+
+    /**
+     * Returns the size of the elements a pointer points to, 1 for void and
+     * for integers.
+     */
+    private static int size(final Type pointer) {
+        return isPointer(pointer) ? Math.max(ExpressionTypes.sizeOf(pointee(pointer)), 1) : 1;
+    }
+
+    private static boolean isPowerOfTwo(final int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    private static int log2(final int value) {
+        return Integer.numberOfTrailingZeros(value);
+    }
+}
@@ -0,0 +1,115 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.mipsasmgen.GPRegister;
+
+/**
+ * Allocates registers by a linear scan over the live intervals (Poletto and
+ * Sarkar), which is fast and used below -O2.
+ *
+ * The intervals are visited by increasing start. An interval gets a register
+ * which is not held by an interval overlapping it, preferring the
+ * caller-saved registers unless it is live across a call. If none is free,
+ * the overlapping interval which ends last is spilled, which may be the
+ * current one. The spilled registers are reloaded before every use and the
+ * scan is repeated.
+ */
+public final class LinearScanAllocator implements RegisterAllocator {
+    @Override
+    public Map<VirtualRegister, GPRegister> allocate(final MachineFunction function) {
+        final SpillCodeInserter spiller = new SpillCodeInserter(function);
+        while (true) {
+            final Liveness liveness = new Liveness(function);
+            final List<VirtualRegister> spilled = new ArrayList<>();
+            final Map<VirtualRegister, GPRegister> assignment = scan(function, liveness, spilled);
+            if (spilled.isEmpty()) {
+                return assignment;
+            }
+            spiller.spill(spilled, SpillCodeInserter.Mode.EVERYWHERE);
+        }
+    }
+
+    private static Map<VirtualRegister, GPRegister> scan(final MachineFunction function, final Liveness liveness,
+            final List<VirtualRegister> spilled) {
+        final List<VirtualRegister> intervals = liveness.getRegisters();
+        intervals.sort(Comparator.comparingInt(liveness::getStart));
+
+        final Map<VirtualRegister, GPRegister> assignment = new HashMap<>();
+        final Map<GPRegister, VirtualRegister> holder = new HashMap<>();
+        final List<VirtualRegister> active = new ArrayList<>();
+        for (final VirtualRegister current : intervals) {
+            final int start = liveness.getStart(current);
+            // The register of an interval which ends where the current one is
+            // defined may be reused, as the instruction reads its operands
+            // before it writes the result.
+            final boolean defined = function.getCode().get(start).def() == current;
+            active.removeIf(r -> {
+                final int end = liveness.getEnd(r);
+                if (end < start || end == start && defined) {
+                    holder.remove(assignment.get(r));
+                    return true;
+                }
+                return false;
+            });
+
+            final boolean acrossCall = liveness.isLiveAcrossCall(current);
+            final GPRegister free = findFree(holder, acrossCall);
+            if (free != null) {
+                assign(current, free, assignment, holder, active);
+                continue;
+            }
+
+            // Spill the interval which ends last among those whose register
+            // the current one could take.
+            VirtualRegister victim = function.isSpillable(current) ? current : null;
+            for (final VirtualRegister r : active) {
+                if (!function.isSpillable(r) || acrossCall && !CallingConvention.isCalleeSaved(assignment.get(r))) {
+                    continue;
+                }
+                if (victim == null || liveness.getEnd(r) > liveness.getEnd(victim)) {
+                    victim = r;
+                }
+            }
+            if (victim == null) {
+                throw new IllegalStateException("no register left for " + current + " in " + function.getName());
+            }
+            spilled.add(victim);
+            if (victim != current) {
+                final GPRegister register = assignment.remove(victim);
+                active.remove(victim);
+                holder.remove(register);
+                assign(current, register, assignment, holder, active);
+            }
+        }
+        return assignment;
+    }
+
+    private static GPRegister findFree(final Map<GPRegister, VirtualRegister> holder, final boolean acrossCall) {
+        if (!acrossCall) {
+            for (final GPRegister r : CallingConvention.CALLER_SAVED) {
+                if (!holder.containsKey(r)) {
+                    return r;
+                }
+            }
+        }
+        for (final GPRegister r : CallingConvention.CALLEE_SAVED) {
+            if (!holder.containsKey(r)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private static void assign(final VirtualRegister r, final GPRegister register,
+            final Map<VirtualRegister, GPRegister> assignment, final Map<GPRegister, VirtualRegister> holder,
+            final List<VirtualRegister> active) {
+        assignment.put(r, register);
+        holder.put(register, r);
+        active.add(r);
+    }
+}
@@ -0,0 +1,294 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.mipsasmgen.Label;
+
+/**
+ * Computes which virtual registers are live after every instruction of a
+ * function, shared by the register allocators and the spill code insertion.
+ *
+ * The instructions are split into basic blocks at labels and after branches
+ * and jumps, the live registers at the block boundaries are computed by the
+ * usual backward data-flow iteration and then propagated through the blocks.
+ * Physical registers are not tracked.
+ *
+ * Besides the live sets it provides the live interval of every register in
+ * the linear order of the instructions, the registers which are live across a
+ * call and therefore need a callee-saved register, and the loop depth of every
+ * instruction, which weights the spill costs.
+ */
+public final class Liveness {
+    private final List<MachineInstruction> code;
+    private final VirtualRegister[] registers;
+    private final BitSet[] liveOut;
+    private final BitSet acrossCall = new BitSet();
+    private final int[] loopDepth;
+    private final int[] start;
+    private final int[] end;
+
+    /**
+     * Analyzes the function.
+     */
+    public Liveness(final MachineFunction function) {
+        code = function.getCode();
+        final int n = code.size();
+        registers = new VirtualRegister[function.getRegisterCount()];
+        for (final MachineInstruction insn : code) {
+            for (final VirtualRegister r : insn.uses()) {
+                record(r);
+            }
+            record(insn.def());
+        }
+
+        // Split the code into basic blocks.
+        final List<Integer> leaders = new ArrayList<>();
+        final Map<Label, Integer> blockOf = new IdentityHashMap<>();
+        for (int i = 0; i < n; ++i) {
+            final MachineInstruction insn = code.get(i);
+            final boolean leader = i == 0 || insn.getKind() == MachineInstruction.Kind.LABEL
+                    || isTerminator(code.get(i - 1));
+            if (leader) {
+                leaders.add(i);
+            }
+            if (insn.getKind() == MachineInstruction.Kind.LABEL) {
+                blockOf.put(insn.getLabel(), leaders.size() - 1);
+            }
+        }
+        final int blocks = leaders.size();
+        final int[] first = new int[blocks];
+        final int[] last = new int[blocks];
+        for (int b = 0; b < blocks; ++b) {
+            first[b] = leaders.get(b);
+            last[b] = b + 1 < blocks ? leaders.get(b + 1) : n;
+        }
+
+        final List<List<Integer>> successors = new ArrayList<>();
+        final BitSet[] use = new BitSet[blocks];
+        final BitSet[] def = new BitSet[blocks];
+        for (int b = 0; b < blocks; ++b) {
+            final List<Integer> succ = new ArrayList<>();
+            final MachineInstruction terminator = code.get(last[b] - 1);
+            if (terminator.getKind() == MachineInstruction.Kind.BRANCH
+                    || terminator.getKind() == MachineInstruction.Kind.JUMP) {
+                final Integer target = blockOf.get(terminator.getLabel());
+                if (target != null) {
+                    succ.add(target);
+                }
+            }
+            if (terminator.fallsThrough() && b + 1 < blocks) {
+                succ.add(b + 1);
+            }
+            successors.add(succ);
+
+            use[b] = new BitSet();
+            def[b] = new BitSet();
+            for (int i = first[b]; i < last[b]; ++i) {
+                final MachineInstruction insn = code.get(i);
+                for (final VirtualRegister r : insn.uses()) {
+                    if (!r.isPhysical() && !def[b].get(r.getId())) {
+                        use[b].set(r.getId());
+                    }
+                }
+                final VirtualRegister d = insn.def();
+                if (d != null && !d.isPhysical()) {
+                    def[b].set(d.getId());
+                }
+            }
+        }
+
+        final BitSet[] blockIn = new BitSet[blocks];
+        final BitSet[] blockOut = new BitSet[blocks];
+        for (int b = 0; b < blocks; ++b) {
+            blockIn[b] = (BitSet) use[b].clone();
+            blockOut[b] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; --b) {
+                final BitSet out = new BitSet();
+                for (final int s : successors.get(b)) {
+                    out.or(blockIn[s]);
+                }
+                if (!out.equals(blockOut[b])) {
+                    blockOut[b] = out;
+                    final BitSet in = (BitSet) out.clone();
+                    in.andNot(def[b]);
+                    in.or(use[b]);
+                    blockIn[b] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        liveOut = new BitSet[n];
+        for (int b = 0; b < blocks; ++b) {
+            final BitSet live = (BitSet) blockOut[b].clone();
+            for (int i = last[b] - 1; i >= first[b]; --i) {
+                final MachineInstruction insn = code.get(i);
+                liveOut[i] = (BitSet) live.clone();
+                final VirtualRegister d = insn.def();
+                if (d != null && !d.isPhysical()) {
+                    live.clear(d.getId());
+                }
+                for (final VirtualRegister r : insn.uses()) {
+                    if (!r.isPhysical()) {
+                        live.set(r.getId());
+                    }
+                }
+            }
+        }
+
+        // A jump backwards closes a loop around the instructions in between.
+        loopDepth = new int[n];
+        final Map<Label, Integer> labelIndex = new IdentityHashMap<>();
+        for (int i = 0; i < n; ++i) {
+            final MachineInstruction insn = code.get(i);
+            if (insn.getKind() == MachineInstruction.Kind.LABEL) {
+                labelIndex.put(insn.getLabel(), i);
+            } else if (insn.getKind() == MachineInstruction.Kind.BRANCH
+                    || insn.getKind() == MachineInstruction.Kind.JUMP) {
+                final Integer target = labelIndex.get(insn.getLabel());
+                if (target != null) {
+                    for (int k = target; k <= i; ++k) {
+                        ++loopDepth[k];
+                    }
+                }
+            }
+        }
+
+        start = new int[registers.length];
+        end = new int[registers.length];
+        Arrays.fill(start, -1);
+        for (int i = 0; i < n; ++i) {
+            final MachineInstruction insn = code.get(i);
+            // A register is live at an instruction if it is used by it, defined
+            // by it or live after it. Registers live before the first
+            // instruction, e.g. uninitialized variables, start there.
+            for (final VirtualRegister r : insn.uses()) {
+                if (!r.isPhysical()) {
+                    extend(r.getId(), i);
+                }
+            }
+            final VirtualRegister d = insn.def();
+            if (d != null && !d.isPhysical()) {
+                extend(d.getId(), i);
+            }
+            for (int r = liveOut[i].nextSetBit(0); r >= 0; r = liveOut[i].nextSetBit(r + 1)) {
+                extend(r, i);
+            }
+            if (insn.getKind() == MachineInstruction.Kind.CALL) {
+                acrossCall.or(liveOut[i]);
+            }
+        }
+        if (n > 0 && !blockIn[0].isEmpty()) {
+            for (int r = blockIn[0].nextSetBit(0); r >= 0; r = blockIn[0].nextSetBit(r + 1)) {
+                extend(r, 0);
+            }
+        }
+    }
+
+    private void record(final VirtualRegister r) {
+        if (r != null && !r.isPhysical()) {
+            registers[r.getId()] = r;
+        }
+    }
+
+    private void extend(final int r, final int i) {
+        if (start[r] < 0 || i < start[r]) {
+            start[r] = i;
+        }
+        end[r] = Math.max(end[r], i);
+    }
+
+    private static boolean isTerminator(final MachineInstruction insn) {
+        return insn.getKind() == MachineInstruction.Kind.BRANCH || insn.getKind() == MachineInstruction.Kind.JUMP;
+    }
+
+    /**
+     * Returns the virtual registers of the function which occur in the code.
+     */
+    public List<VirtualRegister> getRegisters() {
+        final List<VirtualRegister> result = new ArrayList<>();
+        for (final VirtualRegister r : registers) {
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the registers live after the instruction. The set
+     * must not be modified.
+     */
+    public BitSet getLiveOut(final int index) {
+        return liveOut[index];
+    }
+
+    /**
+     * Returns the register with the given id.
+     */
+    public VirtualRegister getRegister(final int id) {
+        return registers[id];
+    }
+
+    /**
+     * Returns true if the register is live across a call, so it must not be
+     * kept in a caller-saved register.
+     */
+    public boolean isLiveAcrossCall(final VirtualRegister r) {
+        return acrossCall.get(r.getId());
+    }
+
+    /**
+     * Returns the index of the first instruction at which the register is
+     * live.
+     */
+    public int getStart(final VirtualRegister r) {
+        return start[r.getId()];
+    }
+
+    /**
+     * Returns the index of the last instruction at which the register is
+     * live.
+     */
+    public int getEnd(final VirtualRegister r) {
+        return end[r.getId()];
+    }
+
+    /**
+     * Returns the number of loops around the instruction.
+     */
+    public int getLoopDepth(final int index) {
+        return loopDepth[index];
+    }
+
+    /**
+     * Returns the estimated cost of spilling the register: its uses and
+     * definitions, each weighted by 10 per enclosing loop.
+     */
+    public double[] spillCosts() {
+        final double[] costs = new double[registers.length];
+        for (int i = 0; i < code.size(); ++i) {
+            final MachineInstruction insn = code.get(i);
+            final double weight = Math.pow(10, Math.min(loopDepth[i], 6));
+            for (final VirtualRegister r : insn.uses()) {
+                if (!r.isPhysical()) {
+                    costs[r.getId()] += weight;
+                }
+            }
+            final VirtualRegister d = insn.def();
+            if (d != null && !d.isPhysical()) {
+                costs[d.getId()] += weight;
+            }
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,63 @@
+package tinycc.implementation.codegen;
+
+import tinycc.implementation.type.Type;
+import tinycc.mipsasmgen.Label;
+
+/**
+ * The object an lvalue designates: a variable in a register, or memory at the
+ * sum of the label, the offset and the base register or stack slot, which is
+ * the addressing mode of a load or store.
+ */
+final class Location {
+    final Type type;
+    final VirtualRegister register;
+    final VirtualRegister base;
+    final Label label;
+    final StackSlot slot;
+    final int offset;
+
+    Location(final Type type, final VirtualRegister register, final VirtualRegister base, final Label label,
+            final StackSlot slot, final int offset) {
+        this.type = type;
+        this.register = register;
+        this.base = base;
+        this.label = label;
+        this.slot = slot;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the location of a register variable.
+     */
+    static Location ofRegister(final Type type, final VirtualRegister register) {
+        return new Location(type, register, null, null, null, 0);
+    }
+
+    /**
+     * Returns the location at the address in a register.
+     */
+    static Location ofAddress(final Type type, final VirtualRegister base, final int offset) {
+        return new Location(type, null, base, null, null, offset);
+    }
+
+    /**
+     * Returns true if the location is in memory.
+     */
+    boolean isMemory() {
+        return register == null;
+    }
+
+    /**
+     * Returns the same memory with a different type.
+     */
+    Location withType(final Type type) {
+        return new Location(type, register, base, label, slot, offset);
+    }
+
+    /**
+     * Returns the memory at the given distance in bytes.
+     */
+    Location plus(final int bytes) {
+        return new Location(type, register, base, label, slot, offset + bytes);
+    }
+}
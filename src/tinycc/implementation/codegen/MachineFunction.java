@@ -0,0 +1,226 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.JumpRegisterInstruction;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.TextLabel;
+
+/**
+ * The code of a function in virtual registers, together with its stack slots.
+ *
+ * The frame of a function looks as follows, from $sp upwards:
+ *
+ * - the words of the arguments it passes on the stack,
+ * - its stack slots,
+ * - the callee-saved registers it writes,
+ * - $ra if it calls a function.
+ *
+ * The parameters passed on the stack follow in the frame of the caller.
+ */
+public final class MachineFunction {
+    private final String name;
+    private final TextLabel entry;
+    private final TextLabel exit;
+    private final List<MachineInstruction> code = new ArrayList<>();
+    private final List<StackSlot> slots = new ArrayList<>();
+    private final Set<VirtualRegister> unspillable = new HashSet<>();
+    private int registers = 0;
+    private int outgoingWords = 0;
+    private boolean calls = false;
+
+    /**
+     * Creates an empty function.
+     *
+     * @param name  The name of the function.
+     * @param entry The label of the function.
+     * @param exit  The label of the epilogue, to which a return jumps.
+     */
+    public MachineFunction(final String name, final TextLabel entry, final TextLabel exit) {
+        this.name = name;
+        this.entry = entry;
+        this.exit = exit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the label of the epilogue.
+     */
+    public TextLabel getExit() {
+        return exit;
+    }
+
+    /**
+     * Returns the instructions of the body. The prologue and epilogue are
+     * only added when the function is emitted.
+     */
+    public List<MachineInstruction> getCode() {
+        return code;
+    }
+
+    /**
+     * Appends an instruction to the body.
+     */
+    public void add(final MachineInstruction insn) {
+        if (insn.getKind() == MachineInstruction.Kind.CALL) {
+            calls = true;
+        }
+        code.add(insn);
+    }
+
+    /**
+     * Creates a fresh virtual register.
+     */
+    public VirtualRegister newRegister() {
+        return new VirtualRegister(registers++);
+    }
+
+    /**
+     * Returns the number of virtual registers created so far. The ids of the
+     * registers are below it.
+     */
+    public int getRegisterCount() {
+        return registers;
+    }
+
+    /**
+     * Creates a slot in the frame.
+     *
+     * @param description The name of the variable or register, for debugging.
+     */
+    public StackSlot newSlot(final String description) {
+        final StackSlot slot = new StackSlot(description);
+        slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * Returns the slot of a parameter passed on the stack.
+     *
+     * @param description The name of the parameter, for debugging.
+     * @param index       The index of the parameter among those passed on the
+     *                    stack.
+     */
+    public StackSlot incomingSlot(final String description, final int index) {
+        final StackSlot slot = new StackSlot(description, index);
+        slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * Reserves the words for the arguments of a call which are passed on the
+     * stack.
+     */
+    public void reserveOutgoing(final int words) {
+        outgoingWords = Math.max(outgoingWords, words);
+    }
+
+    /**
+     * Marks a register which must not be spilled, e.g. because it only lives
+     * between a reload and its use.
+     */
+    public void setUnspillable(final VirtualRegister r) {
+        unspillable.add(r);
+    }
+
+    /**
+     * Returns true if the register may be spilled.
+     */
+    public boolean isSpillable(final VirtualRegister r) {
+        return !r.isPhysical() && !unspillable.contains(r);
+    }
+
+    /**
+     * Lays out the frame and emits the prologue, the body and the epilogue.
+     *
+     * @param gen        The generator to emit to.
+     * @param assignment The register of every virtual register.
+     */
+    public void emit(final MipsAsmGen gen, final Map<VirtualRegister, GPRegister> assignment) {
+        final Set<GPRegister> saved = new TreeSet<>();
+        for (final GPRegister r : assignment.values()) {
+            if (CallingConvention.isCalleeSaved(r)) {
+                saved.add(r);
+            }
+        }
+
+        int offset = 4 * outgoingWords;
+        for (final StackSlot slot : slots) {
+            if (!slot.isIncoming()) {
+                slot.setOffset(offset);
+                offset += 4;
+            }
+        }
+        final int savedOffset = offset;
+        offset += 4 * saved.size() + (calls ? 4 : 0);
+        final int frameSize = (offset + 7) & ~7;
+        for (final StackSlot slot : slots) {
+            if (slot.isIncoming()) {
+                slot.setOffset(frameSize + 4 * slot.getIncomingIndex());
+            }
+        }
+
+        gen.emitLabel(entry);
+        if (frameSize != 0) {
+            gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.SP, -frameSize);
+        }
+        saveRegisters(gen, MemoryInstruction.SW, saved, savedOffset);
+
+        for (int i = 0; i < code.size(); ++i) {
+            final MachineInstruction insn = code.get(i);
+            // The epilogue follows the last instruction anyway.
+            if (i == code.size() - 1 && insn.getKind() == MachineInstruction.Kind.JUMP && insn.getLabel() == exit) {
+                break;
+            }
+            insn.emit(gen, r -> r.isPhysical() ? r.getPhysical() : assignment.get(r));
+        }
+
+        gen.emitLabel(exit);
+        saveRegisters(gen, MemoryInstruction.LW, saved, savedOffset);
+        if (frameSize != 0) {
+            gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.SP, frameSize);
+        }
+        gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+    }
+
+    private void saveRegisters(final MipsAsmGen gen, final MemoryInstruction insn, final Set<GPRegister> saved,
+            final int savedOffset) {
+        int offset = savedOffset;
+        for (final GPRegister r : saved) {
+            gen.emitInstruction(insn, r, null, offset, GPRegister.SP);
+            offset += 4;
+        }
+        if (calls) {
+            gen.emitInstruction(insn, GPRegister.RA, null, offset, GPRegister.SP);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        b.append(name).append(":\n");
+        for (final MachineInstruction insn : code) {
+            b.append(insn).append('\n');
+        }
+        return b.toString();
+    }
+
+    /**
+     * Returns the slots of the frame, for tests and debugging.
+     */
+    List<StackSlot> getSlots() {
+        return Collections.unmodifiableList(slots);
+    }
+}
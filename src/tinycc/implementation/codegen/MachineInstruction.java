@@ -0,0 +1,428 @@
+package tinycc.implementation.codegen;
+
+import java.util.function.Function;
+
+import tinycc.mipsasmgen.BranchInstruction;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.JumpInstruction;
+import tinycc.mipsasmgen.JumpRegisterInstruction;
+import tinycc.mipsasmgen.Label;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.RegisterInstruction;
+import tinycc.mipsasmgen.SpecialInstruction;
+import tinycc.mipsasmgen.SpecialRegisterInstruction;
+import tinycc.mipsasmgen.TextLabel;
+
+/**
+ * A MIPS instruction whose register operands are virtual registers.
+ *
+ * The instructions mirror the emit methods of {@link MipsAsmGen}. A few
+ * pseudo instructions are added: MOVE, which the register allocator may
+ * coalesce, FRAME_ADDRESS and memory accesses relative to a {@link StackSlot},
+ * whose offsets are only known after the frame layout, and CALL, which
+ * clobbers the caller-saved registers.
+ */
+public final class MachineInstruction {
+    /**
+     * The format of an instruction, which determines its operands.
+     */
+    public enum Kind {
+        /** A label definition: label. */
+        LABEL,
+        /** dest = left. */
+        MOVE,
+        /**
+         * A RegisterInstruction: dest = left op right. The conditional moves
+         * movn and movz also read dest, which they keep unless right is
+         * nonzero or zero, respectively.
+         */
+        REGISTER,
+        /** An ImmediateInstruction: dest = left op imm. */
+        IMMEDIATE,
+        /** A load or la: dest = memory[label + imm + left or slot]. */
+        LOAD,
+        /** A store: memory[label + imm + left or slot] = right. */
+        STORE,
+        /** dest = the address of slot + imm. */
+        FRAME_ADDRESS,
+        /** A BranchInstruction: if (left op right) goto label. */
+        BRANCH,
+        /** An unconditional jump to label. */
+        JUMP,
+        /** A call of label, or of the address in left if label is null. */
+        CALL,
+        /** A SpecialInstruction: hi, lo = left op right. */
+        SPECIAL,
+        /** A SpecialRegisterInstruction which reads hi or lo: dest = hi/lo. */
+        MOVE_FROM
+    }
+
+    private static final VirtualRegister[] NONE = {};
+
+    private final Kind kind;
+    private final Enum<?> opcode;
+    private final Label label;
+    private final StackSlot slot;
+    private final int imm;
+    VirtualRegister dest;
+    VirtualRegister left;
+    VirtualRegister right;
+
+    private MachineInstruction(final Kind kind, final Enum<?> opcode, final VirtualRegister dest,
+            final VirtualRegister left, final VirtualRegister right, final int imm, final Label label,
+            final StackSlot slot) {
+        this.kind = kind;
+        this.opcode = opcode;
+        this.dest = dest;
+        this.left = left;
+        this.right = right;
+        this.imm = imm;
+        this.label = label;
+        this.slot = slot;
+    }
+
+    /**
+     * Creates a label definition.
+     */
+    public static MachineInstruction label(final TextLabel label) {
+        return new MachineInstruction(Kind.LABEL, null, null, null, null, 0, label, null);
+    }
+
+    /**
+     * Creates a copy, which the register allocator may coalesce.
+     */
+    public static MachineInstruction move(final VirtualRegister dest, final VirtualRegister src) {
+        return new MachineInstruction(Kind.MOVE, null, dest, src, null, 0, null, null);
+    }
+
+    /**
+     * Creates an instruction with two register operands.
+     */
+    public static MachineInstruction register(final RegisterInstruction opcode, final VirtualRegister dest,
+            final VirtualRegister left, final VirtualRegister right) {
+        return new MachineInstruction(Kind.REGISTER, opcode, dest, left, right, 0, null, null);
+    }
+
+    /**
+     * Creates a conditional move, movn or movz: dest = src if test is nonzero
+     * or zero, respectively, which keeps the value of dest otherwise.
+     */
+    public static MachineInstruction conditionalMove(final RegisterInstruction opcode, final VirtualRegister dest,
+            final VirtualRegister src, final VirtualRegister test) {
+        if (opcode != RegisterInstruction.MOVN && opcode != RegisterInstruction.MOVZ) {
+            throw new IllegalArgumentException(opcode + " is not a conditional move");
+        }
+        return new MachineInstruction(Kind.REGISTER, opcode, dest, src, test, 0, null, null);
+    }
+
+    /**
+     * Creates an instruction with a register and an immediate operand.
+     */
+    public static MachineInstruction immediate(final ImmediateInstruction opcode, final VirtualRegister dest,
+            final VirtualRegister left, final int imm) {
+        if (!opcode.getRange().inRange(imm)) {
+            throw new IllegalArgumentException("immediate " + imm + " out of range for " + opcode);
+        }
+        return new MachineInstruction(Kind.IMMEDIATE, opcode, dest, left, null, imm, null, null);
+    }
+
+    /**
+     * Creates a load, or la, from label + offset + base, or from the slot if it is
+     * not null.
+     */
+    public static MachineInstruction load(final MemoryInstruction opcode, final VirtualRegister dest,
+            final VirtualRegister base, final Label label, final int offset, final StackSlot slot) {
+        return new MachineInstruction(Kind.LOAD, opcode, dest, base, null, offset, label, slot);
+    }
+
+    /**
+     * Creates a store to label + offset + base, or to the slot if it is not
+     * null.
+     */
+    public static MachineInstruction store(final MemoryInstruction opcode, final VirtualRegister value,
+            final VirtualRegister base, final Label label, final int offset, final StackSlot slot) {
+        return new MachineInstruction(Kind.STORE, opcode, null, base, value, offset, label, slot);
+    }
+
+    /**
+     * Creates the computation of the address of a stack slot.
+     */
+    public static MachineInstruction frameAddress(final VirtualRegister dest, final StackSlot slot,
+            final int offset) {
+        return new MachineInstruction(Kind.FRAME_ADDRESS, null, dest, null, null, offset, null, slot);
+    }
+
+    /**
+     * Creates a conditional branch.
+     */
+    public static MachineInstruction branch(final BranchInstruction opcode, final VirtualRegister left,
+            final VirtualRegister right, final TextLabel target) {
+        return new MachineInstruction(Kind.BRANCH, opcode, null, left, right, 0, target, null);
+    }
+
+    /**
+     * Creates an unconditional jump.
+     */
+    public static MachineInstruction jump(final TextLabel target) {
+        return new MachineInstruction(Kind.JUMP, JumpInstruction.J, null, null, null, 0, target, null);
+    }
+
+    /**
+     * Creates a call.
+     *
+     * @param target    The label of the function, null to call the address in
+     *                  the register.
+     * @param address   The register which holds the address of the function,
+     *                  null to call the label.
+     * @param arguments The number of arguments passed in $a0 to $a3.
+     */
+    public static MachineInstruction call(final TextLabel target, final VirtualRegister address,
+            final int arguments) {
+        return new MachineInstruction(Kind.CALL, target != null ? JumpInstruction.JAL : JumpRegisterInstruction.JALR,
+                null, address, null, arguments, target, null);
+    }
+
+    /**
+     * Creates a multiplication or division, which writes hi and lo.
+     */
+    public static MachineInstruction special(final SpecialInstruction opcode, final VirtualRegister left,
+            final VirtualRegister right) {
+        return new MachineInstruction(Kind.SPECIAL, opcode, null, left, right, 0, null, null);
+    }
+
+    /**
+     * Creates a read of hi or lo.
+     */
+    public static MachineInstruction moveFrom(final SpecialRegisterInstruction opcode, final VirtualRegister dest) {
+        return new MachineInstruction(Kind.MOVE_FROM, opcode, dest, null, null, 0, null, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Enum<?> getOpcode() {
+        return opcode;
+    }
+
+    public VirtualRegister getDest() {
+        return dest;
+    }
+
+    public VirtualRegister getLeft() {
+        return left;
+    }
+
+    public VirtualRegister getRight() {
+        return right;
+    }
+
+    public int getImmediate() {
+        return imm;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public StackSlot getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns true if control may continue with the next instruction.
+     */
+    public boolean fallsThrough() {
+        return kind != Kind.JUMP;
+    }
+
+    /**
+     * Returns the registers the instruction reads. A call reads the argument
+     * registers it passes.
+     */
+    public VirtualRegister[] uses() {
+        switch (kind) {
+        case MOVE:
+        case IMMEDIATE:
+            return left != null ? new VirtualRegister[] { left } : NONE;
+        case LOAD:
+            return left != null ? new VirtualRegister[] { left } : NONE;
+        case REGISTER:
+            return readsDest() ? new VirtualRegister[] { left, right, dest } : new VirtualRegister[] { left, right };
+        case BRANCH:
+        case SPECIAL:
+            return new VirtualRegister[] { left, right };
+        case STORE:
+            return left != null ? new VirtualRegister[] { right, left } : new VirtualRegister[] { right };
+        case CALL: {
+            final int n = left != null ? imm + 1 : imm;
+            final VirtualRegister[] uses = new VirtualRegister[n];
+            for (int i = 0; i < imm; ++i) {
+                uses[i] = VirtualRegister.of(CallingConvention.ARGUMENTS[i]);
+            }
+            if (left != null) {
+                uses[imm] = left;
+            }
+            return uses;
+        }
+        default:
+            return NONE;
+        }
+    }
+
+    /**
+     * Returns the register the instruction writes, null if none. The registers
+     * a call clobbers are not included.
+     */
+    public VirtualRegister def() {
+        return dest;
+    }
+
+    /**
+     * Returns true if the instruction reads the register it writes, which is
+     * the case for the conditional moves.
+     */
+    public boolean readsDest() {
+        return opcode == RegisterInstruction.MOVN || opcode == RegisterInstruction.MOVZ;
+    }
+
+    /**
+     * Replaces every use of a register. If the instruction reads the register
+     * it writes, the definition is replaced as well.
+     */
+    void replaceUse(final VirtualRegister from, final VirtualRegister to) {
+        if (left == from) {
+            left = to;
+        }
+        if (right == from) {
+            right = to;
+        }
+        if (dest == from && readsDest()) {
+            dest = to;
+        }
+    }
+
+    /**
+     * Replaces the defined register.
+     */
+    void replaceDef(final VirtualRegister from, final VirtualRegister to) {
+        if (dest == from) {
+            dest = to;
+        }
+    }
+
+    /**
+     * Emits the instruction.
+     *
+     * @param gen       The generator to emit to.
+     * @param registers Maps the operands to the allocated registers.
+     */
+    void emit(final MipsAsmGen gen, final Function<VirtualRegister, GPRegister> registers) {
+        final GPRegister d = dest != null ? registers.apply(dest) : null;
+        final GPRegister l = left != null ? registers.apply(left) : null;
+        final GPRegister r = right != null ? registers.apply(right) : null;
+        switch (kind) {
+        case LABEL:
+            gen.emitLabel((TextLabel) label);
+            break;
+        case MOVE:
+            if (d != l) {
+                gen.emitInstruction(RegisterInstruction.ADDU, d, l, GPRegister.ZERO);
+            }
+            break;
+        case REGISTER:
+            gen.emitInstruction((RegisterInstruction) opcode, d, l, r);
+            break;
+        case IMMEDIATE:
+            gen.emitInstruction((ImmediateInstruction) opcode, d, l, imm);
+            break;
+        case LOAD:
+            if (slot != null) {
+                gen.emitInstruction((MemoryInstruction) opcode, d, null, slot.getOffset() + imm, GPRegister.SP);
+            } else {
+                gen.emitInstruction((MemoryInstruction) opcode, d, label, imm, l);
+            }
+            break;
+        case STORE:
+            if (slot != null) {
+                gen.emitInstruction((MemoryInstruction) opcode, r, null, slot.getOffset() + imm, GPRegister.SP);
+            } else {
+                gen.emitInstruction((MemoryInstruction) opcode, r, label, imm, l);
+            }
+            break;
+        case FRAME_ADDRESS:
+            gen.emitInstruction(ImmediateInstruction.ADDIU, d, GPRegister.SP, slot.getOffset() + imm);
+            break;
+        case BRANCH:
+            gen.emitInstruction((BranchInstruction) opcode, l, r, (TextLabel) label);
+            break;
+        case JUMP:
+            gen.emitInstruction(JumpInstruction.J, (TextLabel) label);
+            break;
+        case CALL:
+            if (label != null) {
+                gen.emitInstruction(JumpInstruction.JAL, (TextLabel) label);
+            } else {
+                gen.emitInstruction(JumpRegisterInstruction.JALR, l);
+            }
+            break;
+        case SPECIAL:
+            gen.emitInstruction((SpecialInstruction) opcode, l, r);
+            break;
+        case MOVE_FROM:
+            gen.emitInstruction((SpecialRegisterInstruction) opcode, d);
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case LABEL:
+            return label + ":";
+        case MOVE:
+            return "\tmove " + dest + ", " + left;
+        case REGISTER:
+            return "\t" + opcode + " " + dest + ", " + left + ", " + right;
+        case IMMEDIATE:
+            return "\t" + opcode + " " + dest + ", " + left + ", " + imm;
+        case LOAD:
+            return "\t" + opcode + " " + dest + ", " + address();
+        case STORE:
+            return "\t" + opcode + " " + right + ", " + address();
+        case FRAME_ADDRESS:
+            return "\tframe " + dest + ", " + slot + "+" + imm;
+        case BRANCH:
+            return "\t" + opcode + " " + left + ", " + right + ", " + label;
+        case JUMP:
+            return "\tj " + label;
+        case CALL:
+            return "\t" + opcode + " " + (label != null ? label : left) + " (" + imm + " arguments)";
+        case SPECIAL:
+            return "\t" + opcode + " " + left + ", " + right;
+        case MOVE_FROM:
+            return "\t" + opcode + " " + dest;
+        default:
+            return "\t" + kind;
+        }
+    }
+
+    private String address() {
+        final StringBuilder b = new StringBuilder();
+        if (slot != null) {
+            b.append(slot);
+        }
+        if (label != null) {
+            b.append(label);
+        }
+        b.append('+').append(imm);
+        if (left != null) {
+            b.append('(').append(left).append(')');
+        }
+        return b.toString();
+    }
+}
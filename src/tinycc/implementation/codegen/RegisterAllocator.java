@@ -0,0 +1,23 @@
+package tinycc.implementation.codegen;
+
+import java.util.Map;
+
+import tinycc.mipsasmgen.GPRegister;
+
+/**
+ * Maps the virtual registers of a function to the general-purpose registers.
+ *
+ * An allocator may rewrite the code of the function with a
+ * {@link SpillCodeInserter} if the registers do not suffice. Registers which
+ * are live across a call are assigned callee-saved registers only, which the
+ * function saves in its prologue.
+ */
+public interface RegisterAllocator {
+    /**
+     * Allocates the registers of the function.
+     *
+     * @return The register of every virtual register which occurs in the code
+     *         of the function after the allocation.
+     */
+    Map<VirtualRegister, GPRegister> allocate(MachineFunction function);
+}
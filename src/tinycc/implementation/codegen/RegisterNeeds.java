@@ -0,0 +1,84 @@
+package tinycc.implementation.codegen;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.UnaryExpression;
+
+/**
+ * Computes the Ershov numbers of expressions (Sethi and Ullman): the number
+ * of registers needed to evaluate an expression without spilling.
+ *
+ * A leaf needs one register. An operator whose operands need l and r
+ * registers needs max(l, r) if they differ, as the operand which needs more
+ * is evaluated first and its value then occupies one of the registers the
+ * other one frees, and l + 1 if they are equal. A call clobbers the
+ * caller-saved registers, so every value live across it ends up in a
+ * callee-saved register or on the stack. It is treated as needing all
+ * registers, which moves calls to the front of the evaluation.
+ */
+final class RegisterNeeds {
+    /** The need of a call. */
+    static final int CALL = CallingConvention.CALLER_SAVED.length + CallingConvention.CALLEE_SAVED.length;
+
+    private final Map<Expression, Integer> needs = new IdentityHashMap<>();
+
+    /**
+     * Returns the number of registers needed to evaluate the expression.
+     */
+    int of(final Expression e) {
+        final Integer known = needs.get(e);
+        if (known != null) {
+            return known;
+        }
+        final int need = compute(e);
+        needs.put(e, need);
+        return need;
+    }
+
+    private int compute(final Expression e) {
+        if (e instanceof UnaryExpression) {
+            return Math.max(of(((UnaryExpression) e).getOperand()), 1);
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            final int left = of(b.getLeft());
+            final int right = of(b.getRight());
+            switch (b.getOperator().getKind()) {
+            case COMMA:
+                return Math.max(left, right);
+            case AND_AND:
+            case PIPE_PIPE:
+                // The result register is live while the right operand is evaluated.
+                return Math.max(left, right + 1);
+            default:
+                return combine(left, right);
+            }
+        }
+        if (e instanceof CallExpression) {
+            int need = CALL;
+            for (final Expression argument : ((CallExpression) e).getArguments()) {
+                need = Math.max(need, of(argument));
+            }
+            return need;
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            // The flag of the condition is live while the arms are evaluated.
+            return Math.max(of(c.getCondition()), Math.max(of(c.getConsequence()), of(c.getAlternative())) + 1);
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the need of an operator whose operands need the given numbers of
+     * registers.
+     */
+    static int combine(final int left, final int right) {
+        return left == right ? left + 1 : Math.max(left, right);
+    }
+}
@@ -0,0 +1,135 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.mipsasmgen.MemoryInstruction;
+
+/**
+ * Moves spilled registers to stack slots, shared by the register allocators.
+ *
+ * Every spilled register gets a slot. Every definition writes a fresh register
+ * which is stored to the slot right after it, and the uses read fresh
+ * registers which are loaded from the slot. The register allocation is
+ * repeated afterwards, as the new registers need registers as well.
+ *
+ * - {@link Mode#EVERYWHERE} reloads the value before every use. The new
+ *   registers only live within a single instruction and are never spilled
+ *   again, so the allocation succeeds the next time.
+ * - {@link Mode#SPLIT} splits the live range into one piece per stretch of
+ *   straight-line code between labels, branches and calls: the value is loaded
+ *   once before its first use in the stretch and the later uses read the same
+ *   register. The pieces do not cross calls, so they fit into caller-saved
+ *   registers. If a piece has to be spilled again, it is spilled everywhere.
+ */
+public final class SpillCodeInserter {
+    /**
+     * How a spilled register is reloaded.
+     */
+    public enum Mode {
+        /** Reload before every use. */
+        EVERYWHERE,
+        /** Reload once per stretch of straight-line code. */
+        SPLIT
+    }
+
+    private final MachineFunction function;
+    private final Map<VirtualRegister, VirtualRegister> splitFrom = new IdentityHashMap<>();
+    private int spilled = 0;
+
+    /**
+     * Creates the spill code insertion for a function.
+     */
+    public SpillCodeInserter(final MachineFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * Returns true if the register is a piece of a split live range, which is
+     * spilled everywhere if it has to be spilled again.
+     */
+    public boolean isSplitPiece(final VirtualRegister r) {
+        return splitFrom.containsKey(r);
+    }
+
+    /**
+     * Returns the number of registers spilled so far.
+     */
+    public int getSpilledCount() {
+        return spilled;
+    }
+
+    /**
+     * Rewrites the code such that the given registers live in stack slots.
+     *
+     * @param registers The registers to spill.
+     * @param mode      How the values are reloaded.
+     */
+    public void spill(final Collection<VirtualRegister> registers, final Mode mode) {
+        final Map<VirtualRegister, StackSlot> slots = new IdentityHashMap<>();
+        for (final VirtualRegister r : registers) {
+            slots.put(r, function.newSlot("spill " + r));
+            ++spilled;
+        }
+
+        final List<MachineInstruction> code = function.getCode();
+        final List<MachineInstruction> rewritten = new ArrayList<>(code.size());
+        // The register which holds the value of a spilled register in the
+        // current stretch of straight-line code (SPLIT only).
+        final Map<VirtualRegister, VirtualRegister> current = new IdentityHashMap<>();
+        for (final MachineInstruction insn : code) {
+            if (insn.getKind() == MachineInstruction.Kind.LABEL) {
+                current.clear();
+            }
+            final VirtualRegister d = insn.def();
+            for (final VirtualRegister r : insn.uses()) {
+                final StackSlot slot = slots.get(r);
+                // An instruction may read the same register twice.
+                if (slot == null || (insn.getLeft() != r && insn.getRight() != r
+                        && (insn.getDest() != r || !insn.readsDest()))) {
+                    continue;
+                }
+                VirtualRegister piece = mode == Mode.SPLIT ? current.get(r) : null;
+                if (piece == null) {
+                    piece = newPiece(r, mode);
+                    rewritten.add(MachineInstruction.load(MemoryInstruction.LW, piece, null, null, 0, slot));
+                    if (mode == Mode.SPLIT) {
+                        current.put(r, piece);
+                    }
+                }
+                insn.replaceUse(r, piece);
+            }
+            rewritten.add(insn);
+            final StackSlot slot = d != null ? slots.get(d) : null;
+            if (slot != null) {
+                // An instruction which reads the register it writes already
+                // got the piece it loads as its definition.
+                final VirtualRegister piece = insn.def() != d ? insn.def() : newPiece(d, mode);
+                insn.replaceDef(d, piece);
+                rewritten.add(MachineInstruction.store(MemoryInstruction.SW, piece, null, null, 0, slot));
+                if (mode == Mode.SPLIT) {
+                    current.put(d, piece);
+                }
+            }
+            if (insn.getKind() == MachineInstruction.Kind.BRANCH || insn.getKind() == MachineInstruction.Kind.JUMP
+                    || insn.getKind() == MachineInstruction.Kind.CALL) {
+                current.clear();
+            }
+        }
+        code.clear();
+        code.addAll(rewritten);
+    }
+
+    private VirtualRegister newPiece(final VirtualRegister r, final Mode mode) {
+        final VirtualRegister piece = function.newRegister();
+        if (mode == Mode.EVERYWHERE) {
+            function.setUnspillable(piece);
+        } else {
+            splitFrom.put(piece, r);
+        }
+        return piece;
+    }
+}
@@ -0,0 +1,67 @@
+package tinycc.implementation.codegen;
+
+/**
+ * A word in the stack frame of a function: a local variable whose address is
+ * taken, a spilled register or a parameter passed on the stack.
+ *
+ * The offsets relative to $sp are only known once the register allocator
+ * decided which callee-saved registers the function saves, so the
+ * instructions refer to the slot and the offset is filled in by the frame
+ * layout.
+ */
+public final class StackSlot {
+    private final String description;
+    private final int incomingIndex;
+    private int offset = -1;
+
+    /**
+     * Creates a slot in the frame of the function.
+     */
+    StackSlot(final String description) {
+        this(description, -1);
+    }
+
+    /**
+     * Creates a slot for a parameter in the frame of the caller.
+     *
+     * @param incomingIndex The index of the parameter among those passed on
+     *                      the stack.
+     */
+    StackSlot(final String description, final int incomingIndex) {
+        this.description = description;
+        this.incomingIndex = incomingIndex;
+    }
+
+    /**
+     * Returns true if the slot lies in the frame of the caller.
+     */
+    public boolean isIncoming() {
+        return incomingIndex >= 0;
+    }
+
+    /**
+     * Returns the index of a stack-passed parameter, -1 for other slots.
+     */
+    int getIncomingIndex() {
+        return incomingIndex;
+    }
+
+    /**
+     * Returns the offset relative to $sp after the prologue.
+     */
+    public int getOffset() {
+        if (offset < 0) {
+            throw new IllegalStateException("stack slot '" + description + "' has no offset");
+        }
+        return offset;
+    }
+
+    void setOffset(final int offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + description + "]";
+    }
+}
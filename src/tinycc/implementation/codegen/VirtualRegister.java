@@ -0,0 +1,74 @@
+package tinycc.implementation.codegen;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import tinycc.mipsasmgen.GPRegister;
+
+/**
+ * A register operand of a {@link MachineInstruction}.
+ *
+ * The code generator computes every value into a fresh virtual register and
+ * leaves it to the register allocator to map the virtual registers to the
+ * general-purpose registers. Registers with a fixed role, like $sp, $zero or
+ * the argument registers, are represented by physical operands which the
+ * allocator leaves alone.
+ */
+public final class VirtualRegister {
+    private static final Map<GPRegister, VirtualRegister> PHYSICAL = new EnumMap<>(GPRegister.class);
+
+    static {
+        for (final GPRegister r : GPRegister.values()) {
+            PHYSICAL.put(r, new VirtualRegister(-1, r));
+        }
+    }
+
+    private final int id;
+    private final GPRegister physical;
+
+    private VirtualRegister(final int id, final GPRegister physical) {
+        this.id = id;
+        this.physical = physical;
+    }
+
+    /**
+     * Creates a virtual register. Only {@link MachineFunction} numbers them.
+     */
+    VirtualRegister(final int id) {
+        this(id, null);
+    }
+
+    /**
+     * Returns the operand for a physical register.
+     */
+    public static VirtualRegister of(final GPRegister register) {
+        return PHYSICAL.get(register);
+    }
+
+    /**
+     * Returns true if the operand is a physical register.
+     */
+    public boolean isPhysical() {
+        return physical != null;
+    }
+
+    /**
+     * Returns the physical register, null for a virtual one.
+     */
+    public GPRegister getPhysical() {
+        return physical;
+    }
+
+    /**
+     * Returns the number of a virtual register, which is unique in its
+     * function, or -1 for a physical one.
+     */
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return physical != null ? physical.toString() : "%" + id;
+    }
+}
@@ -17,5 +17,17 @@ public BinaryExpression(Token operator, Expression left, Expression right){
   public String toString() {
       return "Binary_"+operator.toString() +"["+left.toString() + ","+ right.toString() + "]";
   }
+
+  public Token getOperator() {
+      return operator;
+  }
+
+  public Expression getLeft() {
+      return left;
+  }
+
+  public Expression getRight() {
+      return right;
+  }
     
   }
\ No newline at end of file
@@ -41,4 +41,17 @@ public String toString() {
    return  build.toString();
  }
     
+ 
+ public Token getToken() {
+    return token;
+ }
+
+ public Expression getCallee() {
+    return callee;
+ }
+
+ public List<Expression> getArguments() {
+    return arguments;
+ }
+    
  }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package tinycc.implementation.expression;
+
+import tinycc.parser.Token;
+
+public class ConditionalExpression extends Expression {
+    private Token token;
+    private Expression condition;
+    private Expression consequence;
+    private Expression alternative;
+
+    public ConditionalExpression(Token token, Expression condition, Expression consequence,
+            Expression alternative) {
+        this.token = token;
+        this.condition = condition;
+        this.consequence = consequence;
+        this.alternative = alternative;
+    }
+
+    @Override
+    public String toString() {
+        return "Conditional[" + condition.toString() + "," + consequence.toString() + ","
+                + alternative.toString() + "]";
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public Expression getCondition() {
+        return condition;
+    }
+
+    public Expression getConsequence() {
+        return consequence;
+    }
+
+    public Expression getAlternative() {
+        return alternative;
+    }
+}
@@ -12,7 +12,6 @@ public class FunctionDefinition {
    private Token name;
    private List<Token> parameterNames;
    private Statement body ;
-   FunctionDefinition function = new FunctionDefinition(type, name, parameterNames, body);
 
    public FunctionDefinition(tinycc.implementation.type.Type type2, Token name, List<Token> parameterNames, Statement body){
     this.type=type2;
@@ -20,5 +19,25 @@ public FunctionDefinition(tinycc.implementation.type.Type type2, Token name, Lis
     this.parameterNames = parameterNames;
     this.body =body;
    }
+
+   public Type getType() {
+    return type;
+   }
+
+   public Token getName() {
+    return name;
+   }
+
+   public List<Token> getParameterNames() {
+    return parameterNames;
+   }
+
+   public Statement getBody() {
+    return body;
+   }
+
+   public void setBody(Statement body) {
+    this.body = body;
+   }
 }
 
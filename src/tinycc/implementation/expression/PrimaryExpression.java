@@ -28,4 +28,8 @@ public String toString() {
        
 
     }
+
+    public Token getToken() {
+        return token;
+    }
 }
@@ -16,4 +16,16 @@ public UnaryExpression(Token operator, boolean postfix, Expression operand){
  public String toString() {
     return  "Unary_" + operator.toString() +"[" +operand.toString() + "]";
  }
+ 
+ public Token getOperator() {
+    return operator;
+ }
+
+ public boolean isPostfix() {
+    return postfix;
+ }
+
+ public Expression getOperand() {
+    return operand;
+ }
  }
\ No newline at end of file
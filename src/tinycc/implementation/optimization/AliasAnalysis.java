@@ -0,0 +1,591 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Points-to and type-based alias analysis of the memory accesses of a function.
+ *
+ * Memory consists of abstract locations: every variable which is not tracked
+ * (see {@link LocalVariables}), i.e. globals and locals whose address is taken,
+ * every call of malloc and the string literals. The analysis computes for every
+ * tracked pointer variable the locations it may point to, flow-insensitively
+ * and including the assignments of all paths. Pointers which are loaded from
+ * memory, returned by calls or passed as parameters are unknown.
+ *
+ * A location escapes if a pointer to it may be stored to memory, passed to a
+ * call or returned, and globals always escape. Unknown pointers and called
+ * functions can only reach escaped locations, so e.g. a store through a
+ * parameter never changes a local array obtained from malloc which is only
+ * accessed through tracked pointers.
+ *
+ * In addition the type of an access separates the char, int and pointer
+ * objects: there are no casts in the language, so an object is always accessed
+ * with the type it was stored with.
+ *
+ * The results are a snapshot of the body they were computed for. Accesses
+ * through variables which did not exist at that time are unknown.
+ */
+public class AliasAnalysis {
+    /** The marker of pointers which may point to any escaped or foreign location. */
+    private static final String UNKNOWN = "?";
+    private static final String STRING = "string";
+    private static final String ALLOCATION_FUNCTION = "malloc";
+
+    private final LocalVariables locals;
+    private final ExpressionTypes types;
+    private final Map<String, Set<String>> pointsTo = new HashMap<>();
+    private final Map<Expression, String> allocationSites = new IdentityHashMap<>();
+    private final Set<String> escaped = new HashSet<>();
+
+    /**
+     * The memory accessed by an lvalue.
+     */
+    public static final class Access {
+        private final Set<String> locations;
+        private final String typeClass;
+
+        private Access(final Set<String> locations, final String typeClass) {
+            this.locations = locations;
+            this.typeClass = typeClass;
+        }
+
+        /**
+         * Returns true if the access may reach locations the function does not
+         * know about.
+         */
+        public boolean isUnknown() {
+            return locations.contains(UNKNOWN);
+        }
+    }
+
+    /**
+     * Analyzes the given function.
+     *
+     * @param ast      The translation unit.
+     * @param function The function to analyze.
+     * @param locals   The tracked locals of the function.
+     */
+    public AliasAnalysis(final AST ast, final FunctionDefinition function, final LocalVariables locals) {
+        this.locals = locals;
+        this.types = new ExpressionTypes(ast, function, locals);
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            if (!(d.getType() instanceof FunctionType)) {
+                escaped.add(variable(d.getName().getText()));
+            }
+        }
+        for (final Token p : function.getParameterNames()) {
+            if (p != null && locals.isTracked(p.getText())) {
+                pointsTo.put(p.getText(), new HashSet<>(Collections.singleton(UNKNOWN)));
+            }
+        }
+
+        // Propagate the assignments to tracked variables until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            final boolean[] grown = { false };
+            Statements.forEachDeclaration(function.getBody(), d -> {
+                if (d.getInit() != null) {
+                    grown[0] |= flowInto(d.getName().getText(), d.getInit());
+                }
+            });
+            Statements.forEachExpression(function.getBody(), e -> grown[0] |= propagate(e));
+            changed = grown[0];
+        }
+
+        Statements.forEachExpression(function.getBody(), this::collectEscapes);
+        Statements.forEachDeclaration(function.getBody(), d -> {
+            if (d.getInit() != null && !locals.isTracked(d.getName().getText())) {
+                escaped.addAll(pointsTo(d.getInit()));
+            }
+        });
+        collectReturnedPointers(function.getBody());
+    }
+
+    /**
+     * Returns the memory accessed by the given lvalue.
+     *
+     * @param lvalue An expression which designates an object.
+     * @return The access or null if the lvalue is a tracked variable, which does
+     *         not live in memory.
+     */
+    public Access accessOf(final Expression lvalue) {
+        if (locals.isTracked(Expressions.identifierName(lvalue))) {
+            return null;
+        }
+        return new Access(addressOf(lvalue), typeClass(types.typeOf(lvalue)));
+    }
+
+    /**
+     * Returns true if both accesses may refer to the same object. Accesses which
+     * are null are tracked variables and do not alias anything.
+     */
+    public boolean mayAlias(final Access a, final Access b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.typeClass != null && b.typeClass != null && !a.typeClass.equals(b.typeClass)) {
+            return false;
+        }
+        if (a.isUnknown() && b.isUnknown()) {
+            return true;
+        }
+        if (a.isUnknown() || b.isUnknown()) {
+            return isVisible(a.isUnknown() ? b : a);
+        }
+        for (final String location : a.locations) {
+            if (b.locations.contains(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if both lvalues may refer to the same object.
+     */
+    public boolean mayAlias(final Expression a, final Expression b) {
+        return mayAlias(accessOf(a), accessOf(b));
+    }
+
+    /**
+     * Returns true if the access may refer to an object which other functions
+     * can read or write, i.e. an escaped location or one of the caller.
+     */
+    public boolean isVisible(final Access a) {
+        if (a == null) {
+            return false;
+        }
+        for (final String location : a.locations) {
+            if (location.equals(UNKNOWN) || escaped.contains(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the object the lvalue designates may be changed by one of
+     * the stores or, if they may write memory, the calls of the loop.
+     *
+     * @param lvalue The lvalue of a load.
+     * @param loop   The summary of the loop.
+     */
+    public boolean mayBeWritten(final Expression lvalue, final LoopInfo loop) {
+        final Access access = accessOf(lvalue);
+        if (access == null) {
+            return false;
+        }
+        if (loop.callMayWriteMemory() && isVisible(access)) {
+            return true;
+        }
+        for (final Expression store : loop.getStores()) {
+            if (mayAlias(access, accessOf(store))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the evaluation of the expression may read the object of
+     * the access, by a load or a call.
+     *
+     * @param e       The expression (may be null).
+     * @param a       The access.
+     * @param effects The side effects of the functions, null if every call may
+     *                read memory.
+     */
+    public boolean mayRead(final Expression e, final Access a, final FunctionEffects effects) {
+        final List<Expression> loads = new ArrayList<>();
+        collectLoads(e, loads);
+        for (final Expression load : loads) {
+            if (mayAlias(accessOf(load), a)) {
+                return true;
+            }
+        }
+        return isVisible(a) && containsCall(e, c -> effects == null || effects.mayReadMemory(c));
+    }
+
+    /**
+     * Returns true if the evaluation of the expression may write the object of
+     * the access, by a store or a call.
+     *
+     * @param e       The expression (may be null).
+     * @param a       The access.
+     * @param effects The side effects of the functions, null if every call may
+     *                write memory.
+     */
+    public boolean mayWrite(final Expression e, final Access a, final FunctionEffects effects) {
+        final List<Expression> stores = new ArrayList<>();
+        collectStores(e, stores);
+        for (final Expression store : stores) {
+            if (mayAlias(accessOf(store), a)) {
+                return true;
+            }
+        }
+        return isVisible(a) && containsCall(e, c -> effects == null || effects.mayWriteMemory(c));
+    }
+
+    /**
+     * Returns true if the lvalue designates memory whose address only depends
+     * on constants and tracked variables, so it can only change by assignments
+     * to these variables. Such lvalues compare equal with
+     * {@link Expressions#equal} exactly if they designate the same object.
+     */
+    public boolean isStable(final Expression lvalue) {
+        final String name = Expressions.identifierName(lvalue);
+        if (name != null) {
+            return !locals.isTracked(name);
+        }
+        if (lvalue instanceof UnaryExpression
+                && ((UnaryExpression) lvalue).getOperator().getKind() == TokenKind.ASTERISK) {
+            return isSimple(((UnaryExpression) lvalue).getOperand());
+        }
+        if (lvalue instanceof BinaryExpression
+                && ((BinaryExpression) lvalue).getOperator().getKind() == TokenKind.LBRACKET) {
+            return isSimple(((BinaryExpression) lvalue).getLeft()) && isSimple(((BinaryExpression) lvalue).getRight());
+        }
+        return false;
+    }
+
+    private boolean isSimple(final Expression e) {
+        if (Expressions.constantValue(e) != null) {
+            return true;
+        }
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            return locals.isTracked(name);
+        }
+        if (e instanceof BinaryExpression) {
+            final TokenKind kind = ((BinaryExpression) e).getOperator().getKind();
+            return (kind == TokenKind.PLUS || kind == TokenKind.MINUS) && isSimple(((BinaryExpression) e).getLeft())
+                    && isSimple(((BinaryExpression) e).getRight());
+        }
+        return false;
+    }
+
+    private static boolean containsCall(final Expression e, final Predicate<CallExpression> predicate) {
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            if (predicate.test(c)) {
+                return true;
+            }
+            for (final Expression arg : c.getArguments()) {
+                if (containsCall(arg, predicate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (e instanceof BinaryExpression) {
+            return containsCall(((BinaryExpression) e).getLeft(), predicate)
+                    || containsCall(((BinaryExpression) e).getRight(), predicate);
+        }
+        if (e instanceof UnaryExpression) {
+            return containsCall(((UnaryExpression) e).getOperand(), predicate);
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return containsCall(c.getCondition(), predicate) || containsCall(c.getConsequence(), predicate)
+                    || containsCall(c.getAlternative(), predicate);
+        }
+        return false;
+    }
+
+    /**
+     * Adds the lvalues of the memory stores of the expression to the list, i.e.
+     * the targets of assignments and increments which are not tracked variables.
+     */
+    public void collectStores(final Expression e, final List<Expression> out) {
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            if (Expressions.isAssignment(b) && !locals.isTracked(Expressions.identifierName(b.getLeft()))) {
+                out.add(b.getLeft());
+            }
+            collectStores(b.getLeft(), out);
+            collectStores(b.getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (Expressions.isIncDec(u) && !locals.isTracked(Expressions.identifierName(u.getOperand()))) {
+                out.add(u.getOperand());
+            }
+            collectStores(u.getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectStores(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectStores(c.getCondition(), out);
+            collectStores(c.getConsequence(), out);
+            collectStores(c.getAlternative(), out);
+        }
+    }
+
+    /**
+     * Adds the lvalues of the memory loads of the expression to the list:
+     * dereferences, subscripts and variables which are not tracked, unless they
+     * are only assigned or their address is taken.
+     */
+    public void collectLoads(final Expression e, final List<Expression> out) {
+        collectLoads(e, out, true);
+    }
+
+    private void collectLoads(final Expression e, final List<Expression> out, final boolean isRead) {
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            if (isRead && !locals.isTracked(name) && types.typeOfFunction(name) == null) {
+                out.add(e);
+            }
+        } else if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            final TokenKind kind = b.getOperator().getKind();
+            if (kind == TokenKind.LBRACKET && isRead) {
+                out.add(b);
+            }
+            collectLoads(b.getLeft(), out, kind != TokenKind.EQUAL);
+            collectLoads(b.getRight(), out, true);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            final TokenKind kind = u.getOperator().getKind();
+            if (kind == TokenKind.ASTERISK && isRead) {
+                out.add(u);
+            }
+            collectLoads(u.getOperand(), out, kind != TokenKind.AND);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectLoads(arg, out, true);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectLoads(c.getCondition(), out, true);
+            collectLoads(c.getConsequence(), out, true);
+            collectLoads(c.getAlternative(), out, true);
+        }
+    }
+
+    /**
+     * Returns the locations the value of the expression may point to.
+     */
+    private Set<String> pointsTo(final Expression e) {
+        if (e == null || Expressions.constantValue(e) != null) {
+            return Collections.emptySet();
+        }
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            if (t.getKind() == TokenKind.STRING) {
+                return Collections.singleton(STRING);
+            }
+            if (locals.isTracked(t.getText())) {
+                final Set<String> result = pointsTo.get(t.getText());
+                return result == null ? Collections.<String>emptySet() : result;
+            }
+            return Collections.singleton(UNKNOWN);
+        }
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            switch (u.getOperator().getKind()) {
+            case AND:
+                return addressOf(u.getOperand());
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                return pointsTo(u.getOperand());
+            case ASTERISK:
+                return Collections.singleton(UNKNOWN);
+            default:
+                return Collections.emptySet();
+            }
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            switch (b.getOperator().getKind()) {
+            case EQUAL:
+            case COMMA:
+                return pointsTo(b.getRight());
+            case PLUS:
+            case MINUS:
+                return pointerOperands(b);
+            case LBRACKET:
+                return Collections.singleton(UNKNOWN);
+            default:
+                return Collections.emptySet();
+            }
+        }
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            if (ALLOCATION_FUNCTION.equals(Expressions.identifierName(c.getCallee()))
+                    && types.typeOfFunction(ALLOCATION_FUNCTION) != null) {
+                return Collections.singleton(allocationSites.computeIfAbsent(c,
+                        k -> "malloc#" + allocationSites.size()));
+            }
+            return Collections.singleton(UNKNOWN);
+        }
+        if (e instanceof ConditionalExpression) {
+            final Set<String> result = new HashSet<>(pointsTo(((ConditionalExpression) e).getConsequence()));
+            result.addAll(pointsTo(((ConditionalExpression) e).getAlternative()));
+            return result;
+        }
+        return Collections.singleton(UNKNOWN);
+    }
+
+    /**
+     * Returns the locations of the object an lvalue designates.
+     */
+    private Set<String> addressOf(final Expression lvalue) {
+        final String name = Expressions.identifierName(lvalue);
+        if (name != null) {
+            return Collections.singleton(variable(name));
+        }
+        if (lvalue instanceof UnaryExpression
+                && ((UnaryExpression) lvalue).getOperator().getKind() == TokenKind.ASTERISK) {
+            return pointsTo(((UnaryExpression) lvalue).getOperand());
+        }
+        if (lvalue instanceof BinaryExpression
+                && ((BinaryExpression) lvalue).getOperator().getKind() == TokenKind.LBRACKET) {
+            return pointerOperands((BinaryExpression) lvalue);
+        }
+        return Collections.singleton(UNKNOWN);
+    }
+
+    /**
+     * Returns the locations of the operands of pointer arithmetic or a
+     * subscript which are not known to be integers.
+     */
+    private Set<String> pointerOperands(final BinaryExpression b) {
+        final Set<String> result = new HashSet<>();
+        if (!ExpressionTypes.isInteger(types.typeOf(b.getLeft()))) {
+            result.addAll(pointsTo(b.getLeft()));
+        }
+        if (!ExpressionTypes.isInteger(types.typeOf(b.getRight()))) {
+            result.addAll(pointsTo(b.getRight()));
+        }
+        return result;
+    }
+
+    /**
+     * Adds the targets of the value to the points-to set of a tracked variable.
+     *
+     * @return True if the set grew.
+     */
+    private boolean flowInto(final String name, final Expression value) {
+        if (!locals.isTracked(name) || ExpressionTypes.isInteger(types.typeOfVariable(name))) {
+            return false;
+        }
+        final Set<String> targets = pointsTo(value);
+        if (targets.isEmpty()) {
+            return false;
+        }
+        return pointsTo.computeIfAbsent(name, k -> new HashSet<>()).addAll(targets);
+    }
+
+    private boolean propagate(final Expression e) {
+        boolean changed = false;
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            if (Expressions.isAssignment(b)) {
+                changed |= flowInto(Expressions.identifierName(b.getLeft()), b.getRight());
+            }
+            changed |= propagate(b.getLeft());
+            changed |= propagate(b.getRight());
+        } else if (e instanceof UnaryExpression) {
+            changed |= propagate(((UnaryExpression) e).getOperand());
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                changed |= propagate(arg);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            changed |= propagate(c.getCondition());
+            changed |= propagate(c.getConsequence());
+            changed |= propagate(c.getAlternative());
+        }
+        return changed;
+    }
+
+    /**
+     * Marks the locations whose address is passed to a call or stored to memory
+     * as escaped.
+     */
+    private void collectEscapes(final Expression e) {
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            if (Expressions.isAssignment(b) && !locals.isTracked(Expressions.identifierName(b.getLeft()))) {
+                escaped.addAll(pointsTo(b.getRight()));
+            }
+            collectEscapes(b.getLeft());
+            collectEscapes(b.getRight());
+        } else if (e instanceof UnaryExpression) {
+            collectEscapes(((UnaryExpression) e).getOperand());
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                escaped.addAll(pointsTo(arg));
+                collectEscapes(arg);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectEscapes(c.getCondition());
+            collectEscapes(c.getConsequence());
+            collectEscapes(c.getAlternative());
+        }
+    }
+
+    private void collectReturnedPointers(final Statement s) {
+        new AstRewriter() {
+            @Override
+            protected Statement rewriteReturn(final ReturnStatement r) {
+                escaped.addAll(pointsTo(r.getExpression()));
+                return r;
+            }
+        }.rewrite(s);
+    }
+
+    private static String variable(final String name) {
+        return "var:" + name;
+    }
+
+    /**
+     * Returns the class of objects an access of the given type refers to, null
+     * if the type is unknown.
+     */
+    private static String typeClass(final Type t) {
+        if (ExpressionTypes.isPointer(t)) {
+            return "pointer";
+        }
+        if (t instanceof BaseType) {
+            switch (((BaseType) t).getKind()) {
+            case INT:
+                return "int";
+            case CHAR:
+                return "char";
+            default:
+                return null;
+            }
+        }
+        return null;
+    }
+}
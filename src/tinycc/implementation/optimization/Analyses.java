@@ -0,0 +1,69 @@
+package tinycc.implementation.optimization;
+
+import java.util.Set;
+
+import tinycc.implementation.AST;
+
+/**
+ * Caches the analyses of a translation unit which several passes use.
+ *
+ * The analyses are computed on first use and kept until {@link #invalidate()}
+ * is called. Like the analyses themselves the cache is a snapshot, so whoever
+ * changes the program has to invalidate it; the {@link PassManager} does so
+ * after every pass which reports a change.
+ */
+public class Analyses {
+    private final AST ast;
+    private Set<String> globalNames;
+    private CallGraph callGraph;
+    private FunctionEffects effects;
+
+    /**
+     * Creates an empty cache for the given translation unit.
+     *
+     * @param ast The translation unit.
+     */
+    public Analyses(final AST ast) {
+        this.ast = ast;
+    }
+
+    /**
+     * Returns the names of all global symbols, see
+     * {@link LocalVariables#globalNames}.
+     */
+    public Set<String> getGlobalNames() {
+        if (globalNames == null) {
+            globalNames = LocalVariables.globalNames(ast);
+        }
+        return globalNames;
+    }
+
+    /**
+     * Returns the call graph of the translation unit.
+     */
+    public CallGraph getCallGraph() {
+        if (callGraph == null) {
+            callGraph = new CallGraph(ast);
+        }
+        return callGraph;
+    }
+
+    /**
+     * Returns the side effects of the functions of the translation unit.
+     */
+    public FunctionEffects getEffects() {
+        if (effects == null) {
+            effects = new FunctionEffects(ast);
+        }
+        return effects;
+    }
+
+    /**
+     * Discards all analyses, they are recomputed on their next use.
+     */
+    public void invalidate() {
+        globalNames = null;
+        callGraph = null;
+        effects = null;
+    }
+}
@@ -0,0 +1,201 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+
+/**
+ * Base class for transformations of the AST.
+ *
+ * Every method returns the node itself if nothing changed and a newly built
+ * node otherwise, so subtrees which are not touched are shared. Subclasses
+ * override the methods for the nodes they are interested in and call the super
+ * implementation to handle the children.
+ */
+public class AstRewriter {
+
+    /**
+     * Rewrites the given statement.
+     *
+     * @param s The statement to rewrite.
+     * @return The rewritten statement or null if the statement should be removed.
+     */
+    public Statement rewrite(final Statement s) {
+        if (s instanceof BlockStatement) {
+            return rewriteBlock((BlockStatement) s);
+        }
+        if (s instanceof DeclarationStatement) {
+            return rewriteDeclaration((DeclarationStatement) s);
+        }
+        if (s instanceof ExpressionStatement) {
+            return rewriteExpressionStatement((ExpressionStatement) s);
+        }
+        if (s instanceof IfStatement) {
+            return rewriteIf((IfStatement) s);
+        }
+        if (s instanceof ReturnStatement) {
+            return rewriteReturn((ReturnStatement) s);
+        }
+        if (s instanceof WhileStatement) {
+            return rewriteWhile((WhileStatement) s);
+        }
+        return s;
+    }
+
+    /**
+     * Rewrites the given expression.
+     *
+     * @param e The expression to rewrite (may be null).
+     * @return The rewritten expression.
+     */
+    public Expression rewrite(final Expression e) {
+        if (e instanceof BinaryExpression) {
+            return rewriteBinary((BinaryExpression) e);
+        }
+        if (e instanceof UnaryExpression) {
+            return rewriteUnary((UnaryExpression) e);
+        }
+        if (e instanceof CallExpression) {
+            return rewriteCall((CallExpression) e);
+        }
+        if (e instanceof ConditionalExpression) {
+            return rewriteConditional((ConditionalExpression) e);
+        }
+        return e;
+    }
+
+    /**
+     * Rewrites a nested statement which must not be removed, e.g. the body of a
+     * loop. A removed statement is replaced by an empty block.
+     */
+    protected Statement rewriteNested(final Statement s) {
+        final Statement r = rewrite(s);
+        if (r == null) {
+            return new BlockStatement(Statements.location(s), new ArrayList<Statement>());
+        }
+        return r;
+    }
+
+    protected Statement rewriteBlock(final BlockStatement s) {
+        final List<Statement> statements = rewriteStatements(s.getStatements());
+        return statements == s.getStatements() ? s : new BlockStatement(s.getLocation(), statements);
+    }
+
+    /**
+     * Rewrites every statement of the list using {@link #rewriteListElement}.
+     *
+     * @return The given list if nothing changed, a new list otherwise.
+     */
+    protected List<Statement> rewriteStatements(final List<Statement> statements) {
+        List<Statement> result = null;
+        for (int i = 0; i < statements.size(); ++i) {
+            final Statement old = statements.get(i);
+            final List<Statement> r = rewriteListElement(old);
+            if (result == null && (r.size() != 1 || r.get(0) != old)) {
+                result = new ArrayList<>(statements.subList(0, i));
+            }
+            if (result != null) {
+                result.addAll(r);
+            }
+        }
+        return result == null ? statements : result;
+    }
+
+    /**
+     * Rewrites a statement which is directly contained in a block. In contrast to
+     * {@link #rewrite(Statement)} the statement may be replaced by several
+     * statements which are spliced into the block, so declarations stay in the
+     * scope of the block.
+     *
+     * @param s The statement to rewrite.
+     * @return The statements replacing the given one (empty to remove it).
+     */
+    protected List<Statement> rewriteListElement(final Statement s) {
+        final Statement r = rewrite(s);
+        return r == null ? Collections.<Statement>emptyList() : Collections.singletonList(r);
+    }
+
+    protected Statement rewriteDeclaration(final DeclarationStatement s) {
+        final Expression init = rewrite(s.getInit());
+        return init == s.getInit() ? s : new DeclarationStatement(s.getType(), s.getName(), init);
+    }
+
+    protected Statement rewriteExpressionStatement(final ExpressionStatement s) {
+        final Expression e = rewrite(s.getExpression());
+        return e == s.getExpression() ? s : new ExpressionStatement(s.getLocation(), e);
+    }
+
+    protected Statement rewriteIf(final IfStatement s) {
+        final Expression condition = rewrite(s.getCondition());
+        final Statement consequence = rewriteNested(s.getConsequence());
+        final Statement alternative = s.getAlternative() == null ? null : rewrite(s.getAlternative());
+        if (condition == s.getCondition() && consequence == s.getConsequence()
+                && alternative == s.getAlternative()) {
+            return s;
+        }
+        return new IfStatement(s.getLocation(), condition, consequence, alternative);
+    }
+
+    protected Statement rewriteReturn(final ReturnStatement s) {
+        final Expression e = rewrite(s.getExpression());
+        return e == s.getExpression() ? s : new ReturnStatement(s.getLocation(), e);
+    }
+
+    protected Statement rewriteWhile(final WhileStatement s) {
+        final Expression condition = rewrite(s.getCondition());
+        final Statement body = rewriteNested(s.getBody());
+        if (condition == s.getCondition() && body == s.getBody()) {
+            return s;
+        }
+        return new WhileStatement(s.getLocation(), condition, body);
+    }
+
+    protected Expression rewriteBinary(final BinaryExpression e) {
+        final Expression left = rewrite(e.getLeft());
+        final Expression right = rewrite(e.getRight());
+        if (left == e.getLeft() && right == e.getRight()) {
+            return e;
+        }
+        return new BinaryExpression(e.getOperator(), left, right);
+    }
+
+    protected Expression rewriteUnary(final UnaryExpression e) {
+        final Expression operand = rewrite(e.getOperand());
+        return operand == e.getOperand() ? e : new UnaryExpression(e.getOperator(), e.isPostfix(), operand);
+    }
+
+    protected Expression rewriteCall(final CallExpression e) {
+        boolean changed = false;
+        final List<Expression> arguments = new ArrayList<>();
+        for (final Expression arg : e.getArguments()) {
+            final Expression r = rewrite(arg);
+            changed |= r != arg;
+            arguments.add(r);
+        }
+        return changed ? new CallExpression(e.getToken(), e.getCallee(), arguments) : e;
+    }
+
+    protected Expression rewriteConditional(final ConditionalExpression e) {
+        final Expression condition = rewrite(e.getCondition());
+        final Expression consequence = rewrite(e.getConsequence());
+        final Expression alternative = rewrite(e.getAlternative());
+        if (condition == e.getCondition() && consequence == e.getConsequence()
+                && alternative == e.getAlternative()) {
+            return e;
+        }
+        return new ConditionalExpression(e.getToken(), condition, consequence, alternative);
+    }
+}
@@ -0,0 +1,150 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+
+/**
+ * The direct calls between the functions defined in a translation unit.
+ *
+ * Only calls whose callee is the name of a function definition are edges;
+ * calls of declared but not defined functions such as {@code print_integer}
+ * are recorded separately. The graph is a snapshot, it has to be rebuilt after
+ * the function bodies changed.
+ */
+public class CallGraph {
+    private final Map<String, FunctionDefinition> functions = new LinkedHashMap<>();
+    private final Map<String, Set<String>> callees = new LinkedHashMap<>();
+    private final Map<String, Set<String>> externalCallees = new LinkedHashMap<>();
+    private final Set<String> recursive = new HashSet<>();
+
+    /**
+     * Builds the call graph of the given translation unit.
+     *
+     * @param ast The translation unit.
+     */
+    public CallGraph(final AST ast) {
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            functions.put(f.getName().getText(), f);
+        }
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            final Set<String> internal = new LinkedHashSet<>();
+            final Set<String> external = new LinkedHashSet<>();
+            Statements.forEachExpression(f.getBody(), e -> collectCallees(e, internal, external));
+            callees.put(f.getName().getText(), internal);
+            externalCallees.put(f.getName().getText(), external);
+        }
+        for (final String name : functions.keySet()) {
+            if (reachable(name).contains(name)) {
+                recursive.add(name);
+            }
+        }
+    }
+
+    private void collectCallees(final Expression e, final Set<String> internal, final Set<String> external) {
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            final String name = Expressions.identifierName(c.getCallee());
+            if (name != null) {
+                (functions.containsKey(name) ? internal : external).add(name);
+            }
+            for (final Expression arg : c.getArguments()) {
+                collectCallees(arg, internal, external);
+            }
+        } else if (e instanceof BinaryExpression) {
+            collectCallees(((BinaryExpression) e).getLeft(), internal, external);
+            collectCallees(((BinaryExpression) e).getRight(), internal, external);
+        } else if (e instanceof UnaryExpression) {
+            collectCallees(((UnaryExpression) e).getOperand(), internal, external);
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectCallees(c.getCondition(), internal, external);
+            collectCallees(c.getConsequence(), internal, external);
+            collectCallees(c.getAlternative(), internal, external);
+        }
+    }
+
+    /**
+     * Returns the definition of the function with the given name, null if it is
+     * not defined in the translation unit.
+     */
+    public FunctionDefinition getFunction(final String name) {
+        return name == null ? null : functions.get(name);
+    }
+
+    /**
+     * Returns the defined functions called directly by the given function.
+     */
+    public Set<String> getCallees(final String name) {
+        final Set<String> result = callees.get(name);
+        return result == null ? new HashSet<String>() : result;
+    }
+
+    /**
+     * Returns the functions which are called by the given function but not
+     * defined in the translation unit, e.g. the built-in output functions.
+     */
+    public Set<String> getExternalCallees(final String name) {
+        final Set<String> result = externalCallees.get(name);
+        return result == null ? new HashSet<String>() : result;
+    }
+
+    /**
+     * Returns true if the function may call itself, directly or through other
+     * functions.
+     */
+    public boolean isRecursive(final String name) {
+        return recursive.contains(name);
+    }
+
+    /**
+     * Returns the functions which are transitively called by the given one.
+     */
+    public Set<String> reachable(final String name) {
+        final Set<String> seen = new LinkedHashSet<>();
+        final List<String> work = new ArrayList<>(getCallees(name));
+        while (!work.isEmpty()) {
+            final String next = work.remove(work.size() - 1);
+            if (seen.add(next)) {
+                work.addAll(getCallees(next));
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Returns the defined functions ordered such that callees come before their
+     * callers, except for calls within a recursive cycle. Functions are visited in
+     * the order of their definition, so the order is deterministic.
+     */
+    public List<FunctionDefinition> bottomUpOrder() {
+        final List<FunctionDefinition> order = new ArrayList<>();
+        final Set<String> visited = new HashSet<>();
+        for (final String name : functions.keySet()) {
+            visit(name, visited, order);
+        }
+        return order;
+    }
+
+    private void visit(final String name, final Set<String> visited, final List<FunctionDefinition> order) {
+        if (!visited.add(name)) {
+            return;
+        }
+        for (final String callee : getCallees(name)) {
+            visit(callee, visited, order);
+        }
+        order.add(functions.get(name));
+    }
+}
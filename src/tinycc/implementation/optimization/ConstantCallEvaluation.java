@@ -0,0 +1,142 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.statement.Statement;
+
+/**
+ * Replaces calls with constant arguments by their result.
+ *
+ * Calls of functions which have no effects and whose result only depends on
+ * their arguments (see {@link FunctionEffects#isEvaluable}) are evaluated by
+ * the {@link Interpreter}, e.g. {@code fact(7)} becomes {@code 5040}. A single
+ * evaluation is limited by a step and a memory budget, and all evaluations of
+ * the translation unit share a total step budget, so the compile time stays
+ * bounded. Calls which exceed a budget or whose evaluation is undefined are
+ * kept.
+ */
+public class ConstantCallEvaluation {
+    /** The default number of steps of a single evaluation. */
+    public static final int DEFAULT_MAX_STEPS = 100000;
+    /** The default number of variables which are live at the same time. */
+    public static final int DEFAULT_MAX_CELLS = 4096;
+    /** The default number of steps of all evaluations of a translation unit. */
+    public static final int DEFAULT_TOTAL_STEPS = 1000000;
+
+    private final int maxSteps;
+    private final int maxCells;
+    private final int totalSteps;
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Creates the pass with the default budgets.
+     */
+    public ConstantCallEvaluation() {
+        this(DEFAULT_MAX_STEPS, DEFAULT_MAX_CELLS, DEFAULT_TOTAL_STEPS);
+    }
+
+    /**
+     * Creates the pass.
+     *
+     * @param maxSteps   The number of steps of a single evaluation.
+     * @param maxCells   The number of variables which are live at the same time.
+     * @param totalSteps The number of steps of all evaluations.
+     */
+    public ConstantCallEvaluation(final int maxSteps, final int maxCells, final int totalSteps) {
+        this.maxSteps = maxSteps;
+        this.maxCells = maxCells;
+        this.totalSteps = totalSteps;
+    }
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        final Interpreter interpreter = new Interpreter(analyses.getCallGraph(), maxSteps, maxCells);
+        final Evaluator evaluator = new Evaluator(effects, interpreter, totalSteps, remarks);
+        final ConstantFolding folding = new ConstantFolding();
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            final Statement body = evaluator.rewriteNested(f.getBody());
+            if (body != f.getBody()) {
+                f.setBody(body);
+                folding.run(f, globalNames);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static final class Evaluator extends AstRewriter {
+        private final FunctionEffects effects;
+        private final Interpreter interpreter;
+        private final RemarkEmitter remarks;
+        private int budget;
+
+        Evaluator(final FunctionEffects effects, final Interpreter interpreter, final int budget,
+                final RemarkEmitter remarks) {
+            this.effects = effects;
+            this.interpreter = interpreter;
+            this.budget = budget;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected Expression rewriteCall(final CallExpression e) {
+            final Expression rewritten = super.rewriteCall(e);
+            final CallExpression call = (CallExpression) rewritten;
+            final String name = Expressions.identifierName(call.getCallee());
+            if (budget <= 0 || !effects.isEvaluable(name)) {
+                return rewritten;
+            }
+            final List<Integer> arguments = new ArrayList<>();
+            for (final Expression arg : call.getArguments()) {
+                final Integer value = Expressions.constantValue(arg);
+                if (value == null) {
+                    return rewritten;
+                }
+                arguments.add(value);
+            }
+            final Integer value = interpreter.call(name, arguments);
+            budget -= interpreter.getSteps();
+            if (value == null) {
+                remarks.missed("NotEvaluated", call.getToken(),
+                        "'%s' not evaluated: it exceeds the budget or its result is undefined", name);
+                return rewritten;
+            }
+            remarks.passed("Evaluated", call.getToken(), "'%s' evaluated to %d", name, value);
+            return Expressions.number(call.getToken(), value);
+        }
+    }
+}
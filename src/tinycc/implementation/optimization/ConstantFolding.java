@@ -0,0 +1,370 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.TokenKind;
+
+/**
+ * Evaluates constant expressions at compile time.
+ *
+ * Operators applied to constants are replaced by their result with the 32 bit
+ * wrap-around of the target, operations which are undefined or trap at run
+ * time (division by zero, oversized shifts) are kept. Neutral operands such as
+ * {@code x + 0} and {@code x * 1} are dropped, and if and while statements with
+ * a constant condition are replaced by the branch which is taken.
+ *
+ * Tracked int variables which are only written by a declaration with a constant
+ * initializer are replaced by the constant, so constants which other passes
+ * insert, e.g. arguments propagated into a function, are folded further.
+ */
+public class ConstantFolding {
+    /** The maximum number of rounds of propagation and folding per function. */
+    private static final int MAX_ROUNDS = 8;
+
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        boolean changed = false;
+        for (int round = 0; round < MAX_ROUNDS; ++round) {
+            final LocalVariables locals = new LocalVariables(function, globalNames);
+            final Statement body = new Folder(constants(function, locals), remarks).rewriteNested(function.getBody());
+            if (body == function.getBody()) {
+                break;
+            }
+            function.setBody(body);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the tracked int variables which are never changed after their
+     * initialization with a constant.
+     */
+    private static Map<String, Integer> constants(final FunctionDefinition function, final LocalVariables locals) {
+        final Map<String, Integer> constants = new HashMap<>();
+        Statements.forEachDeclaration(function.getBody(), d -> {
+            final Integer value = Expressions.constantValue(d.getInit());
+            if (value != null && isInt(d.getType()) && locals.isTracked(d.getName().getText())) {
+                constants.put(d.getName().getText(), value);
+            }
+        });
+        final Set<String> assigned = new HashSet<>();
+        Statements.forEachExpression(function.getBody(), e -> Expressions.collectAssignedNames(e, assigned));
+        constants.keySet().removeAll(assigned);
+        return constants;
+    }
+
+    private static boolean isInt(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.INT;
+    }
+
+    private static final class Folder extends AstRewriter {
+        private final Map<String, Integer> constants;
+        private final RemarkEmitter remarks;
+
+        Folder(final Map<String, Integer> constants, final RemarkEmitter remarks) {
+            this.constants = constants;
+            this.remarks = remarks;
+        }
+
+        @Override
+        public Expression rewrite(final Expression e) {
+            final String name = Expressions.identifierName(e);
+            if (name != null && constants.containsKey(name)) {
+                final Locatable loc = ((PrimaryExpression) e).getToken();
+                remarks.passed("Propagated", loc, "replaced '%s' by its value %d", name, constants.get(name));
+                return Expressions.number(loc, constants.get(name));
+            }
+            return super.rewrite(e);
+        }
+
+        @Override
+        protected Expression rewriteBinary(final BinaryExpression e) {
+            final Expression rewritten = super.rewriteBinary(e);
+            if (!(rewritten instanceof BinaryExpression)) {
+                return rewritten;
+            }
+            final BinaryExpression b = (BinaryExpression) rewritten;
+            final Expression folded = fold(b);
+            if (folded == null) {
+                return rewritten;
+            }
+            final Integer value = Expressions.constantValue(folded);
+            if (value != null) {
+                remarks.passed("Folded", b.getOperator(), "folded '%s' to %d", b.getOperator().getText(), value);
+            } else {
+                remarks.passed("Simplified", b.getOperator(), "simplified '%s'", b.getOperator().getText());
+            }
+            return folded;
+        }
+
+        @Override
+        protected Expression rewriteUnary(final UnaryExpression e) {
+            final Expression rewritten = super.rewriteUnary(e);
+            if (!(rewritten instanceof UnaryExpression)) {
+                return rewritten;
+            }
+            final UnaryExpression u = (UnaryExpression) rewritten;
+            final Integer value = Expressions.constantValue(u.getOperand());
+            if (value == null || Expressions.constantValue(u) != null) {
+                return u;
+            }
+            final Expression folded = foldUnary(u, value);
+            if (folded != u) {
+                remarks.passed("Folded", u.getOperator(), "folded '%s' to %d", u.getOperator().getText(),
+                        Expressions.constantValue(folded));
+            }
+            return folded;
+        }
+
+        @Override
+        protected Expression rewriteConditional(final ConditionalExpression e) {
+            final Expression rewritten = super.rewriteConditional(e);
+            if (!(rewritten instanceof ConditionalExpression)) {
+                return rewritten;
+            }
+            final ConditionalExpression c = (ConditionalExpression) rewritten;
+            final Integer value = Expressions.constantValue(c.getCondition());
+            if (value == null) {
+                return c;
+            }
+            remarks.passed("FoldedBranch", c.getToken(), "removed the %s arm of a conditional with constant condition",
+                    value != 0 ? "second" : "first");
+            return value != 0 ? c.getConsequence() : c.getAlternative();
+        }
+
+        private static Expression foldUnary(final UnaryExpression u, final int value) {
+            switch (u.getOperator().getKind()) {
+            case MINUS:
+                return Expressions.number(u.getOperator(), -value);
+            case TILDE:
+                return Expressions.number(u.getOperator(), ~value);
+            case BANG:
+                return Expressions.number(u.getOperator(), value == 0 ? 1 : 0);
+            case PLUS:
+                return Expressions.number(u.getOperator(), value);
+            default:
+                return u;
+            }
+        }
+
+        @Override
+        protected Statement rewriteIf(final IfStatement s) {
+            final Statement rewritten = super.rewriteIf(s);
+            if (!(rewritten instanceof IfStatement)) {
+                return rewritten;
+            }
+            final IfStatement i = (IfStatement) rewritten;
+            final Integer value = Expressions.constantValue(i.getCondition());
+            if (value == null) {
+                return i;
+            }
+            remarks.passed("FoldedBranch", i.getLocation(), "removed the %s branch of an if with constant condition",
+                    value != 0 ? "else" : "then");
+            return value != 0 ? scoped(i.getConsequence()) : scoped(i.getAlternative());
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            final Integer value = Expressions.constantValue(s.getCondition());
+            if (value != null && value == 0) {
+                remarks.passed("RemovedLoop", s.getLocation(), "removed a loop whose condition is always false");
+                return null;
+            }
+            return super.rewriteWhile(s);
+        }
+
+        /**
+         * Returns a branch which replaces its if statement. A declaration gets a
+         * block of its own, so it keeps its scope.
+         */
+        private Statement scoped(final Statement s) {
+            if (s instanceof DeclarationStatement) {
+                final List<Statement> block = new ArrayList<>();
+                block.add(s);
+                return new BlockStatement(Statements.location(s), block);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Folds a binary expression whose operands have already been folded.
+     *
+     * @return The folded expression or null if it cannot be simplified.
+     */
+    static Expression fold(final BinaryExpression b) {
+        final Locatable loc = b.getOperator();
+        final TokenKind kind = b.getOperator().getKind();
+        final Integer left = Expressions.constantValue(b.getLeft());
+        final Integer right = Expressions.constantValue(b.getRight());
+        if (left != null && right != null) {
+            final Integer value = evaluate(kind, left, right);
+            return value == null ? null : Expressions.number(loc, value);
+        }
+        switch (kind) {
+        case AND_AND:
+            if (left != null) {
+                return left == 0 ? Expressions.number(loc, 0) : truthValue(loc, b.getRight());
+            }
+            if (right != null && right != 0) {
+                return truthValue(loc, b.getLeft());
+            }
+            break;
+        case PIPE_PIPE:
+            if (left != null) {
+                return left != 0 ? Expressions.number(loc, 1) : truthValue(loc, b.getRight());
+            }
+            if (right != null && right == 0) {
+                return truthValue(loc, b.getLeft());
+            }
+            break;
+        case COMMA:
+            if (!Expressions.hasSideEffects(b.getLeft())) {
+                return b.getRight();
+            }
+            break;
+        case PLUS:
+            if (right != null && right == 0) {
+                return b.getLeft();
+            }
+            if (left != null && left == 0) {
+                return b.getRight();
+            }
+            break;
+        case MINUS:
+        case LESS_LESS:
+        case GREATER_GREATER:
+            if (right != null && right == 0) {
+                return b.getLeft();
+            }
+            break;
+        case ASTERISK:
+            if (right != null && right == 1) {
+                return b.getLeft();
+            }
+            if (left != null && left == 1) {
+                return b.getRight();
+            }
+            break;
+        case SLASH:
+            if (right != null && right == 1) {
+                return b.getLeft();
+            }
+            break;
+        default:
+            break;
+        }
+        return null;
+    }
+
+    private static Expression truthValue(final Locatable loc, final Expression e) {
+        final Integer value = Expressions.constantValue(e);
+        if (value != null) {
+            return Expressions.number(loc, value != 0 ? 1 : 0);
+        }
+        return Expressions.binary(loc, TokenKind.BANG_EQUAL, e, Expressions.number(loc, 0));
+    }
+
+    /**
+     * Evaluates a binary operator with the semantics of the target.
+     *
+     * @return The result or null if the operation is undefined.
+     */
+    static Integer evaluate(final TokenKind kind, final int left, final int right) {
+        switch (kind) {
+        case PLUS:
+            return left + right;
+        case MINUS:
+            return left - right;
+        case ASTERISK:
+            return left * right;
+        case SLASH:
+            return right == 0 || left == Integer.MIN_VALUE && right == -1 ? null : left / right;
+        case PERCENT:
+            return right == 0 || left == Integer.MIN_VALUE && right == -1 ? null : left % right;
+        case LESS_LESS:
+            return right < 0 || right > 31 ? null : left << right;
+        case GREATER_GREATER:
+            return right < 0 || right > 31 ? null : left >> right;
+        case AND:
+            return left & right;
+        case PIPE:
+            return left | right;
+        case HAT:
+            return left ^ right;
+        case LESS:
+            return left < right ? 1 : 0;
+        case LESS_EQUAL:
+            return left <= right ? 1 : 0;
+        case GREATER:
+            return left > right ? 1 : 0;
+        case GREATER_EQUAL:
+            return left >= right ? 1 : 0;
+        case EQUAL_EQUAL:
+            return left == right ? 1 : 0;
+        case BANG_EQUAL:
+            return left != right ? 1 : 0;
+        case AND_AND:
+            return left != 0 && right != 0 ? 1 : 0;
+        case PIPE_PIPE:
+            return left != 0 || right != 0 ? 1 : 0;
+        case COMMA:
+            return right;
+        default:
+            return null;
+        }
+    }
+}
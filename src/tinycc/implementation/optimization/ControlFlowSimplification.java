@@ -0,0 +1,632 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Simplifies the control flow of the functions.
+ *
+ * The AST is the control-flow graph of a function in structured form, so the
+ * pass works on statements:
+ *
+ * - Conditions whose outcome is known where they are evaluated are replaced by
+ *   the outcome. Inside the branches of an if and the body of a while its
+ *   condition is known, behind a while its condition is false, the right
+ *   operand of && and || is evaluated knowing the left one and the arms of ?:
+ *   knowing the condition. A condition stays known until one of its
+ *   variables is assigned.
+ * - An if statement which follows another one and whose outcome is decided on
+ *   each of the edges out of the first one is threaded into its branches:
+ *   <pre>
+ *     if (x &lt; y) a(); else b(); if (x &gt;= y) c();
+ *   becomes
+ *     if (x &lt; y) a(); else { b(); c(); }
+ *   </pre>
+ * - Nested blocks are merged into the enclosing block if this does not change
+ *   the scope of a name, empty blocks and empty branches are removed.
+ *
+ * Only conditions without side effects which read tracked variables and
+ * constants are known, as nothing else can change them unnoticed. Afterwards
+ * {@link ConstantFolding} folds the decided conditions and branches.
+ */
+public class ControlFlowSimplification {
+    private static final int MAX_ITERATIONS = 4;
+
+    private final ConstantFolding folding = new ConstantFolding();
+
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        // Folding the decided branches may leave new blocks to merge.
+        boolean changed = false;
+        for (int i = 0; i < MAX_ITERATIONS; ++i) {
+            final LocalVariables locals = new LocalVariables(function, globalNames);
+            final Simplifier simplifier = new Simplifier(locals, uniqueNames(function, globalNames), remarks);
+            final Statement body = simplifier.simplify(function.getBody(), new ArrayList<Fact>());
+            if (body == function.getBody()) {
+                break;
+            }
+            function.setBody(body);
+            folding.run(function, globalNames);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the names which are declared exactly once in the function and do
+     * not name a global symbol, so their declaration may move to an enclosing
+     * scope.
+     */
+    private static Set<String> uniqueNames(final FunctionDefinition function, final Set<String> globalNames) {
+        final Map<String, Integer> declarations = new HashMap<>();
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                declarations.merge(p.getText(), 1, Integer::sum);
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(),
+                d -> declarations.merge(d.getName().getText(), 1, Integer::sum));
+        final Set<String> unique = new HashSet<>();
+        for (final Map.Entry<String, Integer> e : declarations.entrySet()) {
+            if (e.getValue() == 1 && !globalNames.contains(e.getKey())) {
+                unique.add(e.getKey());
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * A condition with a known truth value.
+     */
+    private static final class Fact {
+        final Expression condition;
+        final boolean value;
+        final Set<String> names = new HashSet<>();
+
+        Fact(final Expression condition, final boolean value) {
+            this.condition = condition;
+            this.value = value;
+            Expressions.collectNames(condition, names);
+        }
+    }
+
+    private static final class Simplifier {
+        private final LocalVariables locals;
+        private final Set<String> uniqueNames;
+        private final RemarkEmitter remarks;
+
+        Simplifier(final LocalVariables locals, final Set<String> uniqueNames, final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.uniqueNames = uniqueNames;
+            this.remarks = remarks;
+        }
+
+        /**
+         * Simplifies a statement.
+         *
+         * @param s     The statement.
+         * @param facts The facts which hold before the statement. Updated to
+         *              the facts which hold after it.
+         * @return The simplified statement, an empty block if nothing is left.
+         */
+        Statement simplify(final Statement s, final List<Fact> facts) {
+            if (s instanceof BlockStatement) {
+                return simplifyBlock((BlockStatement) s, facts);
+            }
+            if (s instanceof DeclarationStatement) {
+                final DeclarationStatement d = (DeclarationStatement) s;
+                final Expression init = substitute(d.getInit(), facts, false);
+                kill(facts, d);
+                return init == d.getInit() ? d : new DeclarationStatement(d.getType(), d.getName(), init);
+            }
+            if (s instanceof ExpressionStatement) {
+                final ExpressionStatement e = (ExpressionStatement) s;
+                final Expression expression = substitute(e.getExpression(), facts, false);
+                kill(facts, e);
+                return expression == e.getExpression() ? e : new ExpressionStatement(e.getLocation(), expression);
+            }
+            if (s instanceof ReturnStatement) {
+                final ReturnStatement r = (ReturnStatement) s;
+                final Expression e = substitute(r.getExpression(), facts, false);
+                return e == r.getExpression() ? r : new ReturnStatement(r.getLocation(), e);
+            }
+            if (s instanceof IfStatement) {
+                return simplifyIf((IfStatement) s, facts);
+            }
+            if (s instanceof WhileStatement) {
+                return simplifyWhile((WhileStatement) s, facts);
+            }
+            return s;
+        }
+
+        private Statement simplifyBlock(final BlockStatement s, final List<Fact> facts) {
+            final List<Statement> statements = s.getStatements();
+            final List<Statement> result = new ArrayList<>();
+            boolean changed = false;
+            for (int i = 0; i < statements.size(); ++i) {
+                Statement current = statements.get(i);
+                // Thread the following if statements into the branches.
+                while (current instanceof IfStatement && i + 1 < statements.size()) {
+                    final Statement threaded = thread((IfStatement) current, statements.get(i + 1));
+                    if (threaded == null) {
+                        break;
+                    }
+                    current = threaded;
+                    ++i;
+                }
+                final Statement simplified = simplify(current, facts);
+                changed |= simplified != statements.get(i) || current != statements.get(i);
+                if (isEmpty(simplified)) {
+                    if (isEmpty(current)) {
+                        remarks.passed("RemovedBlock", Statements.location(current), "empty block removed");
+                    }
+                    changed = true;
+                } else if (simplified instanceof BlockStatement && isMergeable((BlockStatement) simplified)) {
+                    remarks.passed("MergedBlock", Statements.location(simplified),
+                            "nested block merged into the enclosing block");
+                    result.addAll(((BlockStatement) simplified).getStatements());
+                    changed = true;
+                } else {
+                    result.add(simplified);
+                }
+            }
+            return changed ? new BlockStatement(s.getLocation(), result) : s;
+        }
+
+        /**
+         * Returns true if the statements of a nested block may be spliced into
+         * the enclosing block, i.e. it only declares unique names.
+         */
+        private boolean isMergeable(final BlockStatement b) {
+            for (final Statement s : b.getStatements()) {
+                if (s instanceof DeclarationStatement
+                        && !uniqueNames.contains(((DeclarationStatement) s).getName().getText())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves the if statement next into the branches of first, if its outcome
+         * is decided differently on both edges out of first.
+         *
+         * @return The combined statement or null if next cannot be threaded.
+         */
+        private Statement thread(final IfStatement first, final Statement next) {
+            if (!(next instanceof IfStatement) || !isPure(first.getCondition())) {
+                return null;
+            }
+            final IfStatement second = (IfStatement) next;
+            final List<Fact> whenTrue = new ArrayList<>();
+            assume(first.getCondition(), true, whenTrue);
+            final List<Fact> whenFalse = new ArrayList<>();
+            assume(first.getCondition(), false, whenFalse);
+            final Boolean afterTrue = known(second.getCondition(), whenTrue);
+            final Boolean afterFalse = known(second.getCondition(), whenFalse);
+            if (afterTrue == null || afterFalse == null || afterTrue.equals(afterFalse)) {
+                return null;
+            }
+            final Set<String> assigned = new HashSet<>();
+            Statements.collectAssignedNames(first.getConsequence(), assigned);
+            Statements.collectAssignedNames(first.getAlternative(), assigned);
+            Expressions.collectAssignedNames(first.getCondition(), assigned);
+            for (final Fact f : whenTrue) {
+                if (containsAny(assigned, f.names)) {
+                    return null;
+                }
+            }
+            remarks.passed("Threaded", second.getLocation(), "if threaded into the branches of the if at line %d",
+                    first.getLocation().getLine());
+            final Statement consequence = append(first.getConsequence(),
+                    afterTrue ? second.getConsequence() : second.getAlternative());
+            final Statement alternative = append(first.getAlternative(),
+                    afterFalse ? second.getConsequence() : second.getAlternative());
+            return new IfStatement(first.getLocation(), first.getCondition(), consequence, alternative);
+        }
+
+        private static Statement append(final Statement branch, final Statement s) {
+            if (s == null) {
+                return branch;
+            }
+            final List<Statement> block = new ArrayList<>();
+            if (branch != null) {
+                block.add(branch);
+            }
+            block.add(s);
+            return new BlockStatement(Statements.location(s), block);
+        }
+
+        private Statement simplifyIf(final IfStatement s, final List<Fact> facts) {
+            final Expression condition = substitute(s.getCondition(), facts, true);
+            killAssigned(facts, condition);
+            final List<Fact> whenTrue = new ArrayList<>(facts);
+            assume(condition, true, whenTrue);
+            final List<Fact> whenFalse = new ArrayList<>(facts);
+            assume(condition, false, whenFalse);
+            Statement consequence = simplify(s.getConsequence(), whenTrue);
+            Statement alternative = s.getAlternative() == null ? null : simplify(s.getAlternative(), whenFalse);
+
+            // The facts after the if are those of the branches which complete.
+            facts.clear();
+            if (Statements.neverCompletes(consequence)) {
+                facts.addAll(whenFalse);
+            } else if (alternative != null && Statements.neverCompletes(alternative)) {
+                facts.addAll(whenTrue);
+            } else {
+                for (final Fact f : whenTrue) {
+                    if (whenFalse.contains(f)) {
+                        facts.add(f);
+                    }
+                }
+            }
+
+            if (alternative != null && isEmpty(alternative)) {
+                remarks.passed("RemovedBranch", Statements.location(s.getAlternative()), "empty else branch removed");
+                alternative = null;
+            }
+            if (isEmpty(consequence)) {
+                remarks.passed("RemovedBranch", Statements.location(s.getConsequence()), "empty branch removed");
+                if (alternative == null) {
+                    return Expressions.hasSideEffects(condition) ? new ExpressionStatement(s.getLocation(), condition)
+                            : new BlockStatement(s.getLocation(), new ArrayList<Statement>());
+                }
+                final Token bang = new Token(s.getLocation(), TokenKind.BANG);
+                return new IfStatement(s.getLocation(), new UnaryExpression(bang, false, condition), alternative,
+                        null);
+            }
+            if (condition == s.getCondition() && consequence == s.getConsequence()
+                    && alternative == s.getAlternative()) {
+                return s;
+            }
+            return new IfStatement(s.getLocation(), condition, consequence, alternative);
+        }
+
+        private Statement simplifyWhile(final WhileStatement s, final List<Fact> facts) {
+            // Only the facts which the loop does not change hold at its head.
+            final Set<String> modified = new HashSet<>();
+            Expressions.collectAssignedNames(s.getCondition(), modified);
+            Statements.collectAssignedNames(s.getBody(), modified);
+            Statements.forEachDeclaration(s.getBody(), d -> modified.add(d.getName().getText()));
+            facts.removeIf(f -> containsAny(modified, f.names));
+
+            final Expression condition = substitute(s.getCondition(), facts, true);
+            final List<Fact> inBody = new ArrayList<>(facts);
+            assume(condition, true, inBody);
+            final Statement body = simplify(s.getBody(), inBody);
+            assume(condition, false, facts);
+            if (condition == s.getCondition() && body == s.getBody()) {
+                return s;
+            }
+            return new WhileStatement(s.getLocation(), condition, body);
+        }
+
+        /**
+         * Replaces the known conditions in the expression by their values.
+         *
+         * @param e         The expression (may be null).
+         * @param facts     The facts which hold before the expression.
+         * @param condition True if only the truth value of the expression is
+         *                  used, so it may be replaced even if it is no
+         *                  comparison.
+         * @return The rewritten expression.
+         */
+        private Expression substitute(final Expression e, final List<Fact> facts, final boolean condition) {
+            if (e == null) {
+                return e;
+            }
+            // Assignments inside the expression may invalidate a fact before
+            // the condition is evaluated. Without facts the operands of && and
+            // || and the arms of ?: may still be decided by each other.
+            final List<Fact> usable = new ArrayList<>(facts);
+            killAssigned(usable, e);
+            final Substitution substitution = new Substitution(usable);
+            return condition ? substitution.condition(e) : substitution.rewrite(e);
+        }
+
+        private final class Substitution extends AstRewriter {
+            private final List<Fact> facts;
+
+            Substitution(final List<Fact> facts) {
+                this.facts = facts;
+            }
+
+            /**
+             * Rewrites an expression whose truth value is used.
+             */
+            Expression condition(final Expression e) {
+                final Boolean value = known(e, facts);
+                if (value != null) {
+                    remarks.passed("Decided", Expressions.location(e), "condition is always %s here",
+                            value ? "true" : "false");
+                    return Expressions.number(Expressions.location(e), value ? 1 : 0);
+                }
+                return super.rewrite(e);
+            }
+
+            @Override
+            public Expression rewrite(final Expression e) {
+                // A comparison is 0 or 1, other expressions are only known to
+                // be zero or nonzero.
+                return isBoolean(e) ? condition(e) : super.rewrite(e);
+            }
+
+            @Override
+            protected Expression rewriteUnary(final UnaryExpression e) {
+                if (e.getOperator().getKind() != TokenKind.BANG) {
+                    return super.rewriteUnary(e);
+                }
+                final Expression operand = condition(e.getOperand());
+                return operand == e.getOperand() ? e : new UnaryExpression(e.getOperator(), false, operand);
+            }
+
+            @Override
+            protected Expression rewriteBinary(final BinaryExpression e) {
+                final TokenKind kind = e.getOperator().getKind();
+                if (kind != TokenKind.AND_AND && kind != TokenKind.PIPE_PIPE) {
+                    return super.rewriteBinary(e);
+                }
+                // The right operand is evaluated knowing the left one.
+                final Expression left = condition(e.getLeft());
+                final List<Fact> inner = new ArrayList<>(facts);
+                killAssigned(inner, left);
+                assume(left, kind == TokenKind.AND_AND, inner);
+                final Expression right = new Substitution(inner).condition(e.getRight());
+                if (left == e.getLeft() && right == e.getRight()) {
+                    return e;
+                }
+                return new BinaryExpression(e.getOperator(), left, right);
+            }
+
+            @Override
+            protected Expression rewriteConditional(final ConditionalExpression e) {
+                // The arms are evaluated knowing the condition.
+                final Expression condition = condition(e.getCondition());
+                final Expression consequence = arm(condition, true, e.getConsequence());
+                final Expression alternative = arm(condition, false, e.getAlternative());
+                if (condition == e.getCondition() && consequence == e.getConsequence()
+                        && alternative == e.getAlternative()) {
+                    return e;
+                }
+                return new ConditionalExpression(e.getToken(), condition, consequence, alternative);
+            }
+
+            private Expression arm(final Expression condition, final boolean truth, final Expression arm) {
+                final List<Fact> inner = new ArrayList<>(facts);
+                killAssigned(inner, condition);
+                assume(condition, truth, inner);
+                killAssigned(inner, arm);
+                return new Substitution(inner).rewrite(arm);
+            }
+        }
+
+        /**
+         * Adds the facts which hold if the condition has the given truth value.
+         */
+        private void assume(final Expression condition, final boolean truth, final List<Fact> facts) {
+            if (!isPure(condition) || Expressions.constantValue(condition) != null) {
+                return;
+            }
+            if (condition instanceof UnaryExpression
+                    && ((UnaryExpression) condition).getOperator().getKind() == TokenKind.BANG) {
+                assume(((UnaryExpression) condition).getOperand(), !truth, facts);
+                return;
+            }
+            if (condition instanceof BinaryExpression) {
+                final BinaryExpression b = (BinaryExpression) condition;
+                final TokenKind kind = b.getOperator().getKind();
+                if (kind == TokenKind.AND_AND && truth || kind == TokenKind.PIPE_PIPE && !truth) {
+                    assume(b.getLeft(), truth, facts);
+                    assume(b.getRight(), truth, facts);
+                }
+            }
+            facts.add(new Fact(condition, truth));
+        }
+
+        /**
+         * Returns the truth value of the condition if it follows from a fact,
+         * null otherwise.
+         */
+        private Boolean known(final Expression e, final List<Fact> facts) {
+            for (final Fact f : facts) {
+                if (Expressions.equal(f.condition, e)) {
+                    return f.value;
+                }
+                final Boolean related = compare(f, e);
+                if (related != null) {
+                    return related;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Decides a comparison by a fact about a comparison of the same
+         * operands, e.g. {@code a >= b} is false if {@code a < b} holds.
+         */
+        private static Boolean compare(final Fact f, final Expression e) {
+            if (!(f.condition instanceof BinaryExpression) || !(e instanceof BinaryExpression)) {
+                return null;
+            }
+            final BinaryExpression fact = (BinaryExpression) f.condition;
+            final BinaryExpression query = (BinaryExpression) e;
+            final TokenKind known = fact.getOperator().getKind();
+            final TokenKind asked = query.getOperator().getKind();
+            if (negate(known) == null || negate(asked) == null) {
+                return null;
+            }
+            TokenKind op = known;
+            if (Expressions.equal(fact.getLeft(), query.getRight()) && Expressions.equal(fact.getRight(), query.getLeft())) {
+                op = mirror(known);
+            } else if (!Expressions.equal(fact.getLeft(), query.getLeft())
+                    || !Expressions.equal(fact.getRight(), query.getRight())) {
+                return null;
+            }
+            if (asked == op) {
+                return f.value;
+            }
+            if (asked == negate(op)) {
+                return !f.value;
+            }
+            return null;
+        }
+
+        /**
+         * Returns true if the value of the expression only depends on tracked
+         * variables and constants, so only assignments to these can change it.
+         */
+        private boolean isPure(final Expression e) {
+            if (Expressions.hasSideEffects(e) || Expressions.containsLoad(e)) {
+                return false;
+            }
+            final Set<String> names = new HashSet<>();
+            Expressions.collectNames(e, names);
+            for (final String name : names) {
+                if (!locals.isTracked(name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void kill(final List<Fact> facts, final Statement s) {
+            final Set<String> assigned = new HashSet<>();
+            Statements.collectAssignedNames(s, assigned);
+            if (s instanceof DeclarationStatement) {
+                assigned.add(((DeclarationStatement) s).getName().getText());
+            }
+            facts.removeIf(f -> containsAny(assigned, f.names));
+        }
+
+        private static void killAssigned(final List<Fact> facts, final Expression e) {
+            final Set<String> assigned = new HashSet<>();
+            Expressions.collectAssignedNames(e, assigned);
+            facts.removeIf(f -> containsAny(assigned, f.names));
+        }
+    }
+
+    private static boolean containsAny(final Set<String> a, final Set<String> b) {
+        for (final String name : b) {
+            if (a.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the statement does nothing, i.e. it is a block of empty
+     * statements.
+     */
+    private static boolean isEmpty(final Statement s) {
+        if (!(s instanceof BlockStatement)) {
+            return false;
+        }
+        for (final Statement inner : ((BlockStatement) s).getStatements()) {
+            if (!isEmpty(inner)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the value of the expression is 0 or 1.
+     */
+    private static boolean isBoolean(final Expression e) {
+        if (e instanceof UnaryExpression) {
+            return ((UnaryExpression) e).getOperator().getKind() == TokenKind.BANG;
+        }
+        if (!(e instanceof BinaryExpression)) {
+            return false;
+        }
+        final TokenKind kind = ((BinaryExpression) e).getOperator().getKind();
+        return kind == TokenKind.AND_AND || kind == TokenKind.PIPE_PIPE || negate(kind) != null;
+    }
+
+    private static TokenKind negate(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+            return TokenKind.GREATER_EQUAL;
+        case LESS_EQUAL:
+            return TokenKind.GREATER;
+        case GREATER:
+            return TokenKind.LESS_EQUAL;
+        case GREATER_EQUAL:
+            return TokenKind.LESS;
+        case EQUAL_EQUAL:
+            return TokenKind.BANG_EQUAL;
+        case BANG_EQUAL:
+            return TokenKind.EQUAL_EQUAL;
+        default:
+            return null;
+        }
+    }
+
+    private static TokenKind mirror(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+            return TokenKind.GREATER;
+        case LESS_EQUAL:
+            return TokenKind.GREATER_EQUAL;
+        case GREATER:
+            return TokenKind.LESS;
+        case GREATER_EQUAL:
+            return TokenKind.LESS_EQUAL;
+        default:
+            return kind;
+        }
+    }
+}
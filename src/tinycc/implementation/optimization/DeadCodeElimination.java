@@ -0,0 +1,523 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+
+/**
+ * Removes code which does not contribute to the result of the program:
+ *
+ * - functions which are not reachable from {@code main},
+ * - statements which follow a statement that never completes (e.g. a return),
+ * - assignments to local variables whose value is never read again,
+ * - stores to memory which are overwritten by a following statement of the
+ *   same block before the object may be read (see {@link AliasAnalysis}),
+ * - expression statements without side effects and unused declarations.
+ *
+ * Calls of pure functions (see {@link FunctionEffects}) have no side effects,
+ * so they are removed if their result is not used.
+ *
+ * Functions are only removed if the translation unit defines {@code main}, i.e.
+ * it is a whole program. Otherwise every function may be called from another
+ * translation unit.
+ */
+public class DeadCodeElimination {
+    private static final int MAX_ITERATIONS = 16;
+
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        boolean changed = removeUnreachableFunctions(ast);
+        if (changed) {
+            analyses.invalidate();
+        }
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= removeOverwrittenStores(ast, f, globalNames, effects);
+            changed |= run(f, globalNames, effects);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the stores to memory of a function which are overwritten before
+     * they may be read.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation
+     *                    unit, null if every call has side effects.
+     * @return True if the function was changed.
+     */
+    public boolean removeOverwrittenStores(final AST ast, final FunctionDefinition function,
+            final Set<String> globalNames, final FunctionEffects effects) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final AliasAnalysis aliases = new AliasAnalysis(ast, function, locals);
+        final Statement body = new OverwrittenStoreRemover(aliases, effects, remarks).rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        return run(function, globalNames, null);
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation
+     *                    unit, null if every call has side effects.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames,
+            final FunctionEffects effects) {
+        Statement body = new UnreachableCodeRemover(remarks).rewriteNested(function.getBody());
+        boolean changed = body != function.getBody();
+        function.setBody(body);
+
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        for (int i = 0; i != MAX_ITERATIONS; ++i) {
+            final DeadStoreRemover stores = new DeadStoreRemover(locals, effects, remarks);
+            body = stores.process(body, new HashSet<String>(), true);
+
+            final Set<String> used = new HashSet<>();
+            Statements.collectNames(body, used);
+            body = new UnusedDeclarationRemover(locals, used, remarks).rewriteNested(body);
+
+            if (body == function.getBody()) {
+                break;
+            }
+            changed = true;
+            function.setBody(body);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes every function which cannot be reached from {@code main}. A function
+     * is reachable if its name is mentioned in a reachable function.
+     *
+     * @param ast The translation unit.
+     * @return True if a function was removed.
+     */
+    public boolean removeUnreachableFunctions(final AST ast) {
+        final Map<String, FunctionDefinition> functions = new HashMap<>();
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            functions.put(f.getName().getText(), f);
+        }
+        if (!functions.containsKey("main")) {
+            return false;
+        }
+
+        final Set<String> reachable = new HashSet<>();
+        final Deque<String> worklist = new ArrayDeque<>();
+        reachable.add("main");
+        worklist.add("main");
+        while (!worklist.isEmpty()) {
+            final Set<String> names = new HashSet<>();
+            Statements.collectNames(functions.get(worklist.poll()).getBody(), names);
+            for (final String name : names) {
+                if (functions.containsKey(name) && reachable.add(name)) {
+                    worklist.add(name);
+                }
+            }
+        }
+        return ast.getFunctionDefinitions().removeIf(f -> {
+            if (reachable.contains(f.getName().getText())) {
+                return false;
+            }
+            remarks.passed("RemovedFunction", f.getName(), "'%s' removed, it is not reachable from main",
+                    f.getName().getText());
+            return true;
+        });
+    }
+
+    /**
+     * Drops all statements of a block which follow a statement that never
+     * completes.
+     */
+    private static final class UnreachableCodeRemover extends AstRewriter {
+        private final RemarkEmitter remarks;
+
+        UnreachableCodeRemover(final RemarkEmitter remarks) {
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected List<Statement> rewriteStatements(final List<Statement> statements) {
+            final List<Statement> result = super.rewriteStatements(statements);
+            for (int i = 0; i < result.size() - 1; ++i) {
+                if (Statements.neverCompletes(result.get(i))) {
+                    remarks.passed("RemovedCode", Statements.location(result.get(i + 1)),
+                            "unreachable code removed, the statement at line %d never completes",
+                            Statements.location(result.get(i)).getLine());
+                    return new ArrayList<>(result.subList(0, i + 1));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Removes declarations of tracked variables which are never mentioned.
+     */
+    private static final class UnusedDeclarationRemover extends AstRewriter {
+        private final LocalVariables locals;
+        private final Set<String> used;
+        private final RemarkEmitter remarks;
+
+        UnusedDeclarationRemover(final LocalVariables locals, final Set<String> used, final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.used = used;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected Statement rewriteDeclaration(final DeclarationStatement s) {
+            final String name = s.getName().getText();
+            if (s.getInit() == null && locals.isTracked(name) && !used.contains(name)) {
+                remarks.passed("RemovedDeclaration", s.getName(), "unused declaration of '%s' removed", name);
+                return null;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Backward liveness analysis of the tracked variables which removes stores to
+     * dead variables on the way.
+     */
+    private static final class DeadStoreRemover {
+        private final LocalVariables locals;
+        private final FunctionEffects effects;
+        private final RemarkEmitter remarks;
+
+        DeadStoreRemover(final LocalVariables locals, final FunctionEffects effects, final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.effects = effects;
+            this.remarks = remarks;
+        }
+
+        private boolean hasSideEffects(final Expression e) {
+            return effects == null ? Expressions.hasSideEffects(e) : effects.hasSideEffects(e);
+        }
+
+        /**
+         * Processes a statement backwards.
+         *
+         * @param s       The statement.
+         * @param live    The variables live after the statement. Updated to the
+         *                variables live before the statement.
+         * @param rewrite If false, only the liveness is computed.
+         * @return The rewritten statement.
+         */
+        Statement process(final Statement s, final Set<String> live, final boolean rewrite) {
+            final List<Statement> r = processInList(s, live, rewrite);
+            if (r.size() == 1) {
+                return r.get(0);
+            }
+            return new BlockStatement(Statements.location(s), r);
+        }
+
+        private List<Statement> processInList(final Statement s, final Set<String> live, final boolean rewrite) {
+            if (s instanceof BlockStatement) {
+                return Collections.singletonList(processBlock((BlockStatement) s, live, rewrite));
+            }
+            if (s instanceof DeclarationStatement) {
+                return processDeclaration((DeclarationStatement) s, live, rewrite);
+            }
+            if (s instanceof ExpressionStatement) {
+                return processExpression((ExpressionStatement) s, live, rewrite);
+            }
+            if (s instanceof IfStatement) {
+                return Collections.singletonList(processIf((IfStatement) s, live, rewrite));
+            }
+            if (s instanceof ReturnStatement) {
+                live.clear();
+                Expressions.collectNames(((ReturnStatement) s).getExpression(), live);
+                return Collections.singletonList(s);
+            }
+            if (s instanceof WhileStatement) {
+                return Collections.singletonList(processWhile((WhileStatement) s, live, rewrite));
+            }
+            return Collections.singletonList(s);
+        }
+
+        private Statement processBlock(final BlockStatement s, final Set<String> live, final boolean rewrite) {
+            final List<Statement> statements = s.getStatements();
+            final List<Statement> result = new ArrayList<>();
+            boolean changed = false;
+            for (int i = statements.size() - 1; i >= 0; --i) {
+                final Statement old = statements.get(i);
+                final List<Statement> r = processInList(old, live, rewrite);
+                changed |= r.size() != 1 || r.get(0) != old;
+                result.addAll(0, r);
+            }
+            return changed && rewrite ? new BlockStatement(s.getLocation(), result) : s;
+        }
+
+        private List<Statement> processDeclaration(final DeclarationStatement s, final Set<String> live,
+                final boolean rewrite) {
+            final String name = s.getName().getText();
+            final Expression init = s.getInit();
+            final boolean dead = !live.remove(name);
+            if (init != null && locals.isTracked(name) && dead) {
+                if (rewrite) {
+                    remarks.passed("RemovedStore", s.getName(), "dead initialization of '%s' removed", name);
+                }
+                final List<Statement> result = new ArrayList<>();
+                result.add(new DeclarationStatement(s.getType(), s.getName(), null));
+                if (hasSideEffects(init)) {
+                    result.add(new ExpressionStatement(s.getName(), init));
+                    Expressions.collectNames(init, live);
+                }
+                return result;
+            }
+            Expressions.collectNames(init, live);
+            return Collections.singletonList(s);
+        }
+
+        private List<Statement> processExpression(final ExpressionStatement s, final Set<String> live,
+                final boolean rewrite) {
+            final Expression e = s.getExpression();
+            if (!hasSideEffects(e)) {
+                if (rewrite) {
+                    remarks.passed("RemovedCode", s.getLocation(), "statement without effect removed");
+                }
+                return Collections.emptyList();
+            }
+            if (Expressions.isAssignment(e)) {
+                final BinaryExpression assignment = (BinaryExpression) e;
+                final String target = Expressions.identifierName(assignment.getLeft());
+                if (locals.isTracked(target)) {
+                    final Expression value = assignment.getRight();
+                    if (!live.contains(target)) {
+                        if (rewrite) {
+                            remarks.passed("RemovedStore", s.getLocation(), "dead store to '%s' removed", target);
+                        }
+                        if (!hasSideEffects(value)) {
+                            return Collections.emptyList();
+                        }
+                        return processExpression(new ExpressionStatement(s.getLocation(), value), live, false);
+                    }
+                    live.remove(target);
+                    Expressions.collectNames(value, live);
+                    return Collections.singletonList(s);
+                }
+            } else if (Expressions.isIncDec(e)) {
+                final String target = Expressions.identifierName(((UnaryExpression) e).getOperand());
+                if (locals.isTracked(target) && !live.contains(target)) {
+                    if (rewrite) {
+                        remarks.passed("RemovedStore", s.getLocation(), "dead update of '%s' removed", target);
+                    }
+                    return Collections.emptyList();
+                }
+            }
+            Expressions.collectNames(e, live);
+            return Collections.singletonList(s);
+        }
+
+        private Statement processIf(final IfStatement s, final Set<String> live, final boolean rewrite) {
+            final Set<String> liveAlternative = new HashSet<>(live);
+            final Statement consequence = process(s.getConsequence(), live, rewrite);
+            final Statement alternative = s.getAlternative() == null ? null
+                    : process(s.getAlternative(), liveAlternative, rewrite);
+            live.addAll(liveAlternative);
+            Expressions.collectNames(s.getCondition(), live);
+            if (!rewrite || (consequence == s.getConsequence() && alternative == s.getAlternative())) {
+                return s;
+            }
+            return new IfStatement(s.getLocation(), s.getCondition(), consequence, alternative);
+        }
+
+        private Statement processWhile(final WhileStatement s, final Set<String> live, final boolean rewrite) {
+            // The variables live at the loop head are the fixpoint of
+            // live(head) = uses(condition) + live(exit) + live(body entry).
+            final Set<String> head = new HashSet<>(live);
+            Expressions.collectNames(s.getCondition(), head);
+            for (;;) {
+                final Set<String> bodyIn = new HashSet<>(head);
+                process(s.getBody(), bodyIn, false);
+                if (!head.addAll(bodyIn)) {
+                    break;
+                }
+            }
+            live.clear();
+            live.addAll(head);
+            if (!rewrite) {
+                return s;
+            }
+            final Statement body = process(s.getBody(), new HashSet<>(head), true);
+            return body == s.getBody() ? s : new WhileStatement(s.getLocation(), s.getCondition(), body);
+        }
+    }
+
+    /**
+     * Removes a store to memory if a later statement of the same block stores
+     * to the same object and nothing in between may read it:
+     *
+     * <pre>
+     *     *p = 1; x = y + 1; *p = x;
+     * becomes
+     *     x = y + 1; *p = x;
+     * </pre>
+     *
+     * The address of the store must be stable (see {@link AliasAnalysis#isStable}),
+     * so the two stores designate the same object if their lvalues are equal
+     * and no variable of the address is assigned in between.
+     */
+    private static final class OverwrittenStoreRemover extends AstRewriter {
+        private final AliasAnalysis aliases;
+        private final FunctionEffects effects;
+        private final RemarkEmitter remarks;
+
+        OverwrittenStoreRemover(final AliasAnalysis aliases, final FunctionEffects effects,
+                final RemarkEmitter remarks) {
+            this.aliases = aliases;
+            this.effects = effects;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected List<Statement> rewriteStatements(final List<Statement> statements) {
+            final List<Statement> rewritten = super.rewriteStatements(statements);
+            List<Statement> result = null;
+            for (int i = 0; i < rewritten.size(); ++i) {
+                final Statement s = rewritten.get(i);
+                if (!isOverwritten(rewritten, i)) {
+                    if (result != null) {
+                        result.add(s);
+                    }
+                    continue;
+                }
+                if (result == null) {
+                    result = new ArrayList<>(rewritten.subList(0, i));
+                }
+                remarks.passed("RemovedStore", ((ExpressionStatement) s).getLocation(),
+                        "store removed, it is overwritten before it is read");
+                final Expression value = ((BinaryExpression) ((ExpressionStatement) s).getExpression()).getRight();
+                if (effects == null ? Expressions.hasSideEffects(value) : effects.hasSideEffects(value)) {
+                    result.add(new ExpressionStatement(((ExpressionStatement) s).getLocation(), value));
+                }
+            }
+            return result == null ? rewritten : result;
+        }
+
+        /**
+         * Returns true if statement i is a store which is overwritten by one of
+         * the following statements.
+         */
+        private boolean isOverwritten(final List<Statement> statements, final int i) {
+            final Expression store = storedLValue(statements.get(i));
+            if (store == null || !aliases.isStable(store)) {
+                return false;
+            }
+            final AliasAnalysis.Access access = aliases.accessOf(store);
+            // The names the address depends on, a variable has a fixed address.
+            final Set<String> address = new HashSet<>();
+            if (Expressions.identifierName(store) == null) {
+                Expressions.collectNames(store, address);
+            }
+            for (int j = i + 1; j < statements.size(); ++j) {
+                final Statement s = statements.get(j);
+                final Expression e;
+                if (s instanceof ExpressionStatement) {
+                    e = ((ExpressionStatement) s).getExpression();
+                } else if (s instanceof DeclarationStatement) {
+                    e = ((DeclarationStatement) s).getInit();
+                } else {
+                    return false;
+                }
+                final Set<String> assigned = new HashSet<>();
+                Expressions.collectAssignedNames(e, assigned);
+                assigned.retainAll(address);
+                if (!assigned.isEmpty()) {
+                    return false;
+                }
+                final Expression next = storedLValue(s);
+                if (next != null && Expressions.equal(next, store)) {
+                    return !aliases.mayRead(((BinaryExpression) e).getRight(), access, effects);
+                }
+                if (aliases.mayRead(e, access, effects)) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the lvalue if the statement is an assignment to memory, null
+         * otherwise.
+         */
+        private Expression storedLValue(final Statement s) {
+            if (!(s instanceof ExpressionStatement)) {
+                return null;
+            }
+            final Expression e = ((ExpressionStatement) s).getExpression();
+            if (!Expressions.isAssignment(e)) {
+                return null;
+            }
+            final Expression left = ((BinaryExpression) e).getLeft();
+            return aliases.accessOf(left) == null ? null : left;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Determines which local declarations of a function escape, i.e. have their
+ * address taken with the unary &amp;.
+ *
+ * In contrast to {@link LocalVariables} the analysis resolves names by the
+ * block scopes of C, so each declaration is handled on its own even if its
+ * name is declared several times in the function or shadows a global. A local
+ * which does not escape can only be accessed through its name and may live in
+ * a register for its whole lifetime.
+ */
+public class EscapeAnalysis {
+    private final Map<Expression, DeclarationStatement> uses = new IdentityHashMap<>();
+    private final Set<DeclarationStatement> escaping = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<DeclarationStatement> declarations = new ArrayList<>();
+    private final Set<String> escapingParameters = new HashSet<>();
+    /** The open scopes, innermost first. Parameters map to null. */
+    private final Deque<Map<String, DeclarationStatement>> scopes = new ArrayDeque<>();
+
+    /**
+     * Analyzes the given function.
+     *
+     * @param function The function to analyze.
+     */
+    public EscapeAnalysis(final FunctionDefinition function) {
+        final Map<String, DeclarationStatement> parameters = new HashMap<>();
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                parameters.put(p.getText(), null);
+            }
+        }
+        scopes.push(parameters);
+        visit(function.getBody());
+        scopes.pop();
+    }
+
+    /**
+     * Returns true if the address of the declared variable is taken. Variables
+     * whose uses cannot be told apart from those of another declaration are
+     * treated as escaping as well.
+     */
+    public boolean escapes(final DeclarationStatement d) {
+        return escaping.contains(d);
+    }
+
+    /**
+     * Returns true if the address of the parameter with the given name is
+     * taken.
+     */
+    public boolean parameterEscapes(final String name) {
+        return escapingParameters.contains(name);
+    }
+
+    /**
+     * Returns the declaration an identifier refers to.
+     *
+     * @param e An identifier of the analyzed function.
+     * @return The local declaration or null if it refers to a parameter or a
+     *         global.
+     */
+    public DeclarationStatement declarationOf(final Expression e) {
+        return uses.get(e);
+    }
+
+    /**
+     * Returns the local declarations which do not escape, in the order of the
+     * function body.
+     */
+    public List<DeclarationStatement> getPromotable() {
+        final List<DeclarationStatement> result = new ArrayList<>();
+        for (final DeclarationStatement d : declarations) {
+            if (!escaping.contains(d)) {
+                result.add(d);
+            }
+        }
+        return result;
+    }
+
+    private void visit(final Statement s) {
+        if (s instanceof BlockStatement) {
+            scopes.push(new HashMap<>());
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                visit(inner);
+            }
+            scopes.pop();
+        } else if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            declarations.add(d);
+            // The scope of a declaration begins before its initializer.
+            scopes.peek().put(d.getName().getText(), d);
+            visit(d.getInit());
+        } else if (s instanceof ExpressionStatement) {
+            visit(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            visit(i.getCondition());
+            visit(i.getConsequence());
+            visit(i.getAlternative());
+        } else if (s instanceof ReturnStatement) {
+            visit(((ReturnStatement) s).getExpression());
+        } else if (s instanceof WhileStatement) {
+            visit(((WhileStatement) s).getCondition());
+            visit(((WhileStatement) s).getBody());
+        }
+    }
+
+    private void visit(final Expression e) {
+        if (e == null) {
+            return;
+        }
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            final DeclarationStatement d = resolve(name);
+            // Passes share identifier nodes, a shared node must not be
+            // renamed if its occurrences refer to different declarations.
+            if (uses.containsKey(e) && uses.get(e) != d) {
+                if (uses.get(e) != null) {
+                    escaping.add(uses.get(e));
+                }
+                if (d != null) {
+                    escaping.add(d);
+                }
+            }
+            uses.put(e, d);
+        } else if (e instanceof BinaryExpression) {
+            visit(((BinaryExpression) e).getLeft());
+            visit(((BinaryExpression) e).getRight());
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            final String operand = Expressions.identifierName(u.getOperand());
+            if (u.getOperator().getKind() == TokenKind.AND && operand != null) {
+                markEscaping(operand);
+            }
+            visit(u.getOperand());
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                visit(arg);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            visit(c.getCondition());
+            visit(c.getConsequence());
+            visit(c.getAlternative());
+        }
+    }
+
+    private void markEscaping(final String name) {
+        for (final Map<String, DeclarationStatement> scope : scopes) {
+            if (scope.containsKey(name)) {
+                final DeclarationStatement d = scope.get(name);
+                if (d == null) {
+                    escapingParameters.add(name);
+                } else {
+                    escaping.add(d);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the local declaration visible under the given name, null for
+     * parameters and globals.
+     */
+    private DeclarationStatement resolve(final String name) {
+        for (final Map<String, DeclarationStatement> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Computes the types of expressions of a function.
+ *
+ * Only names with a unique declaration are known: tracked locals, parameters
+ * and globals. The type of an expression which mentions another name is
+ * unknown and reported as null, so passes which need types simply leave such
+ * expressions alone.
+ */
+public class ExpressionTypes {
+    /** The type int. */
+    public static final Type INT = new BaseType(TokenKind.INT);
+
+    /** The type char. */
+    public static final Type CHAR = new BaseType(TokenKind.CHAR);
+
+    private final Map<String, Type> variables = new HashMap<>();
+    private final Map<String, FunctionType> functions = new HashMap<>();
+
+    /**
+     * Collects the types of the names visible in the given function.
+     *
+     * @param ast      The translation unit.
+     * @param function The function.
+     * @param locals   The tracked locals of the function.
+     */
+    public ExpressionTypes(final AST ast, final FunctionDefinition function, final LocalVariables locals) {
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            if (d.getType() instanceof FunctionType) {
+                functions.put(d.getName().getText(), (FunctionType) d.getType());
+            } else {
+                variables.put(d.getName().getText(), d.getType());
+            }
+        }
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            if (f.getType() instanceof FunctionType) {
+                functions.put(f.getName().getText(), (FunctionType) f.getType());
+            }
+        }
+        if (function.getType() instanceof FunctionType) {
+            final List<Type> parameters = ((FunctionType) function.getType()).getParameters();
+            final List<Token> names = function.getParameterNames();
+            for (int i = 0; i < names.size() && i < parameters.size(); ++i) {
+                if (names.get(i) != null && locals.isTracked(names.get(i).getText())) {
+                    variables.put(names.get(i).getText(), parameters.get(i));
+                }
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(), d -> {
+            if (locals.isTracked(d.getName().getText())) {
+                variables.put(d.getName().getText(), d.getType());
+            }
+        });
+    }
+
+    /**
+     * Returns the declared type of a variable.
+     *
+     * @param name The name of the variable.
+     * @return The type or null if unknown.
+     */
+    public Type typeOfVariable(final String name) {
+        return variables.get(name);
+    }
+
+    /**
+     * Returns the type of a function.
+     *
+     * @param name The name of the function.
+     * @return The type or null if unknown.
+     */
+    public FunctionType typeOfFunction(final String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Returns the type of the given expression.
+     *
+     * @param e The expression.
+     * @return The type or null if unknown.
+     */
+    public Type typeOf(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            switch (t.getKind()) {
+            case NUMBER:
+            case CHARACTER:
+                return INT;
+            case STRING:
+                return new PointerType(CHAR);
+            default:
+                return variables.get(t.getText());
+            }
+        }
+        if (e instanceof CallExpression) {
+            final FunctionType f = functions.get(Expressions.identifierName(((CallExpression) e).getCallee()));
+            return f == null ? null : f.getReturnType();
+        }
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            switch (u.getOperator().getKind()) {
+            case ASTERISK:
+                return pointee(typeOf(u.getOperand()));
+            case AND: {
+                final Type t = typeOf(u.getOperand());
+                return t == null ? null : new PointerType(t);
+            }
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                return typeOf(u.getOperand());
+            default:
+                return INT;
+            }
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            final Type left = typeOf(b.getLeft());
+            final Type right = typeOf(b.getRight());
+            switch (b.getOperator().getKind()) {
+            case EQUAL:
+                return left;
+            case COMMA:
+                return right;
+            case LBRACKET:
+                return isPointer(left) ? pointee(left) : pointee(right);
+            case PLUS:
+                if (left == null || right == null) {
+                    return null;
+                }
+                if (isPointer(left) || isPointer(right)) {
+                    return isPointer(left) ? left : right;
+                }
+                return INT;
+            case MINUS:
+                if (left == null || right == null) {
+                    return null;
+                }
+                if (isPointer(left)) {
+                    return isPointer(right) ? INT : left;
+                }
+                return INT;
+            default:
+                return left == null || right == null ? null : INT;
+            }
+        }
+        if (e instanceof ConditionalExpression) {
+            // The arms are converted to a common type: a pointer if one of them
+            // is one, int otherwise.
+            final Type consequence = typeOf(((ConditionalExpression) e).getConsequence());
+            final Type alternative = typeOf(((ConditionalExpression) e).getAlternative());
+            if (isPointer(consequence) || isPointer(alternative)) {
+                return isPointer(consequence) ? consequence : alternative;
+            }
+            return consequence == null || alternative == null ? null : INT;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the type is a pointer type.
+     */
+    public static boolean isPointer(final Type t) {
+        return t instanceof PointerType;
+    }
+
+    /**
+     * Returns true if the type is int or char.
+     */
+    public static boolean isInteger(final Type t) {
+        if (!(t instanceof BaseType)) {
+            return false;
+        }
+        final TokenKind kind = ((BaseType) t).getKind();
+        return kind == TokenKind.INT || kind == TokenKind.CHAR;
+    }
+
+    /**
+     * Returns the type a pointer type points to, null for other types.
+     */
+    public static Type pointee(final Type t) {
+        return t instanceof PointerType ? ((PointerType) t).getPointsTo() : null;
+    }
+
+    /**
+     * Returns true if both types are known and equal.
+     */
+    public static boolean isSameType(final Type a, final Type b) {
+        if (a instanceof PointerType && b instanceof PointerType) {
+            return isSameType(pointee(a), pointee(b));
+        }
+        return a instanceof BaseType && b instanceof BaseType
+                && ((BaseType) a).getKind() == ((BaseType) b).getKind();
+    }
+
+    /**
+     * Returns the size of a value of the given type in bytes, 0 if unknown.
+     */
+    public static int sizeOf(final Type t) {
+        if (t instanceof PointerType) {
+            return 4;
+        }
+        if (t instanceof BaseType) {
+            switch (((BaseType) t).getKind()) {
+            case INT:
+                return 4;
+            case CHAR:
+                return 1;
+            default:
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
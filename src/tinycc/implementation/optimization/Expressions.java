@@ -0,0 +1,470 @@
+package tinycc.implementation.optimization;
+
+import java.util.List;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Helper functions to inspect and build expressions for the optimization passes.
+ */
+public final class Expressions {
+    private Expressions() {
+    }
+
+    /**
+     * Returns the name of the variable if the given expression is a plain
+     * identifier, null otherwise.
+     *
+     * @param e The expression to inspect.
+     * @return The identifier name or null.
+     */
+    public static String identifierName(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            if (t.getKind() == TokenKind.IDENTIFIER) {
+                return t.getText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the integer value if the given expression is a number or character
+     * constant, null otherwise.
+     *
+     * @param e The expression to inspect.
+     * @return The value of the constant or null.
+     */
+    public static Integer constantValue(final Expression e) {
+        if (e instanceof UnaryExpression && ((UnaryExpression) e).getOperator().getKind() == TokenKind.MINUS
+                && ((UnaryExpression) e).getOperand() instanceof PrimaryExpression) {
+            final Integer value = constantValue(((UnaryExpression) e).getOperand());
+            return value == null ? null : -value;
+        }
+        if (!(e instanceof PrimaryExpression)) {
+            return null;
+        }
+        final Token t = ((PrimaryExpression) e).getToken();
+        try {
+            switch (t.getKind()) {
+            case NUMBER:
+                return (int) Long.parseLong(t.getText());
+            case CHARACTER:
+                return t.getText().isEmpty() ? null : (int) t.getText().charAt(0);
+            default:
+                return null;
+            }
+        } catch (final NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the expression is an assignment {@code a = b}.
+     */
+    public static boolean isAssignment(final Expression e) {
+        return e instanceof BinaryExpression
+                && ((BinaryExpression) e).getOperator().getKind() == TokenKind.EQUAL;
+    }
+
+    /**
+     * Returns true if the expression is an increment or decrement.
+     */
+    public static boolean isIncDec(final Expression e) {
+        if (!(e instanceof UnaryExpression)) {
+            return false;
+        }
+        final TokenKind kind = ((UnaryExpression) e).getOperator().getKind();
+        return kind == TokenKind.PLUS_PLUS || kind == TokenKind.MINUS_MINUS;
+    }
+
+    /**
+     * Returns true if evaluating the expression may change the program state, i.e.
+     * it contains an assignment, an increment/decrement or a call.
+     *
+     * @param e The expression to inspect.
+     * @return True if the expression has side effects.
+     */
+    public static boolean hasSideEffects(final Expression e) {
+        if (e == null) {
+            return false;
+        }
+        if (isAssignment(e) || isIncDec(e) || e instanceof CallExpression) {
+            return true;
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            return hasSideEffects(b.getLeft()) || hasSideEffects(b.getRight());
+        }
+        if (e instanceof UnaryExpression) {
+            return hasSideEffects(((UnaryExpression) e).getOperand());
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return hasSideEffects(c.getCondition()) || hasSideEffects(c.getConsequence())
+                    || hasSideEffects(c.getAlternative());
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the expression reads memory through a pointer, i.e. it
+     * contains a dereference or an array access.
+     *
+     * @param e The expression to inspect (may be null).
+     * @return True if the expression contains a load.
+     */
+    public static boolean containsLoad(final Expression e) {
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            return u.getOperator().getKind() == TokenKind.ASTERISK || containsLoad(u.getOperand());
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            return b.getOperator().getKind() == TokenKind.LBRACKET || containsLoad(b.getLeft())
+                    || containsLoad(b.getRight());
+        }
+        if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                if (containsLoad(arg)) {
+                    return true;
+                }
+            }
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return containsLoad(c.getCondition()) || containsLoad(c.getConsequence())
+                    || containsLoad(c.getAlternative());
+        }
+        return false;
+    }
+
+    /**
+     * Adds the names of all identifiers mentioned in the expression to the given
+     * set.
+     *
+     * @param e   The expression to inspect (may be null).
+     * @param out The set to add the names to.
+     */
+    public static void collectNames(final Expression e, final Set<String> out) {
+        if (e == null) {
+            return;
+        }
+        final String name = identifierName(e);
+        if (name != null) {
+            out.add(name);
+        } else if (e instanceof BinaryExpression) {
+            collectNames(((BinaryExpression) e).getLeft(), out);
+            collectNames(((BinaryExpression) e).getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            collectNames(((UnaryExpression) e).getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            collectNames(c.getCallee(), out);
+            for (final Expression arg : c.getArguments()) {
+                collectNames(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectNames(c.getCondition(), out);
+            collectNames(c.getConsequence(), out);
+            collectNames(c.getAlternative(), out);
+        }
+    }
+
+    /**
+     * Adds the names of all variables which are read by the expression to the
+     * given set. In contrast to {@link #collectNames} the target of a plain
+     * assignment {@code x = e} is not a read.
+     *
+     * @param e   The expression to inspect (may be null).
+     * @param out The set to add the names to.
+     */
+    public static void collectReadNames(final Expression e, final Set<String> out) {
+        if (isAssignment(e) && identifierName(((BinaryExpression) e).getLeft()) != null) {
+            collectReadNames(((BinaryExpression) e).getRight(), out);
+        } else if (e instanceof BinaryExpression) {
+            collectReadNames(((BinaryExpression) e).getLeft(), out);
+            collectReadNames(((BinaryExpression) e).getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            collectReadNames(((UnaryExpression) e).getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectReadNames(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectReadNames(c.getCondition(), out);
+            collectReadNames(c.getConsequence(), out);
+            collectReadNames(c.getAlternative(), out);
+        } else if (identifierName(e) != null) {
+            out.add(identifierName(e));
+        }
+    }
+
+    /**
+     * Adds the names of all variables which are written by the expression to the
+     * given set.
+     *
+     * @param e   The expression to inspect (may be null).
+     * @param out The set to add the names to.
+     */
+    public static void collectAssignedNames(final Expression e, final Set<String> out) {
+        if (e == null) {
+            return;
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            if (isAssignment(b) && identifierName(b.getLeft()) != null) {
+                out.add(identifierName(b.getLeft()));
+            }
+            collectAssignedNames(b.getLeft(), out);
+            collectAssignedNames(b.getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (isIncDec(u) && identifierName(u.getOperand()) != null) {
+                out.add(identifierName(u.getOperand()));
+            }
+            collectAssignedNames(u.getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectAssignedNames(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectAssignedNames(c.getCondition(), out);
+            collectAssignedNames(c.getConsequence(), out);
+            collectAssignedNames(c.getAlternative(), out);
+        }
+    }
+
+    /**
+     * Adds the names of all variables whose address is taken with the unary
+     * {@code &} operator to the given set.
+     *
+     * @param e   The expression to inspect (may be null).
+     * @param out The set to add the names to.
+     */
+    public static void collectAddressTaken(final Expression e, final Set<String> out) {
+        if (e == null) {
+            return;
+        }
+        if (e instanceof BinaryExpression) {
+            collectAddressTaken(((BinaryExpression) e).getLeft(), out);
+            collectAddressTaken(((BinaryExpression) e).getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (u.getOperator().getKind() == TokenKind.AND && identifierName(u.getOperand()) != null) {
+                out.add(identifierName(u.getOperand()));
+            }
+            collectAddressTaken(u.getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectAddressTaken(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectAddressTaken(c.getCondition(), out);
+            collectAddressTaken(c.getConsequence(), out);
+            collectAddressTaken(c.getAlternative(), out);
+        }
+    }
+
+    /**
+     * Adds the text of all string literals in the expression to the given set.
+     *
+     * @param e   The expression to inspect (may be null).
+     * @param out The set to add the literals to.
+     */
+    public static void collectStringLiterals(final Expression e, final Set<String> out) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            if (t.getKind() == TokenKind.STRING) {
+                out.add(t.getText());
+            }
+        } else if (e instanceof BinaryExpression) {
+            collectStringLiterals(((BinaryExpression) e).getLeft(), out);
+            collectStringLiterals(((BinaryExpression) e).getRight(), out);
+        } else if (e instanceof UnaryExpression) {
+            collectStringLiterals(((UnaryExpression) e).getOperand(), out);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectStringLiterals(arg, out);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectStringLiterals(c.getCondition(), out);
+            collectStringLiterals(c.getConsequence(), out);
+            collectStringLiterals(c.getAlternative(), out);
+        }
+    }
+
+    /**
+     * Returns the number of nodes of the expression tree.
+     *
+     * @param e The expression (may be null).
+     * @return The number of nodes.
+     */
+    public static int size(final Expression e) {
+        if (e instanceof BinaryExpression) {
+            return 1 + size(((BinaryExpression) e).getLeft()) + size(((BinaryExpression) e).getRight());
+        }
+        if (e instanceof UnaryExpression) {
+            return 1 + size(((UnaryExpression) e).getOperand());
+        }
+        if (e instanceof CallExpression) {
+            int n = 1;
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                n += size(arg);
+            }
+            return n;
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return 1 + size(c.getCondition()) + size(c.getConsequence()) + size(c.getAlternative());
+        }
+        return e == null ? 0 : 1;
+    }
+
+    /**
+     * Creates an identifier expression.
+     *
+     * @param loc  The location of the new expression.
+     * @param name The name of the variable.
+     * @return A new primary expression.
+     */
+    public static Expression identifier(final Locatable loc, final String name) {
+        return new PrimaryExpression(new Token(loc, TokenKind.IDENTIFIER, name));
+    }
+
+    /**
+     * Returns the location of an expression, i.e. of its operator or token.
+     *
+     * @param e The expression.
+     * @return The location.
+     */
+    public static Locatable location(final Expression e) {
+        if (e instanceof BinaryExpression) {
+            return ((BinaryExpression) e).getOperator();
+        }
+        if (e instanceof UnaryExpression) {
+            return ((UnaryExpression) e).getOperator();
+        }
+        if (e instanceof CallExpression) {
+            return ((CallExpression) e).getToken();
+        }
+        if (e instanceof ConditionalExpression) {
+            return ((ConditionalExpression) e).getToken();
+        }
+        return ((PrimaryExpression) e).getToken();
+    }
+
+    /**
+     * Creates a number constant. Number tokens are never negative, so a negative
+     * value is the negation of a number.
+     *
+     * @param loc   The location of the new expression.
+     * @param value The value of the constant.
+     * @return A new expression.
+     */
+    public static Expression number(final Locatable loc, final int value) {
+        if (value < 0) {
+            final String magnitude = Long.toString(-(long) value);
+            return new UnaryExpression(new Token(loc, TokenKind.MINUS), false,
+                    new PrimaryExpression(new Token(loc, TokenKind.NUMBER, magnitude)));
+        }
+        return new PrimaryExpression(new Token(loc, TokenKind.NUMBER, Integer.toString(value)));
+    }
+
+    /**
+     * Creates a binary expression.
+     *
+     * @param loc      The location of the new expression.
+     * @param operator The operator.
+     * @param left     The left operand.
+     * @param right    The right operand.
+     * @return A new binary expression.
+     */
+    public static Expression binary(final Locatable loc, final TokenKind operator, final Expression left,
+            final Expression right) {
+        return new BinaryExpression(new Token(loc, operator), left, right);
+    }
+
+    /**
+     * Creates an assignment {@code name = value}.
+     *
+     * @param loc   The location of the new expression.
+     * @param name  The name of the assigned variable.
+     * @param value The assigned value.
+     * @return A new assignment expression.
+     */
+    public static Expression assign(final Locatable loc, final String name, final Expression value) {
+        return binary(loc, TokenKind.EQUAL, identifier(loc, name), value);
+    }
+
+    /**
+     * Returns true if the two expressions are structurally equal.
+     *
+     * @param a The first expression (may be null).
+     * @param b The second expression (may be null).
+     * @return True if both expressions are equal.
+     */
+    public static boolean equal(final Expression a, final Expression b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof PrimaryExpression) {
+            final Token x = ((PrimaryExpression) a).getToken();
+            final Token y = ((PrimaryExpression) b).getToken();
+            return x.getKind() == y.getKind() && x.getText().equals(y.getText());
+        }
+        if (a instanceof BinaryExpression) {
+            final BinaryExpression x = (BinaryExpression) a;
+            final BinaryExpression y = (BinaryExpression) b;
+            return x.getOperator().getKind() == y.getOperator().getKind() && equal(x.getLeft(), y.getLeft())
+                    && equal(x.getRight(), y.getRight());
+        }
+        if (a instanceof UnaryExpression) {
+            final UnaryExpression x = (UnaryExpression) a;
+            final UnaryExpression y = (UnaryExpression) b;
+            return x.getOperator().getKind() == y.getOperator().getKind() && x.isPostfix() == y.isPostfix()
+                    && equal(x.getOperand(), y.getOperand());
+        }
+        if (a instanceof CallExpression) {
+            final CallExpression x = (CallExpression) a;
+            final CallExpression y = (CallExpression) b;
+            return equal(x.getCallee(), y.getCallee()) && equal(x.getArguments(), y.getArguments());
+        }
+        if (a instanceof ConditionalExpression) {
+            final ConditionalExpression x = (ConditionalExpression) a;
+            final ConditionalExpression y = (ConditionalExpression) b;
+            return equal(x.getCondition(), y.getCondition()) && equal(x.getConsequence(), y.getConsequence())
+                    && equal(x.getAlternative(), y.getAlternative());
+        }
+        return false;
+    }
+
+    private static boolean equal(final List<Expression> a, final List<Expression> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); ++i) {
+            if (!equal(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,365 @@
+package tinycc.implementation.optimization;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.FunctionType;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Interprocedural summary of the side effects of the functions of a translation
+ * unit.
+ *
+ * For every function it records whether it reads or writes memory, i.e. global
+ * variables or objects reached through pointers, whether it produces output,
+ * allocates memory, calls unknown external functions or is recursive. The
+ * effects of the callees are included. Based on that a call is
+ *
+ * - pure if it has no effect besides its result, so an unused call can be
+ *   removed,
+ * - constant if it is pure and does not read memory either, so calls with the
+ *   same arguments have the same result,
+ * - speculatable if it is constant and cannot trap or loop, so it may be
+ *   executed even where the program would not execute it.
+ *
+ * Like the call graph, the summary is a snapshot of the current function bodies.
+ */
+public class FunctionEffects {
+    private static final Set<String> OUTPUT_FUNCTIONS = new HashSet<>(
+            Arrays.asList("print_integer", "print_char", "print_string", "putchar"));
+    private static final String ALLOCATION_FUNCTION = "malloc";
+
+    /**
+     * The effects of a single function.
+     */
+    public static final class Summary {
+        private boolean readsMemory;
+        private boolean writesMemory;
+        private boolean output;
+        private boolean allocates;
+        private boolean callsUnknown;
+        private boolean mayTrap;
+        private boolean recursive;
+
+        /** Returns true if the function reads globals or memory through pointers. */
+        public boolean readsMemory() {
+            return readsMemory;
+        }
+
+        /** Returns true if the function writes globals or memory through pointers. */
+        public boolean writesMemory() {
+            return writesMemory;
+        }
+
+        /** Returns true if the function calls one of the print functions or putchar. */
+        public boolean hasOutput() {
+            return output;
+        }
+
+        /** Returns true if the function calls malloc. */
+        public boolean allocates() {
+            return allocates;
+        }
+
+        /** Returns true if the function calls an external function with unknown effects. */
+        public boolean callsUnknown() {
+            return callsUnknown;
+        }
+
+        /** Returns true if the function may divide by zero or contains a loop. */
+        public boolean mayTrap() {
+            return mayTrap;
+        }
+
+        /** Returns true if the function may call itself. */
+        public boolean isRecursive() {
+            return recursive;
+        }
+
+        private boolean merge(final Summary other) {
+            final boolean changed = other.readsMemory && !readsMemory || other.writesMemory && !writesMemory
+                    || other.output && !output || other.allocates && !allocates
+                    || other.callsUnknown && !callsUnknown || other.mayTrap && !mayTrap;
+            readsMemory |= other.readsMemory;
+            writesMemory |= other.writesMemory;
+            output |= other.output;
+            allocates |= other.allocates;
+            callsUnknown |= other.callsUnknown;
+            mayTrap |= other.mayTrap;
+            return changed;
+        }
+    }
+
+    private final Map<String, Summary> summaries = new LinkedHashMap<>();
+
+    /**
+     * Computes the summaries of all functions defined in the translation unit.
+     *
+     * @param ast The translation unit.
+     */
+    public FunctionEffects(final AST ast) {
+        final CallGraph graph = new CallGraph(ast);
+        final Set<String> globalVariables = new HashSet<>();
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            if (!(d.getType() instanceof FunctionType)) {
+                globalVariables.add(d.getName().getText());
+            }
+        }
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            summaries.put(f.getName().getText(), analyze(f, graph, globalVariables));
+        }
+
+        // Propagate the effects of the callees until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Map.Entry<String, Summary> e : summaries.entrySet()) {
+                for (final String callee : graph.getCallees(e.getKey())) {
+                    changed |= e.getValue().merge(summaries.get(callee));
+                }
+            }
+        }
+    }
+
+    private static Summary analyze(final FunctionDefinition f, final CallGraph graph,
+            final Set<String> globalVariables) {
+        final Summary summary = new Summary();
+        final String name = f.getName().getText();
+        summary.recursive = graph.isRecursive(name);
+        for (final String callee : graph.getExternalCallees(name)) {
+            if (OUTPUT_FUNCTIONS.contains(callee)) {
+                summary.output = true;
+            } else if (ALLOCATION_FUNCTION.equals(callee)) {
+                summary.allocates = true;
+            } else {
+                summary.callsUnknown = true;
+            }
+        }
+
+        // Locals which hide a global variable are not memory accesses.
+        final Set<String> locals = new HashSet<>();
+        for (final Token p : f.getParameterNames()) {
+            if (p != null) {
+                locals.add(p.getText());
+            }
+        }
+        Statements.forEachDeclaration(f.getBody(), d -> locals.add(d.getName().getText()));
+        final Set<String> globals = new HashSet<>(globalVariables);
+        globals.removeAll(locals);
+
+        Statements.forEachExpression(f.getBody(), e -> scan(e, globals, summary));
+        summary.mayTrap |= containsLoop(f.getBody());
+        return summary;
+    }
+
+    private static void scan(final Expression e, final Set<String> globals, final Summary summary) {
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            summary.readsMemory |= globals.contains(name);
+        } else if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            switch (b.getOperator().getKind()) {
+            case EQUAL:
+                summary.writesMemory |= isMemory(b.getLeft(), globals);
+                if (Expressions.identifierName(b.getLeft()) == null) {
+                    scan(b.getLeft(), globals, summary);
+                }
+                scan(b.getRight(), globals, summary);
+                return;
+            case LBRACKET:
+                summary.readsMemory = true;
+                summary.mayTrap = true;
+                break;
+            case SLASH:
+            case PERCENT: {
+                final Integer divisor = Expressions.constantValue(b.getRight());
+                summary.mayTrap |= divisor == null || divisor == 0 || divisor == -1;
+                break;
+            }
+            default:
+                break;
+            }
+            scan(b.getLeft(), globals, summary);
+            scan(b.getRight(), globals, summary);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (Expressions.isIncDec(u)) {
+                summary.writesMemory |= isMemory(u.getOperand(), globals);
+            } else if (u.getOperator().getKind() == TokenKind.ASTERISK) {
+                summary.readsMemory = true;
+                summary.mayTrap = true;
+            } else if (u.getOperator().getKind() == TokenKind.AND
+                    && Expressions.identifierName(u.getOperand()) != null) {
+                // Taking the address of a variable does not access it.
+                return;
+            }
+            scan(u.getOperand(), globals, summary);
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                scan(arg, globals, summary);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            scan(c.getCondition(), globals, summary);
+            scan(c.getConsequence(), globals, summary);
+            scan(c.getAlternative(), globals, summary);
+        }
+    }
+
+    /**
+     * Returns true if the lvalue designates memory rather than a local variable.
+     */
+    private static boolean isMemory(final Expression lvalue, final Set<String> globals) {
+        final String name = Expressions.identifierName(lvalue);
+        return name == null || globals.contains(name);
+    }
+
+    private static boolean containsLoop(final Statement s) {
+        final boolean[] found = { false };
+        new AstRewriter() {
+            @Override
+            protected Statement rewriteWhile(final WhileStatement w) {
+                found[0] = true;
+                return w;
+            }
+        }.rewrite(s);
+        return found[0];
+    }
+
+    /**
+     * Returns the summary of the function, null if it is not defined in the
+     * translation unit.
+     */
+    public Summary getSummary(final String name) {
+        return name == null ? null : summaries.get(name);
+    }
+
+    /**
+     * Returns true if calls of the function have no effect besides their result
+     * and always return. The result may depend on memory.
+     */
+    public boolean isPure(final String name) {
+        final Summary s = getSummary(name);
+        return s != null && !s.writesMemory && !s.output && !s.allocates && !s.callsUnknown && !s.recursive;
+    }
+
+    /**
+     * Returns true if the function is pure and does not read memory, so its
+     * result only depends on the arguments.
+     */
+    public boolean isConst(final String name) {
+        return isPure(name) && !getSummary(name).readsMemory;
+    }
+
+    /**
+     * Returns true if the function is constant and can neither trap nor loop,
+     * so a call may be executed speculatively.
+     */
+    public boolean isSpeculatable(final String name) {
+        return isConst(name) && !getSummary(name).mayTrap;
+    }
+
+    /**
+     * Returns true if the result of the function only depends on the arguments
+     * and it has no effects, but unlike {@link #isConst} it may be recursive,
+     * trap or loop. Such calls with constant arguments can be evaluated by an
+     * interpreter which gives up after a budget.
+     */
+    public boolean isEvaluable(final String name) {
+        final Summary s = getSummary(name);
+        return s != null && !s.readsMemory && !s.writesMemory && !s.output && !s.allocates && !s.callsUnknown;
+    }
+
+    /**
+     * Returns true if the call may have an effect besides its result.
+     */
+    public boolean isImpureCall(final CallExpression call) {
+        return !isPure(Expressions.identifierName(call.getCallee()));
+    }
+
+    /**
+     * Returns true if the call may write memory or produce output, i.e. it may
+     * change a value which the caller reads or observable behavior.
+     */
+    public boolean mayWriteMemory(final CallExpression call) {
+        final Summary s = getSummary(Expressions.identifierName(call.getCallee()));
+        return s == null || s.writesMemory || s.output || s.callsUnknown;
+    }
+
+    /**
+     * Returns true if the call may read memory, i.e. its effects may depend on
+     * a value the caller stored before.
+     */
+    public boolean mayReadMemory(final CallExpression call) {
+        final Summary s = getSummary(Expressions.identifierName(call.getCallee()));
+        return s == null || s.readsMemory || s.callsUnknown;
+    }
+
+    /**
+     * Returns true if the call may read or write global variables. The print
+     * functions and malloc do not know about the globals of the program.
+     */
+    public boolean mayAccessGlobals(final CallExpression call) {
+        final String name = Expressions.identifierName(call.getCallee());
+        final Summary s = getSummary(name);
+        if (s == null) {
+            return !OUTPUT_FUNCTIONS.contains(name) && !ALLOCATION_FUNCTION.equals(name);
+        }
+        return s.readsMemory || s.writesMemory || s.callsUnknown;
+    }
+
+    /**
+     * Like {@link Expressions#hasSideEffects} but calls of pure functions are
+     * free of side effects.
+     *
+     * @param e The expression to inspect (may be null).
+     * @return True if the expression has side effects.
+     */
+    public boolean hasSideEffects(final Expression e) {
+        if (e == null) {
+            return false;
+        }
+        if (Expressions.isAssignment(e) || Expressions.isIncDec(e)) {
+            return true;
+        }
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            if (isImpureCall(c)) {
+                return true;
+            }
+            for (final Expression arg : c.getArguments()) {
+                if (hasSideEffects(arg)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            return hasSideEffects(b.getLeft()) || hasSideEffects(b.getRight());
+        }
+        if (e instanceof UnaryExpression) {
+            return hasSideEffects(((UnaryExpression) e).getOperand());
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return hasSideEffects(c.getCondition()) || hasSideEffects(c.getConsequence())
+                    || hasSideEffects(c.getAlternative());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,501 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Replaces calls of small functions by the body of the callee.
+ *
+ * A function whose body is a single {@code return e;} is inlined into any
+ * expression by substituting the arguments for the parameters, provided the
+ * arguments are cheap and cannot observe the evaluation order. Other functions
+ * are inlined at calls which form a whole statement, i.e. {@code f(a);},
+ * {@code x = f(a);}, {@code T x = f(a);} and {@code return f(a);}, if their only
+ * return is the last statement of the body:
+ *
+ * <pre>
+ *     x = f(a + 1);
+ * becomes
+ *     int __inl0;
+ *     { int __inl1 = a + 1; ... __inl0 = result; }
+ *     x = __inl0;
+ * </pre>
+ *
+ * Whether a call is inlined is decided by a cost model: the size of the callee
+ * is compared to a threshold which grows with the loop nesting depth of the
+ * call, and all inlining of the translation unit must stay in a growth budget.
+ * Recursive functions are never inlined, and functions are processed callees
+ * first, so a caller sees the already inlined bodies of its callees.
+ */
+public class FunctionInlining {
+    /** Callees up to this size are cheaper than the call itself and always inlined. */
+    public static final int ALWAYS_INLINE_SIZE = 12;
+    /** The size threshold for calls outside of loops. */
+    public static final int BASE_THRESHOLD = 40;
+    /** The increase of the threshold per enclosing loop. */
+    public static final int LOOP_BONUS = 40;
+    /** The maximum loop depth considered by the cost model. */
+    private static final int MAX_LOOP_DEPTH = 3;
+
+    private final int baseThreshold;
+    private final int loopBonus;
+    private int budget;
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Creates the pass with the default thresholds.
+     */
+    public FunctionInlining() {
+        this(BASE_THRESHOLD, LOOP_BONUS);
+    }
+
+    /**
+     * Creates the pass.
+     *
+     * @param baseThreshold The maximum callee size for calls outside of loops.
+     * @param loopBonus     The increase of the threshold per enclosing loop.
+     */
+    public FunctionInlining(final int baseThreshold, final int loopBonus) {
+        this.baseThreshold = baseThreshold;
+        this.loopBonus = loopBonus;
+    }
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit. The program may grow by half
+     * of its size, but at least by 200 nodes.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        final CallGraph graph = new CallGraph(ast);
+        int size = 0;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            size += Statements.size(f.getBody());
+        }
+        budget = Math.max(200, size / 2);
+        boolean changed = false;
+        for (final FunctionDefinition f : graph.bottomUpOrder()) {
+            changed |= run(f, graph, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Inlines the calls of a single function.
+     *
+     * @param function    The caller.
+     * @param graph       The call graph of the translation unit.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final CallGraph graph, final Set<String> globalNames) {
+        final Statement body = new Inliner(function, graph, globalNames).rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    private final class Inliner extends AstRewriter {
+        private final CallGraph graph;
+        private final Set<String> globalNames;
+        private final TemporaryNames names;
+        private final Set<String> callerNames = new HashSet<>();
+        private final String callerName;
+        private final Set<CallExpression> statementCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<CallExpression> reported = Collections.newSetFromMap(new IdentityHashMap<>());
+        private String rejection;
+        private int loopDepth = 0;
+
+        Inliner(final FunctionDefinition caller, final CallGraph graph, final Set<String> globalNames) {
+            this.graph = graph;
+            this.callerName = caller.getName().getText();
+            this.globalNames = globalNames;
+            this.names = new TemporaryNames(caller, globalNames);
+            for (final Token p : caller.getParameterNames()) {
+                if (p != null) {
+                    callerNames.add(p.getText());
+                }
+            }
+            Statements.forEachDeclaration(caller.getBody(), d -> callerNames.add(d.getName().getText()));
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            ++loopDepth;
+            try {
+                return super.rewriteWhile(s);
+            } finally {
+                --loopDepth;
+            }
+        }
+
+        @Override
+        protected Expression rewriteCall(final CallExpression e) {
+            final Expression rewritten = super.rewriteCall(e);
+            if (!(rewritten instanceof CallExpression)) {
+                return rewritten;
+            }
+            final CallExpression call = (CallExpression) rewritten;
+            final FunctionDefinition callee = inlinable(call);
+            if (callee == null) {
+                missed(call);
+                return call;
+            }
+            final Expression result = returnedExpression(callee);
+            if (result == null || !isSubstitutable(callee, call, result)) {
+                // A call which is a statement of its own may still be inlined as such.
+                if (!statementCalls.contains(e)) {
+                    rejection = result == null ? "its body is not a single return statement"
+                            : "its arguments cannot be substituted into the returned expression";
+                    missed(call);
+                }
+                return call;
+            }
+            if (!accept(callee)) {
+                missed(call);
+                return call;
+            }
+            passed(call);
+            final VariableSubstitution substitution = new VariableSubstitution();
+            final List<Token> parameters = callee.getParameterNames();
+            for (int i = 0; i < parameters.size(); ++i) {
+                substitution.replace(parameters.get(i).getText(), call.getArguments().get(i));
+            }
+            return substitution.rewrite(result);
+        }
+
+        @Override
+        protected List<Statement> rewriteListElement(final Statement s) {
+            final CallExpression original = statementCall(s);
+            if (original != null) {
+                statementCalls.add(original);
+            }
+            final List<Statement> rewritten = super.rewriteListElement(s);
+            if (rewritten.size() != 1) {
+                return rewritten;
+            }
+            final Statement statement = rewritten.get(0);
+            final CallExpression call = statementCall(statement);
+            final FunctionDefinition callee = call == null ? null : inlinable(call);
+            if (callee == null) {
+                return rewritten;
+            }
+            if (!hasSingleExit(callee)) {
+                rejection = "it does not end with its only return statement";
+                missed(call);
+                return rewritten;
+            }
+            if (!accept(callee)) {
+                missed(call);
+                return rewritten;
+            }
+            passed(call);
+            return inline(statement, call, callee);
+        }
+
+        private void passed(final CallExpression call) {
+            remarks.passed("Inlined", call.getToken(), "'%s' inlined into '%s'",
+                    Expressions.identifierName(call.getCallee()), callerName);
+        }
+
+        /**
+         * Reports why the call is not inlined, at most once per call. Calls of
+         * functions which are not defined are not reported.
+         */
+        private void missed(final CallExpression call) {
+            if (rejection != null && reported.add(call)) {
+                remarks.missed("NotInlined", call.getToken(), "'%s' not inlined into '%s': %s",
+                        Expressions.identifierName(call.getCallee()), callerName, rejection);
+            }
+            rejection = null;
+        }
+
+        /**
+         * Returns the callee if the call may be inlined at all.
+         */
+        private FunctionDefinition inlinable(final CallExpression call) {
+            rejection = null;
+            final FunctionDefinition callee = graph.getFunction(Expressions.identifierName(call.getCallee()));
+            if (callee == null) {
+                return null;
+            }
+            if (graph.isRecursive(callee.getName().getText())) {
+                rejection = "it is recursive";
+                return null;
+            }
+            if (callee.getParameterNames().size() != call.getArguments().size()) {
+                rejection = "the number of arguments does not match";
+                return null;
+            }
+            final Set<String> declared = new HashSet<>();
+            for (final Token p : callee.getParameterNames()) {
+                if (p == null || !declared.add(p.getText())) {
+                    rejection = "its parameters are unnamed or not unique";
+                    return null;
+                }
+            }
+            final boolean[] unique = { true };
+            Statements.forEachDeclaration(callee.getBody(), d -> unique[0] &= declared.add(d.getName().getText()));
+            if (!unique[0]) {
+                rejection = "it declares a name twice";
+                return null;
+            }
+            // The globals used by the callee must not be hidden by the caller.
+            final Set<String> used = new HashSet<>();
+            Statements.collectNames(callee.getBody(), used);
+            for (final String name : used) {
+                if (!declared.contains(name) && callerNames.contains(name)) {
+                    rejection = "the caller hides the global '" + name + "'";
+                    return null;
+                }
+            }
+            for (final String name : declared) {
+                if (globalNames.contains(name)) {
+                    rejection = "it hides the global '" + name + "'";
+                    return null;
+                }
+            }
+            return callee;
+        }
+
+        /**
+         * Applies the cost model and charges the growth budget.
+         */
+        private boolean accept(final FunctionDefinition callee) {
+            final int size = Statements.size(callee.getBody());
+            if (size <= ALWAYS_INLINE_SIZE) {
+                return true;
+            }
+            final int threshold = baseThreshold + loopBonus * Math.min(loopDepth, MAX_LOOP_DEPTH);
+            if (size > threshold) {
+                rejection = "its size " + size + " exceeds the threshold " + threshold;
+                return false;
+            }
+            if (size > budget) {
+                rejection = "the growth budget is exhausted";
+                return false;
+            }
+            budget -= size;
+            return true;
+        }
+
+        /**
+         * Checks whether the call may be replaced by the returned expression with
+         * the parameters replaced by the arguments.
+         */
+        private boolean isSubstitutable(final FunctionDefinition callee, final CallExpression call,
+                final Expression result) {
+            final FunctionType type = (FunctionType) callee.getType();
+            if (isChar(type.getReturnType())) {
+                return false;
+            }
+            final Set<String> assigned = new HashSet<>();
+            Expressions.collectAssignedNames(result, assigned);
+            Expressions.collectAddressTaken(result, assigned);
+            final List<Token> parameters = callee.getParameterNames();
+            for (int i = 0; i < parameters.size(); ++i) {
+                final String name = parameters.get(i).getText();
+                final Expression arg = call.getArguments().get(i);
+                final boolean simple = Expressions.identifierName(arg) != null || Expressions.constantValue(arg) != null;
+                if (isChar(type.getParameters().get(i)) || assigned.contains(name)
+                        || Expressions.hasSideEffects(arg) || Expressions.containsLoad(arg)
+                        || !simple && countUses(result, name) > 1) {
+                    return false;
+                }
+                // A variable of the caller must not be changed by the callee before its use.
+                final String argName = Expressions.identifierName(arg);
+                if (argName != null && !callerNames.contains(argName) && Expressions.hasSideEffects(result)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Replaces a call statement by the body of the callee.
+         */
+        private List<Statement> inline(final Statement statement, final CallExpression call,
+                final FunctionDefinition callee) {
+            final Locatable loc = Statements.location(statement);
+            final FunctionType type = (FunctionType) callee.getType();
+            final VariableSubstitution substitution = new VariableSubstitution();
+            final List<Statement> block = new ArrayList<>();
+            final List<Token> parameters = callee.getParameterNames();
+            for (int i = 0; i < parameters.size(); ++i) {
+                final String name = names.next("inl");
+                substitution.rename(parameters.get(i).getText(), name);
+                // Calls in the arguments become statements themselves.
+                block.addAll(rewriteListElement(new DeclarationStatement(type.getParameters().get(i),
+                        new Token(loc, TokenKind.IDENTIFIER, name), call.getArguments().get(i))));
+            }
+            Statements.forEachDeclaration(callee.getBody(),
+                    d -> substitution.rename(d.getName().getText(), names.next("inl")));
+
+            final List<Statement> body = callee.getBody() instanceof BlockStatement
+                    ? ((BlockStatement) callee.getBody()).getStatements()
+                    : Collections.singletonList(callee.getBody());
+            Expression result = null;
+            for (final Statement s : body) {
+                if (s instanceof ReturnStatement) {
+                    result = ((ReturnStatement) s).getExpression();
+                    break;
+                }
+                final Statement r = substitution.rewrite(s);
+                if (r != null) {
+                    block.add(r);
+                }
+            }
+
+            final List<Statement> out = new ArrayList<>();
+            final boolean used = !(statement instanceof ExpressionStatement)
+                    || Expressions.isAssignment(((ExpressionStatement) statement).getExpression());
+            Expression value = null;
+            if (result != null) {
+                result = substitution.rewrite(result);
+                if (used) {
+                    final String name = names.next("inl");
+                    out.add(new DeclarationStatement(type.getReturnType(), new Token(loc, TokenKind.IDENTIFIER, name),
+                            null));
+                    block.add(new ExpressionStatement(loc, Expressions.assign(loc, name, result)));
+                    value = Expressions.identifier(loc, name);
+                } else if (Expressions.hasSideEffects(result)) {
+                    block.add(new ExpressionStatement(loc, result));
+                }
+            }
+            out.add(new BlockStatement(loc, block));
+
+            if (statement instanceof DeclarationStatement) {
+                final DeclarationStatement d = (DeclarationStatement) statement;
+                out.add(new DeclarationStatement(d.getType(), d.getName(), value));
+            } else if (statement instanceof ReturnStatement) {
+                out.add(new ReturnStatement(((ReturnStatement) statement).getLocation(), value));
+            } else if (used) {
+                final BinaryExpression assignment = (BinaryExpression) ((ExpressionStatement) statement)
+                        .getExpression();
+                out.add(new ExpressionStatement(loc,
+                        new BinaryExpression(assignment.getOperator(), assignment.getLeft(), value)));
+            }
+            return out;
+        }
+
+        /**
+         * Returns the call if the statement is {@code f(a);}, {@code x = f(a);},
+         * {@code T x = f(a);} or {@code return f(a);}.
+         */
+        private CallExpression statementCall(final Statement s) {
+            Expression e = null;
+            if (s instanceof ExpressionStatement) {
+                e = ((ExpressionStatement) s).getExpression();
+                if (Expressions.isAssignment(e)) {
+                    final BinaryExpression b = (BinaryExpression) e;
+                    e = Expressions.identifierName(b.getLeft()) == null ? null : b.getRight();
+                }
+            } else if (s instanceof DeclarationStatement) {
+                e = ((DeclarationStatement) s).getInit();
+            } else if (s instanceof ReturnStatement) {
+                e = ((ReturnStatement) s).getExpression();
+            }
+            if (!(e instanceof CallExpression)) {
+                return null;
+            }
+            // The value of a void function cannot be used.
+            final CallExpression call = (CallExpression) e;
+            final FunctionDefinition callee = graph.getFunction(Expressions.identifierName(call.getCallee()));
+            if (callee != null && isVoid(((FunctionType) callee.getType()).getReturnType())
+                    && !(s instanceof ExpressionStatement && e == ((ExpressionStatement) s).getExpression())) {
+                return null;
+            }
+            return call;
+        }
+
+        private int countUses(final Expression e, final String name) {
+            final int[] count = { 0 };
+            new AstRewriter() {
+                @Override
+                public Expression rewrite(final Expression inner) {
+                    if (name.equals(Expressions.identifierName(inner))) {
+                        ++count[0];
+                    }
+                    return super.rewrite(inner);
+                }
+            }.rewrite(e);
+            return count[0];
+        }
+    }
+
+    /**
+     * Returns the expression of the body {@code { return e; }}, null if the body
+     * has a different form.
+     */
+    private static Expression returnedExpression(final FunctionDefinition f) {
+        Statement s = f.getBody();
+        if (s instanceof BlockStatement && ((BlockStatement) s).getStatements().size() == 1) {
+            s = ((BlockStatement) s).getStatements().get(0);
+        }
+        return s instanceof ReturnStatement ? ((ReturnStatement) s).getExpression() : null;
+    }
+
+    /**
+     * Returns true if the only return statement of the function is the last
+     * statement of its body, or a void function has none.
+     */
+    private static boolean hasSingleExit(final FunctionDefinition f) {
+        if (!(f.getBody() instanceof BlockStatement)) {
+            return false;
+        }
+        final List<Statement> body = ((BlockStatement) f.getBody()).getStatements();
+        for (int i = 0; i < body.size(); ++i) {
+            final Statement s = body.get(i);
+            if (s instanceof ReturnStatement) {
+                return i == body.size() - 1;
+            }
+            if (Statements.containsReturn(s)) {
+                return false;
+            }
+        }
+        return isVoid(((FunctionType) f.getType()).getReturnType());
+    }
+
+    private static boolean isVoid(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.VOID;
+    }
+
+    private static boolean isChar(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.CHAR;
+    }
+}
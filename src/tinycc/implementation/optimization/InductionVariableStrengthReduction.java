@@ -0,0 +1,567 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Strength reduction and elimination of induction variables in while loops.
+ *
+ * A basic induction variable is an int local which is changed exactly once per
+ * iteration by a statement {@code i = i + c}, {@code i = i - c}, {@code i++} or
+ * {@code i--} directly in the loop body, with a constant c. Expressions derived
+ * from it, {@code p[i]} and {@code p + i} with a loop-invariant pointer p as
+ * well as {@code i * k} and {@code i << k} with a constant k, are replaced by a
+ * new variable which is initialized in front of the loop and incremented right
+ * after the update of i:
+ *
+ * <pre>
+ *     while (i < n) { s = s + p[i]; i = i + 1; }
+ * becomes
+ *     { int *__iv0 = p + i; int *__iv1 = p + n;
+ *       while (__iv0 < __iv1) { s = s + *__iv0; i = i + 1; __iv0 = __iv0 + 1; } }
+ * </pre>
+ *
+ * If the induction variable is otherwise only used in comparisons with loop
+ * invariant values and not read outside of the loop, the comparisons are
+ * rewritten in terms of the new variable. The update of i is dead then and is
+ * removed by dead code elimination.
+ *
+ * Pointers are compared unsigned, so a comparison is only rewritten if the
+ * {@link ValueRanges} prove that both i and the value it is compared with are
+ * between 0 and a bound, so that their offsets from p stay below 2^31 bytes.
+ * The objects of a MIPS program lie below 2^31, so the pointers do not wrap
+ * around and compare like the indices. Otherwise, e.g. for a negative or
+ * unknown n, the comparison of i is kept.
+ */
+public class InductionVariableStrengthReduction {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(ast, f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final ExpressionTypes types = new ExpressionTypes(ast, function, locals);
+        final TemporaryNames names = new TemporaryNames(function, globalNames);
+        final Statement body = new LoopRewriter(ast, function, locals, types, names, remarks)
+                .rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    /**
+     * A basic induction variable and the statement which updates it.
+     */
+    private static final class BasicVariable {
+        final String name;
+        final int step;
+        final Statement update;
+
+        BasicVariable(final String name, final int step, final Statement update) {
+            this.name = name;
+            this.step = step;
+            this.update = update;
+        }
+    }
+
+    /**
+     * An expression derived from a basic induction variable: either
+     * {@code base + i} for a pointer base or {@code i * factor}.
+     */
+    private static final class DerivedVariable {
+        final String base;
+        final int factor;
+        final Type type;
+        final String name;
+
+        DerivedVariable(final String base, final int factor, final Type type, final String name) {
+            this.base = base;
+            this.factor = factor;
+            this.type = type;
+            this.name = name;
+        }
+
+        boolean isPointer() {
+            return base != null;
+        }
+
+        /** Builds the derived expression for the given value of the variable. */
+        Expression compute(final Locatable loc, final Expression value) {
+            if (isPointer()) {
+                return Expressions.binary(loc, TokenKind.PLUS, Expressions.identifier(loc, base), value);
+            }
+            return Expressions.binary(loc, TokenKind.ASTERISK, value, Expressions.number(loc, factor));
+        }
+    }
+
+    private static final class LoopRewriter extends AstRewriter {
+        private final AST ast;
+        private final FunctionDefinition function;
+        private final Statement functionBody;
+        private final LocalVariables locals;
+        private final ExpressionTypes types;
+        private final TemporaryNames names;
+        private final RemarkEmitter remarks;
+        private ValueRanges ranges;
+
+        LoopRewriter(final AST ast, final FunctionDefinition function, final LocalVariables locals,
+                final ExpressionTypes types, final TemporaryNames names, final RemarkEmitter remarks) {
+            this.ast = ast;
+            this.function = function;
+            this.functionBody = function.getBody();
+            this.locals = locals;
+            this.types = types;
+            this.names = names;
+            this.remarks = remarks;
+        }
+
+        /**
+         * Returns the value ranges of the original function body, which are
+         * only computed when a comparison may be rewritten.
+         */
+        private ValueRanges ranges() {
+            if (ranges == null) {
+                ranges = new ValueRanges(ast, function, locals);
+            }
+            return ranges;
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement original) {
+            // Inner loops first, they have their own induction variables.
+            final Statement rewritten = super.rewriteWhile(original);
+            if (!(rewritten instanceof WhileStatement)) {
+                return rewritten;
+            }
+            WhileStatement loop = (WhileStatement) rewritten;
+            if (!(loop.getBody() instanceof BlockStatement)) {
+                return loop;
+            }
+            final List<Statement> preheader = new ArrayList<>();
+            final LoopInfo info = new LoopInfo(loop, locals);
+            for (final BasicVariable iv : findBasicVariables(loop, info)) {
+                loop = reduce(original, loop, info, iv, preheader);
+            }
+            if (preheader.isEmpty()) {
+                return loop;
+            }
+            preheader.add(loop);
+            return new BlockStatement(loop.getLocation(), preheader);
+        }
+
+        private List<BasicVariable> findBasicVariables(final WhileStatement loop, final LoopInfo info) {
+            final List<BasicVariable> result = new ArrayList<>();
+            for (final Statement s : ((BlockStatement) loop.getBody()).getStatements()) {
+                if (!(s instanceof ExpressionStatement)) {
+                    continue;
+                }
+                final Expression e = ((ExpressionStatement) s).getExpression();
+                final String name = updatedVariable(e);
+                final Integer step = name == null ? null : stepOf(e, name);
+                if (step == null || !locals.isTracked(name) || info.isDeclared(name)
+                        || !isInt(types.typeOfVariable(name))
+                        || countWrites(loop, name) != 1) {
+                    continue;
+                }
+                result.add(new BasicVariable(name, step, s));
+            }
+            return result;
+        }
+
+        private static boolean isInt(final Type t) {
+            return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.INT;
+        }
+
+        private WhileStatement reduce(final WhileStatement original, final WhileStatement loop, final LoopInfo info,
+                final BasicVariable iv, final List<Statement> preheader) {
+            final Locatable loc = loop.getLocation();
+            final List<DerivedVariable> derived = new ArrayList<>();
+            final AstRewriter replacer = new AstRewriter() {
+                @Override
+                public Expression rewrite(final Expression e) {
+                    final DerivedVariable d = match(e, iv, info, derived);
+                    if (d != null) {
+                        final Expression replacement = Expressions.identifier(loc, d.name);
+                        if (e instanceof BinaryExpression
+                                && ((BinaryExpression) e).getOperator().getKind() == TokenKind.LBRACKET) {
+                            return new UnaryExpression(new Token(loc, TokenKind.ASTERISK), false, replacement);
+                        }
+                        return replacement;
+                    }
+                    return super.rewrite(e);
+                }
+
+                @Override
+                public Statement rewrite(final Statement s) {
+                    return s == iv.update ? s : super.rewrite(s);
+                }
+            };
+            final Expression condition = replacer.rewrite(loop.getCondition());
+            final BlockStatement body = (BlockStatement) replacer.rewrite(loop.getBody());
+            if (derived.isEmpty()) {
+                return loop;
+            }
+
+            // Initialize the derived variables in the preheader and update them after i.
+            final List<Statement> statements = new ArrayList<>();
+            for (final Statement s : body.getStatements()) {
+                statements.add(s);
+                if (s == iv.update) {
+                    for (final DerivedVariable d : derived) {
+                        final int increment = d.isPointer() ? iv.step : iv.step * d.factor;
+                        final Expression next = Expressions.binary(loc, increment < 0 ? TokenKind.MINUS : TokenKind.PLUS,
+                                Expressions.identifier(loc, d.name), Expressions.number(loc, Math.abs(increment)));
+                        statements.add(new ExpressionStatement(loc, Expressions.assign(loc, d.name, next)));
+                    }
+                }
+            }
+            for (final DerivedVariable d : derived) {
+                preheader.add(declare(loc, d.type, d.name, d.compute(loc, Expressions.identifier(loc, iv.name))));
+            }
+            remarks.passed("Reduced", loc, "%d %s of '%s' updated by additions in the loop", derived.size(),
+                    derived.size() == 1 ? "expression" : "expressions", iv.name);
+            final WhileStatement reduced = new WhileStatement(loc, condition,
+                    new BlockStatement(body.getLocation(), statements));
+            return eliminate(original, reduced, info, iv, derived, preheader);
+        }
+
+        /**
+         * Rewrites the comparisons of the induction variable in terms of a derived
+         * variable if that removes every other use of it.
+         */
+        private WhileStatement eliminate(final WhileStatement original, final WhileStatement loop,
+                final LoopInfo info, final BasicVariable iv, final List<DerivedVariable> derived,
+                final List<Statement> preheader) {
+            if (readOutside(functionBody, original, iv.name)) {
+                return loop;
+            }
+            // Multiples of i may overflow where i does not, so only pointers are used.
+            DerivedVariable survivor = null;
+            for (final DerivedVariable d : derived) {
+                if (d.isPointer()) {
+                    survivor = d;
+                    break;
+                }
+            }
+            if (survivor == null) {
+                return loop;
+            }
+            final DerivedVariable d = survivor;
+            final List<Statement> bounds = new ArrayList<>();
+            // The condition sees the values at the loop head, the body also the
+            // values after the update.
+            final Interval head = ranges().getLoopRange(original, iv.name);
+            if (head == null) {
+                return loop;
+            }
+            final Interval updated = head.join(head.add(Interval.constant(iv.step)));
+            final List<Expression> kept = new ArrayList<>();
+            final Expression condition = comparisons(loop, info, iv, d, head, bounds, kept)
+                    .rewrite(loop.getCondition());
+            final Statement body = comparisons(loop, info, iv, d, updated, bounds, kept).rewrite(loop.getBody());
+            final Set<String> reads = new HashSet<>();
+            Expressions.collectReadNames(condition, reads);
+            for (final Statement s : ((BlockStatement) body).getStatements()) {
+                if (s != iv.update) {
+                    Statements.forEachExpression(s, e -> Expressions.collectReadNames(e, reads));
+                }
+            }
+            if (reads.contains(iv.name) || bounds.isEmpty()) {
+                if (!kept.isEmpty()) {
+                    remarks.missed("NotEliminated", Expressions.location(kept.get(0)),
+                            "comparison of '%s' kept: the pointer could wrap around", iv.name);
+                }
+                return loop;
+            }
+            preheader.addAll(bounds);
+            remarks.passed("Eliminated", loop.getLocation(), "'%s' eliminated, the loop compares pointers instead",
+                    iv.name);
+            return new WhileStatement(loop.getLocation(), condition, body);
+        }
+
+        /**
+         * Returns the rewriter of the comparisons of the induction variable with
+         * invariant values in terms of the derived pointer.
+         *
+         * @param counter The range of the induction variable at the comparisons.
+         * @param kept    Receives the comparisons which are kept because the
+         *                pointer could wrap around.
+         */
+        private AstRewriter comparisons(final WhileStatement loop, final LoopInfo info, final BasicVariable iv,
+                final DerivedVariable d, final Interval counter, final List<Statement> bounds,
+                final List<Expression> kept) {
+            final Locatable loc = loop.getLocation();
+            final int size = ExpressionTypes.sizeOf(ExpressionTypes.pointee(d.type));
+            return new AstRewriter() {
+                @Override
+                protected Expression rewriteBinary(final BinaryExpression e) {
+                    if (!isComparison(e.getOperator().getKind())) {
+                        return super.rewriteBinary(e);
+                    }
+                    final boolean left = iv.name.equals(Expressions.identifierName(e.getLeft()));
+                    final boolean right = iv.name.equals(Expressions.identifierName(e.getRight()));
+                    final Expression other = left ? e.getRight() : e.getLeft();
+                    if (left == right || !isInvariant(other, info)) {
+                        return super.rewriteBinary(e);
+                    }
+                    if (!isOffset(counter, size) || !isOffset(rangeOf(other), size)) {
+                        kept.add(e);
+                        return super.rewriteBinary(e);
+                    }
+                    final Expression bound = bound(loc, d, other, bounds);
+                    final Expression variable = Expressions.identifier(loc, d.name);
+                    return new BinaryExpression(e.getOperator(), left ? variable : bound, left ? bound : variable);
+                }
+
+                @Override
+                public Statement rewrite(final Statement s) {
+                    return s == iv.update ? s : super.rewrite(s);
+                }
+            };
+        }
+
+        private Interval rangeOf(final Expression e) {
+            final Integer value = Expressions.constantValue(e);
+            return value != null ? Interval.constant(value) : ranges().getRange(e);
+        }
+
+        /**
+         * Returns true if every index of the range gives an offset between 0
+         * and 2^31 - 1 bytes for elements of the given size.
+         */
+        private static boolean isOffset(final Interval range, final int size) {
+            return range != null && range.getLower() >= 0 && (long) range.getUpper() * size <= Integer.MAX_VALUE;
+        }
+
+        /**
+         * Declares the derived pointer for the value the induction variable is
+         * compared with and returns it.
+         */
+        private Expression bound(final Locatable loc, final DerivedVariable d, final Expression value,
+                final List<Statement> bounds) {
+            final String name = names.next("iv");
+            bounds.add(declare(loc, d.type, name, d.compute(loc, value)));
+            return Expressions.identifier(loc, name);
+        }
+
+        private DerivedVariable match(final Expression e, final BasicVariable iv, final LoopInfo info,
+                final List<DerivedVariable> derived) {
+            if (!(e instanceof BinaryExpression)) {
+                return null;
+            }
+            final BinaryExpression b = (BinaryExpression) e;
+            final String left = Expressions.identifierName(b.getLeft());
+            final String right = Expressions.identifierName(b.getRight());
+            switch (b.getOperator().getKind()) {
+            case PLUS:
+            case LBRACKET: {
+                final String base = iv.name.equals(right) ? left : iv.name.equals(left) ? right : null;
+                final Type type = base == null ? null : types.typeOfVariable(base);
+                if (!ExpressionTypes.isPointer(type) || ExpressionTypes.sizeOf(ExpressionTypes.pointee(type)) == 0
+                        || !locals.isTracked(base) || info.isModified(base)) {
+                    return null;
+                }
+                return derived(derived, base, 1, type);
+            }
+            case ASTERISK: {
+                final Expression other = iv.name.equals(left) ? b.getRight()
+                        : iv.name.equals(right) ? b.getLeft() : null;
+                final Integer factor = Expressions.constantValue(other);
+                if (factor == null || factor == 0 || factor == 1) {
+                    return null;
+                }
+                return derived(derived, null, factor, ExpressionTypes.INT);
+            }
+            case LESS_LESS: {
+                final Integer shift = Expressions.constantValue(b.getRight());
+                if (!iv.name.equals(left) || shift == null || shift < 1 || shift > 30) {
+                    return null;
+                }
+                return derived(derived, null, 1 << shift, ExpressionTypes.INT);
+            }
+            default:
+                return null;
+            }
+        }
+
+        private DerivedVariable derived(final List<DerivedVariable> derived, final String base, final int factor,
+                final Type type) {
+            for (final DerivedVariable d : derived) {
+                if (d.factor == factor && (base == null ? d.base == null : base.equals(d.base))) {
+                    return d;
+                }
+            }
+            final DerivedVariable d = new DerivedVariable(base, factor, type, names.next("iv"));
+            derived.add(d);
+            return d;
+        }
+
+        private boolean isInvariant(final Expression e, final LoopInfo info) {
+            if (Expressions.hasSideEffects(e)) {
+                return false;
+            }
+            final Set<String> used = new HashSet<>();
+            Expressions.collectNames(e, used);
+            for (final String name : used) {
+                if (!locals.isTracked(name) || info.isModified(name)) {
+                    return false;
+                }
+            }
+            return !Expressions.containsLoad(e);
+        }
+    }
+
+    private static Statement declare(final Locatable loc, final Type type, final String name, final Expression init) {
+        return new DeclarationStatement(type, new Token(loc, TokenKind.IDENTIFIER, name), init);
+    }
+
+    private static boolean isComparison(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+        case LESS_EQUAL:
+        case GREATER:
+        case GREATER_EQUAL:
+        case EQUAL_EQUAL:
+        case BANG_EQUAL:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the variable updated by an induction step, null if the expression is
+     * not of that form.
+     */
+    private static String updatedVariable(final Expression e) {
+        if (Expressions.isIncDec(e)) {
+            return Expressions.identifierName(((UnaryExpression) e).getOperand());
+        }
+        if (Expressions.isAssignment(e)) {
+            return Expressions.identifierName(((BinaryExpression) e).getLeft());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the constant step of an induction step of the given variable, null
+     * if the expression is not of that form.
+     */
+    private static Integer stepOf(final Expression e, final String name) {
+        if (Expressions.isIncDec(e)) {
+            return ((UnaryExpression) e).getOperator().getKind() == TokenKind.PLUS_PLUS ? 1 : -1;
+        }
+        final Expression value = ((BinaryExpression) e).getRight();
+        if (!(value instanceof BinaryExpression)) {
+            return null;
+        }
+        final BinaryExpression b = (BinaryExpression) value;
+        final boolean left = name.equals(Expressions.identifierName(b.getLeft()));
+        final boolean right = name.equals(Expressions.identifierName(b.getRight()));
+        switch (b.getOperator().getKind()) {
+        case PLUS: {
+            final Integer c = left ? Expressions.constantValue(b.getRight())
+                    : right ? Expressions.constantValue(b.getLeft()) : null;
+            return c == null || c == 0 ? null : c;
+        }
+        case MINUS: {
+            final Integer c = left ? Expressions.constantValue(b.getRight()) : null;
+            return c == null || c == 0 || c == Integer.MIN_VALUE ? null : -c;
+        }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Counts the writes to the given variable in the loop.
+     */
+    private static int countWrites(final WhileStatement loop, final String name) {
+        final int[] count = { 0 };
+        final AstRewriter counter = new AstRewriter() {
+            @Override
+            public Expression rewrite(final Expression e) {
+                if (name.equals(updatedVariable(e))) {
+                    ++count[0];
+                }
+                return super.rewrite(e);
+            }
+        };
+        counter.rewrite(loop);
+        return count[0];
+    }
+
+    /**
+     * Returns true if the variable is read in the given tree outside of the
+     * excluded statement.
+     */
+    private static boolean readOutside(final Statement tree, final Statement excluded, final String name) {
+        final boolean[] read = { false };
+        final AstRewriter scanner = new AstRewriter() {
+            @Override
+            public Statement rewrite(final Statement s) {
+                return s == excluded ? s : super.rewrite(s);
+            }
+
+            @Override
+            public Expression rewrite(final Expression e) {
+                final Set<String> names = new HashSet<>();
+                Expressions.collectReadNames(e, names);
+                read[0] |= names.contains(name);
+                return e;
+            }
+        };
+        scanner.rewrite(tree);
+        return read[0];
+    }
+}
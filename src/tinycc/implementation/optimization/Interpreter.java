@@ -0,0 +1,346 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Evaluates calls of functions at compile time by interpreting their AST.
+ *
+ * Only functions which compute with int values are supported: their return
+ * type, parameters and local variables must be int, and they must not access
+ * memory or call functions which are not defined in the translation unit. The
+ * arithmetic is the one of the target (see {@link ConstantFolding#evaluate}).
+ *
+ * The evaluation gives up if it exceeds the step budget, if more variables are
+ * live at the same time than the memory budget allows, if the calls nest too
+ * deep, or if the program does something undefined, e.g. divides by zero or
+ * reads an uninitialized variable. The caller then keeps the call.
+ */
+public class Interpreter {
+    /** The maximum nesting of calls, which bounds the stack of the compiler. */
+    public static final int MAX_DEPTH = 200;
+
+    private final CallGraph graph;
+    private final int maxSteps;
+    private final int maxCells;
+    private final Set<String> supported = new HashSet<>();
+    private final Set<String> unsupported = new HashSet<>();
+
+    private int steps;
+    private int cells;
+    private int depth;
+    private Deque<Map<String, Integer>> scopes;
+    private int result;
+
+    /**
+     * Thrown to abort an evaluation.
+     */
+    private static final class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Creates an interpreter for the functions of the call graph.
+     *
+     * @param graph    The call graph of the translation unit.
+     * @param maxSteps The maximum number of evaluated statements and expressions
+     *                 per call.
+     * @param maxCells The maximum number of variables which are live at the same
+     *                 time.
+     */
+    public Interpreter(final CallGraph graph, final int maxSteps, final int maxCells) {
+        this.graph = graph;
+        this.maxSteps = maxSteps;
+        this.maxCells = maxCells;
+    }
+
+    /**
+     * Evaluates a call of a function.
+     *
+     * @param name      The name of the function.
+     * @param arguments The values of the arguments.
+     * @return The return value or null if the call cannot be evaluated.
+     */
+    public Integer call(final String name, final List<Integer> arguments) {
+        steps = 0;
+        cells = 0;
+        depth = 0;
+        try {
+            return invoke(name, arguments);
+        } catch (final Abort e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of steps the last call took, also if it was aborted.
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    private int invoke(final String name, final List<Integer> arguments) {
+        final FunctionDefinition f = graph.getFunction(name);
+        if (f == null || !isSupported(f) || f.getParameterNames().size() != arguments.size()
+                || ++depth > MAX_DEPTH) {
+            throw new Abort();
+        }
+        final Deque<Map<String, Integer>> caller = scopes;
+        scopes = new ArrayDeque<>();
+        enter();
+        for (int i = 0; i < arguments.size(); ++i) {
+            declare(f.getParameterNames().get(i).getText(), arguments.get(i));
+        }
+        if (!execute(f.getBody())) {
+            // The function completed without returning a value.
+            throw new Abort();
+        }
+        leave();
+        scopes = caller;
+        --depth;
+        return result;
+    }
+
+    /**
+     * Returns true if the function only uses int values.
+     */
+    private boolean isSupported(final FunctionDefinition f) {
+        final String name = f.getName().getText();
+        if (supported.contains(name)) {
+            return true;
+        }
+        if (unsupported.contains(name)) {
+            return false;
+        }
+        final FunctionType type = (FunctionType) f.getType();
+        final boolean[] ok = { isInt(type.getReturnType()) };
+        for (final Type p : type.getParameters()) {
+            ok[0] &= isInt(p);
+        }
+        for (final Token p : f.getParameterNames()) {
+            ok[0] &= p != null;
+        }
+        Statements.forEachDeclaration(f.getBody(), d -> ok[0] &= isInt(d.getType()));
+        (ok[0] ? supported : unsupported).add(name);
+        return ok[0];
+    }
+
+    private static boolean isInt(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.INT;
+    }
+
+    private void step() {
+        if (++steps > maxSteps) {
+            throw new Abort();
+        }
+    }
+
+    private void enter() {
+        scopes.push(new HashMap<>());
+    }
+
+    private void leave() {
+        cells -= scopes.pop().size();
+    }
+
+    private void declare(final String name, final Integer value) {
+        if (++cells > maxCells) {
+            throw new Abort();
+        }
+        scopes.peek().put(name, value);
+    }
+
+    private Map<String, Integer> scopeOf(final String name) {
+        for (final Map<String, Integer> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return scope;
+            }
+        }
+        throw new Abort();
+    }
+
+    /**
+     * Executes a statement.
+     *
+     * @return True if the statement returned.
+     */
+    private boolean execute(final Statement s) {
+        step();
+        if (s instanceof BlockStatement) {
+            enter();
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                if (execute(inner)) {
+                    leave();
+                    return true;
+                }
+            }
+            leave();
+            return false;
+        }
+        if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            declare(d.getName().getText(), d.getInit() == null ? null : evaluate(d.getInit()));
+            return false;
+        }
+        if (s instanceof ExpressionStatement) {
+            evaluate(((ExpressionStatement) s).getExpression());
+            return false;
+        }
+        if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            if (evaluate(i.getCondition()) != 0) {
+                return executeScoped(i.getConsequence());
+            }
+            return i.getAlternative() != null && executeScoped(i.getAlternative());
+        }
+        if (s instanceof WhileStatement) {
+            final WhileStatement w = (WhileStatement) s;
+            while (evaluate(w.getCondition()) != 0) {
+                if (executeScoped(w.getBody())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s instanceof ReturnStatement) {
+            final Expression e = ((ReturnStatement) s).getExpression();
+            if (e == null) {
+                throw new Abort();
+            }
+            result = evaluate(e);
+            return true;
+        }
+        throw new Abort();
+    }
+
+    /**
+     * Executes a nested statement, which has a scope of its own.
+     */
+    private boolean executeScoped(final Statement s) {
+        enter();
+        final boolean returned = execute(s);
+        leave();
+        return returned;
+    }
+
+    private int evaluate(final Expression e) {
+        step();
+        final Integer constant = Expressions.constantValue(e);
+        if (constant != null) {
+            return constant;
+        }
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            final Integer value = scopeOf(name).get(name);
+            if (value == null) {
+                throw new Abort();
+            }
+            return value;
+        }
+        if (e instanceof BinaryExpression) {
+            return evaluateBinary((BinaryExpression) e);
+        }
+        if (e instanceof UnaryExpression) {
+            return evaluateUnary((UnaryExpression) e);
+        }
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            final Integer[] arguments = new Integer[c.getArguments().size()];
+            for (int i = 0; i < arguments.length; ++i) {
+                arguments[i] = evaluate(c.getArguments().get(i));
+            }
+            return invoke(Expressions.identifierName(c.getCallee()), Arrays.asList(arguments));
+        }
+        if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            return evaluate(evaluate(c.getCondition()) != 0 ? c.getConsequence() : c.getAlternative());
+        }
+        throw new Abort();
+    }
+
+    private int evaluateBinary(final BinaryExpression b) {
+        final TokenKind kind = b.getOperator().getKind();
+        switch (kind) {
+        case EQUAL: {
+            final String target = Expressions.identifierName(b.getLeft());
+            if (target == null) {
+                throw new Abort();
+            }
+            final int value = evaluate(b.getRight());
+            scopeOf(target).put(target, value);
+            return value;
+        }
+        case AND_AND:
+            return evaluate(b.getLeft()) != 0 && evaluate(b.getRight()) != 0 ? 1 : 0;
+        case PIPE_PIPE:
+            return evaluate(b.getLeft()) != 0 || evaluate(b.getRight()) != 0 ? 1 : 0;
+        case COMMA:
+            evaluate(b.getLeft());
+            return evaluate(b.getRight());
+        default: {
+            final int left = evaluate(b.getLeft());
+            final int right = evaluate(b.getRight());
+            final Integer value = ConstantFolding.evaluate(kind, left, right);
+            if (value == null) {
+                throw new Abort();
+            }
+            return value;
+        }
+        }
+    }
+
+    private int evaluateUnary(final UnaryExpression u) {
+        switch (u.getOperator().getKind()) {
+        case PLUS_PLUS:
+        case MINUS_MINUS: {
+            final String target = Expressions.identifierName(u.getOperand());
+            if (target == null) {
+                throw new Abort();
+            }
+            final int old = evaluate(u.getOperand());
+            final int value = u.getOperator().getKind() == TokenKind.PLUS_PLUS ? old + 1 : old - 1;
+            scopeOf(target).put(target, value);
+            return u.isPostfix() ? old : value;
+        }
+        case MINUS:
+            return -evaluate(u.getOperand());
+        case PLUS:
+            return evaluate(u.getOperand());
+        case TILDE:
+            return ~evaluate(u.getOperand());
+        case BANG:
+            return evaluate(u.getOperand()) == 0 ? 1 : 0;
+        default:
+            throw new Abort();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Propagates constant arguments into the called functions.
+ *
+ * If every call of a function passes the same constant for a parameter, the
+ * parameter is replaced by the constant in the body. Calls which pass constants
+ * for parameters that differ between the calls are redirected to a specialized
+ * copy of the function, which has the constant parameters removed:
+ *
+ * <pre>
+ *     pow(x, 2) ... pow(y, 3)
+ * becomes
+ *     pow__spec0(x) ... pow__spec1(y)
+ * </pre>
+ *
+ * A copy is only kept if constant folding makes it smaller than the original,
+ * and the copies of the translation unit must fit into a size budget. All
+ * callers are known only for a complete program, so nothing is done if there is
+ * no main function, and functions whose name is used other than for a call are
+ * left alone.
+ */
+public class InterproceduralConstantPropagation {
+    /** The maximum size of a function which is specialized. */
+    public static final int MAX_SPECIALIZED_SIZE = 80;
+    /** The maximum number of specialized copies of a single function. */
+    public static final int MAX_COPIES = 4;
+
+    private final ConstantFolding folding = new ConstantFolding();
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        if (new CallGraph(ast).getFunction("main") == null) {
+            return false;
+        }
+        final Set<String> escaping = new HashSet<>();
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            Statements.forEachExpression(f.getBody(), e -> collectNonCallUses(e, globalNames, escaping));
+        }
+        boolean changed = propagate(ast, globalNames, escaping);
+        changed |= specialize(ast, globalNames, escaping);
+        return changed;
+    }
+
+    /**
+     * Replaces parameters which receive the same constant at every call.
+     */
+    private boolean propagate(final AST ast, final Set<String> globalNames, final Set<String> escaping) {
+        final Map<String, List<CallExpression>> calls = collectCalls(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            final String name = f.getName().getText();
+            final List<CallExpression> sites = calls.get(name);
+            if (name.equals("main") || escaping.contains(name) || sites == null) {
+                continue;
+            }
+            final Integer[] common = constantArguments(f, sites.get(0));
+            for (final CallExpression call : sites) {
+                final Integer[] values = constantArguments(f, call);
+                for (int i = 0; i < common.length; ++i) {
+                    if (values[i] == null || !values[i].equals(common[i])) {
+                        common[i] = null;
+                    }
+                }
+            }
+            final VariableSubstitution substitution = substitution(f, common);
+            if (substitution != null) {
+                for (int i = 0; i < common.length; ++i) {
+                    if (common[i] != null) {
+                        final Token p = f.getParameterNames().get(i);
+                        remarks.passed("Propagated", p, "parameter '%s' of '%s' replaced by %d, passed by every call",
+                                p.getText(), name, common[i]);
+                    }
+                }
+                f.setBody(substitution.rewriteNested(f.getBody()));
+                folding.run(f, globalNames);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Redirects calls with constant arguments to specialized copies.
+     */
+    private boolean specialize(final AST ast, final Set<String> globalNames, final Set<String> escaping) {
+        int size = 0;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            size += Statements.size(f.getBody());
+        }
+        int budget = Math.max(100, size / 4);
+
+        final Map<String, List<CallExpression>> calls = collectCalls(ast);
+        final Map<CallExpression, String> targets = new LinkedHashMap<>();
+        final Map<CallExpression, List<Integer>> signatures = new LinkedHashMap<>();
+        final List<FunctionDefinition> functions = new ArrayList<>(ast.getFunctionDefinitions());
+        for (final FunctionDefinition f : functions) {
+            final String name = f.getName().getText();
+            final List<CallExpression> sites = calls.get(name);
+            final int originalSize = Statements.size(f.getBody());
+            if (name.equals("main") || escaping.contains(name) || sites == null
+                    || originalSize > MAX_SPECIALIZED_SIZE) {
+                continue;
+            }
+            final Map<List<Integer>, String> copies = new LinkedHashMap<>();
+            int count = 0;
+            for (final CallExpression call : sites) {
+                final List<Integer> key = Arrays.asList(constantArguments(f, call));
+                signatures.put(call, key);
+                if (copies.containsKey(key)) {
+                    if (copies.get(key) != null) {
+                        targets.put(call, copies.get(key));
+                        remarks.passed("Specialized", call.getToken(), "call of '%s' redirected to '%s'", name,
+                                copies.get(key));
+                    }
+                    continue;
+                }
+                final FunctionDefinition copy = copies.size() < MAX_COPIES && originalSize <= budget
+                        ? specializedCopy(f, key.toArray(new Integer[0]), globalNames)
+                        : null;
+                if (copy == null || Statements.size(copy.getBody()) >= originalSize) {
+                    if (copy != null) {
+                        remarks.missed("NotSpecialized", call.getToken(),
+                                "'%s' not specialized for the call: the copy would not be smaller", name);
+                    }
+                    copies.put(key, null);
+                    continue;
+                }
+                budget -= Statements.size(copy.getBody());
+                final String copyName = copy.getName().getText();
+                globalNames.add(copyName);
+                copies.put(key, copyName);
+                ++count;
+                targets.put(call, copyName);
+                remarks.passed("Specialized", call.getToken(), "call of '%s' redirected to '%s'", name, copyName);
+                addFunction(ast, f, copy, count);
+            }
+        }
+        if (targets.isEmpty()) {
+            return false;
+        }
+
+        final AstRewriter redirection = new AstRewriter() {
+            @Override
+            protected Expression rewriteCall(final CallExpression e) {
+                final Expression rewritten = super.rewriteCall(e);
+                final String target = targets.get(e);
+                if (target == null) {
+                    return rewritten;
+                }
+                final CallExpression call = (CallExpression) rewritten;
+                final List<Integer> values = signatures.get(e);
+                final List<Expression> arguments = new ArrayList<>();
+                for (int i = 0; i < values.size(); ++i) {
+                    if (values.get(i) == null) {
+                        arguments.add(call.getArguments().get(i));
+                    }
+                }
+                return new CallExpression(call.getToken(), Expressions.identifier(call.getToken(), target), arguments);
+            }
+        };
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            f.setBody(redirection.rewriteNested(f.getBody()));
+        }
+        return true;
+    }
+
+    /**
+     * Creates a copy of the function with the constant parameters removed.
+     *
+     * @return The folded copy or null if no parameter can be replaced.
+     */
+    private FunctionDefinition specializedCopy(final FunctionDefinition f, final Integer[] values,
+            final Set<String> globalNames) {
+        final VariableSubstitution substitution = substitution(f, values);
+        if (substitution == null) {
+            return null;
+        }
+        final FunctionType type = (FunctionType) f.getType();
+        final List<Type> parameters = new ArrayList<>();
+        final List<Token> parameterNames = new ArrayList<>();
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] == null) {
+                parameters.add(type.getParameters().get(i));
+                parameterNames.add(f.getParameterNames().get(i));
+            }
+        }
+        int n = 0;
+        String name;
+        do {
+            name = f.getName().getText() + "__spec" + n++;
+        } while (globalNames.contains(name));
+        final FunctionDefinition copy = new FunctionDefinition(new FunctionType(type.getReturnType(), parameters),
+                new Token(f.getName(), TokenKind.IDENTIFIER, name), parameterNames,
+                substitution.rewriteNested(f.getBody()));
+        folding.run(copy, globalNames);
+        return copy;
+    }
+
+    /**
+     * Inserts the n-th copy behind the original and its previous copies and
+     * declares it wherever the original is declared.
+     */
+    private static void addFunction(final AST ast, final FunctionDefinition original, final FunctionDefinition copy,
+            final int n) {
+        final List<FunctionDefinition> functions = ast.getFunctionDefinitions();
+        functions.add(functions.indexOf(original) + n, copy);
+        final List<ExternalDeclaration> declarations = ast.getExternalDeclarations();
+        for (int i = 0; i < declarations.size(); ++i) {
+            if (declarations.get(i).getName().getText().equals(original.getName().getText())) {
+                declarations.add(i + n, new ExternalDeclaration(copy.getType(), copy.getName()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates the substitution of the given constant parameter values.
+     *
+     * @return The substitution or null if no parameter can be replaced.
+     */
+    private static VariableSubstitution substitution(final FunctionDefinition f, final Integer[] values) {
+        VariableSubstitution substitution = null;
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                if (substitution == null) {
+                    substitution = new VariableSubstitution();
+                }
+                final Token p = f.getParameterNames().get(i);
+                substitution.replace(p.getText(), Expressions.number(p, values[i]));
+            }
+        }
+        return substitution;
+    }
+
+    /**
+     * Returns the constant arguments of the call, null for every argument which
+     * is not a constant or whose parameter cannot be replaced.
+     */
+    private static Integer[] constantArguments(final FunctionDefinition f, final CallExpression call) {
+        final FunctionType type = (FunctionType) f.getType();
+        final Integer[] values = new Integer[f.getParameterNames().size()];
+        if (call.getArguments().size() != values.length) {
+            return values;
+        }
+        final Set<String> changed = new HashSet<>();
+        Statements.collectAssignedNames(f.getBody(), changed);
+        Statements.collectAddressTaken(f.getBody(), changed);
+        for (int i = 0; i < values.length; ++i) {
+            final Token p = f.getParameterNames().get(i);
+            final Integer value = Expressions.constantValue(call.getArguments().get(i));
+            if (p != null && value != null && !changed.contains(p.getText())
+                    && fits(type.getParameters().get(i), value)) {
+                values[i] = value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns true if the value does not change when it is converted to the
+     * parameter type.
+     */
+    private static boolean fits(final Type t, final int value) {
+        if (!(t instanceof BaseType)) {
+            return false;
+        }
+        final TokenKind kind = ((BaseType) t).getKind();
+        return kind == TokenKind.INT || kind == TokenKind.CHAR && value >= 0 && value < 128;
+    }
+
+    private static Map<String, List<CallExpression>> collectCalls(final AST ast) {
+        final Map<String, List<CallExpression>> calls = new LinkedHashMap<>();
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            Statements.forEachExpression(f.getBody(), e -> collectCalls(e, calls));
+        }
+        return calls;
+    }
+
+    private static void collectCalls(final Expression e, final Map<String, List<CallExpression>> calls) {
+        if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            final String name = Expressions.identifierName(c.getCallee());
+            if (name != null) {
+                calls.computeIfAbsent(name, k -> new ArrayList<>()).add(c);
+            }
+            for (final Expression arg : c.getArguments()) {
+                collectCalls(arg, calls);
+            }
+        } else if (e instanceof BinaryExpression) {
+            collectCalls(((BinaryExpression) e).getLeft(), calls);
+            collectCalls(((BinaryExpression) e).getRight(), calls);
+        } else if (e instanceof UnaryExpression) {
+            collectCalls(((UnaryExpression) e).getOperand(), calls);
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectCalls(c.getCondition(), calls);
+            collectCalls(c.getConsequence(), calls);
+            collectCalls(c.getAlternative(), calls);
+        }
+    }
+
+    /**
+     * Collects the global names which are used other than as the callee of a
+     * call, e.g. to take the address of a function.
+     */
+    private static void collectNonCallUses(final Expression e, final Set<String> globalNames,
+            final Set<String> out) {
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            if (globalNames.contains(name)) {
+                out.add(name);
+            }
+        } else if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                collectNonCallUses(arg, globalNames, out);
+            }
+        } else if (e instanceof BinaryExpression) {
+            collectNonCallUses(((BinaryExpression) e).getLeft(), globalNames, out);
+            collectNonCallUses(((BinaryExpression) e).getRight(), globalNames, out);
+        } else if (e instanceof UnaryExpression) {
+            collectNonCallUses(((UnaryExpression) e).getOperand(), globalNames, out);
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            collectNonCallUses(c.getCondition(), globalNames, out);
+            collectNonCallUses(c.getConsequence(), globalNames, out);
+            collectNonCallUses(c.getAlternative(), globalNames, out);
+        }
+    }
+}
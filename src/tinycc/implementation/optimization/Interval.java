@@ -0,0 +1,257 @@
+package tinycc.implementation.optimization;
+
+/**
+ * A non-empty range of int values, the abstract value of the value range
+ * analysis.
+ *
+ * The bounds are inclusive. Arithmetic which may wrap around is approximated
+ * by {@link #TOP}, so every interval contains all values the expression may
+ * have at run time.
+ */
+public final class Interval {
+    /** All int values. */
+    public static final Interval TOP = new Interval(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    /** The values of a truth value, i.e. 0 and 1. */
+    public static final Interval BOOLEAN = new Interval(0, 1);
+
+    /**
+     * The values of a char, which is signed: it is loaded with lb and kept
+     * sign-extended in registers.
+     */
+    public static final Interval CHAR = new Interval(-128, 127);
+
+    private final int lower;
+    private final int upper;
+
+    private Interval(final int lower, final int upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Returns the interval of the values from lower to upper, both inclusive.
+     */
+    public static Interval of(final int lower, final int upper) {
+        if (lower > upper) {
+            throw new IllegalArgumentException("empty interval");
+        }
+        return new Interval(lower, upper);
+    }
+
+    /**
+     * Returns the interval which only contains the given value.
+     */
+    public static Interval constant(final int value) {
+        return new Interval(value, value);
+    }
+
+    /**
+     * Returns the interval of the given bounds, {@link #TOP} if they exceed
+     * the int range.
+     */
+    private static Interval ofLong(final long lower, final long upper) {
+        if (lower < Integer.MIN_VALUE || upper > Integer.MAX_VALUE) {
+            return TOP;
+        }
+        return new Interval((int) lower, (int) upper);
+    }
+
+    /**
+     * Returns the truth value of a condition which is true, false or unknown.
+     */
+    public static Interval truth(final boolean mayBeTrue, final boolean mayBeFalse) {
+        if (!mayBeFalse) {
+            return constant(1);
+        }
+        return mayBeTrue ? BOOLEAN : constant(0);
+    }
+
+    public int getLower() {
+        return lower;
+    }
+
+    public int getUpper() {
+        return upper;
+    }
+
+    /**
+     * Returns true if the interval contains a single value.
+     */
+    public boolean isConstant() {
+        return lower == upper;
+    }
+
+    public boolean contains(final int value) {
+        return lower <= value && value <= upper;
+    }
+
+    /**
+     * Returns true if every value of this interval is contained in the other.
+     */
+    public boolean isSubsetOf(final Interval other) {
+        return other.lower <= lower && upper <= other.upper;
+    }
+
+    /**
+     * Returns true if the interval only contains values which are true.
+     */
+    public boolean isAlwaysTrue() {
+        return !contains(0);
+    }
+
+    /**
+     * Returns true if the interval only contains the value 0.
+     */
+    public boolean isAlwaysFalse() {
+        return lower == 0 && upper == 0;
+    }
+
+    /**
+     * Returns the smallest interval containing both intervals.
+     */
+    public Interval join(final Interval other) {
+        return new Interval(Math.min(lower, other.lower), Math.max(upper, other.upper));
+    }
+
+    /**
+     * Returns the intersection of both intervals, null if it is empty.
+     */
+    public Interval meet(final Interval other) {
+        final int l = Math.max(lower, other.lower);
+        final int u = Math.min(upper, other.upper);
+        return l > u ? null : new Interval(l, u);
+    }
+
+    /**
+     * Widens this interval by the next iterate: bounds which grow are set to
+     * the limits of int, so the iteration at a loop head terminates.
+     */
+    public Interval widen(final Interval next) {
+        return new Interval(next.lower < lower ? Integer.MIN_VALUE : lower,
+                next.upper > upper ? Integer.MAX_VALUE : upper);
+    }
+
+    /**
+     * Narrows this interval by the next iterate: only the bounds which were
+     * widened to the limits of int are replaced.
+     */
+    public Interval narrow(final Interval next) {
+        return new Interval(lower == Integer.MIN_VALUE ? next.lower : lower,
+                upper == Integer.MAX_VALUE ? next.upper : upper);
+    }
+
+    public Interval add(final Interval other) {
+        return ofLong((long) lower + other.lower, (long) upper + other.upper);
+    }
+
+    public Interval subtract(final Interval other) {
+        return ofLong((long) lower - other.upper, (long) upper - other.lower);
+    }
+
+    public Interval multiply(final Interval other) {
+        final long a = (long) lower * other.lower;
+        final long b = (long) lower * other.upper;
+        final long c = (long) upper * other.lower;
+        final long d = (long) upper * other.upper;
+        return ofLong(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+    }
+
+    public Interval negate() {
+        return ofLong(-(long) upper, -(long) lower);
+    }
+
+    /**
+     * Returns the range of the quotient, {@link #TOP} if the divisor may be 0.
+     */
+    public Interval divide(final Interval other) {
+        if (other.contains(0) || contains(Integer.MIN_VALUE) && other.contains(-1)) {
+            return TOP;
+        }
+        // Division truncates, so the extremes are among the quotients of the bounds.
+        final long a = lower / other.lower;
+        final long b = lower / other.upper;
+        final long c = upper / other.lower;
+        final long d = upper / other.upper;
+        return ofLong(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+    }
+
+    /**
+     * Returns the range of the remainder, {@link #TOP} if the divisor may be 0.
+     */
+    public Interval remainder(final Interval other) {
+        if (other.contains(0)) {
+            return TOP;
+        }
+        // The remainder is smaller than the divisor and has the sign of the dividend.
+        final long max = Math.max(Math.abs((long) other.lower), Math.abs((long) other.upper)) - 1;
+        final long l = lower >= 0 ? 0 : Math.max(lower, -max);
+        final long u = upper <= 0 ? 0 : Math.min(upper, max);
+        return ofLong(l, u);
+    }
+
+    /**
+     * Returns the range of a bitwise and.
+     */
+    public Interval and(final Interval other) {
+        if (lower >= 0 && other.lower >= 0) {
+            return new Interval(0, Math.min(upper, other.upper));
+        }
+        if (lower >= 0) {
+            return new Interval(0, upper);
+        }
+        if (other.lower >= 0) {
+            return new Interval(0, other.upper);
+        }
+        return TOP;
+    }
+
+    /**
+     * Returns the range of a left shift, {@link #TOP} if the shift amount is
+     * not a constant.
+     */
+    public Interval shiftLeft(final Interval other) {
+        if (!other.isConstant() || other.lower < 0 || other.lower > 31) {
+            return TOP;
+        }
+        return multiply(ofLong(1L << other.lower, 1L << other.lower));
+    }
+
+    /**
+     * Returns the range of an arithmetic right shift, {@link #TOP} if the shift
+     * amount may be out of range.
+     */
+    public Interval shiftRight(final Interval other) {
+        if (other.lower < 0 || other.upper > 31) {
+            return TOP;
+        }
+        return new Interval(lower >= 0 ? lower >> other.upper : lower >> other.lower,
+                upper >= 0 ? upper >> other.lower : upper >> other.upper);
+    }
+
+    /**
+     * Returns the range of the value after it is stored in a char.
+     */
+    public Interval toChar() {
+        return isSubsetOf(CHAR) ? this : CHAR;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof Interval)) {
+            return false;
+        }
+        final Interval other = (Interval) o;
+        return lower == other.lower && upper == other.upper;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lower + upper;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + lower + ", " + upper + "]";
+    }
+}
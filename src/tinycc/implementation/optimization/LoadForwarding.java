@@ -0,0 +1,349 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.TokenKind;
+
+/**
+ * Replaces loads from memory by a value which is known to be stored there.
+ *
+ * After a statement which stores a constant or a tracked variable to memory,
+ * or which loads a value from memory into a tracked variable, the following
+ * statements of the same block load the same value from the same lvalue:
+ *
+ * <pre>
+ *     *p = x; q[0] = 1; y = *p + 1;
+ * becomes
+ *     *p = x; q[0] = 1; y = x + 1;
+ * </pre>
+ *
+ * if p and q point to different objects according to {@link AliasAnalysis}.
+ * The lvalue must be stable (see {@link AliasAnalysis#isStable}), and the
+ * value is forwarded until a store or call may write the object or one of the
+ * variables the lvalue or the value depends on is assigned. A value is only
+ * forwarded if it has the type of the object, so the conversion of the store
+ * does not change it.
+ */
+public class LoadForwarding {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(ast, f, globalNames, effects);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation
+     *                    unit, null if every call may write memory.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames,
+            final FunctionEffects effects) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final ExpressionTypes types = new ExpressionTypes(ast, function, locals);
+        final AliasAnalysis aliases = new AliasAnalysis(ast, function, locals);
+        final Statement body = new Forwarder(locals, types, aliases, effects, remarks)
+                .rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    private static final class Forwarder extends AstRewriter {
+        private final LocalVariables locals;
+        private final ExpressionTypes types;
+        private final AliasAnalysis aliases;
+        private final FunctionEffects effects;
+        private final RemarkEmitter remarks;
+
+        Forwarder(final LocalVariables locals, final ExpressionTypes types, final AliasAnalysis aliases,
+                final FunctionEffects effects, final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.types = types;
+            this.aliases = aliases;
+            this.effects = effects;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected List<Statement> rewriteStatements(final List<Statement> statements) {
+            final List<Statement> rewritten = super.rewriteStatements(statements);
+            List<Statement> result = null;
+            for (int i = 0; i < rewritten.size(); ++i) {
+                final List<Statement> current = result == null ? rewritten : result;
+                final Statement s = current.get(i);
+                final Expression[] known = knownValue(s);
+                if (known == null) {
+                    continue;
+                }
+                final Expression lvalue = known[0];
+                final Expression value = known[1];
+                final Set<String> names = new HashSet<>();
+                if (Expressions.identifierName(lvalue) == null) {
+                    Expressions.collectNames(lvalue, names);
+                }
+                Expressions.collectNames(value, names);
+                final Replacer replacer = new Replacer(lvalue, value, remarks);
+                final AliasAnalysis.Access access = aliases.accessOf(lvalue);
+                for (int j = i + 1; j < current.size(); ++j) {
+                    final Statement next = current.get(j);
+                    final Statement forwarded = forward(next, replacer, access, names);
+                    if (forwarded != next) {
+                        if (result == null) {
+                            result = new ArrayList<>(rewritten);
+                        }
+                        result.set(j, forwarded);
+                    }
+                    if (replacer.stopped) {
+                        break;
+                    }
+                }
+            }
+            return result == null ? rewritten : result;
+        }
+
+        /**
+         * Returns the lvalue whose value is known after the statement and the
+         * value, null if there is none.
+         */
+        private Expression[] knownValue(final Statement s) {
+            if (s instanceof DeclarationStatement) {
+                final DeclarationStatement d = (DeclarationStatement) s;
+                final String name = d.getName().getText();
+                if (d.getInit() == null || !locals.isTracked(name)
+                        || !isLoadOfType(d.getInit(), types.typeOfVariable(name))) {
+                    return null;
+                }
+                return new Expression[] { d.getInit(), Expressions.identifier(d.getName(), name) };
+            }
+            if (!(s instanceof ExpressionStatement)
+                    || !Expressions.isAssignment(((ExpressionStatement) s).getExpression())) {
+                return null;
+            }
+            final BinaryExpression b = (BinaryExpression) ((ExpressionStatement) s).getExpression();
+            final String target = Expressions.identifierName(b.getLeft());
+            if (locals.isTracked(target)) {
+                // The load must not depend on the variable it is assigned to.
+                final Set<String> address = new HashSet<>();
+                Expressions.collectNames(b.getRight(), address);
+                if (address.contains(target) || !isLoadOfType(b.getRight(), types.typeOfVariable(target))) {
+                    return null;
+                }
+                return new Expression[] { b.getRight(), b.getLeft() };
+            }
+            if (!aliases.isStable(b.getLeft())) {
+                return null;
+            }
+            final Type type = types.typeOf(b.getLeft());
+            final Integer constant = Expressions.constantValue(b.getRight());
+            final String source = Expressions.identifierName(b.getRight());
+            if (constant != null ? fitsInto(constant, type)
+                    : locals.isTracked(source) && ExpressionTypes.isSameType(types.typeOfVariable(source), type)) {
+                return new Expression[] { b.getLeft(), b.getRight() };
+            }
+            return null;
+        }
+
+        private boolean isLoadOfType(final Expression e, final Type type) {
+            return aliases.accessOf(e) != null && aliases.isStable(e)
+                    && ExpressionTypes.isSameType(types.typeOf(e), type);
+        }
+
+        private static boolean fitsInto(final int value, final Type type) {
+            if (!(type instanceof BaseType)) {
+                return false;
+            }
+            switch (((BaseType) type).getKind()) {
+            case INT:
+                return true;
+            case CHAR:
+                return value >= 0 && value <= 127;
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * Forwards the value into the statement.
+         *
+         * @param s        A statement following the one which established the
+         *                 value.
+         * @param replacer The replacer, it is stopped if the value is not known
+         *                 after the statement.
+         * @param access   The memory of the lvalue.
+         * @param names    The variables the lvalue and the value depend on.
+         * @return The rewritten statement.
+         */
+        private Statement forward(final Statement s, final Replacer replacer, final AliasAnalysis.Access access,
+                final Set<String> names) {
+            final Expression e;
+            if (s instanceof ExpressionStatement) {
+                e = ((ExpressionStatement) s).getExpression();
+            } else if (s instanceof DeclarationStatement) {
+                e = ((DeclarationStatement) s).getInit();
+            } else if (s instanceof ReturnStatement) {
+                e = ((ReturnStatement) s).getExpression();
+            } else if (s instanceof IfStatement) {
+                e = ((IfStatement) s).getCondition();
+            } else {
+                replacer.stopped = true;
+                return s;
+            }
+
+            // A top level store happens after the evaluation of its operands.
+            Expression evaluated = e;
+            Expression target = null;
+            if (s instanceof ExpressionStatement && Expressions.isAssignment(e)) {
+                target = ((BinaryExpression) e).getLeft();
+                evaluated = ((BinaryExpression) e).getRight();
+            }
+            final Set<String> assigned = new HashSet<>();
+            Expressions.collectAssignedNames(evaluated, assigned);
+            if (target != null && Expressions.identifierName(target) == null) {
+                Expressions.collectAssignedNames(target, assigned);
+            }
+            assigned.retainAll(names);
+            if (!assigned.isEmpty() || aliases.mayWrite(evaluated, access, effects)
+                    || target != null && Expressions.identifierName(target) == null
+                            && aliases.mayWrite(target, access, effects)) {
+                replacer.stopped = true;
+                return s;
+            }
+
+            final Statement rewritten = replacer.apply(s);
+            if (s instanceof ReturnStatement || s instanceof IfStatement) {
+                replacer.stopped = true;
+            } else if (target != null) {
+                final String name = Expressions.identifierName(target);
+                replacer.stopped = name != null && names.contains(name)
+                        || aliases.mayAlias(aliases.accessOf(target), access);
+            }
+            return rewritten;
+        }
+    }
+
+    /**
+     * Replaces the loads of an lvalue by its value.
+     */
+    private static final class Replacer extends AstRewriter {
+        private final Expression lvalue;
+        private final Expression value;
+        private final RemarkEmitter remarks;
+        boolean stopped = false;
+
+        Replacer(final Expression lvalue, final Expression value, final RemarkEmitter remarks) {
+            this.lvalue = lvalue;
+            this.value = value;
+            this.remarks = remarks;
+        }
+
+        Statement apply(final Statement s) {
+            if (s instanceof IfStatement) {
+                final IfStatement i = (IfStatement) s;
+                final Expression condition = rewrite(i.getCondition());
+                return condition == i.getCondition() ? i
+                        : new IfStatement(i.getLocation(), condition, i.getConsequence(), i.getAlternative());
+            }
+            return rewrite(s);
+        }
+
+        @Override
+        public Expression rewrite(final Expression e) {
+            if (Expressions.equal(e, lvalue)) {
+                remarks.passed("Forwarded", Expressions.location(e), "load replaced by the value known from line %d",
+                        Expressions.location(lvalue).getLine());
+                return value;
+            }
+            return super.rewrite(e);
+        }
+
+        @Override
+        protected Expression rewriteBinary(final BinaryExpression e) {
+            if (!Expressions.isAssignment(e)) {
+                return super.rewriteBinary(e);
+            }
+            final Expression left = rewriteLValue(e.getLeft());
+            final Expression right = rewrite(e.getRight());
+            if (left == e.getLeft() && right == e.getRight()) {
+                return e;
+            }
+            return new BinaryExpression(e.getOperator(), left, right);
+        }
+
+        @Override
+        protected Expression rewriteUnary(final UnaryExpression e) {
+            if (!Expressions.isIncDec(e) && e.getOperator().getKind() != TokenKind.AND) {
+                return super.rewriteUnary(e);
+            }
+            final Expression operand = rewriteLValue(e.getOperand());
+            return operand == e.getOperand() ? e : new UnaryExpression(e.getOperator(), e.isPostfix(), operand);
+        }
+
+        /**
+         * Rewrites an expression which designates an object. The object itself is
+         * kept, only the computation of its address is rewritten.
+         */
+        private Expression rewriteLValue(final Expression e) {
+            if (e instanceof UnaryExpression) {
+                return super.rewriteUnary((UnaryExpression) e);
+            }
+            if (e instanceof BinaryExpression) {
+                return super.rewriteBinary((BinaryExpression) e);
+            }
+            return e;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Promotes locals which do not escape to values the other passes can track.
+ *
+ * The passes reason about locals by name (see {@link LocalVariables}), so a
+ * local whose name is declared again in another block or shadows a global is
+ * treated like memory, even if its address is never taken:
+ *
+ * <pre>
+ *     int i = 0; while (i &lt; n) { ... ++i; }
+ *     { int i = 5; f(i); }
+ * becomes
+ *     int __i0 = 0; while (__i0 &lt; n) { ... ++__i0; }
+ *     { int __i1 = 5; f(__i1); }
+ * </pre>
+ *
+ * Every declaration which does not escape according to {@link EscapeAnalysis}
+ * and whose name is ambiguous gets a fresh name, together with the uses which
+ * refer to it. Afterwards each promoted local can only be accessed through its
+ * unique name, so it may be kept in a register for its whole lifetime.
+ *
+ * The pass does not build SSA values: the passes work on the structured AST,
+ * which has no phi nodes, and a local whose address is not taken already
+ * lives in a virtual register of its own from -O1 on (see
+ * {@code FunctionLowering}). Its part of the promotion is to make these locals
+ * visible to the analyses which track locals by name.
+ */
+public class LocalPromotion {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        final Map<String, Integer> declarations = new HashMap<>();
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                declarations.merge(p.getText(), 1, Integer::sum);
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(),
+                d -> declarations.merge(d.getName().getText(), 1, Integer::sum));
+
+        final EscapeAnalysis escape = new EscapeAnalysis(function);
+        final TemporaryNames names = new TemporaryNames(function, globalNames);
+        final Map<DeclarationStatement, String> renamings = new IdentityHashMap<>();
+        for (final DeclarationStatement d : escape.getPromotable()) {
+            final String name = d.getName().getText();
+            if (declarations.get(name) > 1 || globalNames.contains(name)) {
+                renamings.put(d, names.next(name));
+                remarks.passed("Promoted", d.getName(), "'%s' promoted to a local with a unique name", name);
+            }
+        }
+        if (renamings.isEmpty()) {
+            return false;
+        }
+        function.setBody(new Renamer(escape, renamings).rewriteNested(function.getBody()));
+        return true;
+    }
+
+    private static final class Renamer extends AstRewriter {
+        private final EscapeAnalysis escape;
+        private final Map<DeclarationStatement, String> renamings;
+
+        Renamer(final EscapeAnalysis escape, final Map<DeclarationStatement, String> renamings) {
+            this.escape = escape;
+            this.renamings = renamings;
+        }
+
+        @Override
+        public Expression rewrite(final Expression e) {
+            if (Expressions.identifierName(e) != null) {
+                final DeclarationStatement d = escape.declarationOf(e);
+                final String newName = d == null ? null : renamings.get(d);
+                return newName == null ? e : Expressions.identifier(((PrimaryExpression) e).getToken(), newName);
+            }
+            return super.rewrite(e);
+        }
+
+        @Override
+        protected Statement rewriteDeclaration(final DeclarationStatement s) {
+            final DeclarationStatement d = (DeclarationStatement) super.rewriteDeclaration(s);
+            final String newName = renamings.get(s);
+            if (newName == null) {
+                return d;
+            }
+            return new DeclarationStatement(d.getType(), new Token(d.getName(), TokenKind.IDENTIFIER, newName),
+                    d.getInit());
+        }
+    }
+}
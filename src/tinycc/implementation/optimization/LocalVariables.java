@@ -0,0 +1,83 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.parser.Token;
+
+/**
+ * Determines the local variables of a function which can be tracked by name.
+ *
+ * A variable is tracked if its name is declared exactly once in the function
+ * (as parameter or local), it does not name a global symbol and its address is
+ * never taken. Every occurrence of such a name refers to the same storage and
+ * it can only be accessed through its name, so the passes may reason about it
+ * without knowing about scopes or pointers.
+ */
+public class LocalVariables {
+    private final Set<String> tracked = new HashSet<>();
+
+    /**
+     * Analyzes the given function.
+     *
+     * @param function    The function to analyze.
+     * @param globalNames The names of all global symbols of the translation unit.
+     */
+    public LocalVariables(final FunctionDefinition function, final Set<String> globalNames) {
+        final Map<String, Integer> declarations = new HashMap<>();
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                declarations.merge(p.getText(), 1, Integer::sum);
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(),
+                d -> declarations.merge(d.getName().getText(), 1, Integer::sum));
+
+        final Set<String> addressTaken = new HashSet<>();
+        Statements.collectAddressTaken(function.getBody(), addressTaken);
+
+        for (final Map.Entry<String, Integer> e : declarations.entrySet()) {
+            final String name = e.getKey();
+            if (e.getValue() == 1 && !globalNames.contains(name) && !addressTaken.contains(name)) {
+                tracked.add(name);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given name refers to a tracked local variable.
+     */
+    public boolean isTracked(final String name) {
+        return name != null && tracked.contains(name);
+    }
+
+    /**
+     * Returns the names of all tracked local variables.
+     */
+    public Set<String> getTracked() {
+        return tracked;
+    }
+
+    /**
+     * Returns the names of all global variables and functions of the translation
+     * unit.
+     *
+     * @param ast The translation unit.
+     * @return The set of global names.
+     */
+    public static Set<String> globalNames(final AST ast) {
+        final Set<String> names = new HashSet<>();
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            names.add(d.getName().getText());
+        }
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            names.add(f.getName().getText());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,154 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.WhileStatement;
+
+/**
+ * Summarizes the effects of a while loop (condition and body).
+ */
+public class LoopInfo {
+    private final Set<String> modified = new HashSet<>();
+    private final Set<String> declared = new HashSet<>();
+    private final List<Expression> stores = new ArrayList<>();
+    private boolean writesMemory = false;
+    private boolean containsCall = false;
+    private boolean callWritesMemory = false;
+    private final boolean containsReturn;
+
+    /**
+     * Analyzes the given loop.
+     *
+     * @param loop   The loop to analyze.
+     * @param locals The tracked locals of the surrounding function.
+     */
+    public LoopInfo(final WhileStatement loop, final LocalVariables locals) {
+        this(loop, locals, null);
+    }
+
+    /**
+     * Analyzes the given loop. Calls only count as memory writes if the effects
+     * of the callee say so.
+     *
+     * @param loop    The loop to analyze.
+     * @param locals  The tracked locals of the surrounding function.
+     * @param effects The side effects of the functions, null if every call may
+     *                write memory.
+     */
+    public LoopInfo(final WhileStatement loop, final LocalVariables locals, final FunctionEffects effects) {
+        Expressions.collectAssignedNames(loop.getCondition(), modified);
+        Statements.collectAssignedNames(loop.getBody(), modified);
+        Statements.forEachDeclaration(loop.getBody(), d -> declared.add(d.getName().getText()));
+        modified.addAll(declared);
+
+        scan(loop.getCondition(), locals, effects);
+        Statements.forEachExpression(loop.getBody(), e -> scan(e, locals, effects));
+        // Declarations of variables which live in memory initialize them anew.
+        Statements.forEachDeclaration(loop.getBody(), d -> {
+            if (!locals.isTracked(d.getName().getText())) {
+                stores.add(Expressions.identifier(d.getName(), d.getName().getText()));
+            }
+        });
+        containsReturn = Statements.containsReturn(loop.getBody());
+    }
+
+    private void scan(final Expression e, final LocalVariables locals, final FunctionEffects effects) {
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression b = (BinaryExpression) e;
+            if (Expressions.isAssignment(b) && !locals.isTracked(Expressions.identifierName(b.getLeft()))) {
+                writesMemory = true;
+                stores.add(b.getLeft());
+            }
+            scan(b.getLeft(), locals, effects);
+            scan(b.getRight(), locals, effects);
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (Expressions.isIncDec(u) && !locals.isTracked(Expressions.identifierName(u.getOperand()))) {
+                writesMemory = true;
+                stores.add(u.getOperand());
+            }
+            scan(u.getOperand(), locals, effects);
+        } else if (e instanceof CallExpression) {
+            final CallExpression c = (CallExpression) e;
+            containsCall = true;
+            callWritesMemory |= effects == null || effects.mayWriteMemory(c);
+            for (final Expression arg : c.getArguments()) {
+                scan(arg, locals, effects);
+            }
+        } else if (e instanceof ConditionalExpression) {
+            final ConditionalExpression c = (ConditionalExpression) e;
+            scan(c.getCondition(), locals, effects);
+            scan(c.getConsequence(), locals, effects);
+            scan(c.getAlternative(), locals, effects);
+        }
+    }
+
+    /**
+     * Returns true if the variable with the given name may be written or is
+     * declared inside the loop. Variables which live in memory may additionally be
+     * changed through pointers or calls, see {@link #mayWriteMemory()}.
+     */
+    public boolean isModified(final String name) {
+        return modified.contains(name);
+    }
+
+    /**
+     * Returns the names of all variables assigned or declared in the loop.
+     */
+    public Set<String> getModified() {
+        return modified;
+    }
+
+    /**
+     * Returns true if the variable is declared inside the loop body.
+     */
+    public boolean isDeclared(final String name) {
+        return declared.contains(name);
+    }
+
+    /**
+     * Returns true if the loop may write to memory, i.e. it stores through a
+     * pointer, to a global variable or calls a function which may write memory.
+     */
+    public boolean mayWriteMemory() {
+        return writesMemory || callWritesMemory;
+    }
+
+    /**
+     * Returns the lvalues of the stores to memory in the loop, i.e. the targets
+     * of assignments and increments which are not tracked variables.
+     */
+    public List<Expression> getStores() {
+        return stores;
+    }
+
+    /**
+     * Returns true if a call of the loop may write memory.
+     */
+    public boolean callMayWriteMemory() {
+        return callWritesMemory;
+    }
+
+    /**
+     * Returns true if the loop contains a function call.
+     */
+    public boolean containsCall() {
+        return containsCall;
+    }
+
+    /**
+     * Returns true if the loop body contains a return statement, i.e. the loop
+     * has exits besides its condition.
+     */
+    public boolean containsReturn() {
+        return containsReturn;
+    }
+}
@@ -0,0 +1,400 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Moves loop-invariant computations out of while loops.
+ *
+ * Every while statement is a natural loop whose header is the condition. The
+ * pass creates a preheader by wrapping the loop into a block and declares a
+ * temporary in front of the loop for every maximal invariant subexpression:
+ *
+ * <pre>
+ *     while (i < n) { s = s + a * b; i = i + 1; }
+ * becomes
+ *     { int __licm0 = a * b; while (i < n) { s = s + __licm0; i = i + 1; } }
+ * </pre>
+ *
+ * An expression is invariant if it has no side effects and all variables it
+ * reads are not modified in the loop. Hoisted computations are evaluated even
+ * if the loop is not entered, so only computations which cannot fault are
+ * moved. Loads are only hoisted if no store or call of the loop may write the
+ * loaded object (see {@link AliasAnalysis}) and the same load is evaluated
+ * unconditionally by the loop condition, so it is executed before the first
+ * iteration anyway. Globals are hoisted if nothing in the loop may write them.
+ * Calls of functions which only depend on their arguments and can neither trap
+ * nor loop (see {@link FunctionEffects}) are hoisted like operators. Outer
+ * loops are processed first, so a computation is hoisted as far as possible.
+ */
+public class LoopInvariantCodeMotion {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(ast, f, globalNames, effects);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames) {
+        return run(ast, function, globalNames, null);
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation
+     *                    unit, null if no call may be hoisted.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames,
+            final FunctionEffects effects) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final ExpressionTypes types = new ExpressionTypes(ast, function, locals);
+        final TemporaryNames names = new TemporaryNames(function, globalNames);
+        final AliasAnalysis aliases = new AliasAnalysis(ast, function, locals);
+        final Statement body = new Hoister(locals, types, names, globalNames, effects, aliases, remarks)
+                .rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    private static final class Hoister extends AstRewriter {
+        private final LocalVariables locals;
+        private final ExpressionTypes types;
+        private final TemporaryNames names;
+        private final Set<String> globalNames;
+        private final FunctionEffects effects;
+        private final AliasAnalysis aliases;
+        private final RemarkEmitter remarks;
+
+        Hoister(final LocalVariables locals, final ExpressionTypes types, final TemporaryNames names,
+                final Set<String> globalNames, final FunctionEffects effects, final AliasAnalysis aliases,
+                final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.types = types;
+            this.names = names;
+            this.globalNames = globalNames;
+            this.effects = effects;
+            this.aliases = aliases;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            final LoopInfo loop = new LoopInfo(s, locals, effects);
+            final InvariantReplacer replacer = new InvariantReplacer(s, loop);
+            final Expression condition = replacer.rewrite(s.getCondition());
+            final Statement body = replacer.rewriteNested(s.getBody());
+            WhileStatement loopStatement = s;
+            if (condition != s.getCondition() || body != s.getBody()) {
+                loopStatement = new WhileStatement(s.getLocation(), condition, body);
+            }
+
+            // Hoist from the inner loops what is only invariant with respect to them.
+            final Statement inner = super.rewriteWhile(loopStatement);
+            if (replacer.preheader.isEmpty()) {
+                return inner;
+            }
+            final List<Statement> block = new ArrayList<>(replacer.preheader);
+            block.add(inner);
+            return new BlockStatement(s.getLocation(), block);
+        }
+
+        /**
+         * Replaces the invariant expressions of a single loop with temporaries.
+         */
+        private final class InvariantReplacer extends AstRewriter {
+            private final WhileStatement loop;
+            private final LoopInfo info;
+            private final List<Expression> safeLoads = new ArrayList<>();
+            private final List<Expression> hoisted = new ArrayList<>();
+            private final List<String> temporaries = new ArrayList<>();
+            final List<Statement> preheader = new ArrayList<>();
+
+            InvariantReplacer(final WhileStatement loop, final LoopInfo info) {
+                this.loop = loop;
+                this.info = info;
+                collectUnconditionalLoads(loop.getCondition());
+            }
+
+            private void collectUnconditionalLoads(final Expression e) {
+                if (isLoad(e)) {
+                    safeLoads.add(e);
+                }
+                if (e instanceof BinaryExpression) {
+                    final BinaryExpression b = (BinaryExpression) e;
+                    collectUnconditionalLoads(b.getLeft());
+                    final TokenKind kind = b.getOperator().getKind();
+                    if (kind != TokenKind.AND_AND && kind != TokenKind.PIPE_PIPE) {
+                        collectUnconditionalLoads(b.getRight());
+                    }
+                } else if (e instanceof UnaryExpression) {
+                    collectUnconditionalLoads(((UnaryExpression) e).getOperand());
+                } else if (e instanceof ConditionalExpression) {
+                    collectUnconditionalLoads(((ConditionalExpression) e).getCondition());
+                }
+            }
+
+            @Override
+            public Expression rewrite(final Expression e) {
+                if (isCandidate(e)) {
+                    return temporaryFor(e);
+                }
+                if (isLoad(e) && hasInvariantAddress(e)) {
+                    remarks.missed("NotHoisted", Expressions.location(e),
+                            "load not hoisted out of the loop at line %d: %s", loop.getLocation().getLine(),
+                            aliases.mayBeWritten(e, info) ? "it may be written in the loop"
+                                    : "it is not evaluated in every iteration");
+                }
+                return super.rewrite(e);
+            }
+
+            @Override
+            protected Expression rewriteBinary(final BinaryExpression e) {
+                if (!Expressions.isAssignment(e)) {
+                    return super.rewriteBinary(e);
+                }
+                final Expression left = rewriteLValue(e.getLeft());
+                final Expression right = rewrite(e.getRight());
+                if (left == e.getLeft() && right == e.getRight()) {
+                    return e;
+                }
+                return new BinaryExpression(e.getOperator(), left, right);
+            }
+
+            @Override
+            protected Expression rewriteUnary(final UnaryExpression e) {
+                if (!Expressions.isIncDec(e) && e.getOperator().getKind() != TokenKind.AND) {
+                    return super.rewriteUnary(e);
+                }
+                final Expression operand = rewriteLValue(e.getOperand());
+                return operand == e.getOperand() ? e : new UnaryExpression(e.getOperator(), e.isPostfix(), operand);
+            }
+
+            /**
+             * Rewrites an expression which designates an object. The object itself is
+             * kept, only the computation of its address is rewritten.
+             */
+            private Expression rewriteLValue(final Expression e) {
+                if (e instanceof UnaryExpression) {
+                    return super.rewriteUnary((UnaryExpression) e);
+                }
+                if (e instanceof BinaryExpression) {
+                    return super.rewriteBinary((BinaryExpression) e);
+                }
+                return e;
+            }
+
+            private Expression temporaryFor(final Expression e) {
+                for (int i = 0; i < hoisted.size(); ++i) {
+                    if (Expressions.equal(hoisted.get(i), e)) {
+                        return Expressions.identifier(loop.getLocation(), temporaries.get(i));
+                    }
+                }
+                final String name = names.next("licm");
+                final Type type = types.typeOf(e);
+                remarks.passed("Hoisted", Expressions.location(e), "hoisted %s out of the loop at line %d",
+                        describe(e), loop.getLocation().getLine());
+                hoisted.add(e);
+                temporaries.add(name);
+                preheader.add(new DeclarationStatement(type,
+                        new Token(loop.getLocation(), TokenKind.IDENTIFIER, name), e));
+                return Expressions.identifier(loop.getLocation(), name);
+            }
+
+            private String describe(final Expression e) {
+                if (e instanceof CallExpression) {
+                    return "call of '" + Expressions.identifierName(((CallExpression) e).getCallee()) + "'";
+                }
+                if (isLoad(e)) {
+                    return "load";
+                }
+                return "'" + ((BinaryExpression) e).getOperator().getText() + "' computation";
+            }
+
+            /**
+             * Returns true if the expression is invariant and worth to be hoisted.
+             */
+            private boolean isCandidate(final Expression e) {
+                if (!(e instanceof BinaryExpression) && !(e instanceof CallExpression) && !isLoad(e)) {
+                    return false;
+                }
+                if (Expressions.isAssignment(e) || !isInvariant(e) || types.typeOf(e) == null) {
+                    return false;
+                }
+                if (e instanceof CallExpression) {
+                    final Type type = types.typeOf(e);
+                    return !(type instanceof BaseType && ((BaseType) type).getKind() == TokenKind.VOID);
+                }
+                // Computations on constants only are left to constant folding.
+                final Set<String> used = new HashSet<>();
+                Expressions.collectNames(e, used);
+                return !used.isEmpty() || isLoad(e);
+            }
+
+            private boolean isLoad(final Expression e) {
+                if (e instanceof UnaryExpression) {
+                    return ((UnaryExpression) e).getOperator().getKind() == TokenKind.ASTERISK;
+                }
+                return e instanceof BinaryExpression
+                        && ((BinaryExpression) e).getOperator().getKind() == TokenKind.LBRACKET;
+            }
+
+            private boolean isInvariant(final Expression e) {
+                if (e instanceof PrimaryExpression) {
+                    final String name = Expressions.identifierName(e);
+                    if (name == null) {
+                        return true;
+                    }
+                    if (locals.isTracked(name)) {
+                        return !info.isModified(name);
+                    }
+                    return globalNames.contains(name) && types.typeOfVariable(name) != null
+                            && !info.isModified(name) && !aliases.mayBeWritten(e, info);
+                }
+                if (e instanceof UnaryExpression) {
+                    final UnaryExpression u = (UnaryExpression) e;
+                    switch (u.getOperator().getKind()) {
+                    case PLUS_PLUS:
+                    case MINUS_MINUS:
+                        return false;
+                    case AND:
+                        return globalNames.contains(Expressions.identifierName(u.getOperand()));
+                    case ASTERISK:
+                        return isSafeLoad(u) && isInvariant(u.getOperand());
+                    default:
+                        return isInvariant(u.getOperand());
+                    }
+                }
+                if (e instanceof BinaryExpression) {
+                    final BinaryExpression b = (BinaryExpression) e;
+                    switch (b.getOperator().getKind()) {
+                    case EQUAL:
+                    case COMMA:
+                        return false;
+                    case LBRACKET:
+                        if (!isSafeLoad(b)) {
+                            return false;
+                        }
+                        break;
+                    case SLASH:
+                    case PERCENT: {
+                        final Integer divisor = Expressions.constantValue(b.getRight());
+                        if (divisor == null || divisor == 0) {
+                            return false;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                    }
+                    return isInvariant(b.getLeft()) && isInvariant(b.getRight());
+                }
+                if (e instanceof CallExpression) {
+                    final CallExpression c = (CallExpression) e;
+                    if (effects == null || !effects.isSpeculatable(Expressions.identifierName(c.getCallee()))) {
+                        return false;
+                    }
+                    for (final Expression arg : c.getArguments()) {
+                        if (!isInvariant(arg)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            /**
+             * Returns true if the address of a load which is not hoisted is
+             * invariant, so only the load itself prevents hoisting.
+             */
+            private boolean hasInvariantAddress(final Expression load) {
+                if (isSafeLoad(load)) {
+                    return false;
+                }
+                if (load instanceof UnaryExpression) {
+                    return isInvariant(((UnaryExpression) load).getOperand());
+                }
+                final BinaryExpression b = (BinaryExpression) load;
+                return isInvariant(b.getLeft()) && isInvariant(b.getRight());
+            }
+
+            private boolean isSafeLoad(final Expression load) {
+                if (aliases.mayBeWritten(load, info)) {
+                    return false;
+                }
+                for (final Expression safe : safeLoads) {
+                    if (Expressions.equal(safe, load)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Keeps global variables which a while loop updates in a local across the
+ * loop.
+ *
+ * The global is loaded into a temporary in front of the loop, every access in
+ * the loop uses the temporary, and the value is stored back when the loop is
+ * left, by its condition or by a return in the body:
+ *
+ * <pre>
+ *     while (i < n) { sum = sum + i; i = i + 1; }
+ * becomes
+ *     { int __sr0 = sum; while (i < n) { __sr0 = __sr0 + i; i = i + 1; } sum = __sr0; }
+ * </pre>
+ *
+ * The temporary is a tracked local, so the later passes may keep it in a
+ * register. This is only done if nothing in the loop can observe the global
+ * otherwise: its address is not taken in the loop, no load or store through a
+ * pointer may alias it (see {@link AliasAnalysis}) and no call may access
+ * globals (see {@link FunctionEffects#mayAccessGlobals}). Outer loops are
+ * processed first, so a global is kept in a local across as many loops as
+ * possible.
+ */
+public class LoopScalarReplacement {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(ast, f, globalNames, effects);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames,
+            final FunctionEffects effects) {
+        // Globals which a local hides are left alone.
+        final Set<String> globals = new HashSet<>();
+        for (final ExternalDeclaration d : ast.getExternalDeclarations()) {
+            if (!(d.getType() instanceof FunctionType)) {
+                globals.add(d.getName().getText());
+            }
+        }
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                globals.remove(p.getText());
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(), d -> globals.remove(d.getName().getText()));
+        if (globals.isEmpty()) {
+            return false;
+        }
+
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final ExpressionTypes types = new ExpressionTypes(ast, function, locals);
+        final AliasAnalysis aliases = new AliasAnalysis(ast, function, locals);
+        final TemporaryNames names = new TemporaryNames(function, globalNames);
+        final Statement body = new Replacer(globals, locals, types, aliases, effects, names, remarks)
+                .rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    private static final class Replacer extends AstRewriter {
+        private final Set<String> globals;
+        private final LocalVariables locals;
+        private final ExpressionTypes types;
+        private final AliasAnalysis aliases;
+        private final FunctionEffects effects;
+        private final TemporaryNames names;
+        private final RemarkEmitter remarks;
+
+        Replacer(final Set<String> globals, final LocalVariables locals, final ExpressionTypes types,
+                final AliasAnalysis aliases, final FunctionEffects effects, final TemporaryNames names,
+                final RemarkEmitter remarks) {
+            this.globals = globals;
+            this.locals = locals;
+            this.types = types;
+            this.aliases = aliases;
+            this.effects = effects;
+            this.names = names;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            final List<String> candidates = candidates(s);
+            if (candidates.isEmpty()) {
+                return super.rewriteWhile(s);
+            }
+            final Locatable loc = s.getLocation();
+            final VariableSubstitution substitution = new VariableSubstitution();
+            final List<Statement> preheader = new ArrayList<>();
+            final List<Statement> exit = new ArrayList<>();
+            for (final String global : candidates) {
+                final String temporary = names.next("sr");
+                remarks.passed("Replaced", loc, "'%s' kept in a local in the loop", global);
+                substitution.rename(global, temporary);
+                preheader.add(new DeclarationStatement(types.typeOfVariable(global),
+                        new Token(loc, TokenKind.IDENTIFIER, temporary), Expressions.identifier(loc, global)));
+                exit.add(new ExpressionStatement(loc,
+                        Expressions.assign(loc, global, Expressions.identifier(loc, temporary))));
+            }
+            final Statement loop = new ExitStores(exit).rewrite(substitution.rewrite(s));
+            final List<Statement> block = new ArrayList<>(preheader);
+            block.add(loop);
+            block.addAll(exit);
+            return new BlockStatement(loc, block);
+        }
+
+        /**
+         * Returns the globals which are written in the loop and may be kept in
+         * a local across it.
+         */
+        private List<String> candidates(final WhileStatement s) {
+            final LoopInfo info = new LoopInfo(s, locals, effects);
+            final Set<String> written = new TreeSet<>(info.getModified());
+            written.retainAll(globals);
+            if (written.isEmpty() || containsGlobalAccess(s)) {
+                return new ArrayList<>();
+            }
+            final Set<String> addressTaken = new HashSet<>();
+            Expressions.collectAddressTaken(s.getCondition(), addressTaken);
+            Statements.collectAddressTaken(s.getBody(), addressTaken);
+            final List<Expression> accesses = new ArrayList<>(info.getStores());
+            aliases.collectLoads(s.getCondition(), accesses);
+            Statements.forEachExpression(s.getBody(), e -> aliases.collectLoads(e, accesses));
+
+            final List<String> result = new ArrayList<>();
+            for (final String global : written) {
+                if (addressTaken.contains(global) || types.typeOfVariable(global) == null
+                        || returnAssigns(s.getBody(), global)) {
+                    continue;
+                }
+                final Expression variable = Expressions.identifier(s.getLocation(), global);
+                boolean aliased = false;
+                for (final Expression access : accesses) {
+                    if (!global.equals(Expressions.identifierName(access)) && aliases.mayAlias(access, variable)) {
+                        aliased = true;
+                        break;
+                    }
+                }
+                if (!aliased) {
+                    result.add(global);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns true if a call of the loop may access globals.
+         */
+        private boolean containsGlobalAccess(final WhileStatement s) {
+            final boolean[] found = { false };
+            final AstRewriter finder = new AstRewriter() {
+                @Override
+                protected Expression rewriteCall(final CallExpression c) {
+                    found[0] |= effects == null || effects.mayAccessGlobals(c);
+                    return super.rewriteCall(c);
+                }
+            };
+            finder.rewrite(s);
+            return found[0];
+        }
+
+        /**
+         * Returns true if a return statement of the loop assigns the global, so
+         * it cannot be stored back in front of the return.
+         */
+        private static boolean returnAssigns(final Statement body, final String global) {
+            final boolean[] found = { false };
+            new AstRewriter() {
+                @Override
+                protected Statement rewriteReturn(final ReturnStatement r) {
+                    final Set<String> assigned = new HashSet<>();
+                    Expressions.collectAssignedNames(r.getExpression(), assigned);
+                    found[0] |= assigned.contains(global);
+                    return r;
+                }
+            }.rewrite(body);
+            return found[0];
+        }
+    }
+
+    /**
+     * Stores the temporaries back in front of the return statements of a loop.
+     * The returned expression no longer mentions the globals and the calls of
+     * the loop cannot access them, so it may be evaluated after the stores.
+     */
+    private static final class ExitStores extends AstRewriter {
+        private final List<Statement> stores;
+
+        ExitStores(final List<Statement> stores) {
+            this.stores = stores;
+        }
+
+        @Override
+        protected Statement rewriteReturn(final ReturnStatement s) {
+            final List<Statement> block = new ArrayList<>(stores);
+            block.add(s);
+            return new BlockStatement(s.getLocation(), block);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.parser.TokenKind;
+
+/**
+ * Unrolls innermost while loops which count a local int variable towards a loop
+ * invariant bound with a constant step.
+ *
+ * If the loop is directly preceded by the initialization of the counter and the
+ * bound is a constant, the trip count is known and a short loop is replaced by
+ * the copies of its body. Otherwise the body is repeated {@code factor} times
+ * in a main loop which only runs while enough iterations remain, followed by
+ * the original loop for the remainder:
+ *
+ * <pre>
+ *     while (i < n) { s = s + i; i = i + 1; }
+ * becomes (factor 2)
+ *     { while (i < n && n - i > 1) { s = s + i; i = i + 1; s = s + i; i = i + 1; }
+ *       while (i < n) { s = s + i; i = i + 1; } }
+ * </pre>
+ *
+ * The remaining distance {@code n - i} is only computed if {@code i < n}, so it
+ * is positive unless it wraps around, in which case the remainder loop does the
+ * work. The size of a single unrolled loop and the growth of each function are
+ * limited.
+ */
+public class LoopUnrolling {
+    /** The default number of copies of the body in the main loop. */
+    public static final int DEFAULT_FACTOR = 4;
+    /** The default maximum size of an unrolled loop body in AST nodes. */
+    public static final int DEFAULT_MAX_LOOP_SIZE = 64;
+    /** The default number of AST nodes a function may grow by. */
+    public static final int DEFAULT_GROWTH_BUDGET = 256;
+    /** Loops with up to this many iterations are unrolled completely. */
+    private static final int MAX_FULL_UNROLL = 16;
+
+    private final int factor;
+    private final int maxLoopSize;
+    private final int growthBudget;
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Creates the pass with the default factor and budgets.
+     */
+    public LoopUnrolling() {
+        this(DEFAULT_FACTOR, DEFAULT_MAX_LOOP_SIZE, DEFAULT_GROWTH_BUDGET);
+    }
+
+    /**
+     * Creates the pass.
+     *
+     * @param factor       The number of copies of the body in the main loop.
+     * @param maxLoopSize  The maximum size of an unrolled loop body in AST nodes.
+     * @param growthBudget The number of AST nodes each function may grow by.
+     */
+    public LoopUnrolling(final int factor, final int maxLoopSize, final int growthBudget) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("unroll factor must be positive");
+        }
+        this.factor = factor;
+        this.maxLoopSize = maxLoopSize;
+        this.growthBudget = growthBudget;
+    }
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final Statement body = new Unroller(locals).rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    /**
+     * A counted loop {@code while (i op bound) { ... i = i + step; ... }}, the
+     * comparison normalized to have the counter on the left.
+     */
+    private static final class CountedLoop {
+        final String counter;
+        final TokenKind comparison;
+        final Expression bound;
+        final int step;
+        final List<Statement> body;
+
+        CountedLoop(final String counter, final TokenKind comparison, final Expression bound, final int step,
+                final List<Statement> body) {
+            this.counter = counter;
+            this.comparison = comparison;
+            this.bound = bound;
+            this.step = step;
+            this.body = body;
+        }
+
+        /**
+         * Returns the number of iterations for the given start value, -1 if the
+         * loop does not terminate regularly.
+         */
+        long tripCount(final long start, final long end) {
+            final long distance = step > 0 ? end - start : start - end;
+            final long stride = Math.abs((long) step);
+            switch (comparison) {
+            case LESS:
+            case GREATER:
+                return distance <= 0 ? 0 : (distance + stride - 1) / stride;
+            case LESS_EQUAL:
+            case GREATER_EQUAL:
+                return distance < 0 ? 0 : distance / stride + 1;
+            case BANG_EQUAL:
+                return distance >= 0 && distance % stride == 0 ? distance / stride : -1;
+            default:
+                return -1;
+            }
+        }
+    }
+
+    private final class Unroller extends AstRewriter {
+        private final LocalVariables locals;
+        private int growth = 0;
+
+        Unroller(final LocalVariables locals) {
+            this.locals = locals;
+        }
+
+        @Override
+        protected List<Statement> rewriteStatements(final List<Statement> statements) {
+            List<Statement> result = null;
+            for (int i = 0; i < statements.size(); ++i) {
+                final Statement old = statements.get(i);
+                List<Statement> r = i == 0 ? null : unrollCompletely(statements.get(i - 1), old);
+                if (r == null) {
+                    r = rewriteListElement(old);
+                }
+                if (result == null && (r.size() != 1 || r.get(0) != old)) {
+                    result = new ArrayList<>(statements.subList(0, i));
+                }
+                if (result != null) {
+                    result.addAll(r);
+                }
+            }
+            return result == null ? statements : result;
+        }
+
+        /**
+         * Replaces a loop with a known small trip count by the copies of its body.
+         *
+         * @param previous The statement in front of the loop.
+         * @param s        The loop candidate.
+         * @return The replacement or null if the loop is not unrolled.
+         */
+        private List<Statement> unrollCompletely(final Statement previous, final Statement s) {
+            if (!(s instanceof WhileStatement)) {
+                return null;
+            }
+            final CountedLoop loop = analyze((WhileStatement) s);
+            final Integer start = loop == null ? null : initialValue(previous, loop.counter);
+            final Integer end = loop == null ? null : Expressions.constantValue(loop.bound);
+            if (start == null || end == null) {
+                return null;
+            }
+            final long trips = loop.tripCount(start, end);
+            final int size = Statements.size(s);
+            if (trips < 0 || trips > MAX_FULL_UNROLL || trips * size > maxLoopSize
+                    || growth + (trips - 1) * size > growthBudget) {
+                return null;
+            }
+            growth += (int) (trips - 1) * size;
+            remarks.passed("FullyUnrolled", ((WhileStatement) s).getLocation(),
+                    "completely unrolled a loop with %d iterations", trips);
+            final List<Statement> result = new ArrayList<>();
+            for (int i = 0; i < trips; ++i) {
+                result.addAll(loop.body);
+            }
+            return result;
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            final Statement rewritten = super.rewriteWhile(s);
+            if (factor == 1 || rewritten != s) {
+                // Only innermost loops are unrolled.
+                return rewritten;
+            }
+            final CountedLoop loop = analyze(s);
+            if (loop == null || loop.comparison == TokenKind.BANG_EQUAL) {
+                remarks.missed("NotCounted", s.getLocation(), "loop not unrolled: it is not a counted loop");
+                return s;
+            }
+            final int size = Statements.size(s.getBody());
+            if (size * factor > maxLoopSize || growth + size * factor > growthBudget) {
+                remarks.missed("TooLarge", s.getLocation(),
+                        "loop not unrolled: %d copies of its body of size %d exceed the size limits", factor, size);
+                return s;
+            }
+            final long margin = (long) (factor - 1) * Math.abs((long) loop.step);
+            if (margin > Integer.MAX_VALUE) {
+                remarks.missed("TooLarge", s.getLocation(), "loop not unrolled: its step is too large");
+                return s;
+            }
+            remarks.passed("Unrolled", s.getLocation(), "unrolled a loop by a factor of %d", factor);
+
+            // i < n && n - i > margin, or i > n && i - n > margin for a decreasing counter.
+            final Locatable loc = s.getLocation();
+            final Expression counter = Expressions.identifier(loc, loop.counter);
+            final BinaryExpression difference = (BinaryExpression) (loop.step > 0
+                    ? Expressions.binary(loc, TokenKind.MINUS, loop.bound, counter)
+                    : Expressions.binary(loc, TokenKind.MINUS, counter, loop.bound));
+            final Expression folded = ConstantFolding.fold(difference);
+            final Expression distance = folded == null ? difference : folded;
+            final boolean inclusive = loop.comparison == TokenKind.LESS_EQUAL
+                    || loop.comparison == TokenKind.GREATER_EQUAL;
+            final Expression enough = Expressions.binary(loc, inclusive ? TokenKind.GREATER_EQUAL : TokenKind.GREATER,
+                    distance, Expressions.number(loc, (int) margin));
+            final Expression condition = Expressions.binary(loc, TokenKind.AND_AND, s.getCondition(), enough);
+
+            final List<Statement> body = new ArrayList<>();
+            for (int i = 0; i < factor; ++i) {
+                body.addAll(loop.body);
+            }
+            growth += size * factor;
+            final List<Statement> block = new ArrayList<>();
+            block.add(new WhileStatement(loc, condition, new BlockStatement(loc, body)));
+            block.add(s);
+            return new BlockStatement(loc, block);
+        }
+
+        /**
+         * Checks whether the loop is a counted loop which may be unrolled.
+         *
+         * @return The description of the loop or null.
+         */
+        private CountedLoop analyze(final WhileStatement s) {
+            if (!(s.getCondition() instanceof BinaryExpression) || containsLoopOrDeclaration(s.getBody())) {
+                return null;
+            }
+            final BinaryExpression condition = (BinaryExpression) s.getCondition();
+            String counter = Expressions.identifierName(condition.getLeft());
+            Expression bound = condition.getRight();
+            TokenKind comparison = condition.getOperator().getKind();
+            if (counter == null || !locals.isTracked(counter)) {
+                counter = Expressions.identifierName(condition.getRight());
+                bound = condition.getLeft();
+                comparison = mirror(comparison);
+            }
+            if (counter == null || comparison == null || !locals.isTracked(counter)) {
+                return null;
+            }
+            final LoopInfo info = new LoopInfo(s, locals);
+            if (!isInvariant(bound, info)) {
+                return null;
+            }
+
+            // The counter must be updated exactly once, by a statement of the body.
+            final List<Statement> body = s.getBody() instanceof BlockStatement
+                    ? ((BlockStatement) s.getBody()).getStatements()
+                    : Collections.singletonList(s.getBody());
+            final Set<String> assigned = new HashSet<>();
+            Integer step = null;
+            for (final Statement statement : body) {
+                final Integer update = stepOf(statement, counter);
+                if (update != null && step == null) {
+                    step = update;
+                    continue;
+                }
+                Statements.collectAssignedNames(statement, assigned);
+            }
+            if (step == null || assigned.contains(counter)) {
+                return null;
+            }
+            final boolean increasing = comparison == TokenKind.LESS || comparison == TokenKind.LESS_EQUAL;
+            final boolean decreasing = comparison == TokenKind.GREATER || comparison == TokenKind.GREATER_EQUAL;
+            if (increasing && step < 0 || decreasing && step > 0) {
+                return null;
+            }
+            return new CountedLoop(counter, comparison, bound, step, body);
+        }
+
+        private boolean isInvariant(final Expression e, final LoopInfo info) {
+            if (Expressions.hasSideEffects(e) || Expressions.containsLoad(e)) {
+                return false;
+            }
+            final Set<String> used = new HashSet<>();
+            Expressions.collectNames(e, used);
+            for (final String name : used) {
+                if (!locals.isTracked(name) || info.isModified(name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static TokenKind mirror(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+            return TokenKind.GREATER;
+        case LESS_EQUAL:
+            return TokenKind.GREATER_EQUAL;
+        case GREATER:
+            return TokenKind.LESS;
+        case GREATER_EQUAL:
+            return TokenKind.LESS_EQUAL;
+        case BANG_EQUAL:
+            return kind;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the constant step if the statement is {@code i = i + c},
+     * {@code i = i - c}, {@code i++} or {@code i--}, null otherwise.
+     */
+    private static Integer stepOf(final Statement s, final String counter) {
+        if (!(s instanceof ExpressionStatement)) {
+            return null;
+        }
+        final Expression e = ((ExpressionStatement) s).getExpression();
+        if (Expressions.isIncDec(e)) {
+            final UnaryExpression u = (UnaryExpression) e;
+            if (!counter.equals(Expressions.identifierName(u.getOperand()))) {
+                return null;
+            }
+            return u.getOperator().getKind() == TokenKind.PLUS_PLUS ? 1 : -1;
+        }
+        if (!Expressions.isAssignment(e) || !counter.equals(Expressions.identifierName(((BinaryExpression) e).getLeft()))
+                || !(((BinaryExpression) e).getRight() instanceof BinaryExpression)) {
+            return null;
+        }
+        final BinaryExpression value = (BinaryExpression) ((BinaryExpression) e).getRight();
+        final Integer c;
+        if (counter.equals(Expressions.identifierName(value.getLeft()))) {
+            c = Expressions.constantValue(value.getRight());
+        } else if (value.getOperator().getKind() == TokenKind.PLUS
+                && counter.equals(Expressions.identifierName(value.getRight()))) {
+            c = Expressions.constantValue(value.getLeft());
+        } else {
+            return null;
+        }
+        if (c == null || c == 0 || c == Integer.MIN_VALUE) {
+            return null;
+        }
+        switch (value.getOperator().getKind()) {
+        case PLUS:
+            return c;
+        case MINUS:
+            return -c;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the constant the statement initializes the counter with, null if
+     * it is not {@code i = c} or {@code int i = c}.
+     */
+    private static Integer initialValue(final Statement s, final String counter) {
+        if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            return counter.equals(d.getName().getText()) ? Expressions.constantValue(d.getInit()) : null;
+        }
+        if (s instanceof ExpressionStatement) {
+            final Expression e = ((ExpressionStatement) s).getExpression();
+            if (Expressions.isAssignment(e)
+                    && counter.equals(Expressions.identifierName(((BinaryExpression) e).getLeft()))) {
+                return Expressions.constantValue(((BinaryExpression) e).getRight());
+            }
+        }
+        return null;
+    }
+
+    private static boolean containsLoopOrDeclaration(final Statement s) {
+        if (s instanceof WhileStatement || s instanceof DeclarationStatement) {
+            return true;
+        }
+        if (s instanceof BlockStatement) {
+            for (final Statement child : ((BlockStatement) s).getStatements()) {
+                if (containsLoopOrDeclaration(child)) {
+                    return true;
+                }
+            }
+        }
+        if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            return containsLoopOrDeclaration(i.getConsequence())
+                    || i.getAlternative() != null && containsLoopOrDeclaration(i.getAlternative());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+
+/**
+ * Decides how much optimization every function of a translation unit gets
+ * within a budget.
+ *
+ * The functions are ranked by their estimated payoff: the size of the body
+ * where every node counts {@value #LOOP_WEIGHT} times more per enclosing loop,
+ * multiplied with the estimated number of calls, i.e. the call sites in the
+ * other functions weighted the same way. The hot functions come first.
+ *
+ * With a work budget, which is measured in AST nodes times the number of
+ * stages which process them, the functions are admitted in rank order: a
+ * function gets the full pipeline if its cost still fits into the budget, the
+ * cheap stages of level 1 if only these fit, and no optimization otherwise.
+ * The admission only depends on the program, so the result is deterministic.
+ *
+ * With a wall-clock budget no function is optimized any further once the
+ * deadline passed. The pass manager processes the functions in rank order, so
+ * the most valuable ones are optimized first, but the result depends on the
+ * speed of the machine.
+ */
+public class OptimizationScheduler {
+    /** The factor by which a loop multiplies the weight of its nodes. */
+    public static final int LOOP_WEIGHT = 8;
+    /** The maximum loop depth considered for the weights. */
+    private static final int MAX_LOOP_DEPTH = 4;
+
+    /**
+     * How much optimization a function gets.
+     */
+    public enum Tier {
+        /** The function is not optimized. */
+        NONE,
+        /** Only the stages of level 1 process the function. */
+        REDUCED,
+        /** The function gets the whole pipeline. */
+        FULL
+    }
+
+    private final Map<FunctionDefinition, Tier> tiers = new IdentityHashMap<>();
+    private final Map<FunctionDefinition, Integer> ranks = new IdentityHashMap<>();
+    private final List<FunctionDefinition> ranking = new ArrayList<>();
+    private final boolean degraded;
+    private final long deadline;
+
+    /**
+     * Ranks the functions and distributes the work budget.
+     *
+     * @param ast            The translation unit.
+     * @param workBudget     The work budget, negative for none.
+     * @param timeBudget     The wall-clock budget in milliseconds, negative for
+     *                       none.
+     * @param fullStages     The number of stages which process a function of
+     *                       the tier {@link Tier#FULL}.
+     * @param reducedStages  The number of stages which process a function of
+     *                       the tier {@link Tier#REDUCED}.
+     */
+    public OptimizationScheduler(final AST ast, final long workBudget, final long timeBudget, final int fullStages,
+            final int reducedStages) {
+        deadline = timeBudget < 0 ? Long.MAX_VALUE : System.nanoTime() + timeBudget * 1000000L;
+
+        final Map<String, Double> calls = new HashMap<>();
+        final Map<FunctionDefinition, Double> weights = new IdentityHashMap<>();
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            final Profile profile = new Profile(calls);
+            profile.rewrite(f.getBody());
+            weights.put(f, profile.weight);
+        }
+        ranking.addAll(ast.getFunctionDefinitions());
+        final Map<FunctionDefinition, Double> payoffs = new IdentityHashMap<>();
+        for (final FunctionDefinition f : ranking) {
+            payoffs.put(f, weights.get(f) * (1 + calls.getOrDefault(f.getName().getText(), 0.0)));
+        }
+        // The sort is stable, so functions of equal payoff keep their order.
+        ranking.sort((a, b) -> Double.compare(payoffs.get(b), payoffs.get(a)));
+
+        long remaining = workBudget;
+        boolean anyDegraded = false;
+        for (int i = 0; i < ranking.size(); ++i) {
+            final FunctionDefinition f = ranking.get(i);
+            ranks.put(f, i);
+            Tier tier = Tier.FULL;
+            if (workBudget >= 0) {
+                final long size = Statements.size(f.getBody());
+                if (size * fullStages <= remaining) {
+                    remaining -= size * fullStages;
+                } else if (size * reducedStages <= remaining) {
+                    remaining -= size * reducedStages;
+                    tier = Tier.REDUCED;
+                } else {
+                    tier = Tier.NONE;
+                }
+            }
+            anyDegraded |= tier != Tier.FULL;
+            tiers.put(f, tier);
+        }
+        degraded = anyDegraded;
+    }
+
+    /**
+     * Returns the tier of a function. Functions which were created after the
+     * ranking, e.g. specialized copies, get the full pipeline unless the budget
+     * did not suffice for all functions.
+     */
+    public Tier getTier(final FunctionDefinition function) {
+        final Tier tier = tiers.get(function);
+        if (tier != null) {
+            return tier;
+        }
+        return degraded ? Tier.REDUCED : Tier.FULL;
+    }
+
+    /**
+     * Returns the functions ordered by payoff, the most valuable first.
+     */
+    public List<FunctionDefinition> getRanking() {
+        return ranking;
+    }
+
+    /**
+     * Returns the given functions in rank order. Functions created after the
+     * ranking come last in their original order.
+     */
+    public List<FunctionDefinition> order(final List<FunctionDefinition> functions) {
+        final List<FunctionDefinition> ordered = new ArrayList<>(functions);
+        ordered.sort((a, b) -> Integer.compare(ranks.getOrDefault(a, Integer.MAX_VALUE),
+                ranks.getOrDefault(b, Integer.MAX_VALUE)));
+        return ordered;
+    }
+
+    /**
+     * Returns true if the work budget does not suffice to optimize every
+     * function fully. The interprocedural passes are skipped then, as they
+     * process the whole translation unit.
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Returns true if the wall-clock budget is used up.
+     */
+    public boolean isExpired() {
+        return System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Sums the loop weighted size of a function body and counts the weighted
+     * call sites of every callee.
+     */
+    private static final class Profile extends AstRewriter {
+        private final Map<String, Double> calls;
+        private double weight = 0;
+        private int depth = 0;
+
+        Profile(final Map<String, Double> calls) {
+            this.calls = calls;
+        }
+
+        private double factor() {
+            return Math.pow(LOOP_WEIGHT, Math.min(depth, MAX_LOOP_DEPTH));
+        }
+
+        @Override
+        public Statement rewrite(final Statement s) {
+            if (s != null) {
+                weight += factor();
+            }
+            return super.rewrite(s);
+        }
+
+        @Override
+        public Expression rewrite(final Expression e) {
+            if (e != null) {
+                weight += factor();
+            }
+            return super.rewrite(e);
+        }
+
+        @Override
+        protected Statement rewriteWhile(final WhileStatement s) {
+            ++depth;
+            try {
+                return super.rewriteWhile(s);
+            } finally {
+                --depth;
+            }
+        }
+
+        @Override
+        protected Expression rewriteCall(final CallExpression e) {
+            final String callee = Expressions.identifierName(e.getCallee());
+            if (callee != null) {
+                calls.merge(callee, factor(), Double::sum);
+            }
+            return super.rewriteCall(e);
+        }
+    }
+}
@@ -0,0 +1,717 @@
+package tinycc.implementation.optimization;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.FunctionDefinition;
+
+/**
+ * Runs the optimization passes in a fixed pipeline.
+ *
+ * Every pass has a name and every stage of the pipeline a minimal optimization
+ * level:
+ *
+ * - 0 runs no pass,
+ * - 1 runs the cheap passes which work on single statements and blocks,
+ * - 2 additionally runs the interprocedural, loop and range passes.
+ *
+ * Passes may be enabled or disabled by name independently of the level. An
+ * enabled pass runs at all of its stages, a disabled one at none.
+ *
+ * The analyses which several passes share (see {@link Analyses}) are kept
+ * while the passes do not change the program and are invalidated after a pass
+ * reported a change. Passes which only change a single function run on all
+ * functions concurrently in a fork-join pool once the analyses are computed.
+ * Every function only depends on its own body and the analyses, so the result
+ * is the same as that of a sequential run.
+ *
+ * For every pass which ran the manager records its time and the size of the
+ * program before and after it, see {@link #getStatistics()}, and the passes
+ * report their transformations as remarks, see {@link #getRemarks()}.
+ *
+ * For huge inputs a work or wall-clock budget may be set. The functions are
+ * then optimized in the order of their estimated payoff and the functions for
+ * which the budget does not suffice only get the cheap stages or none at all,
+ * see {@link OptimizationScheduler}. Functions which cannot be reached from
+ * main are removed before they are ranked.
+ */
+public class PassManager {
+    /** The default optimization level. */
+    public static final int DEFAULT_LEVEL = 2;
+    /** The highest optimization level. */
+    public static final int MAX_LEVEL = 2;
+
+    /**
+     * A pass of the pipeline.
+     */
+    @FunctionalInterface
+    public interface Pass {
+        /**
+         * Runs the pass on the whole translation unit.
+         *
+         * @param ast      The translation unit.
+         * @param analyses The cached analyses of the translation unit.
+         * @param remarks  The emitter for the remarks of the pass.
+         * @return True if the program was changed.
+         */
+        boolean run(AST ast, Analyses analyses, RemarkEmitter remarks);
+    }
+
+    /**
+     * The time and the effect of a single run of a pass.
+     */
+    public static final class Statistics {
+        private final String name;
+        private final long nanoseconds;
+        private final int sizeBefore;
+        private final int sizeAfter;
+        private final boolean changed;
+
+        Statistics(final String name, final long nanoseconds, final int sizeBefore, final int sizeAfter,
+                final boolean changed) {
+            this.name = name;
+            this.nanoseconds = nanoseconds;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.changed = changed;
+        }
+
+        /** Returns the name of the pass. */
+        public String getName() {
+            return name;
+        }
+
+        /** Returns the time the pass took in nanoseconds. */
+        public long getNanoseconds() {
+            return nanoseconds;
+        }
+
+        /** Returns the number of AST nodes of all functions before the pass. */
+        public int getSizeBefore() {
+            return sizeBefore;
+        }
+
+        /** Returns the number of AST nodes of all functions after the pass. */
+        public int getSizeAfter() {
+            return sizeAfter;
+        }
+
+        /** Returns true if the pass changed the program. */
+        public boolean hasChanged() {
+            return changed;
+        }
+    }
+
+    private static final class Stage {
+        final String name;
+        final int level;
+
+        Stage(final String name, final int level) {
+            this.name = name;
+            this.level = level;
+        }
+    }
+
+    /** The stage which removes the unreachable functions before all others. */
+    private static final Stage SWEEP = new Stage("dead-code-elimination", 1);
+
+    private final Map<String, Pass> passes = new LinkedHashMap<>();
+    private final List<Stage> pipeline = new ArrayList<>();
+    private final Set<String> enabled = new HashSet<>();
+    private final Set<String> disabled = new HashSet<>();
+    private final List<Statistics> statistics = new ArrayList<>();
+    private final Remarks remarks = new Remarks();
+    private final Set<String> modulePasses = new HashSet<>();
+    private int level;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long workBudget = -1;
+    private long timeBudget = -1;
+    private ForkJoinPool pool;
+    private OptimizationScheduler scheduler;
+    private Stage currentStage;
+
+    /**
+     * Creates the pass manager with the default pipeline.
+     *
+     * @param level The optimization level, between 0 and {@link #MAX_LEVEL}.
+     */
+    public PassManager(final int level) {
+        setLevel(level);
+        // The passes which only change a single function run on all functions
+        // concurrently. The analyses they share are computed in front.
+        register("local-promotion", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final LocalPromotion promotion = new LocalPromotion();
+                promotion.setRemarks(r);
+                return promotion.run(f, globalNames);
+            });
+        });
+        register("tail-recursion-elimination", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final TailRecursionElimination elimination = new TailRecursionElimination();
+                elimination.setRemarks(r);
+                return elimination.run(f, globalNames);
+            });
+        });
+        register("constant-folding", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final ConstantFolding folding = new ConstantFolding();
+                folding.setRemarks(r);
+                return folding.run(f, globalNames);
+            });
+        });
+        // The passes which process the whole translation unit at once.
+        registerModule("constant-call-evaluation", (ast, a, r) -> {
+            final ConstantCallEvaluation evaluation = new ConstantCallEvaluation();
+            evaluation.setRemarks(r);
+            return evaluation.run(ast, a);
+        });
+        registerModule("interprocedural-constant-propagation", (ast, a, r) -> {
+            final InterproceduralConstantPropagation propagation = new InterproceduralConstantPropagation();
+            propagation.setRemarks(r);
+            return propagation.run(ast);
+        });
+        registerModule("function-inlining", (ast, a, r) -> {
+            final FunctionInlining inlining = new FunctionInlining();
+            inlining.setRemarks(r);
+            return inlining.run(ast);
+        });
+        register("range-folding", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final RangeFolding folding = new RangeFolding();
+                folding.setRemarks(r);
+                return folding.run(ast, f, globalNames);
+            });
+        });
+        register("control-flow-simplification", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final ControlFlowSimplification simplification = new ControlFlowSimplification();
+                simplification.setRemarks(r);
+                return simplification.run(f, globalNames);
+            });
+        });
+        register("pure-call-elimination", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            final FunctionEffects effects = a.getEffects();
+            final CallGraph graph = a.getCallGraph();
+            return forEachFunction(ast, f -> {
+                final PureCallElimination elimination = new PureCallElimination();
+                elimination.setRemarks(r);
+                return elimination.run(f, globalNames, effects, graph);
+            });
+        });
+        register("load-forwarding", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            final FunctionEffects effects = a.getEffects();
+            return forEachFunction(ast, f -> {
+                final LoadForwarding forwarding = new LoadForwarding();
+                forwarding.setRemarks(r);
+                return forwarding.run(ast, f, globalNames, effects);
+            });
+        });
+        register("loop-scalar-replacement", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            final FunctionEffects effects = a.getEffects();
+            return forEachFunction(ast, f -> {
+                final LoopScalarReplacement replacement = new LoopScalarReplacement();
+                replacement.setRemarks(r);
+                return replacement.run(ast, f, globalNames, effects);
+            });
+        });
+        register("induction-variable-strength-reduction", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final InductionVariableStrengthReduction reduction = new InductionVariableStrengthReduction();
+                reduction.setRemarks(r);
+                return reduction.run(ast, f, globalNames);
+            });
+        });
+        register("loop-invariant-code-motion", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            final FunctionEffects effects = a.getEffects();
+            return forEachFunction(ast, f -> {
+                final LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion();
+                licm.setRemarks(r);
+                return licm.run(ast, f, globalNames, effects);
+            });
+        });
+        register("loop-unrolling", (ast, a, r) -> {
+            final Set<String> globalNames = a.getGlobalNames();
+            return forEachFunction(ast, f -> {
+                final LoopUnrolling unrolling = new LoopUnrolling();
+                unrolling.setRemarks(r);
+                return unrolling.run(f, globalNames);
+            });
+        });
+        register("dead-code-elimination", (ast, a, r) -> {
+            final DeadCodeElimination sweep = new DeadCodeElimination();
+            sweep.setRemarks(r);
+            final boolean removed = sweep.removeUnreachableFunctions(ast);
+            if (removed) {
+                a.invalidate();
+            }
+            final Set<String> globalNames = a.getGlobalNames();
+            final FunctionEffects effects = a.getEffects();
+            return forEachFunction(ast, f -> {
+                final DeadCodeElimination dce = new DeadCodeElimination();
+                dce.setRemarks(r);
+                final boolean changed = dce.removeOverwrittenStores(ast, f, globalNames, effects);
+                return dce.run(f, globalNames, effects) | changed;
+            }) | removed;
+        });
+
+        addStage("local-promotion", 1);
+        addStage("tail-recursion-elimination", 2);
+        addStage("constant-folding", 1);
+        addStage("constant-call-evaluation", 2);
+        addStage("interprocedural-constant-propagation", 2);
+        addStage("function-inlining", 2);
+        addStage("constant-folding", 2);
+        addStage("range-folding", 2);
+        addStage("control-flow-simplification", 1);
+        addStage("pure-call-elimination", 1);
+        addStage("load-forwarding", 1);
+        addStage("loop-scalar-replacement", 2);
+        addStage("induction-variable-strength-reduction", 2);
+        addStage("loop-invariant-code-motion", 2);
+        addStage("loop-unrolling", 2);
+        addStage("control-flow-simplification", 2);
+        addStage("dead-code-elimination", 1);
+    }
+
+    /**
+     * Creates the pass manager with the default pipeline and level.
+     */
+    public PassManager() {
+        this(DEFAULT_LEVEL);
+    }
+
+    private void register(final String name, final Pass pass) {
+        passes.put(name, pass);
+    }
+
+    private void registerModule(final String name, final Pass pass) {
+        register(name, pass);
+        modulePasses.add(name);
+    }
+
+    private void addStage(final String name, final int level) {
+        pipeline.add(new Stage(name, level));
+    }
+
+    /**
+     * Returns the names of all passes in pipeline order.
+     */
+    public Set<String> getPassNames() {
+        return passes.keySet();
+    }
+
+    /**
+     * Returns true if a pass with the given name exists.
+     */
+    public boolean hasPass(final String name) {
+        return passes.containsKey(name);
+    }
+
+    /**
+     * Sets the optimization level.
+     *
+     * @param level The level, between 0 and {@link #MAX_LEVEL}.
+     */
+    public void setLevel(final int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("invalid optimization level " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Sets the number of threads which optimize functions concurrently. With 1
+     * all functions are optimized by the calling thread.
+     *
+     * @param parallelism The number of threads, at least 1.
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("invalid parallelism " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of threads which optimize functions concurrently.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the work budget of the next run, the number of AST nodes times the
+     * number of stages which process them. The output only depends on the
+     * input and the budget.
+     *
+     * @param workBudget The budget, negative for none.
+     */
+    public void setWorkBudget(final long workBudget) {
+        this.workBudget = workBudget;
+    }
+
+    /**
+     * Sets the wall-clock budget of the next run. Once it is used up no
+     * function is optimized any further, so the output depends on the speed of
+     * the machine.
+     *
+     * @param milliseconds The budget in milliseconds, negative for none.
+     */
+    public void setTimeBudget(final long milliseconds) {
+        this.timeBudget = milliseconds;
+    }
+
+    /**
+     * Returns the optimization level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Runs the pass at all of its stages, regardless of the level.
+     *
+     * @param name The name of the pass.
+     */
+    public void enable(final String name) {
+        checkName(name);
+        disabled.remove(name);
+        enabled.add(name);
+    }
+
+    /**
+     * Runs the pass at none of its stages.
+     *
+     * @param name The name of the pass.
+     */
+    public void disable(final String name) {
+        checkName(name);
+        enabled.remove(name);
+        disabled.add(name);
+    }
+
+    private void checkName(final String name) {
+        if (!hasPass(name)) {
+            throw new IllegalArgumentException("unknown optimization pass '" + name + "'");
+        }
+    }
+
+    /**
+     * Returns true if the stage runs with the current level and flags.
+     */
+    private boolean isActive(final Stage stage) {
+        return !disabled.contains(stage.name) && (stage.level <= level || enabled.contains(stage.name));
+    }
+
+    /**
+     * Runs the pipeline on the translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        boolean changed = false;
+        int size = size(ast);
+        // Functions which cannot be reached from main are removed before the
+        // scheduler ranks the functions, so no stage and no budget is spent on
+        // them. The last stage sweeps again for the calls the passes removed.
+        if (isActive(SWEEP)) {
+            final long start = System.nanoTime();
+            final DeadCodeElimination sweep = new DeadCodeElimination();
+            sweep.setRemarks(remarks.emitter(SWEEP.name));
+            changed = sweep.removeUnreachableFunctions(ast);
+            final long time = System.nanoTime() - start;
+            final int after = changed ? size(ast) : size;
+            statistics.add(new Statistics(SWEEP.name, time, size, after, changed));
+            size = after;
+        }
+        final Analyses analyses = new Analyses(ast);
+        scheduler = createScheduler(ast);
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (final Stage stage : pipeline) {
+                if (!isActive(stage)) {
+                    continue;
+                }
+                if (scheduler.isExpired()) {
+                    remarks.emitter("scheduler").missed("Expired", null,
+                            "time budget of %d ms used up before %s", timeBudget, stage.name);
+                    break;
+                }
+                if (scheduler.isDegraded() && modulePasses.contains(stage.name)) {
+                    continue;
+                }
+                currentStage = stage;
+                final long start = System.nanoTime();
+                final boolean passChanged = passes.get(stage.name).run(ast, analyses, remarks.emitter(stage.name));
+                final long time = System.nanoTime() - start;
+                if (passChanged) {
+                    analyses.invalidate();
+                }
+                final int after = passChanged ? size(ast) : size;
+                statistics.add(new Statistics(stage.name, time, size, after, passChanged));
+                size = after;
+                changed |= passChanged;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+            scheduler = null;
+            currentStage = null;
+        }
+        return changed;
+    }
+
+    /**
+     * Ranks the functions for the budget and reports the tier of every
+     * function.
+     */
+    private OptimizationScheduler createScheduler(final AST ast) {
+        int fullStages = 0;
+        int reducedStages = 0;
+        for (final Stage stage : pipeline) {
+            if (isActive(stage) && !modulePasses.contains(stage.name)) {
+                ++fullStages;
+                reducedStages += stage.level <= 1 ? 1 : 0;
+            }
+        }
+        final OptimizationScheduler scheduler = new OptimizationScheduler(ast, workBudget, timeBudget, fullStages,
+                reducedStages);
+        if (workBudget >= 0) {
+            final RemarkEmitter emitter = remarks.emitter("scheduler");
+            for (final FunctionDefinition f : scheduler.getRanking()) {
+                final String name = f.getName().getText();
+                switch (scheduler.getTier(f)) {
+                case FULL:
+                    emitter.passed("Full", f.getName(), "'%s' fully optimized", name);
+                    break;
+                case REDUCED:
+                    emitter.missed("Reduced", f.getName(), "'%s' only cheaply optimized, work budget exceeded",
+                            name);
+                    break;
+                default:
+                    emitter.missed("Skipped", f.getName(), "'%s' not optimized, work budget exceeded", name);
+                    break;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Returns true if the work budget admits the function to the current
+     * stage.
+     */
+    private boolean isScheduled(final FunctionDefinition function) {
+        if (scheduler == null) {
+            return true;
+        }
+        switch (scheduler.getTier(function)) {
+        case FULL:
+            return true;
+        case REDUCED:
+            return currentStage.level <= 1;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Runs the work on every function of the translation unit, concurrently if
+     * the parallelism allows. The work must only change the function it is
+     * given and only read the shared analyses, so the result does not depend on
+     * the order in which the functions are processed. The functions are
+     * processed in the order of their payoff and the functions which the
+     * budget does not admit to the current stage are skipped.
+     *
+     * @param ast  The translation unit.
+     * @param pass The work for a single function, returns true if it changed
+     *             the function.
+     * @return True if a function was changed.
+     */
+    private boolean forEachFunction(final AST ast, final Predicate<FunctionDefinition> pass) {
+        final OptimizationScheduler scheduler = this.scheduler;
+        final Predicate<FunctionDefinition> work = scheduler == null ? pass
+                : f -> !scheduler.isExpired() && pass.test(f);
+        final List<FunctionDefinition> functions = new ArrayList<>();
+        final List<FunctionDefinition> all = scheduler == null ? ast.getFunctionDefinitions()
+                : scheduler.order(ast.getFunctionDefinitions());
+        for (final FunctionDefinition f : all) {
+            if (isScheduled(f)) {
+                functions.add(f);
+            }
+        }
+        if (pool == null || functions.size() < 2) {
+            boolean changed = false;
+            for (final FunctionDefinition f : functions) {
+                changed |= work.test(f);
+            }
+            return changed;
+        }
+        return pool.invoke(new FunctionTask(functions, 0, functions.size(), work));
+    }
+
+    /**
+     * Optimizes a range of functions by splitting it until every task
+     * optimizes a single function. Idle threads steal the forked halves.
+     */
+    private static final class FunctionTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<FunctionDefinition> functions;
+        private final int from;
+        private final int to;
+        private final Predicate<FunctionDefinition> work;
+
+        FunctionTask(final List<FunctionDefinition> functions, final int from, final int to,
+                final Predicate<FunctionDefinition> work) {
+            this.functions = functions;
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (to - from == 1) {
+                return work.test(functions.get(from));
+            }
+            final int middle = (from + to) >>> 1;
+            final FunctionTask left = new FunctionTask(functions, from, middle, work);
+            left.fork();
+            final boolean right = new FunctionTask(functions, middle, to, work).compute();
+            return left.join() | right;
+        }
+    }
+
+    /**
+     * Returns the number of AST nodes of all function bodies.
+     */
+    private static int size(final AST ast) {
+        int size = 0;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            size += Statements.size(f.getBody());
+        }
+        return size;
+    }
+
+    /**
+     * Returns the statistics of all passes which ran, in the order they ran.
+     */
+    public List<Statistics> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the remarks and counters of the passes.
+     */
+    public Remarks getRemarks() {
+        return remarks;
+    }
+
+    /**
+     * Writes the statistics and the remark counters aggregated per pass as
+     * JSON, e.g.
+     *
+     * <pre>
+     * {
+     *   "level": 2,
+     *   "passes": [
+     *     {"name": "function-inlining", "runs": 1, "changed": 1, "time_ms": 1.250, "size_delta": 14,
+     *      "counters": {"Inlined": 2, "NotInlined": 1}},
+     *     ...
+     *   ],
+     *   "scheduler": {"Full": 12, "Skipped": 48}
+     * }
+     * </pre>
+     *
+     * The scheduler counters are only written if a budget was set.
+     *
+     * @param out The stream to write to.
+     */
+    public void writeCounters(final PrintStream out) {
+        final Map<String, List<Statistics>> byPass = new LinkedHashMap<>();
+        for (final Statistics s : statistics) {
+            byPass.computeIfAbsent(s.getName(), n -> new ArrayList<>()).add(s);
+        }
+        final Map<String, Map<String, Integer>> counters = remarks.getCounters();
+        out.printf("{%n  \"level\": %d,%n  \"passes\": [", level);
+        String separator = "";
+        for (final Map.Entry<String, List<Statistics>> e : byPass.entrySet()) {
+            final List<Statistics> runs = e.getValue();
+            long time = 0;
+            int changed = 0;
+            int delta = 0;
+            for (final Statistics s : runs) {
+                time += s.getNanoseconds();
+                changed += s.hasChanged() ? 1 : 0;
+                delta += s.getSizeAfter() - s.getSizeBefore();
+            }
+            out.printf("%s%n    {\"name\": \"%s\", \"runs\": %d, \"changed\": %d, \"time_ms\": %.3f, "
+                    + "\"size_delta\": %d, \"counters\": {", separator, e.getKey(), runs.size(), changed,
+                    time / 1e6, delta);
+            String counterSeparator = "";
+            for (final Map.Entry<String, Integer> c : counters.getOrDefault(e.getKey(),
+                    new LinkedHashMap<String, Integer>()).entrySet()) {
+                out.printf("%s\"%s\": %d", counterSeparator, c.getKey(), c.getValue());
+                counterSeparator = ", ";
+            }
+            out.print("}}");
+            separator = ",";
+        }
+        out.printf("%n  ]");
+        final Map<String, Integer> scheduled = counters.get("scheduler");
+        if (scheduled != null) {
+            out.print(",\n  \"scheduler\": {");
+            String counterSeparator = "";
+            for (final Map.Entry<String, Integer> c : scheduled.entrySet()) {
+                out.printf("%s\"%s\": %d", counterSeparator, c.getKey(), c.getValue());
+                counterSeparator = ", ";
+            }
+            out.print("}");
+        }
+        out.printf("%n}%n");
+    }
+
+    /**
+     * Prints the time and size delta of every pass which ran and the totals.
+     *
+     * @param out The stream to print to.
+     */
+    public void printStatistics(final PrintStream out) {
+        long total = 0;
+        out.printf("%-40s %10s %8s %8s %7s%n", "pass", "time (ms)", "before", "after", "delta");
+        for (final Statistics s : statistics) {
+            total += s.getNanoseconds();
+            out.printf("%-40s %10.3f %8d %8d %+7d%n", s.getName(), s.getNanoseconds() / 1e6, s.getSizeBefore(),
+                    s.getSizeAfter(), s.getSizeAfter() - s.getSizeBefore());
+        }
+        if (!statistics.isEmpty()) {
+            final int before = statistics.get(0).getSizeBefore();
+            final int after = statistics.get(statistics.size() - 1).getSizeAfter();
+            out.printf("%-40s %10.3f %8d %8d %+7d%n", "total", total / 1e6, before, after, after - before);
+        }
+    }
+}
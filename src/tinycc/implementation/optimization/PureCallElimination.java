@@ -0,0 +1,337 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Eliminates repeated calls of constant functions with the same arguments.
+ *
+ * A call of a function whose result only depends on its arguments (see
+ * {@link FunctionEffects#isConst}) is numbered by its callee and arguments.
+ * If the same call is evaluated again in the following statements of the same
+ * block before an argument changes, all occurrences use a temporary which is
+ * computed once:
+ *
+ * <pre>
+ *     x = f(a) + 1; y = f(a) * 2;
+ * becomes
+ *     int __cse0 = f(a); x = __cse0 + 1; y = __cse0 * 2;
+ * </pre>
+ *
+ * The arguments must be constants or tracked variables, so only assignments in
+ * the block can change them. The first occurrence must be evaluated
+ * unconditionally by its statement. A call which may trap or loop is only
+ * moved in front of its statement if the statement has no other side effects,
+ * so the observable behavior does not change.
+ */
+public class PureCallElimination {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        return run(ast, new Analyses(ast));
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast      The translation unit.
+     * @param analyses The cached analyses of the translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast, final Analyses analyses) {
+        final Set<String> globalNames = analyses.getGlobalNames();
+        final FunctionEffects effects = analyses.getEffects();
+        final CallGraph graph = analyses.getCallGraph();
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames, effects, graph);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @param effects     The side effects of the functions of the translation unit.
+     * @param graph       The call graph of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames,
+            final FunctionEffects effects, final CallGraph graph) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final TemporaryNames names = new TemporaryNames(function, globalNames);
+        final Statement body = new Eliminator(locals, names, effects, graph, remarks)
+                .rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        return true;
+    }
+
+    private static final class Eliminator extends AstRewriter {
+        private final LocalVariables locals;
+        private final TemporaryNames names;
+        private final FunctionEffects effects;
+        private final CallGraph graph;
+        private final RemarkEmitter remarks;
+
+        Eliminator(final LocalVariables locals, final TemporaryNames names, final FunctionEffects effects,
+                final CallGraph graph, final RemarkEmitter remarks) {
+            this.locals = locals;
+            this.names = names;
+            this.effects = effects;
+            this.graph = graph;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected List<Statement> rewriteStatements(final List<Statement> statements) {
+            final List<Statement> rewritten = super.rewriteStatements(statements);
+            List<Statement> result = null;
+            for (int i = 0; i < rewritten.size(); ++i) {
+                final Statement s = result == null ? rewritten.get(i) : result.get(i);
+                final List<CallExpression> candidates = new ArrayList<>();
+                collectUnconditionalCalls(evaluated(s), candidates);
+                for (final CallExpression call : candidates) {
+                    final List<Statement> current = result == null ? rewritten : result;
+                    final int end = windowEnd(current, i, call);
+                    if (end <= i || countOccurrences(current, i, end, call) < 2 || !mayMoveBefore(s, call)) {
+                        continue;
+                    }
+                    if (result == null) {
+                        result = new ArrayList<>(rewritten);
+                    }
+                    final String name = names.next("cse");
+                    remarks.passed("Eliminated", call.getToken(),
+                            "%d calls of '%s' with the same arguments computed once",
+                            countOccurrences(current, i, end, call), Expressions.identifierName(call.getCallee()));
+                    final Replacer replacer = new Replacer(call, name);
+                    for (int j = i; j < end; ++j) {
+                        result.set(j, replacer.apply(result.get(j)));
+                    }
+                    final Token token = new Token(call.getToken(), TokenKind.IDENTIFIER, name);
+                    result.add(i, new DeclarationStatement(returnType(call), token, call));
+                    break;
+                }
+            }
+            return result == null ? rewritten : result;
+        }
+
+        /**
+         * Returns the index behind the last statement which evaluates the call
+         * with the same value as statement i, or i if the call cannot be reused.
+         */
+        private int windowEnd(final List<Statement> statements, final int i, final CallExpression call) {
+            final Set<String> arguments = new HashSet<>();
+            for (final Expression arg : call.getArguments()) {
+                Expressions.collectNames(arg, arguments);
+            }
+            int j = i;
+            while (j < statements.size()) {
+                final Statement s = statements.get(j);
+                final Expression value = evaluated(s);
+                if (value == null) {
+                    break;
+                }
+                final Set<String> assigned = new HashSet<>();
+                Expressions.collectAssignedNames(value, assigned);
+                assigned.retainAll(arguments);
+                if (!assigned.isEmpty()) {
+                    break;
+                }
+                ++j;
+                if (s instanceof IfStatement || arguments.contains(target(s))) {
+                    break;
+                }
+            }
+            return j;
+        }
+
+        private int countOccurrences(final List<Statement> statements, final int from, final int to,
+                final CallExpression call) {
+            final int[] count = { 0 };
+            for (int j = from; j < to; ++j) {
+                new AstRewriter() {
+                    @Override
+                    public Expression rewrite(final Expression e) {
+                        if (Expressions.equal(e, call)) {
+                            ++count[0];
+                            return e;
+                        }
+                        return super.rewrite(e);
+                    }
+                }.rewrite(evaluated(statements.get(j)));
+            }
+            return count[0];
+        }
+
+        /**
+         * Returns true if the call may be evaluated in front of the statement,
+         * which evaluates it unconditionally.
+         */
+        private boolean mayMoveBefore(final Statement s, final CallExpression call) {
+            return effects.isSpeculatable(Expressions.identifierName(call.getCallee()))
+                    || !effects.hasSideEffects(evaluated(s));
+        }
+
+        /**
+         * Collects the calls which may be numbered and which are evaluated
+         * whenever the expression is evaluated.
+         */
+        private void collectUnconditionalCalls(final Expression e, final List<CallExpression> out) {
+            if (e instanceof CallExpression) {
+                final CallExpression c = (CallExpression) e;
+                if (isCandidate(c)) {
+                    out.add(c);
+                }
+                for (final Expression arg : c.getArguments()) {
+                    collectUnconditionalCalls(arg, out);
+                }
+            } else if (e instanceof BinaryExpression) {
+                final BinaryExpression b = (BinaryExpression) e;
+                collectUnconditionalCalls(b.getLeft(), out);
+                final TokenKind kind = b.getOperator().getKind();
+                if (kind != TokenKind.AND_AND && kind != TokenKind.PIPE_PIPE) {
+                    collectUnconditionalCalls(b.getRight(), out);
+                }
+            } else if (e instanceof UnaryExpression) {
+                collectUnconditionalCalls(((UnaryExpression) e).getOperand(), out);
+            } else if (e instanceof ConditionalExpression) {
+                collectUnconditionalCalls(((ConditionalExpression) e).getCondition(), out);
+            }
+        }
+
+        private boolean isCandidate(final CallExpression c) {
+            final String name = Expressions.identifierName(c.getCallee());
+            if (!effects.isConst(name) || isVoid(returnType(c))) {
+                return false;
+            }
+            for (final Expression arg : c.getArguments()) {
+                final String argName = Expressions.identifierName(arg);
+                if (argName == null ? Expressions.constantValue(arg) == null : !locals.isTracked(argName)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Type returnType(final CallExpression c) {
+            final FunctionDefinition f = graph.getFunction(Expressions.identifierName(c.getCallee()));
+            return ((FunctionType) f.getType()).getReturnType();
+        }
+
+        private static boolean isVoid(final Type t) {
+            return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.VOID;
+        }
+    }
+
+    /**
+     * Returns the expression a simple statement evaluates before it writes its
+     * target, null for loops and blocks.
+     */
+    private static Expression evaluated(final Statement s) {
+        if (s instanceof DeclarationStatement) {
+            return ((DeclarationStatement) s).getInit();
+        }
+        if (s instanceof ExpressionStatement) {
+            final Expression e = ((ExpressionStatement) s).getExpression();
+            if (Expressions.isAssignment(e) && Expressions.identifierName(((BinaryExpression) e).getLeft()) != null) {
+                return ((BinaryExpression) e).getRight();
+            }
+            return e;
+        }
+        if (s instanceof ReturnStatement) {
+            return ((ReturnStatement) s).getExpression();
+        }
+        if (s instanceof IfStatement) {
+            return ((IfStatement) s).getCondition();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the variable the statement writes after evaluating its
+     * expression, null if there is none.
+     */
+    private static String target(final Statement s) {
+        if (s instanceof DeclarationStatement) {
+            return ((DeclarationStatement) s).getName().getText();
+        }
+        if (s instanceof ExpressionStatement) {
+            final Expression e = ((ExpressionStatement) s).getExpression();
+            if (Expressions.isAssignment(e)) {
+                return Expressions.identifierName(((BinaryExpression) e).getLeft());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the occurrences of a call in the expression a statement evaluates.
+     */
+    private static final class Replacer extends AstRewriter {
+        private final CallExpression call;
+        private final String name;
+
+        Replacer(final CallExpression call, final String name) {
+            this.call = call;
+            this.name = name;
+        }
+
+        @Override
+        public Expression rewrite(final Expression e) {
+            if (Expressions.equal(e, call)) {
+                return Expressions.identifier(call.getToken(), name);
+            }
+            return super.rewrite(e);
+        }
+
+        Statement apply(final Statement s) {
+            if (s instanceof IfStatement) {
+                final IfStatement i = (IfStatement) s;
+                final Expression condition = rewrite(i.getCondition());
+                return condition == i.getCondition() ? i
+                        : new IfStatement(i.getLocation(), condition, i.getConsequence(), i.getAlternative());
+            }
+            return rewrite(s);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package tinycc.implementation.optimization;
+
+import java.util.Set;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.Statement;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Folds conditions whose value is known from the value ranges.
+ *
+ * Comparisons, logical operators and negations which always yield the same
+ * truth value according to {@link ValueRanges} are replaced by the value:
+ *
+ * <pre>
+ *     if (x > 5) { if (x > 3) a(); }
+ * becomes
+ *     if (x > 5) { a(); }
+ * </pre>
+ *
+ * Chains of && and || shrink as their operands fold, and if and while
+ * statements with a folded condition are then simplified by
+ * {@link ConstantFolding}. Values loaded through char pointers are known to fit
+ * into a char, so e.g. {@code *s < 128} is always true.
+ */
+public class RangeFolding {
+    private final ConstantFolding folding = new ConstantFolding();
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass. The branches removed after
+     * a condition was folded are reported as well.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+        folding.setRemarks(remarks);
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(ast, f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param ast         The translation unit.
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final AST ast, final FunctionDefinition function, final Set<String> globalNames) {
+        final LocalVariables locals = new LocalVariables(function, globalNames);
+        final ValueRanges ranges = new ValueRanges(ast, function, locals);
+        final Statement body = new Folder(ranges, remarks).rewriteNested(function.getBody());
+        if (body == function.getBody()) {
+            return false;
+        }
+        function.setBody(body);
+        folding.run(function, globalNames);
+        return true;
+    }
+
+    private static final class Folder extends AstRewriter {
+        private final ValueRanges ranges;
+        private final RemarkEmitter remarks;
+
+        Folder(final ValueRanges ranges, final RemarkEmitter remarks) {
+            this.ranges = ranges;
+            this.remarks = remarks;
+        }
+
+        @Override
+        protected Expression rewriteBinary(final BinaryExpression e) {
+            final Expression rewritten = super.rewriteBinary(e);
+            if (!isCondition(e.getOperator().getKind())) {
+                return rewritten;
+            }
+            final Expression folded = fold(e, rewritten);
+            if (folded != null) {
+                return folded;
+            }
+            if (rewritten instanceof BinaryExpression) {
+                final Expression simplified = ConstantFolding.fold((BinaryExpression) rewritten);
+                return simplified == null ? rewritten : simplified;
+            }
+            return rewritten;
+        }
+
+        @Override
+        protected Expression rewriteUnary(final UnaryExpression e) {
+            final Expression rewritten = super.rewriteUnary(e);
+            if (e.getOperator().getKind() != TokenKind.BANG) {
+                return rewritten;
+            }
+            final Expression folded = fold(e, rewritten);
+            return folded == null ? rewritten : folded;
+        }
+
+        /**
+         * Returns the constant value of the original expression, null if it is
+         * not known or the rewritten expression has side effects.
+         */
+        private Expression fold(final Expression original, final Expression rewritten) {
+            final Interval range = ranges.getRange(original);
+            if (range == null || !range.isConstant() || Expressions.constantValue(rewritten) != null
+                    || Expressions.hasSideEffects(rewritten)) {
+                return null;
+            }
+            final Token operator = location(rewritten);
+            remarks.passed("Folded", operator, "folded '%s' to %d from the value ranges", operator.getText(),
+                    range.getLower());
+            return Expressions.number(operator, range.getLower());
+        }
+
+        private static boolean isCondition(final TokenKind kind) {
+            switch (kind) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+            case AND_AND:
+            case PIPE_PIPE:
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        private static Token location(final Expression e) {
+            if (e instanceof BinaryExpression) {
+                return ((BinaryExpression) e).getOperator();
+            }
+            return ((UnaryExpression) e).getOperator();
+        }
+    }
+}
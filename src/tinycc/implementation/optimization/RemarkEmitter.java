@@ -0,0 +1,59 @@
+package tinycc.implementation.optimization;
+
+import tinycc.diagnostic.Locatable;
+
+/**
+ * Reports the remarks of a single stage of the pipeline, see {@link Remarks}.
+ *
+ * Passes which are not run by the pass manager use {@link #NONE}, which drops
+ * everything. An emitter may be used by several threads at once.
+ */
+public final class RemarkEmitter {
+    /** The emitter which drops all remarks. */
+    public static final RemarkEmitter NONE = new RemarkEmitter(null, null, 0);
+
+    private final Remarks remarks;
+    private final String pass;
+    private final int stage;
+
+    RemarkEmitter(final Remarks remarks, final String pass, final int stage) {
+        this.remarks = remarks;
+        this.pass = pass;
+        this.stage = stage;
+    }
+
+    /**
+     * Reports a transformation.
+     *
+     * @param name     The short name of the transformation, e.g. "Inlined".
+     * @param location The location in the input program (may be null).
+     * @param fmt      The format string of the message.
+     * @param args     The arguments of the format string.
+     */
+    public void passed(final String name, final Locatable location, final String fmt, final Object... args) {
+        report(Remarks.Kind.PASSED, name, location, fmt, args);
+    }
+
+    /**
+     * Reports a transformation which was not performed.
+     *
+     * @param name     The short name of the reason, e.g. "TooLarge".
+     * @param location The location in the input program (may be null).
+     * @param fmt      The format string of the message.
+     * @param args     The arguments of the format string.
+     */
+    public void missed(final String name, final Locatable location, final String fmt, final Object... args) {
+        report(Remarks.Kind.MISSED, name, location, fmt, args);
+    }
+
+    private void report(final Remarks.Kind kind, final String name, final Locatable location, final String fmt,
+            final Object... args) {
+        if (remarks == null) {
+            return;
+        }
+        remarks.count(pass, name);
+        if (remarks.isEnabled()) {
+            remarks.add(stage, pass, kind, name, location, String.format(fmt, args));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package tinycc.implementation.optimization;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.diagnostic.Location;
+
+/**
+ * Collects the optimization remarks and transformation counters of the passes.
+ *
+ * A remark tells that a pass performed a transformation at a location of the
+ * input program (passed) or that it considered it and gave up (missed), and
+ * why. Every remark has a short name, e.g. "Inlined", by which the remarks of a
+ * pass are counted. The counters are always kept; the messages are only
+ * formatted and recorded if remarks are enabled, as formatting them costs
+ * time.
+ *
+ * The passes report through a {@link RemarkEmitter} which the pass manager
+ * creates for every stage. Functions may be optimized concurrently, so the
+ * remarks are sorted by stage and location when they are retrieved and the
+ * output does not depend on the order in which the functions were processed.
+ */
+public class Remarks {
+    /**
+     * Whether a remark reports a transformation or a missed one.
+     */
+    public enum Kind {
+        PASSED("pass"), MISSED("pass-missed");
+
+        private final String option;
+
+        Kind(final String option) {
+            this.option = option;
+        }
+
+        /** Returns the name of the option which selects remarks of this kind. */
+        public String getOption() {
+            return option;
+        }
+    }
+
+    /**
+     * A single remark.
+     */
+    public static final class Remark {
+        private final int stage;
+        private final String pass;
+        private final Kind kind;
+        private final String name;
+        private final Location location;
+        private final String message;
+
+        Remark(final int stage, final String pass, final Kind kind, final String name, final Location location,
+                final String message) {
+            this.stage = stage;
+            this.pass = pass;
+            this.kind = kind;
+            this.name = name;
+            this.location = location;
+            this.message = message;
+        }
+
+        /** Returns the name of the pass which reported the remark. */
+        public String getPass() {
+            return pass;
+        }
+
+        /** Returns whether the transformation was performed. */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** Returns the short name of the remark, e.g. "Inlined". */
+        public String getName() {
+            return name;
+        }
+
+        /** Returns the location in the input program, null if unknown. */
+        public Location getLocation() {
+            return location;
+        }
+
+        /** Returns the message. */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static final Comparator<Remark> ORDER = Comparator.<Remark>comparingInt(r -> r.stage)
+            .thenComparing(r -> r.location == null ? "" : r.location.getInputName())
+            .thenComparingInt(r -> r.location == null ? 0 : r.location.getLine())
+            .thenComparingInt(r -> r.location == null ? 0 : r.location.getColumn())
+            .thenComparing(r -> r.kind)
+            .thenComparing(r -> r.name)
+            .thenComparing(r -> r.message);
+
+    private final List<Remark> remarks = new ArrayList<>();
+    private final Map<String, Map<String, Integer>> counters = new LinkedHashMap<>();
+    private boolean enabled = false;
+    private int stages = 0;
+
+    /**
+     * Enables or disables the recording of the remark messages.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns true if the remark messages are recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the emitter for the next stage of the pipeline.
+     *
+     * @param pass The name of the pass of the stage.
+     * @return The emitter.
+     */
+    public synchronized RemarkEmitter emitter(final String pass) {
+        counters.computeIfAbsent(pass, p -> new TreeMap<>());
+        return new RemarkEmitter(this, pass, stages++);
+    }
+
+    synchronized void count(final String pass, final String name) {
+        counters.computeIfAbsent(pass, p -> new TreeMap<>()).merge(name, 1, Integer::sum);
+    }
+
+    synchronized void add(final int stage, final String pass, final Kind kind, final String name,
+            final Locatable location, final String message) {
+        remarks.add(new Remark(stage, pass, kind, name, location == null ? null : new Location(location),
+                message));
+    }
+
+    /**
+     * Returns the recorded remarks ordered by stage and location.
+     */
+    public synchronized List<Remark> getRemarks() {
+        final List<Remark> sorted = new ArrayList<>(remarks);
+        sorted.sort(ORDER);
+        return sorted;
+    }
+
+    /**
+     * Returns the number of remarks per pass and remark name. The passes are
+     * in the order of their first stage, the names are sorted.
+     */
+    public synchronized Map<String, Map<String, Integer>> getCounters() {
+        final Map<String, Map<String, Integer>> copy = new LinkedHashMap<>();
+        for (final Map.Entry<String, Map<String, Integer>> e : counters.entrySet()) {
+            copy.put(e.getKey(), new TreeMap<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Prints the remarks of the passes whose names match a pattern in the
+     * format of the diagnostics, e.g.
+     * {@code t.c:3:5: remark: 'f' inlined into 'main' [-Rpass=function-inlining]}.
+     *
+     * @param out    The stream to print to.
+     * @param passed The pattern for the passes whose transformations are
+     *               printed, null for none.
+     * @param missed The pattern for the passes whose missed transformations
+     *               are printed, null for none.
+     */
+    public void print(final PrintStream out, final Pattern passed, final Pattern missed) {
+        for (final Remark r : getRemarks()) {
+            final Pattern pattern = r.kind == Kind.PASSED ? passed : missed;
+            if (pattern == null || !pattern.matcher(r.pass).find()) {
+                continue;
+            }
+            if (r.location != null) {
+                final int line = r.location.getLine();
+                final int column = r.location.getColumn();
+                final String locFmt = column != 0 ? "%s:%d:%d: " : line != 0 ? "%s:%d: " : "%s: ";
+                out.printf(locFmt, r.location.getInputName(), line, column);
+            }
+            out.printf("remark: %s [-R%s=%s]%n", r.message, r.kind.getOption(), r.pass);
+        }
+    }
+}
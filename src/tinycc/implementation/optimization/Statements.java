@@ -0,0 +1,228 @@
+package tinycc.implementation.optimization;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+
+/**
+ * Helper functions to inspect statements for the optimization passes.
+ */
+public final class Statements {
+    private Statements() {
+    }
+
+    /**
+     * Returns the location of the given statement. Declarations use the location
+     * of the declared name.
+     *
+     * @param s The statement.
+     * @return The location of the statement.
+     */
+    public static Locatable location(final Statement s) {
+        if (s instanceof BlockStatement) {
+            return ((BlockStatement) s).getLocation();
+        }
+        if (s instanceof DeclarationStatement) {
+            return ((DeclarationStatement) s).getName();
+        }
+        if (s instanceof ExpressionStatement) {
+            return ((ExpressionStatement) s).getLocation();
+        }
+        if (s instanceof IfStatement) {
+            return ((IfStatement) s).getLocation();
+        }
+        if (s instanceof ReturnStatement) {
+            return ((ReturnStatement) s).getLocation();
+        }
+        if (s instanceof WhileStatement) {
+            return ((WhileStatement) s).getLocation();
+        }
+        throw new IllegalArgumentException("unknown statement " + s);
+    }
+
+    /**
+     * Returns true if control never flows from the end of the statement to the
+     * next one, i.e. every path through the statement ends in a return or an
+     * endless loop.
+     *
+     * @param s The statement to inspect.
+     * @return True if the statement never completes normally.
+     */
+    public static boolean neverCompletes(final Statement s) {
+        if (s instanceof ReturnStatement) {
+            return true;
+        }
+        if (s instanceof BlockStatement) {
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                if (neverCompletes(inner)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            return i.getAlternative() != null && neverCompletes(i.getConsequence())
+                    && neverCompletes(i.getAlternative());
+        }
+        if (s instanceof WhileStatement) {
+            final Integer c = Expressions.constantValue(((WhileStatement) s).getCondition());
+            return c != null && c != 0;
+        }
+        return false;
+    }
+
+    /**
+     * Calls the given consumer for every expression directly or indirectly
+     * contained in the statement.
+     *
+     * @param s        The statement to inspect (may be null).
+     * @param consumer The consumer to call.
+     */
+    public static void forEachExpression(final Statement s, final Consumer<Expression> consumer) {
+        if (s instanceof BlockStatement) {
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                forEachExpression(inner, consumer);
+            }
+        } else if (s instanceof DeclarationStatement) {
+            final Expression init = ((DeclarationStatement) s).getInit();
+            if (init != null) {
+                consumer.accept(init);
+            }
+        } else if (s instanceof ExpressionStatement) {
+            consumer.accept(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            consumer.accept(i.getCondition());
+            forEachExpression(i.getConsequence(), consumer);
+            forEachExpression(i.getAlternative(), consumer);
+        } else if (s instanceof ReturnStatement) {
+            final Expression e = ((ReturnStatement) s).getExpression();
+            if (e != null) {
+                consumer.accept(e);
+            }
+        } else if (s instanceof WhileStatement) {
+            consumer.accept(((WhileStatement) s).getCondition());
+            forEachExpression(((WhileStatement) s).getBody(), consumer);
+        }
+    }
+
+    /**
+     * Calls the given consumer for every declaration directly or indirectly
+     * contained in the statement.
+     *
+     * @param s        The statement to inspect (may be null).
+     * @param consumer The consumer to call.
+     */
+    public static void forEachDeclaration(final Statement s, final Consumer<DeclarationStatement> consumer) {
+        if (s instanceof BlockStatement) {
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                forEachDeclaration(inner, consumer);
+            }
+        } else if (s instanceof DeclarationStatement) {
+            consumer.accept((DeclarationStatement) s);
+        } else if (s instanceof IfStatement) {
+            forEachDeclaration(((IfStatement) s).getConsequence(), consumer);
+            forEachDeclaration(((IfStatement) s).getAlternative(), consumer);
+        } else if (s instanceof WhileStatement) {
+            forEachDeclaration(((WhileStatement) s).getBody(), consumer);
+        }
+    }
+
+    /**
+     * Adds the names of all identifiers mentioned in the statement to the given
+     * set.
+     */
+    public static void collectNames(final Statement s, final Set<String> out) {
+        forEachExpression(s, e -> Expressions.collectNames(e, out));
+    }
+
+    /**
+     * Adds the names of all variables written by the statement to the given set.
+     * Declarations with an initializer count as writes.
+     */
+    public static void collectAssignedNames(final Statement s, final Set<String> out) {
+        forEachExpression(s, e -> Expressions.collectAssignedNames(e, out));
+        forEachDeclaration(s, d -> {
+            if (d.getInit() != null) {
+                out.add(d.getName().getText());
+            }
+        });
+    }
+
+    /**
+     * Adds the names of all variables whose address is taken in the statement to
+     * the given set.
+     */
+    public static void collectAddressTaken(final Statement s, final Set<String> out) {
+        forEachExpression(s, e -> Expressions.collectAddressTaken(e, out));
+    }
+
+    /**
+     * Returns true if the statement contains a return statement.
+     */
+    public static boolean containsReturn(final Statement s) {
+        if (s instanceof ReturnStatement) {
+            return true;
+        }
+        if (s instanceof BlockStatement) {
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                if (containsReturn(inner)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s instanceof IfStatement) {
+            return containsReturn(((IfStatement) s).getConsequence())
+                    || containsReturn(((IfStatement) s).getAlternative());
+        }
+        if (s instanceof WhileStatement) {
+            return containsReturn(((WhileStatement) s).getBody());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of AST nodes of the statement, counting statements and
+     * expressions.
+     *
+     * @param s The statement (may be null).
+     * @return The number of nodes.
+     */
+    public static int size(final Statement s) {
+        if (s == null) {
+            return 0;
+        }
+        final int[] n = { 0 };
+        forEachExpression(s, e -> n[0] += Expressions.size(e));
+        return n[0] + countStatements(s);
+    }
+
+    private static int countStatements(final Statement s) {
+        if (s instanceof BlockStatement) {
+            int n = 1;
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                n += countStatements(inner);
+            }
+            return n;
+        }
+        if (s instanceof IfStatement) {
+            return 1 + countStatements(((IfStatement) s).getConsequence())
+                    + countStatements(((IfStatement) s).getAlternative());
+        }
+        if (s instanceof WhileStatement) {
+            return 1 + countStatements(((WhileStatement) s).getBody());
+        }
+        return s == null ? 0 : 1;
+    }
+}
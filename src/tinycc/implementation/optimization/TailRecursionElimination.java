@@ -0,0 +1,427 @@
+package tinycc.implementation.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Turns self-recursive calls in tail position into loops.
+ *
+ * A return of a call of the function itself becomes an assignment of the
+ * arguments to the parameters followed by a jump to the start of the body,
+ * which is expressed by wrapping the body into an endless loop. A return of
+ * {@code e op f(args)} with an associative and commutative operator is handled
+ * the same way by collecting {@code e} in an accumulator, which is combined
+ * with the value of every other return:
+ *
+ * <pre>
+ *     int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); }
+ * becomes
+ *     int fact(int n) {
+ *         int __tre0 = 1;
+ *         while (1) { if (n <= 1) return __tre0 * 1; else { int __tre1 = n - 1; __tre0 = __tre0 * n; n = __tre1; } }
+ *     }
+ * </pre>
+ *
+ * There are neither gotos nor continue statements, so the body is first
+ * brought into a form in which every return is the last statement of its path:
+ * statements following an if statement with a returning branch are moved into
+ * the other branch. Calls inside loops are left alone. Functions taking the
+ * address of a variable are not transformed, since their variables would be
+ * shared by all recursion levels.
+ */
+public class TailRecursionElimination {
+    private RemarkEmitter remarks = RemarkEmitter.NONE;
+
+    /**
+     * Sets the emitter for the remarks of the pass.
+     *
+     * @param remarks The emitter.
+     */
+    public void setRemarks(final RemarkEmitter remarks) {
+        this.remarks = remarks;
+    }
+
+    /**
+     * Runs the pass on the whole translation unit.
+     *
+     * @param ast The translation unit.
+     * @return True if the program was changed.
+     */
+    public boolean run(final AST ast) {
+        final Set<String> globalNames = LocalVariables.globalNames(ast);
+        boolean changed = false;
+        for (final FunctionDefinition f : ast.getFunctionDefinitions()) {
+            changed |= run(f, globalNames);
+        }
+        return changed;
+    }
+
+    /**
+     * Runs the pass on a single function.
+     *
+     * @param function    The function to optimize.
+     * @param globalNames The names of all global symbols of the translation unit.
+     * @return True if the function was changed.
+     */
+    public boolean run(final FunctionDefinition function, final Set<String> globalNames) {
+        final FunctionType type = (FunctionType) function.getType();
+        final Set<String> addressTaken = new HashSet<>();
+        Statements.collectAddressTaken(function.getBody(), addressTaken);
+        if (!addressTaken.isEmpty() || !(function.getBody() instanceof BlockStatement)) {
+            return false;
+        }
+        for (final Token p : function.getParameterNames()) {
+            if (p == null) {
+                return false;
+            }
+        }
+        List<Statement> statements = ((BlockStatement) function.getBody()).getStatements();
+        if (isVoid(type.getReturnType())) {
+            // Falling off the end must leave the loop as well.
+            statements = new ArrayList<>(statements);
+            statements.add(new ReturnStatement(((BlockStatement) function.getBody()).getLocation(), null));
+        } else if (!Statements.neverCompletes(function.getBody())) {
+            return false;
+        }
+
+        final BlockStatement body = new BlockStatement(((BlockStatement) function.getBody()).getLocation(),
+                normalize(statements));
+        final Transformer transformer = new Transformer(function, new TemporaryNames(function, globalNames));
+        transformer.findOperator(body);
+        if (!transformer.found) {
+            return false;
+        }
+        final Locatable loc = body.getLocation();
+        final List<Statement> result = new ArrayList<>();
+        if (transformer.operator != null) {
+            result.add(new DeclarationStatement(type.getReturnType(),
+                    new Token(loc, TokenKind.IDENTIFIER, transformer.accumulator),
+                    Expressions.number(loc, identity(transformer.operator))));
+        }
+        result.add(new WhileStatement(loc, Expressions.number(loc, 1), transformer.rewriteTail(body)));
+        function.setBody(new BlockStatement(loc, result));
+        if (transformer.operator != null) {
+            remarks.passed("Eliminated", function.getName(),
+                    "tail recursion of '%s' turned into a loop with an accumulator for '%s'",
+                    function.getName().getText(), transformer.operator.getText());
+        } else {
+            remarks.passed("Eliminated", function.getName(), "tail recursion of '%s' turned into a loop",
+                    function.getName().getText());
+        }
+        return true;
+    }
+
+    /**
+     * Moves the statements following an if statement with a branch which never
+     * completes into the other branch, and drops statements which follow a
+     * statement that never completes.
+     */
+    private static List<Statement> normalize(final List<Statement> statements) {
+        final List<Statement> result = new ArrayList<>();
+        for (int i = 0; i < statements.size(); ++i) {
+            final Statement s = normalize(statements.get(i));
+            result.add(s);
+            if (Statements.neverCompletes(s)) {
+                return result;
+            }
+            final List<Statement> rest = statements.subList(i + 1, statements.size());
+            if (!(s instanceof IfStatement) || rest.isEmpty()) {
+                continue;
+            }
+            final IfStatement branch = (IfStatement) s;
+            final Locatable loc = branch.getLocation();
+            if (rest.size() == 1 && isSimpleReturn(rest.get(0))) {
+                // A final return is copied into both branches.
+                result.set(result.size() - 1, new IfStatement(loc, branch.getCondition(),
+                        append(branch.getConsequence(), rest.get(0)),
+                        append(branch.getAlternative(), rest.get(0))));
+                return result;
+            }
+            if (Statements.neverCompletes(branch.getConsequence())) {
+                final List<Statement> other = new ArrayList<>();
+                if (branch.getAlternative() != null) {
+                    other.add(branch.getAlternative());
+                }
+                other.addAll(rest);
+                result.set(result.size() - 1, new IfStatement(loc, branch.getCondition(), branch.getConsequence(),
+                        new BlockStatement(loc, normalize(other))));
+                return result;
+            }
+            if (branch.getAlternative() != null && Statements.neverCompletes(branch.getAlternative())) {
+                final List<Statement> other = new ArrayList<>();
+                other.add(branch.getConsequence());
+                other.addAll(rest);
+                result.set(result.size() - 1, new IfStatement(loc, branch.getCondition(),
+                        new BlockStatement(loc, normalize(other)), branch.getAlternative()));
+                return result;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSimpleReturn(final Statement s) {
+        if (!(s instanceof ReturnStatement)) {
+            return false;
+        }
+        final Expression e = ((ReturnStatement) s).getExpression();
+        return e == null || Expressions.identifierName(e) != null || Expressions.constantValue(e) != null;
+    }
+
+    private static Statement append(final Statement s, final Statement last) {
+        final List<Statement> statements = new ArrayList<>();
+        if (s instanceof BlockStatement) {
+            statements.addAll(((BlockStatement) s).getStatements());
+        } else if (s != null) {
+            statements.add(s);
+        }
+        if (s == null || !Statements.neverCompletes(s)) {
+            statements.add(last);
+        }
+        return normalize(new BlockStatement(Statements.location(last), statements));
+    }
+
+    private static Statement normalize(final Statement s) {
+        if (s instanceof BlockStatement) {
+            final BlockStatement b = (BlockStatement) s;
+            return new BlockStatement(b.getLocation(), normalize(b.getStatements()));
+        }
+        if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            return new IfStatement(i.getLocation(), i.getCondition(), normalize(i.getConsequence()),
+                    i.getAlternative() == null ? null : normalize(i.getAlternative()));
+        }
+        return s;
+    }
+
+    private static final class Transformer extends AstRewriter {
+        private final FunctionDefinition function;
+        private final TemporaryNames names;
+        private final String accumulator;
+        private final boolean integerResult;
+        TokenKind operator;
+        boolean found = false;
+
+        Transformer(final FunctionDefinition function, final TemporaryNames names) {
+            this.function = function;
+            this.names = names;
+            this.accumulator = names.next("tre");
+            final Type result = ((FunctionType) function.getType()).getReturnType();
+            this.integerResult = result instanceof BaseType && ((BaseType) result).getKind() == TokenKind.INT;
+        }
+
+        /**
+         * Finds the tail calls and decides on the operator of the accumulator.
+         */
+        void findOperator(final Statement s) {
+            if (s instanceof BlockStatement) {
+                final List<Statement> statements = ((BlockStatement) s).getStatements();
+                if (voidTailCall(statements) != null) {
+                    found = true;
+                } else if (!statements.isEmpty()) {
+                    findOperator(statements.get(statements.size() - 1));
+                }
+            } else if (s instanceof IfStatement) {
+                findOperator(((IfStatement) s).getConsequence());
+                findOperator(((IfStatement) s).getAlternative());
+            } else if (s instanceof ReturnStatement) {
+                final Expression e = ((ReturnStatement) s).getExpression();
+                if (selfCall(e) != null) {
+                    found = true;
+                } else if (operator == null && accumulation(e) != null) {
+                    found = true;
+                    operator = ((BinaryExpression) e).getOperator().getKind();
+                }
+            }
+        }
+
+        /**
+         * Rewrites a statement in tail position.
+         */
+        Statement rewriteTail(final Statement s) {
+            if (s instanceof BlockStatement) {
+                final BlockStatement b = (BlockStatement) s;
+                final List<Statement> statements = new ArrayList<>();
+                final CallExpression call = voidTailCall(b.getStatements());
+                if (call != null) {
+                    // f(args); return;
+                    final int n = b.getStatements().size() - 2;
+                    for (final Statement inner : b.getStatements().subList(0, n)) {
+                        final Statement r = rewrite(inner);
+                        if (r != null) {
+                            statements.add(r);
+                        }
+                    }
+                    statements.add(jump(b.getLocation(), call, null));
+                    return new BlockStatement(b.getLocation(), statements);
+                }
+                for (int i = 0; i < b.getStatements().size(); ++i) {
+                    final Statement inner = b.getStatements().get(i);
+                    final Statement r = i == b.getStatements().size() - 1 ? rewriteTail(inner) : rewrite(inner);
+                    if (r != null) {
+                        statements.add(r);
+                    }
+                }
+                return new BlockStatement(b.getLocation(), statements);
+            }
+            if (s instanceof IfStatement) {
+                final IfStatement i = (IfStatement) s;
+                return new IfStatement(i.getLocation(), i.getCondition(), rewriteTail(i.getConsequence()),
+                        i.getAlternative() == null ? null : rewriteTail(i.getAlternative()));
+            }
+            if (s instanceof ReturnStatement) {
+                final ReturnStatement r = (ReturnStatement) s;
+                CallExpression call = selfCall(r.getExpression());
+                if (call != null) {
+                    return jump(r.getLocation(), call, null);
+                }
+                call = accumulation(r.getExpression());
+                if (call != null && ((BinaryExpression) r.getExpression()).getOperator().getKind() == operator) {
+                    final BinaryExpression b = (BinaryExpression) r.getExpression();
+                    return jump(r.getLocation(), call, b.getLeft() == call ? b.getRight() : b.getLeft());
+                }
+            }
+            return rewrite(s);
+        }
+
+        /**
+         * Combines the value of an ordinary return with the accumulator.
+         */
+        @Override
+        protected Statement rewriteReturn(final ReturnStatement s) {
+            if (operator == null || s.getExpression() == null) {
+                return s;
+            }
+            final Locatable loc = s.getLocation();
+            return new ReturnStatement(loc, Expressions.binary(loc, operator, Expressions.identifier(loc, accumulator),
+                    s.getExpression()));
+        }
+
+        /**
+         * Assigns the arguments to the parameters and accumulates the given value.
+         */
+        private Statement jump(final Locatable loc, final CallExpression call, final Expression value) {
+            final FunctionType type = (FunctionType) function.getType();
+            final List<Token> parameters = function.getParameterNames();
+            final List<Statement> block = new ArrayList<>();
+            final List<String> temporaries = new ArrayList<>();
+            for (int i = 0; i < parameters.size(); ++i) {
+                final Expression arg = call.getArguments().get(i);
+                if (parameters.get(i).getText().equals(Expressions.identifierName(arg))) {
+                    temporaries.add(null);
+                    continue;
+                }
+                final String name = names.next("tre");
+                temporaries.add(name);
+                block.add(new DeclarationStatement(type.getParameters().get(i),
+                        new Token(loc, TokenKind.IDENTIFIER, name), arg));
+            }
+            if (value != null) {
+                block.add(new ExpressionStatement(loc, Expressions.assign(loc, accumulator,
+                        Expressions.binary(loc, operator, Expressions.identifier(loc, accumulator), value))));
+            }
+            for (int i = 0; i < parameters.size(); ++i) {
+                if (temporaries.get(i) != null) {
+                    block.add(new ExpressionStatement(loc, Expressions.assign(loc, parameters.get(i).getText(),
+                            Expressions.identifier(loc, temporaries.get(i)))));
+                }
+            }
+            return new BlockStatement(loc, block);
+        }
+
+        /**
+         * Returns the call if the statements end with {@code f(args); return;}.
+         */
+        private CallExpression voidTailCall(final List<Statement> statements) {
+            final int n = statements.size();
+            if (n < 2 || !(statements.get(n - 1) instanceof ReturnStatement)
+                    || ((ReturnStatement) statements.get(n - 1)).getExpression() != null
+                    || !(statements.get(n - 2) instanceof ExpressionStatement)) {
+                return null;
+            }
+            return selfCall(((ExpressionStatement) statements.get(n - 2)).getExpression());
+        }
+
+        /**
+         * Returns the call if the expression is a call of the function itself.
+         */
+        private CallExpression selfCall(final Expression e) {
+            if (!(e instanceof CallExpression)) {
+                return null;
+            }
+            final CallExpression call = (CallExpression) e;
+            if (!function.getName().getText().equals(Expressions.identifierName(call.getCallee()))
+                    || call.getArguments().size() != function.getParameterNames().size()) {
+                return null;
+            }
+            return call;
+        }
+
+        /**
+         * Returns the recursive call if the expression is {@code e op f(args)} or
+         * {@code f(args) op e} with an associative and commutative operator and
+         * {@code e} not calling the function.
+         */
+        private CallExpression accumulation(final Expression e) {
+            if (!integerResult || !(e instanceof BinaryExpression) || !isAccumulating(
+                    ((BinaryExpression) e).getOperator().getKind())) {
+                return null;
+            }
+            final BinaryExpression b = (BinaryExpression) e;
+            final CallExpression left = selfCall(b.getLeft());
+            final CallExpression right = selfCall(b.getRight());
+            final CallExpression call = left != null ? left : right;
+            final Expression other = left != null ? b.getRight() : b.getLeft();
+            if (call == null || callsFunction(other)) {
+                return null;
+            }
+            return call;
+        }
+
+        private boolean callsFunction(final Expression e) {
+            final Set<String> used = new HashSet<>();
+            Expressions.collectNames(e, used);
+            return used.contains(function.getName().getText());
+        }
+    }
+
+    private static boolean isAccumulating(final TokenKind kind) {
+        switch (kind) {
+        case PLUS:
+        case ASTERISK:
+        case PIPE:
+        case HAT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static int identity(final TokenKind kind) {
+        return kind == TokenKind.ASTERISK ? 1 : 0;
+    }
+
+    private static boolean isVoid(final Type t) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.VOID;
+    }
+}
@@ -0,0 +1,51 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.parser.Token;
+
+/**
+ * Generates names for compiler temporaries of a function which do not clash
+ * with any name used in the function or the translation unit.
+ *
+ * The generated names start with two underscores, which C reserves for the
+ * implementation. Names only depend on the function, so the result of a pass
+ * is deterministic.
+ */
+public class TemporaryNames {
+    private final Set<String> used = new HashSet<>();
+    private int counter = 0;
+
+    /**
+     * Collects the names used by the given function.
+     *
+     * @param function    The function.
+     * @param globalNames The names of all global symbols of the translation unit.
+     */
+    public TemporaryNames(final FunctionDefinition function, final Set<String> globalNames) {
+        used.addAll(globalNames);
+        for (final Token p : function.getParameterNames()) {
+            if (p != null) {
+                used.add(p.getText());
+            }
+        }
+        Statements.forEachDeclaration(function.getBody(), d -> used.add(d.getName().getText()));
+        Statements.collectNames(function.getBody(), used);
+    }
+
+    /**
+     * Returns a fresh name.
+     *
+     * @param prefix A short description of the temporary, e.g. "licm".
+     * @return A name which is not used yet.
+     */
+    public String next(final String prefix) {
+        String name;
+        do {
+            name = "__" + prefix + counter++;
+        } while (!used.add(name));
+        return name;
+    }
+}
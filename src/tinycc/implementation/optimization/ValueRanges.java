@@ -0,0 +1,710 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Computes the ranges of the int and char values of a function by abstract
+ * interpretation with intervals.
+ *
+ * The analysis follows the structured control flow of the AST: the state maps
+ * every tracked int or char variable to an {@link Interval}, branches are
+ * joined, and the conditions of if and while statements restrict the ranges of
+ * the variables they compare. At a while loop head the states are widened, so
+ * the iteration terminates, and narrowed afterwards to recover the bounds the
+ * loop condition implies. Values loaded from memory, returned by calls or read
+ * from untracked variables are only known by their type, e.g. a char is always
+ * within {@link Interval#CHAR}, as it is loaded sign-extended.
+ *
+ * The results are available for every expression and statement of the
+ * function which may be reached. They are a snapshot of the body they were
+ * computed for.
+ */
+public class ValueRanges {
+    /** The number of iterations at a loop head before widening. */
+    private static final int WIDENING_DELAY = 2;
+    /** The number of narrowing iterations at a loop head. */
+    private static final int NARROWING_STEPS = 2;
+
+    private final LocalVariables locals;
+    private final ExpressionTypes types;
+    private final Map<WhileStatement, State> heads = new IdentityHashMap<>();
+    private final Map<Expression, Interval> expressions = new IdentityHashMap<>();
+    private final Map<Statement, State> statements = new IdentityHashMap<>();
+    private boolean recording = false;
+
+    /**
+     * The abstract state: the ranges of the tracked variables in scope.
+     * Variables without an entry may have any value.
+     */
+    private static final class State {
+        final Map<String, Interval> ranges;
+
+        State(final Map<String, Interval> ranges) {
+            this.ranges = ranges;
+        }
+
+        State copy() {
+            return new State(new HashMap<>(ranges));
+        }
+
+        Interval get(final String name) {
+            return ranges.get(name);
+        }
+
+        /** Joins two states, null stands for an unreachable state. */
+        static State join(final State a, final State b) {
+            if (a == null) {
+                return b == null ? null : b.copy();
+            }
+            if (b == null) {
+                return a.copy();
+            }
+            final Map<String, Interval> ranges = new HashMap<>();
+            // Variables which are only in scope in one of the states are dropped.
+            for (final Map.Entry<String, Interval> e : a.ranges.entrySet()) {
+                final Interval other = b.ranges.get(e.getKey());
+                if (other != null) {
+                    ranges.put(e.getKey(), e.getValue().join(other));
+                }
+            }
+            return new State(ranges);
+        }
+
+        State widen(final State next) {
+            final Map<String, Interval> ranges = new HashMap<>();
+            for (final Map.Entry<String, Interval> e : this.ranges.entrySet()) {
+                final Interval other = next.ranges.get(e.getKey());
+                if (other != null) {
+                    ranges.put(e.getKey(), e.getValue().widen(other));
+                }
+            }
+            return new State(ranges);
+        }
+
+        State narrow(final State next) {
+            final Map<String, Interval> ranges = new HashMap<>();
+            for (final Map.Entry<String, Interval> e : this.ranges.entrySet()) {
+                final Interval other = next.ranges.get(e.getKey());
+                ranges.put(e.getKey(), other == null ? e.getValue() : e.getValue().narrow(other));
+            }
+            return new State(ranges);
+        }
+
+        /** Returns true if every state described by this is described by the other. */
+        boolean isSubsetOf(final State other) {
+            for (final Map.Entry<String, Interval> e : other.ranges.entrySet()) {
+                final Interval range = ranges.get(e.getKey());
+                if (range == null || !range.isSubsetOf(e.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof State && ranges.equals(((State) o).ranges);
+        }
+
+        @Override
+        public int hashCode() {
+            return ranges.hashCode();
+        }
+    }
+
+    /**
+     * Analyzes the given function.
+     *
+     * @param ast      The translation unit.
+     * @param function The function to analyze.
+     * @param locals   The tracked locals of the function.
+     */
+    public ValueRanges(final AST ast, final FunctionDefinition function, final LocalVariables locals) {
+        this.locals = locals;
+        this.types = new ExpressionTypes(ast, function, locals);
+
+        final State entry = new State(new HashMap<>());
+        final FunctionType type = (FunctionType) function.getType();
+        for (int i = 0; i < function.getParameterNames().size(); ++i) {
+            final Token p = function.getParameterNames().get(i);
+            if (p != null && isTracked(p.getText())) {
+                entry.ranges.put(p.getText(), rangeOfType(type.getParameters().get(i)));
+            }
+        }
+        // The first run computes the invariants of the loop heads, the second
+        // one records the ranges using them.
+        execute(function.getBody(), entry.copy());
+        recording = true;
+        execute(function.getBody(), entry);
+    }
+
+    /**
+     * Returns the range of the values of an expression.
+     *
+     * @param e An expression of the analyzed function.
+     * @return The range or null if the expression is never evaluated.
+     */
+    public Interval getRange(final Expression e) {
+        return expressions.get(e);
+    }
+
+    /**
+     * Returns the range of a variable before a statement is executed.
+     *
+     * @param s    A statement of the analyzed function.
+     * @param name The name of a variable.
+     * @return The range, {@link Interval#TOP} if nothing is known about the
+     *         variable, or null if the statement is never executed.
+     */
+    public Interval getRange(final Statement s, final String name) {
+        final State state = statements.get(s);
+        if (state == null) {
+            return null;
+        }
+        final Interval range = state.get(name);
+        return range == null ? Interval.TOP : range;
+    }
+
+    /**
+     * Returns the range of a variable at the head of a loop, which holds before
+     * every evaluation of its condition.
+     *
+     * @param w    A loop of the analyzed function.
+     * @param name The name of a variable.
+     * @return The range, {@link Interval#TOP} if nothing is known about the
+     *         variable, or null if the loop is never executed.
+     */
+    public Interval getLoopRange(final WhileStatement w, final String name) {
+        final State head = heads.get(w);
+        if (head == null || !statements.containsKey(w)) {
+            return null;
+        }
+        final Interval range = head.get(name);
+        return range == null ? Interval.TOP : range;
+    }
+
+    /**
+     * Returns true if the statement may be executed.
+     */
+    public boolean isReachable(final Statement s) {
+        return statements.containsKey(s);
+    }
+
+    private boolean isTracked(final String name) {
+        return locals.isTracked(name) && rangeOfType(types.typeOfVariable(name)) != null;
+    }
+
+    /**
+     * Returns the range of the values of a type, null if it is not an integer
+     * type.
+     */
+    private static Interval rangeOfType(final Type t) {
+        if (!(t instanceof BaseType)) {
+            return null;
+        }
+        switch (((BaseType) t).getKind()) {
+        case INT:
+            return Interval.TOP;
+        case CHAR:
+            return Interval.CHAR;
+        default:
+            return null;
+        }
+    }
+
+    private Interval rangeOf(final Expression e) {
+        final Type t = types.typeOf(e);
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.CHAR ? Interval.CHAR : Interval.TOP;
+    }
+
+    /**
+     * Executes a statement abstractly.
+     *
+     * @param s     The statement.
+     * @param state The state before the statement, null if it is unreachable.
+     *              The state is modified.
+     * @return The state after the statement, null if it does not complete.
+     */
+    private State execute(final Statement s, final State state) {
+        if (state == null) {
+            return null;
+        }
+        if (recording) {
+            statements.put(s, State.join(statements.get(s), state));
+        }
+        if (s instanceof BlockStatement) {
+            State current = state;
+            for (final Statement inner : ((BlockStatement) s).getStatements()) {
+                current = execute(inner, current);
+            }
+            return current;
+        }
+        if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            final String name = d.getName().getText();
+            final Interval value = d.getInit() == null ? null : evaluate(d.getInit(), state);
+            if (isTracked(name)) {
+                final Interval range = rangeOfType(d.getType());
+                state.ranges.put(name, value == null ? range : convert(d.getType(), value));
+            }
+            return state;
+        }
+        if (s instanceof ExpressionStatement) {
+            evaluate(((ExpressionStatement) s).getExpression(), state);
+            return state;
+        }
+        if (s instanceof ReturnStatement) {
+            final Expression e = ((ReturnStatement) s).getExpression();
+            if (e != null) {
+                evaluate(e, state);
+            }
+            return null;
+        }
+        if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            final Interval condition = evaluate(i.getCondition(), state);
+            final State whenTrue = condition.isAlwaysFalse() ? null : refine(i.getCondition(), true, state.copy());
+            final State whenFalse = condition.isAlwaysTrue() ? null : refine(i.getCondition(), false, state);
+            final State afterTrue = execute(i.getConsequence(), whenTrue);
+            final State afterFalse = i.getAlternative() == null ? whenFalse : execute(i.getAlternative(), whenFalse);
+            return State.join(afterTrue, afterFalse);
+        }
+        if (s instanceof WhileStatement) {
+            return executeWhile((WhileStatement) s, state);
+        }
+        return state;
+    }
+
+    private State executeWhile(final WhileStatement w, final State entry) {
+        State head = heads.get(w);
+        if (!recording || head == null || !entry.isSubsetOf(head)) {
+            final boolean wasRecording = recording;
+            recording = false;
+            head = loopHead(w, entry);
+            recording = wasRecording;
+            heads.put(w, head);
+        }
+        final State state = head.copy();
+        final Interval condition = evaluate(w.getCondition(), state);
+        if (!condition.isAlwaysFalse()) {
+            execute(w.getBody(), refine(w.getCondition(), true, state.copy()));
+        }
+        return condition.isAlwaysTrue() ? null : refine(w.getCondition(), false, state);
+    }
+
+    /**
+     * Computes the state at the head of the loop, which holds before every
+     * evaluation of its condition.
+     */
+    private State loopHead(final WhileStatement w, final State entry) {
+        State head = entry.copy();
+        for (int iteration = 0;; ++iteration) {
+            State next = State.join(entry, iterate(w, head));
+            if (iteration >= WIDENING_DELAY) {
+                next = head.widen(next);
+            }
+            if (next.equals(head)) {
+                break;
+            }
+            head = next;
+        }
+        for (int i = 0; i < NARROWING_STEPS; ++i) {
+            head = head.narrow(State.join(entry, iterate(w, head)));
+        }
+        // Leave the invariants of the inner loops for this head.
+        iterate(w, head);
+        return head;
+    }
+
+    /**
+     * Executes the condition and body of a loop once.
+     *
+     * @return The state at the end of the body, null if it is not reached.
+     */
+    private State iterate(final WhileStatement w, final State head) {
+        final State state = head.copy();
+        final Interval condition = evaluate(w.getCondition(), state);
+        if (condition.isAlwaysFalse()) {
+            return null;
+        }
+        return execute(w.getBody(), refine(w.getCondition(), true, state));
+    }
+
+    /**
+     * Evaluates an expression abstractly and applies its side effects to the
+     * state.
+     */
+    private Interval evaluate(final Expression e, final State state) {
+        final Interval range = evaluateExpression(e, state);
+        if (recording) {
+            final Interval old = expressions.get(e);
+            expressions.put(e, old == null ? range : old.join(range));
+        }
+        return range;
+    }
+
+    private Interval evaluateExpression(final Expression e, final State state) {
+        final Integer value = Expressions.constantValue(e);
+        if (value != null) {
+            return Interval.constant(value);
+        }
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            final Interval range = state.get(name);
+            return range != null ? range : rangeOf(e);
+        }
+        if (e instanceof BinaryExpression) {
+            return evaluateBinary((BinaryExpression) e, state);
+        }
+        if (e instanceof UnaryExpression) {
+            return evaluateUnary((UnaryExpression) e, state);
+        }
+        if (e instanceof CallExpression) {
+            for (final Expression arg : ((CallExpression) e).getArguments()) {
+                evaluate(arg, state);
+            }
+            return rangeOf(e);
+        }
+        if (e instanceof ConditionalExpression) {
+            return evaluateConditional((ConditionalExpression) e, state);
+        }
+        return Interval.TOP;
+    }
+
+    private Interval evaluateConditional(final ConditionalExpression c, final State state) {
+        final Interval condition = evaluate(c.getCondition(), state);
+        final State thenState = condition.isAlwaysFalse() ? null : refine(c.getCondition(), true, state.copy());
+        final State elseState = condition.isAlwaysTrue() ? null : refine(c.getCondition(), false, state.copy());
+        Interval result = null;
+        if (thenState != null) {
+            result = evaluate(c.getConsequence(), thenState);
+        }
+        if (elseState != null) {
+            final Interval alternative = evaluate(c.getAlternative(), elseState);
+            result = result == null ? alternative : result.join(alternative);
+        }
+        final State joined = State.join(thenState, elseState);
+        state.ranges.clear();
+        if (joined != null) {
+            state.ranges.putAll(joined.ranges);
+        }
+        return result == null ? Interval.TOP : result;
+    }
+
+    private Interval evaluateBinary(final BinaryExpression b, final State state) {
+        final TokenKind kind = b.getOperator().getKind();
+        switch (kind) {
+        case EQUAL: {
+            final String target = Expressions.identifierName(b.getLeft());
+            if (target == null) {
+                evaluate(b.getLeft(), state);
+            }
+            final Interval value = evaluate(b.getRight(), state);
+            if (isTracked(target)) {
+                final Interval converted = convert(types.typeOfVariable(target), value);
+                state.ranges.put(target, converted);
+                return converted;
+            }
+            return rangeOf(b.getLeft());
+        }
+        case AND_AND:
+        case PIPE_PIPE: {
+            final boolean isAnd = kind == TokenKind.AND_AND;
+            final Interval left = evaluate(b.getLeft(), state);
+            // The right operand is evaluated if the left one does not decide.
+            final boolean decides = isAnd ? left.isAlwaysFalse() : left.isAlwaysTrue();
+            final boolean continues = isAnd ? left.isAlwaysTrue() : left.isAlwaysFalse();
+            State rightState = null;
+            Interval right = null;
+            if (!decides) {
+                rightState = refine(b.getLeft(), isAnd, state.copy());
+                if (rightState != null) {
+                    right = evaluate(b.getRight(), rightState);
+                }
+            }
+            final State shortCircuit = continues ? null : refine(b.getLeft(), !isAnd, state.copy());
+            final State joined = State.join(shortCircuit, rightState);
+            state.ranges.clear();
+            if (joined != null) {
+                state.ranges.putAll(joined.ranges);
+            }
+            final boolean rightTrue = right != null && !right.isAlwaysFalse();
+            final boolean rightFalse = right != null && !right.isAlwaysTrue();
+            if (isAnd) {
+                return Interval.truth(rightTrue, shortCircuit != null || rightFalse);
+            }
+            return Interval.truth(shortCircuit != null || rightTrue, rightFalse);
+        }
+        case COMMA:
+            evaluate(b.getLeft(), state);
+            return evaluate(b.getRight(), state);
+        case LBRACKET:
+            evaluate(b.getLeft(), state);
+            evaluate(b.getRight(), state);
+            return rangeOf(b);
+        default:
+            break;
+        }
+        final Interval left = evaluate(b.getLeft(), state);
+        final Interval right = evaluate(b.getRight(), state);
+        if (!isInt(b.getLeft()) || !isInt(b.getRight())) {
+            // Pointer arithmetic and comparisons.
+            return Interval.TOP;
+        }
+        switch (kind) {
+        case PLUS:
+            return left.add(right);
+        case MINUS:
+            return left.subtract(right);
+        case ASTERISK:
+            return left.multiply(right);
+        case SLASH:
+            return left.divide(right);
+        case PERCENT:
+            return left.remainder(right);
+        case AND:
+            return left.and(right);
+        case LESS_LESS:
+            return left.shiftLeft(right);
+        case GREATER_GREATER:
+            return left.shiftRight(right);
+        case LESS:
+            return Interval.truth(left.getLower() < right.getUpper(), left.getUpper() >= right.getLower());
+        case LESS_EQUAL:
+            return Interval.truth(left.getLower() <= right.getUpper(), left.getUpper() > right.getLower());
+        case GREATER:
+            return Interval.truth(left.getUpper() > right.getLower(), left.getLower() <= right.getUpper());
+        case GREATER_EQUAL:
+            return Interval.truth(left.getUpper() >= right.getLower(), left.getLower() < right.getUpper());
+        case EQUAL_EQUAL:
+            return Interval.truth(left.meet(right) != null,
+                    !(left.isConstant() && right.isConstant() && left.getLower() == right.getLower()));
+        case BANG_EQUAL:
+            return Interval.truth(!(left.isConstant() && right.isConstant() && left.getLower() == right.getLower()),
+                    left.meet(right) != null);
+        default:
+            return Interval.TOP;
+        }
+    }
+
+    private Interval evaluateUnary(final UnaryExpression u, final State state) {
+        switch (u.getOperator().getKind()) {
+        case PLUS_PLUS:
+        case MINUS_MINUS: {
+            final String target = Expressions.identifierName(u.getOperand());
+            final Interval old = evaluate(u.getOperand(), state);
+            if (!isTracked(target)) {
+                return rangeOf(u.getOperand());
+            }
+            final Interval one = Interval.constant(1);
+            final Interval value = convert(types.typeOfVariable(target),
+                    u.getOperator().getKind() == TokenKind.PLUS_PLUS ? old.add(one) : old.subtract(one));
+            state.ranges.put(target, value);
+            return u.isPostfix() ? old : value;
+        }
+        case MINUS: {
+            final Interval operand = evaluate(u.getOperand(), state);
+            return isInt(u.getOperand()) ? operand.negate() : Interval.TOP;
+        }
+        case PLUS:
+            return evaluate(u.getOperand(), state);
+        case BANG: {
+            final Interval operand = evaluate(u.getOperand(), state);
+            return Interval.truth(!operand.isAlwaysTrue(), !operand.isAlwaysFalse());
+        }
+        case ASTERISK:
+            evaluate(u.getOperand(), state);
+            return rangeOf(u);
+        case AND:
+            if (Expressions.identifierName(u.getOperand()) == null) {
+                evaluateAddress(u.getOperand(), state);
+            }
+            return Interval.TOP;
+        default:
+            evaluate(u.getOperand(), state);
+            return Interval.TOP;
+        }
+    }
+
+    /**
+     * Evaluates the operands of an expression whose address is taken.
+     */
+    private void evaluateAddress(final Expression e, final State state) {
+        if (e instanceof UnaryExpression) {
+            evaluate(((UnaryExpression) e).getOperand(), state);
+        } else if (e instanceof BinaryExpression) {
+            evaluate(((BinaryExpression) e).getLeft(), state);
+            evaluate(((BinaryExpression) e).getRight(), state);
+        }
+    }
+
+    /**
+     * Returns true if the expression has an integer type, i.e. it is neither a
+     * pointer nor of unknown type.
+     */
+    private boolean isInt(final Expression e) {
+        return rangeOfType(types.typeOf(e)) != null;
+    }
+
+    private static Interval convert(final Type t, final Interval value) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == TokenKind.CHAR ? value.toChar() : value;
+    }
+
+    /**
+     * Restricts the state to the executions in which the condition, which has
+     * already been evaluated, has the given truth value.
+     *
+     * @return The restricted state or null if the truth value is impossible.
+     */
+    private State refine(final Expression condition, final boolean truth, final State state) {
+        if (state == null || Expressions.hasSideEffects(condition)) {
+            return state;
+        }
+        if (condition instanceof UnaryExpression
+                && ((UnaryExpression) condition).getOperator().getKind() == TokenKind.BANG) {
+            return refine(((UnaryExpression) condition).getOperand(), !truth, state);
+        }
+        final String name = Expressions.identifierName(condition);
+        if (name != null) {
+            return restrict(name, truth ? TokenKind.BANG_EQUAL : TokenKind.EQUAL_EQUAL, Interval.constant(0), state);
+        }
+        if (!(condition instanceof BinaryExpression)) {
+            return state;
+        }
+        final BinaryExpression b = (BinaryExpression) condition;
+        final TokenKind kind = b.getOperator().getKind();
+        if (kind == TokenKind.AND_AND && truth || kind == TokenKind.PIPE_PIPE && !truth) {
+            return refine(b.getRight(), truth, refine(b.getLeft(), truth, state));
+        }
+        if (kind == TokenKind.AND_AND || kind == TokenKind.PIPE_PIPE) {
+            final State first = refine(b.getLeft(), truth, state.copy());
+            final State second = refine(b.getRight(), truth, refine(b.getLeft(), !truth, state));
+            return State.join(first, second);
+        }
+        final TokenKind comparison = truth ? kind : negate(kind);
+        if (comparison == null || !isInt(b.getLeft()) || !isInt(b.getRight())) {
+            return state;
+        }
+        final Interval left = evaluateExpression(b.getLeft(), state.copy());
+        final Interval right = evaluateExpression(b.getRight(), state.copy());
+        State result = state;
+        final String leftName = Expressions.identifierName(b.getLeft());
+        if (leftName != null) {
+            result = restrict(leftName, comparison, right, result);
+        }
+        final String rightName = Expressions.identifierName(b.getRight());
+        if (rightName != null && result != null) {
+            result = restrict(rightName, mirror(comparison), left, result);
+        }
+        return result;
+    }
+
+    /**
+     * Restricts the range of a variable to the values v for which
+     * {@code v op other} may hold.
+     *
+     * @return The restricted state or null if no value is possible.
+     */
+    private State restrict(final String name, final TokenKind op, final Interval other, final State state) {
+        final Interval range = state.get(name);
+        if (range == null) {
+            return state;
+        }
+        Interval restricted;
+        switch (op) {
+        case LESS:
+            restricted = other.getUpper() == Integer.MIN_VALUE ? null
+                    : range.meet(Interval.of(Integer.MIN_VALUE, other.getUpper() - 1));
+            break;
+        case LESS_EQUAL:
+            restricted = range.meet(Interval.of(Integer.MIN_VALUE, other.getUpper()));
+            break;
+        case GREATER:
+            restricted = other.getLower() == Integer.MAX_VALUE ? null
+                    : range.meet(Interval.of(other.getLower() + 1, Integer.MAX_VALUE));
+            break;
+        case GREATER_EQUAL:
+            restricted = range.meet(Interval.of(other.getLower(), Integer.MAX_VALUE));
+            break;
+        case EQUAL_EQUAL:
+            restricted = range.meet(other);
+            break;
+        case BANG_EQUAL:
+            restricted = range;
+            if (other.isConstant()) {
+                final int v = other.getLower();
+                if (range.isConstant() && range.getLower() == v) {
+                    restricted = null;
+                } else if (range.getLower() == v) {
+                    restricted = Interval.of(v + 1, range.getUpper());
+                } else if (range.getUpper() == v) {
+                    restricted = Interval.of(range.getLower(), v - 1);
+                }
+            }
+            break;
+        default:
+            return state;
+        }
+        if (restricted == null) {
+            return null;
+        }
+        state.ranges.put(name, restricted);
+        return state;
+    }
+
+    private static TokenKind negate(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+            return TokenKind.GREATER_EQUAL;
+        case LESS_EQUAL:
+            return TokenKind.GREATER;
+        case GREATER:
+            return TokenKind.LESS_EQUAL;
+        case GREATER_EQUAL:
+            return TokenKind.LESS;
+        case EQUAL_EQUAL:
+            return TokenKind.BANG_EQUAL;
+        case BANG_EQUAL:
+            return TokenKind.EQUAL_EQUAL;
+        default:
+            return null;
+        }
+    }
+
+    private static TokenKind mirror(final TokenKind kind) {
+        switch (kind) {
+        case LESS:
+            return TokenKind.GREATER;
+        case LESS_EQUAL:
+            return TokenKind.GREATER_EQUAL;
+        case GREATER:
+            return TokenKind.LESS;
+        case GREATER_EQUAL:
+            return TokenKind.LESS_EQUAL;
+        default:
+            return kind;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package tinycc.implementation.optimization;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Replaces variables by expressions and renames declarations.
+ *
+ * The substitution is purely by name, so it must only be applied to code in
+ * which every name is declared at most once.
+ */
+public class VariableSubstitution extends AstRewriter {
+    private final Map<String, Expression> replacements = new HashMap<>();
+    private final Map<String, String> renamings = new HashMap<>();
+
+    /**
+     * Replaces every use of the variable by the given expression.
+     *
+     * @param name        The name of the variable.
+     * @param replacement The expression to insert instead, it is shared by all
+     *                    uses.
+     * @return This object.
+     */
+    public VariableSubstitution replace(final String name, final Expression replacement) {
+        replacements.put(name, replacement);
+        return this;
+    }
+
+    /**
+     * Renames the variable, its declaration as well as its uses.
+     *
+     * @param name    The old name.
+     * @param newName The new name.
+     * @return This object.
+     */
+    public VariableSubstitution rename(final String name, final String newName) {
+        renamings.put(name, newName);
+        return this;
+    }
+
+    @Override
+    public Expression rewrite(final Expression e) {
+        final String name = Expressions.identifierName(e);
+        if (name != null) {
+            if (replacements.containsKey(name)) {
+                return replacements.get(name);
+            }
+            if (renamings.containsKey(name)) {
+                return Expressions.identifier(((PrimaryExpression) e).getToken(), renamings.get(name));
+            }
+            return e;
+        }
+        return super.rewrite(e);
+    }
+
+    @Override
+    protected Statement rewriteDeclaration(final DeclarationStatement s) {
+        final Statement rewritten = super.rewriteDeclaration(s);
+        final String newName = renamings.get(s.getName().getText());
+        if (newName == null) {
+            return rewritten;
+        }
+        final DeclarationStatement d = (DeclarationStatement) rewritten;
+        return new DeclarationStatement(d.getType(), new Token(d.getName(), TokenKind.IDENTIFIER, newName),
+                d.getInit());
+    }
+}
@@ -0,0 +1,530 @@
+package tinycc.implementation.semantics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.diagnostic.Diagnostic;
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.AST;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.expression.BinaryExpression;
+import tinycc.implementation.expression.CallExpression;
+import tinycc.implementation.expression.ConditionalExpression;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.expression.PrimaryExpression;
+import tinycc.implementation.expression.UnaryExpression;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.DeclarationStatement;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.ReturnStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.BaseType;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Checks the semantics of a translation unit.
+ *
+ * The external declarations and function definitions are visited in the order
+ * of their names in the input, so a name is only visible after its
+ * declaration. A global may be declared several times with the same type and a
+ * function may be defined once. Every block opens a scope; the parameters share
+ * the scope of the outermost block of the body.
+ *
+ * The expressions are typed as in C, restricted to int, char, void, pointers
+ * and functions: arithmetic needs integers, pointer arithmetic a pointer to a
+ * complete type, assignments a modifiable lvalue and compatible types, where a
+ * pointer to void is compatible with every pointer and the constant 0 with
+ * every pointer. Conditions need a scalar.
+ *
+ * An error is reported at the token of the offending expression, e.g. the
+ * operator of a binary expression or the name of an undeclared variable. After
+ * an error the rest of the function is skipped, which avoids follow-up errors.
+ */
+public class SemanticAnalysis {
+    private static final Type INT = new BaseType(TokenKind.INT);
+    private static final Type CHAR = new BaseType(TokenKind.CHAR);
+    private static final Type VOID = new BaseType(TokenKind.VOID);
+
+    /** Aborts the check of the current function after an error was reported. */
+    private static final class SemanticError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SemanticError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Diagnostic diagnostic;
+    private final Map<String, Type> globals = new HashMap<>();
+    private final Set<String> defined = new HashSet<>();
+    private final Deque<Map<String, Type>> scopes = new ArrayDeque<>();
+    private Type returnType;
+
+    /**
+     * Creates a semantic analysis.
+     *
+     * @param diagnostic The diagnostic module to report errors to.
+     */
+    public SemanticAnalysis(final Diagnostic diagnostic) {
+        this.diagnostic = diagnostic;
+    }
+
+    /**
+     * Checks the translation unit and reports the errors.
+     *
+     * @param ast The translation unit.
+     */
+    public void check(final AST ast) {
+        final List<Object> globalEntities = new ArrayList<>();
+        globalEntities.addAll(ast.getExternalDeclarations());
+        globalEntities.addAll(ast.getFunctionDefinitions());
+        globalEntities.sort(Comparator.comparingInt((Object o) -> nameOf(o).getLine())
+                .thenComparingInt(o -> nameOf(o).getColumn()));
+        for (final Object o : globalEntities) {
+            try {
+                if (o instanceof FunctionDefinition) {
+                    checkFunction((FunctionDefinition) o);
+                } else {
+                    final ExternalDeclaration d = (ExternalDeclaration) o;
+                    declareGlobal(d.getName(), d.getType());
+                }
+            } catch (final SemanticError e) {
+                // Reported, continue with the next declaration.
+            }
+        }
+    }
+
+    private static Token nameOf(final Object o) {
+        return o instanceof FunctionDefinition ? ((FunctionDefinition) o).getName()
+                : ((ExternalDeclaration) o).getName();
+    }
+
+    private void declareGlobal(final Token name, final Type type) {
+        checkObjectType(name, type);
+        final Type previous = globals.get(name.getText());
+        if (previous != null && !isSameType(previous, type)) {
+            error(name, "conflicting types for '%s'", name.getText());
+        }
+        globals.put(name.getText(), type);
+    }
+
+    private void checkFunction(final FunctionDefinition f) {
+        final Token name = f.getName();
+        declareGlobal(name, f.getType());
+        if (!defined.add(name.getText())) {
+            error(name, "redefinition of '%s'", name.getText());
+        }
+        final FunctionType type = (FunctionType) f.getType();
+        returnType = type.getReturnType();
+        scopes.clear();
+        scopes.push(new HashMap<>());
+        final List<Token> names = f.getParameterNames();
+        for (int i = 0; i < names.size(); ++i) {
+            final Token p = names.get(i);
+            if (p == null) {
+                error(name, "parameter name omitted in the definition of '%s'", name.getText());
+            }
+            declareLocal(p, type.getParameters().get(i));
+        }
+        // The parameters share the scope of the outermost block.
+        for (final Statement s : ((BlockStatement) f.getBody()).getStatements()) {
+            checkStatement(s);
+        }
+        scopes.clear();
+    }
+
+    private void checkObjectType(final Token name, final Type type) {
+        if (type instanceof FunctionType) {
+            // Only the return type of a function may be void.
+            for (final Type p : ((FunctionType) type).getParameters()) {
+                checkObjectType(name, p);
+            }
+        } else if (isVoid(type)) {
+            error(name, "'%s' declared void", name.getText());
+        }
+    }
+
+    private void declareLocal(final Token name, final Type type) {
+        checkObjectType(name, type);
+        if (scopes.peek().put(name.getText(), type) != null) {
+            error(name, "redeclaration of '%s'", name.getText());
+        }
+    }
+
+    private void checkStatement(final Statement s) {
+        if (s instanceof BlockStatement) {
+            scopes.push(new HashMap<>());
+            for (final Statement t : ((BlockStatement) s).getStatements()) {
+                checkStatement(t);
+            }
+            scopes.pop();
+        } else if (s instanceof DeclarationStatement) {
+            final DeclarationStatement d = (DeclarationStatement) s;
+            declareLocal(d.getName(), d.getType());
+            if (d.getInit() != null) {
+                checkAssignable(d.getName(), d.getType(), d.getInit());
+            }
+        } else if (s instanceof ExpressionStatement) {
+            typeOf(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof IfStatement) {
+            final IfStatement i = (IfStatement) s;
+            checkCondition(i.getCondition());
+            checkStatement(i.getConsequence());
+            if (i.getAlternative() != null) {
+                checkStatement(i.getAlternative());
+            }
+        } else if (s instanceof WhileStatement) {
+            final WhileStatement w = (WhileStatement) s;
+            checkCondition(w.getCondition());
+            checkStatement(w.getBody());
+        } else if (s instanceof ReturnStatement) {
+            final ReturnStatement r = (ReturnStatement) s;
+            if (r.getExpression() == null) {
+                if (!isVoid(returnType)) {
+                    error(r.getLocation(), "non-void function should return a value");
+                }
+            } else if (isVoid(returnType)) {
+                error(r.getLocation(), "void function should not return a value");
+            } else {
+                checkAssignable(r.getLocation(), returnType, r.getExpression());
+            }
+        } else {
+            throw new IllegalArgumentException("unknown statement " + s);
+        }
+    }
+
+    private void checkCondition(final Expression e) {
+        if (!isScalar(typeOf(e))) {
+            error(locationOf(e), "condition must have scalar type");
+        }
+    }
+
+    private void checkAssignable(final Locatable loc, final Type target, final Expression e) {
+        if (!isAssignable(target, typeOf(e), e)) {
+            error(loc, "incompatible types in assignment");
+        }
+    }
+
+    private Type lookup(final Token name) {
+        for (final Map<String, Type> scope : scopes) {
+            final Type t = scope.get(name.getText());
+            if (t != null) {
+                return t;
+            }
+        }
+        final Type t = globals.get(name.getText());
+        if (t == null) {
+            error(name, "use of undeclared identifier '%s'", name.getText());
+        }
+        return t;
+    }
+
+    private Type typeOf(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            switch (t.getKind()) {
+            case NUMBER:
+            case CHARACTER:
+                return INT;
+            case STRING:
+                return new PointerType(CHAR);
+            default:
+                return lookup(t);
+            }
+        }
+        if (e instanceof UnaryExpression) {
+            return typeOfUnary((UnaryExpression) e);
+        }
+        if (e instanceof BinaryExpression) {
+            return typeOfBinary((BinaryExpression) e);
+        }
+        if (e instanceof CallExpression) {
+            return typeOfCall((CallExpression) e);
+        }
+        if (e instanceof ConditionalExpression) {
+            return typeOfConditional((ConditionalExpression) e);
+        }
+        throw new IllegalArgumentException("unknown expression " + e);
+    }
+
+    private Type typeOfUnary(final UnaryExpression u) {
+        final Token op = u.getOperator();
+        final Type t = typeOf(u.getOperand());
+        switch (op.getKind()) {
+        case ASTERISK:
+            if (!(t instanceof PointerType) || !isComplete(pointee(t))) {
+                error(op, "indirection requires a pointer to a complete type");
+            }
+            return pointee(t);
+        case AND:
+            if (!(t instanceof FunctionType) && !isLvalue(u.getOperand())) {
+                error(op, "cannot take the address of an rvalue");
+            }
+            return new PointerType(t);
+        case SIZEOF:
+            if (!isComplete(t)) {
+                error(op, "invalid application of 'sizeof' to an incomplete type");
+            }
+            return INT;
+        case BANG:
+            if (!isScalar(t)) {
+                error(op, "invalid argument type to unary '%s'", op.getText());
+            }
+            return INT;
+        case PLUS_PLUS:
+        case MINUS_MINUS:
+            if (!isLvalue(u.getOperand())) {
+                error(op, "expression is not assignable");
+            }
+            if (!isInteger(t) && !isArithmeticPointer(t)) {
+                error(op, "invalid argument type to unary '%s'", op.getText());
+            }
+            return t;
+        default:
+            if (!isInteger(t)) {
+                error(op, "invalid argument type to unary '%s'", op.getText());
+            }
+            return INT;
+        }
+    }
+
+    private Type typeOfBinary(final BinaryExpression b) {
+        final Token op = b.getOperator();
+        final Type left = typeOf(b.getLeft());
+        final Type right = typeOf(b.getRight());
+        switch (op.getKind()) {
+        case EQUAL:
+            if (!isLvalue(b.getLeft())) {
+                error(op, "expression is not assignable");
+            }
+            checkAssignable(op, left, b.getRight());
+            return left;
+        case COMMA:
+            return right;
+        case LBRACKET:
+            if (isArithmeticPointer(left) && isInteger(right)) {
+                return pointee(left);
+            }
+            if (isInteger(left) && isArithmeticPointer(right)) {
+                return pointee(right);
+            }
+            error(op, "subscripted value is not a pointer to a complete type");
+            return null;
+        case PLUS:
+            if (isInteger(left) && isInteger(right)) {
+                return INT;
+            }
+            if (isArithmeticPointer(left) && isInteger(right)) {
+                return left;
+            }
+            if (isInteger(left) && isArithmeticPointer(right)) {
+                return right;
+            }
+            break;
+        case MINUS:
+            if (isInteger(left) && isInteger(right)) {
+                return INT;
+            }
+            if (isArithmeticPointer(left) && isInteger(right)) {
+                return left;
+            }
+            if (isArithmeticPointer(left) && isSameType(left, right)) {
+                return INT;
+            }
+            break;
+        case EQUAL_EQUAL:
+        case BANG_EQUAL:
+            if (isInteger(left) && isInteger(right) || isComparablePointers(left, b.getLeft(), right, b.getRight())) {
+                return INT;
+            }
+            break;
+        case LESS:
+        case GREATER:
+        case LESS_EQUAL:
+        case GREATER_EQUAL:
+            if (isInteger(left) && isInteger(right)
+                    || left instanceof PointerType && isSameType(left, right)) {
+                return INT;
+            }
+            break;
+        case AND_AND:
+        case PIPE_PIPE:
+            if (isScalar(left) && isScalar(right)) {
+                return INT;
+            }
+            break;
+        default:
+            if (isInteger(left) && isInteger(right)) {
+                return INT;
+            }
+            break;
+        }
+        error(op, "invalid operands to binary '%s'", op.getText());
+        return null;
+    }
+
+    private Type typeOfCall(final CallExpression c) {
+        final Type t = typeOf(c.getCallee());
+        if (!(t instanceof FunctionType)) {
+            error(c.getToken(), "called object is not a function");
+        }
+        final FunctionType f = (FunctionType) t;
+        final List<Expression> arguments = c.getArguments();
+        if (arguments.size() != f.getParameters().size()) {
+            error(c.getToken(), "expected %d arguments, but got %d", f.getParameters().size(), arguments.size());
+        }
+        for (int i = 0; i < arguments.size(); ++i) {
+            final Expression a = arguments.get(i);
+            if (!isAssignable(f.getParameters().get(i), typeOf(a), a)) {
+                error(locationOf(a), "incompatible type of argument %d", i + 1);
+            }
+        }
+        return f.getReturnType();
+    }
+
+    private Type typeOfConditional(final ConditionalExpression c) {
+        checkCondition(c.getCondition());
+        final Type consequence = typeOf(c.getConsequence());
+        final Type alternative = typeOf(c.getAlternative());
+        if (isInteger(consequence) && isInteger(alternative)) {
+            return INT;
+        }
+        if (isVoid(consequence) && isVoid(alternative)) {
+            return VOID;
+        }
+        if (isComparablePointers(consequence, c.getConsequence(), alternative, c.getAlternative())) {
+            // The null pointer constant takes the type of the other arm, a
+            // pointer to void wins over other pointers.
+            if (!(consequence instanceof PointerType) || isVoid(pointee(alternative))) {
+                return alternative;
+            }
+            return consequence;
+        }
+        error(c.getToken(), "incompatible operand types in conditional expression");
+        return null;
+    }
+
+    private boolean isAssignable(final Type target, final Type source, final Expression e) {
+        if (isInteger(target)) {
+            return isInteger(source);
+        }
+        if (target instanceof PointerType) {
+            return isNullPointerConstant(e) || source instanceof PointerType
+                    && (isSameType(target, source) || isVoid(pointee(target)) || isVoid(pointee(source)));
+        }
+        return false;
+    }
+
+    private static boolean isComparablePointers(final Type left, final Expression l, final Type right,
+            final Expression r) {
+        if (left instanceof PointerType && right instanceof PointerType) {
+            return isSameType(left, right) || isVoid(pointee(left)) || isVoid(pointee(right));
+        }
+        return left instanceof PointerType && isNullPointerConstant(r)
+                || right instanceof PointerType && isNullPointerConstant(l);
+    }
+
+    private static boolean isNullPointerConstant(final Expression e) {
+        if (!(e instanceof PrimaryExpression)) {
+            return false;
+        }
+        final Token t = ((PrimaryExpression) e).getToken();
+        return t.getKind() == TokenKind.NUMBER && t.getText().matches("0+");
+    }
+
+    private boolean isLvalue(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            final Token t = ((PrimaryExpression) e).getToken();
+            return t.getKind() == TokenKind.IDENTIFIER && !(lookup(t) instanceof FunctionType);
+        }
+        if (e instanceof UnaryExpression) {
+            return ((UnaryExpression) e).getOperator().getKind() == TokenKind.ASTERISK;
+        }
+        return e instanceof BinaryExpression && ((BinaryExpression) e).getOperator().getKind() == TokenKind.LBRACKET;
+    }
+
+    private static Locatable locationOf(final Expression e) {
+        if (e instanceof PrimaryExpression) {
+            return ((PrimaryExpression) e).getToken();
+        }
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression u = (UnaryExpression) e;
+            return u.isPostfix() ? locationOf(u.getOperand()) : u.getOperator();
+        }
+        if (e instanceof BinaryExpression) {
+            return locationOf(((BinaryExpression) e).getLeft());
+        }
+        if (e instanceof CallExpression) {
+            return locationOf(((CallExpression) e).getCallee());
+        }
+        return locationOf(((ConditionalExpression) e).getCondition());
+    }
+
+    private static Type pointee(final Type t) {
+        return t instanceof PointerType ? ((PointerType) t).getPointsTo() : null;
+    }
+
+    private static boolean isBase(final Type t, final TokenKind kind) {
+        return t instanceof BaseType && ((BaseType) t).getKind() == kind;
+    }
+
+    private static boolean isVoid(final Type t) {
+        return isBase(t, TokenKind.VOID);
+    }
+
+    private static boolean isInteger(final Type t) {
+        return isBase(t, TokenKind.INT) || isBase(t, TokenKind.CHAR);
+    }
+
+    private static boolean isScalar(final Type t) {
+        return isInteger(t) || t instanceof PointerType;
+    }
+
+    private static boolean isComplete(final Type t) {
+        return isScalar(t);
+    }
+
+    private static boolean isArithmeticPointer(final Type t) {
+        return t instanceof PointerType && isComplete(pointee(t));
+    }
+
+    private static boolean isSameType(final Type a, final Type b) {
+        if (a instanceof PointerType && b instanceof PointerType) {
+            return isSameType(pointee(a), pointee(b));
+        }
+        if (a instanceof FunctionType && b instanceof FunctionType) {
+            final FunctionType f = (FunctionType) a;
+            final FunctionType g = (FunctionType) b;
+            if (!isSameType(f.getReturnType(), g.getReturnType())
+                    || f.getParameters().size() != g.getParameters().size()) {
+                return false;
+            }
+            for (int i = 0; i < f.getParameters().size(); ++i) {
+                if (!isSameType(f.getParameters().get(i), g.getParameters().get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a instanceof BaseType && b instanceof BaseType && ((BaseType) a).getKind() == ((BaseType) b).getKind();
+    }
+
+    private void error(final Locatable loc, final String fmt, final Object... args) {
+        diagnostic.printError(loc, fmt, args);
+        throw new SemanticError();
+    }
+}
@@ -42,4 +42,12 @@ public String toString() {
      }
      return build.toString();
  }
+
+ public Locatable getLocation() {
+    return loc;
+ }
+
+ public List<Statement> getStatements() {
+    return statements;
+ }
 }
\ No newline at end of file
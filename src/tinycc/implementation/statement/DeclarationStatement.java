@@ -22,4 +22,16 @@ public String toString() {
     } 
     return "Declaration_"+name.toString() +"[" +type.toString() +"," + init.toString()+"]";
  }
+
+ public Type getType() {
+    return type;
+ }
+
+ public Token getName() {
+    return name;
+ }
+
+ public Expression getInit() {
+    return init;
+ }
 }
\ No newline at end of file
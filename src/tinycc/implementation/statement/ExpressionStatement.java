@@ -14,4 +14,12 @@ public ExpressionStatement(Locatable loc, Expression expression){
  public String toString() {
      return expression.toString();
  }
+
+ public Locatable getLocation() {
+     return loc;
+ }
+
+ public Expression getExpression() {
+     return expression;
+ }
 }
\ No newline at end of file
@@ -22,4 +22,20 @@ public String toString() {
     }
     return "If["+condition.toString() +"," + consequence.toString()  + "]";
 }
+
+public Locatable getLocation() {
+    return loc;
+}
+
+public Expression getCondition() {
+    return condition;
+}
+
+public Statement getConsequence() {
+    return consequence;
+}
+
+public Statement getAlternative() {
+    return alternative;
+}
 }
\ No newline at end of file
@@ -17,4 +17,12 @@ public String toString() {
        }
        return   " Return[]";
     }
+
+    public Locatable getLocation() {
+        return loc;
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
 }
\ No newline at end of file
@@ -16,4 +16,16 @@ public WhileStatement(Locatable loc, Expression condition, Statement body){
     public String toString() {
        return "While[" + condition.toString() + "," +body.toString() + "]";
     }
+
+    public Locatable getLocation() {
+        return loc;
+    }
+
+    public Expression getCondition() {
+        return condition;
+    }
+
+    public Statement getBody() {
+        return body;
+    }
 }
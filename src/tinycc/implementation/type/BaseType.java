@@ -11,4 +11,8 @@ public BaseType(TokenKind kind){
     public String toString() {
        return "Type_"+kind.toString(); 
     }
+
+    public TokenKind getKind() {
+       return kind;
+    }
 }
\ No newline at end of file
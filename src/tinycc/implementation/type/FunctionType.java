@@ -19,4 +19,12 @@ public String toString() {
         // TODO Auto-generated method stub
         throw new UnsupportedOperationException("Unimplemented method 'toString'");
     }
+
+    public Type getReturnType() {
+        return returnType;
+    }
+
+    public List<Type> getParameters() {
+        return parameters;
+    }
 }
\ No newline at end of file
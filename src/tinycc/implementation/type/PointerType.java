@@ -10,4 +10,8 @@ public String toString() {
        return "Pointer [" + pointsTo.toString() +"]"; 
     }
        
+
+    public Type getPointsTo() {
+        return pointsTo;
+    }
 }
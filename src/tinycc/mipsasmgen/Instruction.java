@@ -0,0 +1,208 @@
+package tinycc.mipsasmgen;
+
+/**
+ * An entry of the program buffered by the {@link MipsAsmGen}: an instruction,
+ * a label definition or a data directive.
+ *
+ * The entries are compact records of the opcode, the registers, the immediate
+ * and the label. They are only formatted when the program is printed, so they
+ * may still be inspected and rewritten before.
+ *
+ * @see MipsAsmGen
+ */
+public final class Instruction {
+	/**
+	 * The format of an entry, which determines its operands.
+	 */
+	public enum Kind {
+		/** A label definition: label. */
+		LABEL,
+		/** A string constant: text. */
+		ASCIIZ,
+		/** A byte constant: imm. */
+		BYTE,
+		/** A half constant: imm. */
+		HALF,
+		/** A word constant: imm. */
+		WORD,
+		/** A MemoryInstruction: dest, label + imm (left). */
+		MEMORY,
+		/** A RegisterInstruction: dest, left, right. */
+		REGISTER,
+		/** An ImmediateInstruction: dest, left, imm. */
+		IMMEDIATE,
+		/** A BranchInstruction: left, right, label. */
+		BRANCH,
+		/** A JumpInstruction: label. */
+		JUMP,
+		/** A JumpRegisterInstruction: left. */
+		JUMP_REGISTER,
+		/** A SpecialInstruction: left, right. */
+		SPECIAL,
+		/** A SpecialRegisterInstruction: left. */
+		SPECIAL_REGISTER
+	}
+
+	final Kind kind;
+	final Enum<?> opcode;
+	final GPRegister dest;
+	final GPRegister left;
+	final GPRegister right;
+	final int imm;
+	final Label label;
+	final String text;
+
+	Instruction(final Kind kind, final Enum<?> opcode, final GPRegister dest, final GPRegister left,
+			final GPRegister right, final int imm, final Label label, final String text) {
+		this.kind = kind;
+		this.opcode = opcode;
+		this.dest = dest;
+		this.left = left;
+		this.right = right;
+		this.imm = imm;
+		this.label = label;
+		this.text = text;
+	}
+
+	/** Returns the format of the entry. */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** Returns the opcode of an instruction, null for labels and data. */
+	public Enum<?> getOpcode() {
+		return opcode;
+	}
+
+	/** Returns the destination register (may be null). */
+	public GPRegister getDest() {
+		return dest;
+	}
+
+	/** Returns the register of the left operand (may be null). */
+	public GPRegister getLeft() {
+		return left;
+	}
+
+	/** Returns the register of the right operand (may be null). */
+	public GPRegister getRight() {
+		return right;
+	}
+
+	/** Returns the immediate, offset or data constant. */
+	public int getImmediate() {
+		return imm;
+	}
+
+	/** Returns the label which is defined or referenced (may be null). */
+	public Label getLabel() {
+		return label;
+	}
+
+	/** Returns true if the entry is placed into the data segment. */
+	boolean isData() {
+		switch (kind) {
+		case ASCIIZ:
+		case BYTE:
+		case HALF:
+		case WORD:
+			return true;
+		case LABEL:
+			return label instanceof DataLabel;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Appends the entry in assembler syntax, including the line break.
+	 *
+	 * @param b The builder to append to.
+	 */
+	void format(final StringBuilder b) {
+		switch (kind) {
+		case LABEL:
+			if (label.isExternalVisible()) {
+				b.append("\t.globl ").append(label).append('\n');
+			}
+			b.append(label).append(":\n");
+			return;
+		case ASCIIZ:
+			b.append("\t.asciiz ").append(text).append('\n');
+			return;
+		case BYTE:
+			b.append("\t.byte ").append(imm).append('\n');
+			return;
+		case HALF:
+			b.append("\t.half ").append(imm).append('\n');
+			return;
+		case WORD:
+			b.append("\t.word ").append(imm).append('\n');
+			return;
+		default:
+			break;
+		}
+
+		// The mnemonic is padded to 7 characters, followed by a space.
+		final String name = opcode.toString();
+		b.append('\t').append(name);
+		for (int i = name.length(); i < 7; ++i) {
+			b.append(' ');
+		}
+		b.append(' ');
+		switch (kind) {
+		case MEMORY:
+			b.append(dest).append(", ");
+			if (label != null) {
+				b.append(label);
+			}
+			if (imm != 0 || (label == null && left == null)) {
+				if (label != null) {
+					b.append('+');
+				}
+				b.append(imm);
+			}
+			if (left != null) {
+				b.append('(').append(left).append(')');
+			}
+			break;
+		case REGISTER:
+			b.append(dest).append(", ").append(left).append(", ").append(right);
+			break;
+		case IMMEDIATE:
+			b.append(dest).append(", ");
+			if (opcode != ImmediateInstruction.LUI) {
+				b.append(left).append(", ");
+			}
+			b.append(imm);
+			break;
+		case BRANCH:
+			b.append(left).append(", ");
+			if (opcode == BranchInstruction.BEQ || opcode == BranchInstruction.BNE) {
+				b.append(right).append(", ");
+			}
+			b.append(label);
+			break;
+		case JUMP:
+			b.append(label);
+			break;
+		case JUMP_REGISTER:
+		case SPECIAL_REGISTER:
+			b.append(left);
+			break;
+		case SPECIAL:
+			b.append(left).append(", ").append(right);
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+		b.append('\n');
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder();
+		format(b);
+		return b.substring(0, b.length() - 1);
+	}
+}
@@ -1,13 +1,19 @@
 package tinycc.mipsasmgen;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import tinycc.util.Util;
 
 /**
  * Helper class for the creation of MIPS code.
+ *
+ * The emitted instructions, labels and data are appended to an in-memory list
+ * of {@link Instruction} records and only printed by {@link #flush()}, so the
+ * code may still be rewritten before it is printed.
  */
 public class MipsAsmGen {
 
@@ -31,6 +37,7 @@ public String toString() {
     }
 
     private final PrintStream out;
+    private final List<Instruction> instructions = new ArrayList<Instruction>();
     private Segment currentSegment = Segment.TEXT;
     private int labelCounter = 0;
 
@@ -38,7 +45,7 @@ public String toString() {
      * Initializes a new MIPS assembly generator
      *
      * @param out The output stream to use
-     * @remarks The generator will write any output to the given output stream
+     * @remarks The generator will write any output to the given output stream when it is flushed
      */
     public MipsAsmGen(final PrintStream out) {
         if (out == null) {
@@ -57,18 +64,48 @@ public MipsAsmGen(MipsAsmGen printStreamProvider) {
     /**
      * Switches the segment to the given one.
      *
+     * @param b          The builder of the output.
      * @param newSegment The new segment to switch to.
      */
-    private void switchSegment(final Segment newSegment) {
+    private void switchSegment(final StringBuilder b, final Segment newSegment) {
         if (newSegment == null) {
             throw new IllegalArgumentException();
         }
         if (currentSegment != newSegment) {
             currentSegment = newSegment;
-            out.printf("\t%s\n", newSegment);
+            b.append('\t').append(newSegment).append('\n');
         }
     }
 
+    private void append(final Instruction.Kind kind, final Enum<?> opcode, final GPRegister dest,
+            final GPRegister left, final GPRegister right, final int imm, final Label label) {
+        instructions.add(new Instruction(kind, opcode, dest, left, right, imm, label, null));
+    }
+
+    /**
+     * Returns the buffered instructions, labels and data which were not printed yet. The list may be modified to
+     * rewrite the code before it is printed.
+     *
+     * @return The buffered program in emission order.
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Prints the buffered instructions, labels and data to the output stream and clears the buffer.
+     */
+    public void flush() {
+        final StringBuilder b = new StringBuilder(instructions.size() * 24);
+        for (final Instruction insn : instructions) {
+            switchSegment(b, insn.isData() ? Segment.DATA : Segment.TEXT);
+            insn.format(b);
+        }
+        instructions.clear();
+        out.append(b);
+        out.flush();
+    }
+
     static final String privatePrefix = ".L";
 
     /**
@@ -169,12 +206,11 @@ public DataLabel makeUniqueDataLabel(final String prefix) {
         return makeDataLabel(getNextLabelName(prefix), false);
     }
 
-    private void emitLabel(final Segment segment, final Label l) {
-        switchSegment(segment);
-        if (l.isExternalVisible()) {
-            out.printf("\t.globl %s\n", l);
+    private void emitLabel(final Label l) {
+        if (l == null) {
+            throw new IllegalArgumentException();
         }
-        out.printf("%s:\n", l);
+        append(Instruction.Kind.LABEL, null, null, null, null, 0, l);
     }
 
     /**
@@ -183,7 +219,7 @@ private void emitLabel(final Segment segment, final Label l) {
      * @param l The label to emit.
      */
     public void emitLabel(final DataLabel l) {
-        emitLabel(Segment.DATA, l);
+        emitLabel((Label) l);
     }
 
     /**
@@ -192,17 +228,7 @@ public void emitLabel(final DataLabel l) {
      * @param l The label to emit.
      */
     public void emitLabel(final TextLabel l) {
-        emitLabel(Segment.TEXT, l);
-    }
-
-    private final String insnFmt = "\t%-7s ";
-
-    private void emit(final String fmt, final Object insn, final Object... args) {
-        if (insn == null) {
-            throw new IllegalArgumentException();
-        }
-        switchSegment(Segment.TEXT);
-        out.printf(insnFmt, insn).printf(fmt, args).println();
+        emitLabel((Label) l);
     }
 
     /**
@@ -220,21 +246,7 @@ public void emitInstruction(final MemoryInstruction insn, final GPRegister dest,
         if (insn == null || dest == null) {
             throw new IllegalArgumentException();
         }
-        switchSegment(Segment.TEXT);
-        out.printf(insnFmt + "%s, ", insn, dest);
-        if (label != null) {
-            out.print(label);
-        }
-        if (offset != 0 || (label == null && register == null)) {
-            if (label != null) {
-                out.print('+');
-            }
-            out.print(offset);
-        }
-        if (register != null) {
-            out.printf("(%s)", register);
-        }
-        out.println();
+        append(Instruction.Kind.MEMORY, insn, dest, register, null, offset, label);
     }
 
     /**
@@ -248,10 +260,10 @@ public void emitInstruction(final MemoryInstruction insn, final GPRegister dest,
      */
     public void emitInstruction(final RegisterInstruction insn, final GPRegister dest, final GPRegister left,
             final GPRegister right) {
-        if (dest == null || left == null || right == null) {
+        if (insn == null || dest == null || left == null || right == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s, %s, %s", insn, dest, left, right);
+        append(Instruction.Kind.REGISTER, insn, dest, left, right, 0, null);
     }
 
     /**
@@ -281,14 +293,10 @@ public void emitInstruction(final ImmediateInstruction insn, final GPRegister de
         if (dest == null || left == null || !insn.getRange().inRange(imm)) {
             throw new IllegalArgumentException();
         }
-        if (insn == ImmediateInstruction.LUI) {
-            if (left != GPRegister.ZERO) {
-                throw new IllegalArgumentException();
-            }
-            emit("%s, %d", insn, dest, imm);
-        } else {
-            emit("%s, %s, %d", insn, dest, left, imm);
+        if (insn == ImmediateInstruction.LUI && left != GPRegister.ZERO) {
+            throw new IllegalArgumentException();
         }
+        append(Instruction.Kind.IMMEDIATE, insn, dest, left, null, imm, null);
     }
 
     /**
@@ -316,22 +324,21 @@ public void emitInstruction(final ImmediateInstruction insn, final GPRegister de
      */
     public void emitInstruction(final BranchInstruction insn, final GPRegister left, final GPRegister right,
             final TextLabel target) {
-        if (left == null || right == null || target == null) {
+        if (insn == null || left == null || right == null || target == null) {
             throw new IllegalArgumentException();
         }
         switch (insn) {
             case BEQ:
             case BNE:
-                emit("%s, %s, %s", insn, left, right, target);
                 break;
 
             default:
                 if (right != GPRegister.ZERO) {
                     throw new IllegalArgumentException();
                 }
-                emit("%s, %s", insn, left, target);
                 break;
         }
+        append(Instruction.Kind.BRANCH, insn, null, left, right, 0, target);
     }
 
     /**
@@ -354,10 +361,10 @@ public void emitInstruction(final BranchInstruction insn, final GPRegister left,
      * @remarks Emits into the text segment.
      */
     public void emitInstruction(final JumpInstruction insn, final TextLabel target) {
-        if (target == null) {
+        if (insn == null || target == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s", insn, target);
+        append(Instruction.Kind.JUMP, insn, null, null, null, 0, target);
     }
 
     /**
@@ -368,10 +375,10 @@ public void emitInstruction(final JumpInstruction insn, final TextLabel target)
      * @remarks Emits into the text segment.
      */
     public void emitInstruction(final JumpRegisterInstruction insn, final GPRegister target) {
-        if (target == null) {
+        if (insn == null || target == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s", insn, target);
+        append(Instruction.Kind.JUMP_REGISTER, insn, null, target, null, 0, null);
     }
 
     /**
@@ -383,10 +390,10 @@ public void emitInstruction(final JumpRegisterInstruction insn, final GPRegister
      * @remarks Emits into the text segment.
      */
     public void emitInstruction(final SpecialInstruction insn, final GPRegister left, final GPRegister right) {
-        if (left == null || right == null) {
+        if (insn == null || left == null || right == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s, %s", insn, left, right);
+        append(Instruction.Kind.SPECIAL, insn, null, left, right, 0, null);
     }
 
     /**
@@ -397,10 +404,10 @@ public void emitInstruction(final SpecialInstruction insn, final GPRegister left
      * @remarks Emits into the text segment.
      */
     public void emitInstruction(final SpecialRegisterInstruction insn, final GPRegister register) {
-        if (register == null) {
+        if (insn == null || register == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s", insn, register);
+        append(Instruction.Kind.SPECIAL_REGISTER, insn, null, register, null, 0, null);
     }
 
     /**
@@ -410,9 +417,8 @@ public void emitInstruction(final SpecialRegisterInstruction insn, final GPRegis
      * @remarks Emits into the data segment.
      */
     public void emitASCIIZ(final String string) {
-        switchSegment(Segment.DATA);
-        out.print("\t.asciiz ");
-        out.println(Util.escapeString(string, '"'));
+        instructions.add(new Instruction(Instruction.Kind.ASCIIZ, null, null, null, null, 0, null,
+                Util.escapeString(string, '"')));
     }
 
     /**
@@ -434,8 +440,7 @@ public void emitASCIIZ(final DataLabel label, final String string) {
      * @remarks Emits into the data segment.
      */
     public void emitByte(final byte value) {
-        switchSegment(Segment.DATA);
-        out.printf("\t.byte %d\n", value);
+        append(Instruction.Kind.BYTE, null, null, null, null, value, null);
     }
 
     /**
@@ -457,8 +462,7 @@ public void emitByte(final DataLabel label, final byte value) {
      * @remarks Emits into the data segment.
      */
     public void emitHalf(final short value) {
-        switchSegment(Segment.DATA);
-        out.printf("\t.half %d\n", value);
+        append(Instruction.Kind.HALF, null, null, null, null, value, null);
     }
 
     /**
@@ -480,8 +484,7 @@ public void emitHalf(final DataLabel label, final short value) {
      * @remarks Emits into the data segment.
      */
     public void emitWord(final int value) {
-        switchSegment(Segment.DATA);
-        out.printf("\t.word %d\n", value);
+        append(Instruction.Kind.WORD, null, null, null, null, value, null);
     }
 
     /**
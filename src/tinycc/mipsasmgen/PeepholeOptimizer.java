@@ -0,0 +1,349 @@
+package tinycc.mipsasmgen;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes and fuses redundant patterns in the code buffered by the
+ * {@link MipsAsmGen}.
+ *
+ * A window slides over the instructions. At every position the rules of the
+ * rule table are tried in order; a rule matches a fixed number of entries and
+ * returns their replacement. After a rule fired, the window moves back so that
+ * the replacement may complete another pattern. Labels are join points and
+ * never match an instruction of a rule, so no rule combines code across them.
+ *
+ * Rules may be disabled by name; several rules of the table may share a name.
+ * The optimizer counts how often every rule fired.
+ *
+ * @see MipsAsmGen
+ */
+public class PeepholeOptimizer {
+    /**
+     * Matches a window of entries and returns the replacement.
+     */
+    @FunctionalInterface
+    private interface Rewrite {
+        /**
+         * @param w The entries of the window.
+         * @return The replacement of the window, null if the rule does not match.
+         */
+        List<Instruction> apply(List<Instruction> w);
+    }
+
+    private static final class Rule {
+        final String name;
+        final int size;
+        final Rewrite rewrite;
+
+        Rule(final String name, final int size, final Rewrite rewrite) {
+            this.name = name;
+            this.size = size;
+            this.rewrite = rewrite;
+        }
+    }
+
+    /** The rules in the order they are tried. */
+    private static final List<Rule> RULES = Arrays.asList(
+            // sw r, x; lw r', x  =>  sw r, x; move r', r
+            new Rule("store-load", 2, PeepholeOptimizer::storeLoad),
+            // addiu $sp, $sp, -k; sw r, o($sp); addiu $sp, $sp, k  =>  (nothing)
+            new Rule("dead-push", 3, PeepholeOptimizer::deadPush),
+            // addiu $sp, $sp, -k; sw r, o($sp); insn; addiu $sp, $sp, k  =>  insn
+            new Rule("dead-push", 4, PeepholeOptimizer::deadPushAround),
+            // addiu r, r, a; addiu r, r, b  =>  addiu r, r, a + b
+            new Rule("add-immediates", 2, PeepholeOptimizer::addImmediates),
+            // move r, r  =>  (nothing)
+            new Rule("self-move", 1, PeepholeOptimizer::selfMove),
+            // beq a, b, L1; j L2; L1:  =>  bne a, b, L2; L1:
+            new Rule("branch-over-jump", 3, PeepholeOptimizer::branchOverJump),
+            // j L; L:  =>  L:
+            new Rule("jump-to-next", 2, PeepholeOptimizer::jumpToNext),
+            // j L; insn  =>  j L
+            new Rule("unreachable", 2, PeepholeOptimizer::unreachable));
+
+    private static final int MAX_SIZE = 4;
+
+    private final Set<String> disabled = new HashSet<String>();
+    private final Map<String, Integer> counters = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Initializes a peephole optimizer with all rules enabled.
+     */
+    public PeepholeOptimizer() {
+        for (final Rule rule : RULES) {
+            counters.putIfAbsent(rule.name, 0);
+        }
+    }
+
+    /**
+     * Returns the names of all rules in the order they are tried.
+     *
+     * @return The names of the rules.
+     */
+    public static List<String> getRuleNames() {
+        final List<String> names = new ArrayList<String>();
+        for (final Rule rule : RULES) {
+            if (!names.contains(rule.name)) {
+                names.add(rule.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns true if a rule with the given name exists.
+     *
+     * @param name The name of the rule.
+     */
+    public static boolean hasRule(final String name) {
+        return getRuleNames().contains(name);
+    }
+
+    /**
+     * Disables the rule with the given name.
+     *
+     * @param name The name of the rule.
+     */
+    public void disable(final String name) {
+        if (!hasRule(name)) {
+            throw new IllegalArgumentException("unknown peephole rule '" + name + "'");
+        }
+        disabled.add(name);
+    }
+
+    /**
+     * Enables the rule with the given name.
+     *
+     * @param name The name of the rule.
+     */
+    public void enable(final String name) {
+        if (!hasRule(name)) {
+            throw new IllegalArgumentException("unknown peephole rule '" + name + "'");
+        }
+        disabled.remove(name);
+    }
+
+    /**
+     * Optimizes the code buffered by the generator.
+     *
+     * @param gen The generator whose code is not flushed yet.
+     * @return The number of rules which fired.
+     */
+    public int run(final MipsAsmGen gen) {
+        return run(gen.getInstructions());
+    }
+
+    /**
+     * Optimizes the given code in place.
+     *
+     * @param code The instructions, labels and data.
+     * @return The number of rules which fired.
+     */
+    public int run(final List<Instruction> code) {
+        int fired = 0;
+        int i = 0;
+        while (i < code.size()) {
+            boolean matched = false;
+            for (final Rule rule : RULES) {
+                if (disabled.contains(rule.name) || i + rule.size > code.size()) {
+                    continue;
+                }
+                final List<Instruction> window = code.subList(i, i + rule.size);
+                final List<Instruction> replacement = rule.rewrite.apply(window);
+                if (replacement == null) {
+                    continue;
+                }
+                window.clear();
+                window.addAll(replacement);
+                counters.merge(rule.name, 1, Integer::sum);
+                ++fired;
+                matched = true;
+                break;
+            }
+            // The replacement may complete a pattern which starts before it.
+            i = matched ? Math.max(0, i - (MAX_SIZE - 1)) : i + 1;
+        }
+        return fired;
+    }
+
+    /**
+     * Returns how often every rule fired, in the order the rules are tried.
+     *
+     * @return The counters.
+     */
+    public Map<String, Integer> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Prints how often every rule fired.
+     *
+     * @param out The stream to print to.
+     */
+    public void printCounters(final PrintStream out) {
+        int total = 0;
+        out.printf("%-40s %7s%n", "peephole rule", "fired");
+        for (final Map.Entry<String, Integer> e : counters.entrySet()) {
+            out.printf("%-40s %7d%n", e.getKey(), e.getValue());
+            total += e.getValue();
+        }
+        out.printf("%-40s %7d%n", "total", total);
+    }
+
+    private static boolean is(final Instruction insn, final Enum<?> opcode) {
+        return insn.opcode == opcode;
+    }
+
+    private static boolean isAddImmediate(final Instruction insn, final GPRegister r) {
+        return is(insn, ImmediateInstruction.ADDIU) && insn.dest == r && insn.left == r;
+    }
+
+    private static boolean sameAddress(final Instruction a, final Instruction b) {
+        return a.left == b.left && a.label == b.label && a.imm == b.imm;
+    }
+
+    private static Instruction move(final GPRegister dest, final GPRegister src) {
+        return new Instruction(Instruction.Kind.REGISTER, RegisterInstruction.ADDU, dest, src, GPRegister.ZERO, 0,
+                null, null);
+    }
+
+    private static List<Instruction> storeLoad(final List<Instruction> w) {
+        final Instruction store = w.get(0);
+        final Instruction load = w.get(1);
+        if (!is(store, MemoryInstruction.SW) || !is(load, MemoryInstruction.LW) || !sameAddress(store, load)) {
+            return null;
+        }
+        if (load.dest == store.dest) {
+            return Arrays.asList(store);
+        }
+        return Arrays.asList(store, move(load.dest, store.dest));
+    }
+
+    private static List<Instruction> deadPush(final List<Instruction> w) {
+        final Instruction push = w.get(0);
+        final Instruction store = w.get(1);
+        final Instruction pop = w.get(2);
+        // The stored word lies below the stack pointer after the pop, so
+        // nothing can read it any more.
+        if (!isAddImmediate(push, GPRegister.SP) || !isAddImmediate(pop, GPRegister.SP) || push.imm != -pop.imm
+                || !is(store, MemoryInstruction.SW) || store.left != GPRegister.SP || store.label != null
+                || store.imm < 0 || store.imm + 4 > pop.imm) {
+            return null;
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<Instruction> deadPushAround(final List<Instruction> w) {
+        final Instruction insn = w.get(2);
+        // The instruction in between must neither access the memory nor the
+        // stack pointer, as it sees a different one without the push.
+        if (insn.kind != Instruction.Kind.REGISTER && insn.kind != Instruction.Kind.IMMEDIATE
+                || insn.dest == GPRegister.SP || insn.left == GPRegister.SP || insn.right == GPRegister.SP
+                || deadPush(Arrays.asList(w.get(0), w.get(1), w.get(3))) == null) {
+            return null;
+        }
+        return Arrays.asList(insn);
+    }
+
+    private static List<Instruction> addImmediates(final List<Instruction> w) {
+        final Instruction first = w.get(0);
+        final Instruction second = w.get(1);
+        if (!isAddImmediate(first, first.dest) || !isAddImmediate(second, first.dest)) {
+            return null;
+        }
+        final int sum = first.imm + second.imm;
+        if (sum == 0) {
+            return Collections.emptyList();
+        }
+        if (!ImmediateInstruction.ADDIU.getRange().inRange(sum)) {
+            return null;
+        }
+        return Arrays.asList(new Instruction(Instruction.Kind.IMMEDIATE, ImmediateInstruction.ADDIU, first.dest,
+                first.dest, null, sum, null, null));
+    }
+
+    private static List<Instruction> selfMove(final List<Instruction> w) {
+        final Instruction insn = w.get(0);
+        // The canonical nop (sll $zero, $zero, 0) is kept.
+        if (insn.dest == null || insn.dest == GPRegister.ZERO) {
+            return null;
+        }
+        final boolean move;
+        if (insn.kind == Instruction.Kind.REGISTER) {
+            final boolean leftIdentity = insn.left == insn.dest && insn.right == GPRegister.ZERO;
+            final boolean rightIdentity = insn.right == insn.dest && insn.left == GPRegister.ZERO;
+            move = (is(insn, RegisterInstruction.ADDU) || is(insn, RegisterInstruction.OR))
+                    && (leftIdentity || rightIdentity)
+                    || (is(insn, RegisterInstruction.SUBU) || is(insn, RegisterInstruction.XOR)) && leftIdentity;
+        } else if (insn.kind == Instruction.Kind.IMMEDIATE) {
+            move = insn.left == insn.dest && insn.imm == 0 && (is(insn, ImmediateInstruction.ADDIU)
+                    || is(insn, ImmediateInstruction.ORI) || is(insn, ImmediateInstruction.XORI)
+                    || is(insn, ImmediateInstruction.SLL) || is(insn, ImmediateInstruction.SRA)
+                    || is(insn, ImmediateInstruction.SRL));
+        } else {
+            move = false;
+        }
+        return move ? Collections.<Instruction>emptyList() : null;
+    }
+
+    private static List<Instruction> branchOverJump(final List<Instruction> w) {
+        final Instruction branch = w.get(0);
+        final Instruction jump = w.get(1);
+        final Instruction label = w.get(2);
+        if (branch.kind != Instruction.Kind.BRANCH || !is(jump, JumpInstruction.J)
+                || label.kind != Instruction.Kind.LABEL || branch.label != label.label) {
+            return null;
+        }
+        final BranchInstruction inverse = inverse((BranchInstruction) branch.opcode);
+        return Arrays.asList(new Instruction(Instruction.Kind.BRANCH, inverse, null, branch.left, branch.right, 0,
+                jump.label, null), label);
+    }
+
+    private static BranchInstruction inverse(final BranchInstruction insn) {
+        switch (insn) {
+        case BEQ:
+            return BranchInstruction.BNE;
+        case BNE:
+            return BranchInstruction.BEQ;
+        case BLEZ:
+            return BranchInstruction.BGTZ;
+        case BGTZ:
+            return BranchInstruction.BLEZ;
+        case BLTZ:
+            return BranchInstruction.BGEZ;
+        case BGEZ:
+            return BranchInstruction.BLTZ;
+        default:
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private static List<Instruction> jumpToNext(final List<Instruction> w) {
+        final Instruction jump = w.get(0);
+        final Instruction label = w.get(1);
+        if ((jump.kind != Instruction.Kind.BRANCH && !is(jump, JumpInstruction.J))
+                || label.kind != Instruction.Kind.LABEL || jump.label != label.label) {
+            return null;
+        }
+        return Arrays.asList(label);
+    }
+
+    private static List<Instruction> unreachable(final List<Instruction> w) {
+        final Instruction jump = w.get(0);
+        final Instruction next = w.get(1);
+        // Only text instructions are removed, labels and data are kept.
+        if (!is(jump, JumpInstruction.J) && !is(jump, JumpRegisterInstruction.JR)
+                || next.opcode == null) {
+            return null;
+        }
+        return Arrays.asList(jump);
+    }
+}
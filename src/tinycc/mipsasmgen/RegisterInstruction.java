@@ -11,6 +11,8 @@ public enum RegisterInstruction {
 	ADD("add"),
 	ADDU("addu"),
 	AND("and"),
+	MOVN("movn"),
+	MOVZ("movz"),
 	MUL("mul"),
 	OR("or"),
 	NOR("nor"),
@@ -0,0 +1,110 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.LoadForwarding;
+
+public class AliasAnalysisTests extends OptimizingCompilerTests {
+	private static final String MALLOC = "void *malloc(int n);\n";
+
+	/**
+	 * Returns the number of dereferences in the body of f.
+	 */
+	private static int dereferences(final AST ast) {
+		return function(ast, "f").getBody().toString().split("Unary_\\*", -1).length - 1;
+	}
+
+	/**
+	 * Returns the number of loads forwarded in f.
+	 */
+	private int forwarded(final String code) {
+		final AST ast = checkedAST(code);
+		final int before = dereferences(ast);
+		new LoadForwarding().run(ast);
+		return before - dereferences(ast);
+	}
+
+	@Test
+	public void testDistinctAllocations() {
+		final String code = MALLOC
+				+ "int f() {\n"
+				+ "	int *p = malloc(8);\n"
+				+ "	int *q = malloc(8);\n"
+				+ "	*p = 1;\n"
+				+ "	*q = 2;\n"
+				+ "	return *p;\n"
+				+ "}\n";
+		assertEquals(1, forwarded(code));
+	}
+
+	@Test
+	public void testParametersMayAlias() {
+		final String code = ""
+				+ "int f(int *p, int *q) {\n"
+				+ "	*p = 1;\n"
+				+ "	*q = 2;\n"
+				+ "	return *p;\n"
+				+ "}\n";
+		assertEquals(0, forwarded(code));
+	}
+
+	@Test
+	public void testLocalAllocationAndParameter() {
+		final String code = MALLOC
+				+ "int f(int *q) {\n"
+				+ "	int *p = malloc(4);\n"
+				+ "	*p = 1;\n"
+				+ "	*q = 2;\n"
+				+ "	return *p;\n"
+				+ "}\n";
+		assertEquals(1, forwarded(code));
+	}
+
+	@Test
+	public void testEscapedAllocation() {
+		final String code = MALLOC
+				+ "void set(int **r) {\n"
+				+ "	**r = 2;\n"
+				+ "}\n"
+				+ "int f(int **r) {\n"
+				+ "	int *p = malloc(4);\n"
+				+ "	*r = p;\n"
+				+ "	*p = 1;\n"
+				+ "	set(r);\n"
+				+ "	return *p;\n"
+				+ "}\n";
+		assertEquals(0, forwarded(code));
+	}
+
+	@Test
+	public void testTypes() {
+		final String code = ""
+				+ "int f(int *p, char *c) {\n"
+				+ "	*p = 1;\n"
+				+ "	*c = 2;\n"
+				+ "	return *p;\n"
+				+ "}\n";
+		assertEquals(1, forwarded(code));
+	}
+
+	@Test
+	public void testAddressTakenLocal() {
+		final String code = ""
+				+ "void set(int *p, int v) {\n"
+				+ "	*p = v;\n"
+				+ "}\n"
+				+ "int f(int *q) {\n"
+				+ "	int x = 1;\n"
+				+ "	int *p = &x;\n"
+				+ "	*q = 2;\n"
+				+ "	int a = *p;\n"
+				+ "	set(p, 3);\n"
+				+ "	return a * 10 + *p;\n"
+				+ "}\n";
+		// The second load of *p follows a call which may write x through p.
+		assertEquals(0, forwarded(code));
+	}
+}
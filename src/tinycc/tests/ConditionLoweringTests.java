@@ -0,0 +1,83 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+
+public class ConditionLoweringTests extends OptimizingCompilerTests {
+	private static final String LESS = "int f(int a, int b) { int s = 0; if (a < b) s = 1; return s; }\n";
+
+	private static final String NOT_EQUAL = "" //
+			+ "int g(int x) {\n" //
+			+ "	int n = 0;\n" //
+			+ "	while (x != 37) { x = x + 1; n = n + 1; }\n" //
+			+ "	return n;\n" //
+			+ "}\n";
+
+	private static final String NOT = "int h(int a, int b) { if (!(a == b)) return 1; return 2; }\n";
+
+	private static final String LOGICAL = "" //
+			+ "int k(int a, int b, int c) { if (a < b && b < c || c == 0) return 1; return 2; }\n";
+
+	private static final String TRUTH = "int z(int a) { if (a) return 1; return 2; }\n";
+
+	/**
+	 * Returns the number of instructions which materialize a truth value or
+	 * combine two of them.
+	 */
+	private static int booleans(final String asm) {
+		return count(asm, "sltiu") + count(asm, "sltu") + count(asm, "xori") + count(asm, "\tor ")
+				+ count(asm, "\tand ");
+	}
+
+	@Test
+	public void testLessThan() {
+		final String asm = compile(LESS, 0);
+		assertEquals(1, count(asm, "slt "));
+		assertEquals(1, count(asm, "beq     $t0, $zero"));
+		assertEquals(0, booleans(asm));
+	}
+
+	@Test
+	public void testNotEqualInLoop() {
+		final String asm = compile(NOT_EQUAL, 0);
+		assertEquals(1, count(asm, "bne     $t0, $t1"));
+		assertEquals(0, count(asm, "slt"));
+		assertEquals(0, booleans(asm));
+	}
+
+	@Test
+	public void testNegation() {
+		final String asm = compile(NOT, 0);
+		assertEquals(1, count(asm, "beq     $t0, $t1"));
+		assertEquals(0, booleans(asm));
+	}
+
+	@Test
+	public void testLogicalOperators() {
+		final String asm = compile(LOGICAL, 0);
+		assertEquals(2, count(asm, "slt "));
+		assertEquals(3, count(asm, "beq ") + count(asm, "bne "));
+		assertEquals(0, booleans(asm));
+	}
+
+	@Test
+	public void testTruthValue() {
+		final String asm = compile(TRUTH, 0);
+		assertEquals(1, count(asm, "beq     $t0, $zero"));
+		assertEquals(0, count(asm, "slt"));
+	}
+
+	@Test
+	public void testResults() throws MarsException {
+		assertReturns(1 + 0 + 0 + 10 * 37 + 100 * 2, LESS + NOT_EQUAL //
+				+ "int main() { return f(1, 2) + f(2, 2) + f(3, 2) + 10 * g(0) + 100 * g(37 - 2); }\n");
+		assertReturns(1 + 20 + 100 + 2000 + 10000 + 100000 + 2000000, NOT + LOGICAL + TRUTH //
+				+ "int main() {\n" //
+				+ "	return h(1, 2) + 10 * h(2, 2) + 100 * k(1, 2, 3) + 1000 * k(2, 1, 3)\n" //
+				+ "		+ 10000 * k(2, 1, 0) + 100000 * z(-1) + 1000000 * z(0);\n" //
+				+ "}\n");
+	}
+}
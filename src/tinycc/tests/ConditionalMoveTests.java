@@ -0,0 +1,100 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+
+public class ConditionalMoveTests extends OptimizingCompilerTests {
+	private static final String MAX = "int max(int a, int b) { return a > b ? a : b; }\n";
+
+	private static final String ABS = "int abs(int x) { int r = x; if (x < 0) r = -x; return r; }\n";
+
+	private static final String EQUAL = "int eq(int a, int b) { return a == b ? 3 : 9; }\n";
+
+	private static final String EFFECTS = "" //
+			+ "int n;\n" //
+			+ "int inc() { n = n + 1; return n; }\n" //
+			+ "int pick(int c) { return c ? inc() : 0; }\n";
+
+	private static int branches(final String asm) {
+		int n = 0;
+		for (final String branch : new String[] { "beq ", "bne ", "blez", "bgtz", "bltz", "bgez" })
+			n += count(asm, branch);
+		return n;
+	}
+
+	private static int moves(final String asm) {
+		return count(asm, "movn") + count(asm, "movz");
+	}
+
+	@Test
+	public void testConditionalExpression() {
+		final String asm = compile(MAX, 1);
+		assertEquals(1, count(asm, "movn"));
+		assertEquals(0, branches(asm));
+	}
+
+	@Test
+	public void testEqualityUsesMovz() {
+		final String asm = compile(EQUAL, 1);
+		assertEquals(1, count(asm, "movz"));
+		assertEquals(0, branches(asm));
+	}
+
+	@Test
+	public void testIfAssignment() {
+		final String asm = compile(ABS, 1);
+		assertEquals(1, moves(asm));
+		assertEquals(0, branches(asm));
+	}
+
+	@Test
+	public void testBranchesWithoutOptimization() {
+		for (final String code : new String[] { MAX, ABS, EQUAL }) {
+			final String asm = compile(code, 0);
+			assertEquals(code, 0, moves(asm));
+			assertEquals(code, 1, branches(asm));
+		}
+	}
+
+	@Test
+	public void testUnsafeArmsBranch() {
+		// Division may trap, the load may fault and the call has effects.
+		final String[] unsafe = {
+				"int f(int a, int b) { int s = 0; if (a < b) s = a / b; return s; }\n",
+				"int f(int *p, int c) { return c ? *p : 0; }\n",
+				EFFECTS };
+		for (final String code : unsafe)
+			for (int level = 1; level <= 2; level++)
+				assertEquals(code, 0, moves(compile(code, level)));
+	}
+
+	@Test
+	public void testExpensiveArmsBranch() {
+		final String code = "int f(int a, int b) { return a < b ? a * b + a * 3 - b : b * a - 7 + (a << 2); }\n";
+		assertEquals(0, moves(compile(code, 1)));
+	}
+
+	@Test
+	public void testLogicalConditionBranches() {
+		final String code = "int f(int a, int b) { return a < b && b < 10 ? a : b; }\n";
+		assertEquals(0, moves(compile(code, 1)));
+	}
+
+	@Test
+	public void testResults() throws MarsException {
+		assertReturns(5 + 10 * 5 + 100 * 4 + 1000 * 4 + 10000 * 0, MAX + ABS //
+				+ "int main() { return max(5, 2) + 10 * max(-1, 5) + 100 * abs(-4) + 1000 * abs(4)"
+				+ " + 10000 * abs(0); }\n");
+		assertReturns(3 + 10 * 9 + 100 * 3,
+				EQUAL + "int main() { return eq(1, 1) + 10 * eq(1, 2) + 100 * eq(-7, -7); }\n");
+	}
+
+	@Test
+	public void testOnlyOneArmEvaluated() throws MarsException {
+		assertReturns(0 + 1 + 0 + 2 + 10 * 2,
+				EFFECTS + "int main() { int s = pick(0) + pick(1) + pick(0) + pick(1); return s + 10 * n; }\n");
+	}
+}
@@ -0,0 +1,120 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.ConstantCallEvaluation;
+import tinycc.implementation.optimization.ConstantFolding;
+
+public class ConstantCallEvaluationTests extends OptimizingCompilerTests {
+	/**
+	 * Folds the constants of a program, evaluates its calls and returns the
+	 * body of main.
+	 */
+	private String evaluate(final String code) {
+		final AST ast = checkedAST(code);
+		new ConstantFolding().run(ast);
+		new ConstantCallEvaluation().run(ast);
+		return function(ast, "main").getBody().toString();
+	}
+
+	private static int calls(final String body) {
+		return body.split("Call_", -1).length - 1;
+	}
+
+	@Test
+	public void testRecursiveFunction() {
+		final String code = ""
+				+ "int fact(int n) {\n"
+				+ "	if (n <= 1)\n"
+				+ "		return 1;\n"
+				+ "	return n * fact(n - 1);\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return fact(7);\n"
+				+ "}\n";
+		final String body = evaluate(code);
+		assertEquals(body, 0, calls(body));
+		assertTrue(body, body.contains("Const_5040"));
+	}
+
+	@Test
+	public void testNestedCalls() {
+		final String code = ""
+				+ "int gcd(int a, int b) {\n"
+				+ "	while (b != 0) {\n"
+				+ "		int t = a % b;\n"
+				+ "		a = b;\n"
+				+ "		b = t;\n"
+				+ "	}\n"
+				+ "	return a;\n"
+				+ "}\n"
+				+ "int lcm(int a, int b) {\n"
+				+ "	return a / gcd(a, b) * b;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return lcm(12, 18) + gcd(0 - 12, 18);\n"
+				+ "}\n";
+		final String body = evaluate(code);
+		assertEquals(body, 0, calls(body));
+		assertTrue(body, body.contains("Const_42"));
+	}
+
+	@Test
+	public void testTrapKept() {
+		final String code = ""
+				+ "int quotient(int x, int y) {\n"
+				+ "	return x / y;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return quotient(1, 0);\n"
+				+ "}\n";
+		assertEquals(1, calls(evaluate(code)));
+	}
+
+	@Test
+	public void testStepBudget() {
+		final String code = ""
+				+ "int count(int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	while (n != 0) {\n"
+				+ "		s = s + 1;\n"
+				+ "		n = n - 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return count(10) + count(1000000);\n"
+				+ "}\n";
+		assertEquals(1, calls(evaluate(code)));
+	}
+
+	@Test
+	public void testEndlessRecursion() {
+		final String code = ""
+				+ "int forever(int n) {\n"
+				+ "	return forever(n + 1);\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return forever(0);\n"
+				+ "}\n";
+		assertEquals(1, calls(evaluate(code)));
+	}
+
+	@Test
+	public void testMemoryReadKept() {
+		final String code = ""
+				+ "int g;\n"
+				+ "int get(int x) {\n"
+				+ "	return g + x;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	g = 2;\n"
+				+ "	return get(3);\n"
+				+ "}\n";
+		assertEquals(1, calls(evaluate(code)));
+	}
+}
@@ -0,0 +1,123 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.ControlFlowSimplification;
+
+public class ControlFlowSimplificationTests extends OptimizingCompilerTests {
+	private static final String CALLS = ""
+			+ "int log;\n"
+			+ "void a() {\n"
+			+ "	log = log * 10 + 1;\n"
+			+ "}\n"
+			+ "void b() {\n"
+			+ "	log = log * 10 + 2;\n"
+			+ "}\n"
+			+ "void c() {\n"
+			+ "	log = log * 10 + 3;\n"
+			+ "}\n"
+			+ "int never();\n";
+
+	/**
+	 * Simplifies the control flow of a program and returns f.
+	 */
+	private AST simplify(final String code) {
+		final AST ast = checkedAST(code);
+		new ControlFlowSimplification().run(ast);
+		return ast;
+	}
+
+	private static int comparisons(final AST ast) {
+		return function(ast, "f").getBody().toString().split("Binary_[<>]", -1).length - 1;
+	}
+
+	@Test
+	public void testConditionKnownInBranch() {
+		final String code = CALLS
+				+ "void f(int x, int y) {\n"
+				+ "	if (x < y) {\n"
+				+ "		a();\n"
+				+ "		if (x < y)\n"
+				+ "			b();\n"
+				+ "		else\n"
+				+ "			never();\n"
+				+ "	}\n"
+				+ "}\n";
+		assertTrue(names(function(checkedAST(code), "f")).contains("never"));
+		assertFalse(names(function(simplify(code), "f")).contains("never"));
+	}
+
+	@Test
+	public void testConditionKnownBehindLoop() {
+		final String code = CALLS
+				+ "int f(int i, int n) {\n"
+				+ "	while (i < n)\n"
+				+ "		i = i + 1;\n"
+				+ "	if (i < n)\n"
+				+ "		never();\n"
+				+ "	return i;\n"
+				+ "}\n";
+		assertFalse(names(function(simplify(code), "f")).contains("never"));
+	}
+
+	@Test
+	public void testLogicalOperand() {
+		final String code = CALLS
+				+ "void f(int x, int y) {\n"
+				+ "	if (x < y && (x < y || never()))\n"
+				+ "		a();\n"
+				+ "}\n";
+		assertFalse(names(function(simplify(code), "f")).contains("never"));
+	}
+
+	@Test
+	public void testThreading() {
+		final String code = CALLS
+				+ "void f(int x, int y) {\n"
+				+ "	if (x < y)\n"
+				+ "		a();\n"
+				+ "	else\n"
+				+ "		b();\n"
+				+ "	if (x >= y)\n"
+				+ "		c();\n"
+				+ "}\n";
+		assertEquals(2, comparisons(checkedAST(code)));
+		assertEquals(1, comparisons(simplify(code)));
+	}
+
+	@Test
+	public void testFoldedBranchMerged() {
+		final String code = CALLS
+				+ "void f(int x, int y) {\n"
+				+ "	if (x < y) {\n"
+				+ "		if (x < y) {\n"
+				+ "			a();\n"
+				+ "			b();\n"
+				+ "		}\n"
+				+ "	}\n"
+				+ "}\n";
+		final String body = function(simplify(code), "f").getBody().toString();
+		assertEquals(body, 1, comparisons(simplify(code)));
+		assertFalse(body, body.contains("Block[Block["));
+	}
+
+	@Test
+	public void testAssignmentForgetsCondition() {
+		final String code = ""
+				+ "int f(int x, int y) {\n"
+				+ "	if (x < y) {\n"
+				+ "		x = x + 5;\n"
+				+ "		if (x < y)\n"
+				+ "			return 1;\n"
+				+ "		return 2;\n"
+				+ "	}\n"
+				+ "	return 3;\n"
+				+ "}\n";
+		assertEquals(2, comparisons(simplify(code)));
+	}
+}
@@ -0,0 +1,167 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.DeadCodeElimination;
+
+public class DeadCodeEliminationTests extends OptimizingCompilerTests {
+
+	/**
+	 * Returns the translation unit of a program after dead code elimination.
+	 */
+	private AST eliminate(final String code) {
+		final AST ast = checkedAST(code);
+		new DeadCodeElimination().run(ast);
+		return ast;
+	}
+
+	@Test
+	public void testUnreachableFunction() {
+		final String code = ""
+				+ "int unused(int x) {\n"
+				+ "	return x + 1;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return 2;\n"
+				+ "}\n";
+		final AST ast = eliminate(code);
+		assertTrue(function(ast, "unused") == null);
+		assertTrue(function(ast, "main") != null);
+	}
+
+	@Test
+	public void testFunctionsKeptWithoutMain() {
+		final String code = ""
+				+ "int unused(int x) {\n"
+				+ "	return x + 1;\n"
+				+ "}\n";
+		assertTrue(function(eliminate(code), "unused") != null);
+	}
+
+	@Test
+	public void testStatementsAfterReturn() {
+		final String code = ""
+				+ "int never();\n"
+				+ "int f(int x) {\n"
+				+ "	return x;\n"
+				+ "	x = never();\n"
+				+ "	return x;\n"
+				+ "}\n";
+		assertTrue(names(function(checkedAST(code), "f")).contains("never"));
+		assertFalse(names(function(eliminate(code), "f")).contains("never"));
+	}
+
+	@Test
+	public void testDeadStore() {
+		final String code = ""
+				+ "int f(int x) {\n"
+				+ "	int y = x * x;\n"
+				+ "	y = x + 1;\n"
+				+ "	return y;\n"
+				+ "}\n";
+		final String body = function(eliminate(code), "f").getBody().toString();
+		assertFalse(body, body.contains("Binary_*"));
+		assertTrue(body, body.contains("Binary_+"));
+	}
+
+	@Test
+	public void testOverwrittenStore() {
+		final String code = ""
+				+ "void f(int *p) {\n"
+				+ "	*p = 1;\n"
+				+ "	*p = 2;\n"
+				+ "}\n";
+		final String body = function(eliminate(code), "f").getBody().toString();
+		assertFalse(body, body.contains("Const_1"));
+		assertTrue(body, body.contains("Const_2"));
+	}
+
+	@Test
+	public void testStoreReadBeforeOverwritten() {
+		final String code = ""
+				+ "int f(int *p, int *q) {\n"
+				+ "	*p = 1;\n"
+				+ "	int v = *q;\n"
+				+ "	*p = 2;\n"
+				+ "	return v;\n"
+				+ "}\n";
+		final String body = function(eliminate(code), "f").getBody().toString();
+		assertTrue(body, body.contains("Const_1"));
+	}
+
+	@Test
+	public void testUnusedLocal() {
+		final String code = ""
+				+ "int f(int x) {\n"
+				+ "	int unused = x * 2;\n"
+				+ "	return x;\n"
+				+ "}\n";
+		assertFalse(names(function(eliminate(code), "f")).contains("unused"));
+	}
+
+	@Test
+	public void testAddressTakenStoreKept() {
+		final String code = ""
+				+ "int g(int *p);\n"
+				+ "int f(int x) {\n"
+				+ "	int y = 0;\n"
+				+ "	g(&y);\n"
+				+ "	y = x * 3;\n"
+				+ "	return g(&y);\n"
+				+ "}\n";
+		final String body = function(eliminate(code), "f").getBody().toString();
+		assertTrue(body, body.contains("Binary_*"));
+	}
+
+	@Test
+	public void testUnusedPureCall() {
+		final String code = ""
+				+ "int square(int x) {\n"
+				+ "	return x * x;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	square(3);\n"
+				+ "	return 1;\n"
+				+ "}\n";
+		assertFalse(names(function(eliminate(code), "main")).contains("square"));
+	}
+
+	@Test
+	public void testUnusedCallWithSideEffects() {
+		final String code = ""
+				+ "int g;\n"
+				+ "int increment() {\n"
+				+ "	g = g + 1;\n"
+				+ "	return g;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	increment();\n"
+				+ "	return g;\n"
+				+ "}\n";
+		final AST ast = eliminate(code);
+		assertTrue(names(function(ast, "main")).contains("increment"));
+		assertTrue(function(ast, "increment") != null);
+	}
+
+	@Test
+	public void testStringLiteralsOfRemovedCode() {
+		final String code = ""
+				+ "char *unused() {\n"
+				+ "	return \"dead\";\n"
+				+ "}\n"
+				+ "char *used() {\n"
+				+ "	return \"live\";\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	used();\n"
+				+ "	return 0;\n"
+				+ "}\n";
+		final AST ast = eliminate(code);
+		assertTrue(ast.getStringLiterals().contains("live"));
+		assertFalse(ast.getStringLiterals().contains("dead"));
+	}
+}
@@ -0,0 +1,93 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+
+public class EvaluationOrderTests extends OptimizingCompilerTests {
+	private static final int TERMS = 26;
+
+	private static final String EFFECTS = "" //
+			+ "int g;\n" //
+			+ "int set() { g = 5; return 1; }\n" //
+			+ "int h(int a, int b) { return a * 10 + b; }\n";
+
+	/**
+	 * Returns a function f of 26 parameters which alternately adds and
+	 * multiplies them, nested to the right or to the left.
+	 */
+	private static String deep(final boolean right) {
+		final StringBuilder params = new StringBuilder();
+		for (int i = 0; i < TERMS; i++)
+			params.append(i == 0 ? "" : ", ").append("int ").append((char) ('a' + i));
+		String e;
+		if (right) {
+			e = "z";
+			for (int i = TERMS - 2; i >= 0; i--)
+				e = (char) ('a' + i) + (i % 2 == 0 ? " + " : " * ") + "(" + e + ")";
+		} else {
+			e = "a";
+			for (int i = 1; i < TERMS; i++)
+				e = "(" + e + ")" + (i % 2 == 1 ? " + " : " * ") + (char) ('a' + i);
+		}
+		return "int f(" + params + ") { return " + e + "; }\n";
+	}
+
+	private static String withMain(final String f) {
+		final StringBuilder args = new StringBuilder();
+		for (int i = 0; i < TERMS; i++)
+			args.append(i == 0 ? "" : ", ").append(i % 5 + 1);
+		return f + "int main() { return f(" + args + "); }\n";
+	}
+
+	private static int expected() {
+		int v = TERMS % 5;
+		for (int i = TERMS - 2; i >= 0; i--)
+			v = i % 2 == 0 ? i % 5 + 1 + v : (i % 5 + 1) * v;
+		return v;
+	}
+
+	@Test
+	public void testRightDeepWithoutSpills() {
+		final String asm = compile(deep(true), 0);
+		// Only the register parameters are stored and every parameter is
+		// loaded once, so no temporary is spilled.
+		assertEquals(4, count(asm, "sw "));
+		assertEquals(TERMS, count(asm, "lw "));
+	}
+
+	@Test
+	public void testRightDeepLikeLeftDeep() {
+		for (int level = 0; level <= 2; level++)
+			assertTrue("-O" + level, compile(deep(true), level).split("\n").length <= compile(deep(false), level)
+					.split("\n").length);
+	}
+
+	@Test
+	public void testDeepResults() throws MarsException {
+		assertReturns(expected(), withMain(deep(true)));
+	}
+
+	@Test
+	public void testEffectsKeepOperandOrder() throws MarsException {
+		// The right operand needs more registers but writes the global the
+		// left one reads.
+		assertReturns(4, EFFECTS + "int main() { g = 2; return g + set() * (set() + 1); }\n");
+	}
+
+	@Test
+	public void testEffectsBeforeLocal() throws MarsException {
+		// The right operand may be evaluated first, as the local the left one
+		// reads is not written by it.
+		assertReturns(10, EFFECTS + "int main() { int x = 3; g = 2; return x + set() * (set() + 1) + g; }\n");
+	}
+
+	@Test
+	public void testEffectsKeepArgumentOrder() throws MarsException {
+		assertReturns(22, EFFECTS + "int main() { g = 2; return h(g, set() + set()); }\n");
+		assertReturns(25, EFFECTS + "int main() { g = 2; return h(set() + set(), g); }\n");
+	}
+}
@@ -0,0 +1,109 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.FunctionInlining;
+
+public class FunctionInliningTests extends OptimizingCompilerTests {
+
+	/**
+	 * Inlines the calls of a program and returns the names used by the body
+	 * of the given function.
+	 */
+	private Set<String> inline(final String code, final String caller) {
+		final AST ast = checkedAST(code);
+		new FunctionInlining().run(ast);
+		return names(function(ast, caller));
+	}
+
+	@Test
+	public void testSingleReturn() {
+		final String code = ""
+				+ "int square(int x) {\n"
+				+ "	return x * x;\n"
+				+ "}\n"
+				+ "int f(int a, int b) {\n"
+				+ "	return square(a) + square(b);\n"
+				+ "}\n";
+		assertFalse(inline(code, "f").contains("square"));
+	}
+
+	@Test
+	public void testExpensiveArgument() {
+		// a + 1 would be evaluated twice in the returned expression.
+		final String code = ""
+				+ "int square(int x) {\n"
+				+ "	return x * x;\n"
+				+ "}\n"
+				+ "int f(int a) {\n"
+				+ "	return square(a + 1) - a;\n"
+				+ "}\n";
+		assertTrue(inline(code, "f").contains("square"));
+	}
+
+	@Test
+	public void testStatements() {
+		final String code = ""
+				+ "int f(int a) {\n"
+				+ "	int b = a * 2;\n"
+				+ "	if (b > 4)\n"
+				+ "		b = b + 1;\n"
+				+ "	return b;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int x = f(3);\n"
+				+ "	int y = f(1);\n"
+				+ "	return x + y;\n"
+				+ "}\n";
+		assertFalse(inline(code, "main").contains("f"));
+	}
+
+	@Test
+	public void testRecursiveFunction() {
+		final String code = ""
+				+ "int fact(int n) {\n"
+				+ "	if (n <= 1)\n"
+				+ "		return 1;\n"
+				+ "	return n * fact(n - 1);\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return fact(5);\n"
+				+ "}\n";
+		assertTrue(inline(code, "main").contains("fact"));
+		assertTrue(inline(code, "fact").contains("fact"));
+	}
+
+	@Test
+	public void testLargeFunction() {
+		final StringBuilder code = new StringBuilder("int big(int x) {\n");
+		for (int i = 0; i < 40; i++)
+			code.append("	x = x * 3 + " + i + ";\n");
+		code.append("	return x;\n}\n");
+		code.append("int main() {\n	return big(1) - big(2);\n}\n");
+		assertTrue(inline(code.toString(), "main").contains("big"));
+	}
+
+	@Test
+	public void testArgumentsWithSideEffects() throws MarsException {
+		final String code = ""
+				+ "int g;\n"
+				+ "int next() {\n"
+				+ "	g = g + 1;\n"
+				+ "	return g;\n"
+				+ "}\n"
+				+ "int difference(int a, int b) {\n"
+				+ "	return a - b + a;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return difference(next(), next() * 10);\n"
+				+ "}\n";
+		assertReturns(1 - 20 + 1, code);
+	}
+}
@@ -0,0 +1,221 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.DeadCodeElimination;
+import tinycc.implementation.optimization.InductionVariableStrengthReduction;
+
+public class InductionVariableTests extends OptimizingCompilerTests {
+	private static final String SUM = ""
+			+ "void *malloc(int n);\n"
+			+ "int sum(int *p, int n) {\n"
+			+ "	int s = 0;\n"
+			+ "	int i = 0;\n"
+			+ "	while (i < n) {\n"
+			+ "		s = s + p[i];\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	/**
+	 * Runs the pass and dead code elimination on a program and returns the
+	 * resulting translation unit.
+	 */
+	private AST reduce(final String code) {
+		final AST ast = checkedAST(code);
+		new InductionVariableStrengthReduction().run(ast);
+		new DeadCodeElimination().run(ast);
+		return ast;
+	}
+
+	/**
+	 * Returns the body of f from its first loop on.
+	 */
+	private static String loop(final AST ast) {
+		final String body = function(ast, "f").getBody().toString();
+		assertTrue(body, body.contains("While["));
+		return body.substring(body.indexOf("While["));
+	}
+
+	@Test
+	public void testIndexReplacedByPointer() {
+		final String code = ""
+				+ "int f(int *p, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(reduce(code));
+		assertFalse(loop, loop.contains("Binary_["));
+		assertTrue(loop, loop.contains("Unary_*"));
+	}
+
+	@Test
+	public void testExitTestRewritten() {
+		final String code = ""
+				+ "int f(int *p) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < 10) {\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		// The loop compares the pointer against p + 10 instead of i against 10.
+		final String loop = loop(reduce(code));
+		assertFalse(loop, loop.contains("Const_10"));
+	}
+
+	@Test
+	public void testMultiplication() {
+		final String code = ""
+				+ "int f(int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + i * 12;\n"
+				+ "		i = i + 2;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(reduce(code));
+		assertFalse(loop, loop.contains("Binary_*"));
+		assertTrue(loop, loop.contains("Const_24"));
+	}
+
+	@Test
+	public void testNonConstantStep() {
+		final String code = ""
+				+ "int f(int *p, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 1;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i * 2;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(reduce(code));
+		assertTrue(loop, loop.contains("Binary_["));
+	}
+
+	@Test
+	public void testBoundedCountComparesPointers() throws MarsException {
+		final String code = ""
+				+ "void *malloc(int n);\n"
+				+ "int sum(int *p, int k) {\n"
+				+ "	int n = k & 63;\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		assertEquals(1, count(compile(code, 2), "sltu"));
+		final String main = code
+				+ "int main() {\n"
+				+ "	int *a = malloc(16);\n"
+				+ "	a[0] = 3;\n"
+				+ "	a[1] = 4;\n"
+				+ "	a[2] = 5;\n"
+				+ "	return sum(a, 64 + 2);\n"
+				+ "}\n";
+		assertReturns(7, main);
+	}
+
+	@Test
+	public void testLargeCount() throws MarsException {
+		// p + n * 4 wraps around below p, the loop ends at the 0.
+		final String code = ""
+				+ "void *malloc(int n);\n"
+				+ "int sum(int *p, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		if (p[i] == 0)\n"
+				+ "			return s;\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return 0 - 1;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int *a = malloc(16);\n"
+				+ "	a[0] = 3;\n"
+				+ "	a[1] = 4;\n"
+				+ "	a[2] = 0;\n"
+				+ "	return sum(a, 2147483647);\n"
+				+ "}\n";
+		assertReturns(7, code);
+	}
+
+	@Test
+	public void testMinimumCount() throws MarsException {
+		// p + n wraps around to p, the loop would run 2^31 times.
+		final String code = ""
+				+ "void *malloc(int n);\n"
+				+ "int sum(char *p, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + p[i];\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	char *a = malloc(4);\n"
+				+ "	*a = 7;\n"
+				+ "	return sum(a, 1) + sum(a, 0 - 2147483647 - 1);\n"
+				+ "}\n";
+		assertReturns(7, code);
+	}
+
+	@Test
+	public void testNegativeCount() throws MarsException {
+		// p + n * 4 wraps around to p + 4.
+		final String code = SUM
+				+ "int main() {\n"
+				+ "	int *a = malloc(12);\n"
+				+ "	a[0] = 0 - 50;\n"
+				+ "	a[1] = 1;\n"
+				+ "	a[2] = 2;\n"
+				+ "	return sum(a, 3) + sum(a, 0 - 1073741823);\n"
+				+ "}\n";
+		assertReturns(0 - 47, code);
+	}
+
+	@Test
+	public void testSum() throws MarsException {
+		final String code = SUM
+				+ "int main() {\n"
+				+ "	int *a = malloc(40);\n"
+				+ "	int k = 0;\n"
+				+ "	while (k < 10) {\n"
+				+ "		a[k] = k;\n"
+				+ "		k = k + 1;\n"
+				+ "	}\n"
+				+ "	return sum(a, 10);\n"
+				+ "}\n";
+		assertReturns(45, code);
+	}
+
+	@Test
+	public void testUnknownCountKeepsIndexTest() {
+		assertEquals(0, count(compile(SUM, 2), "sltu"));
+	}
+}
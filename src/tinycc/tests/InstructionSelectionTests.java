@@ -0,0 +1,104 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+
+public class InstructionSelectionTests extends OptimizingCompilerTests {
+	private static final String FUNCTIONS = "" //
+			+ "int add(int x) { return x + 100; }\n" //
+			+ "int big(int x) { return x + 100000; }\n" //
+			+ "int mul(int x) { return x * 16 + 3; }\n" //
+			+ "int load(int *p) { return *(p + 2); }\n" //
+			+ "int store(int *p, int v) { *(p + 5) = v; return 0; }\n" //
+			+ "int index(int *p, int i) { return *(p + i); }\n" //
+			+ "int diff(int *p, int *q) { return p - q; }\n" //
+			+ "int lt(int x) { return x < 10; }\n" //
+			+ "int le(int x) { return x <= 10; }\n" //
+			+ "int eqz(int x) { return x == 0; }\n" //
+			+ "int eqc(int x) { return x == 7; }\n" //
+			+ "int mask(int x) { return x & 255; }\n";
+
+	/**
+	 * Returns the assembly of a function of {@link #FUNCTIONS} at -O0,
+	 * where every parameter is loaded from the stack.
+	 */
+	private String asm(final String name) {
+		for (final String line : FUNCTIONS.split("\n"))
+			if (line.contains(" " + name + "("))
+				return compile(line, 0);
+		throw new IllegalArgumentException(name);
+	}
+
+	@Test
+	public void testImmediateOperand() {
+		final String asm = asm("add");
+		assertEquals(1, count(asm, "addiu   $t0, $t0, 100"));
+		assertEquals(0, count(asm, "lui"));
+		assertEquals(1, count(asm("mask"), "andi"));
+	}
+
+	@Test
+	public void testLargeConstant() {
+		final String asm = asm("big");
+		assertEquals(1, count(asm, "lui"));
+		assertEquals(1, count(asm, "ori"));
+		assertEquals(0, count(asm, "addiu   $t0"));
+	}
+
+	@Test
+	public void testMultiplyByPowerOfTwo() {
+		final String asm = asm("mul");
+		assertEquals(1, count(asm, "sll     $t0, $t0, 4"));
+		assertEquals(0, count(asm, "mul "));
+		assertEquals(1, count(asm, "addiu   $t0, $t0, 3"));
+	}
+
+	@Test
+	public void testOffsetInAddressingMode() {
+		final String load = asm("load");
+		assertEquals(1, count(load, "lw      $t0, 8($t0)"));
+		assertEquals(0, count(load, "addiu   $t"));
+		final String store = asm("store");
+		assertEquals(1, count(store, ", 20($t0)"));
+		assertEquals(0, count(store, "addiu   $t"));
+	}
+
+	@Test
+	public void testPointerScaling() {
+		final String index = asm("index");
+		assertEquals(1, count(index, "sll"));
+		assertEquals(0, count(index, "mul "));
+		final String diff = asm("diff");
+		assertEquals(1, count(diff, "sra"));
+		assertEquals(0, count(diff, "div"));
+	}
+
+	@Test
+	public void testComparisonWithConstant() {
+		assertEquals(1, count(asm("lt"), "slti    $t0, $t0, 10"));
+		assertEquals(1, count(asm("le"), "slti    $t0, $t0, 11"));
+		assertEquals(1, count(asm("eqz"), "sltiu   $t0, $t0, 1"));
+		final String eqc = asm("eqc");
+		assertEquals(1, count(eqc, "xori    $t0, $t0, 7"));
+		assertEquals(1, count(eqc, "sltiu   $t0, $t0, 1"));
+	}
+
+	@Test
+	public void testResults() throws MarsException {
+		assertReturns(100 + 100003 + 83, FUNCTIONS + "int main() { return add(0) + big(3) + mul(5); }\n");
+		assertReturns(3 + 2 + 2, FUNCTIONS //
+				+ "int main() {\n" //
+				+ "	int a = lt(9) + lt(10) + le(10) + le(11);\n" //
+				+ "	int b = eqz(0) + eqz(-1) + eqc(7) + eqc(8);\n" //
+				+ "	return mask(-253) + a + b;\n" //
+				+ "}\n");
+	}
+
+	@Test
+	public void testPointerResults() throws MarsException {
+		assertReturns(42, FUNCTIONS + "int main() { int a = 6; return index(&a, 0) * 7 + diff(&a, &a); }\n");
+	}
+}
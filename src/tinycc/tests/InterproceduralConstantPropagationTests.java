@@ -0,0 +1,88 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.optimization.InterproceduralConstantPropagation;
+
+public class InterproceduralConstantPropagationTests extends OptimizingCompilerTests {
+	private static final String SCALE = ""
+			+ "int scale(int x, int k) {\n"
+			+ "	return x * k + k;\n"
+			+ "}\n";
+
+	private static final String SELECT = ""
+			+ "int select(int x, int mode) {\n"
+			+ "	if (mode == 0)\n"
+			+ "		return x + 1;\n"
+			+ "	if (mode == 1)\n"
+			+ "		return x * 2;\n"
+			+ "	return x - 3;\n"
+			+ "}\n";
+
+	/**
+	 * Returns the translation unit of a program after the pass.
+	 */
+	private AST propagate(final String code) {
+		final AST ast = checkedAST(code);
+		new InterproceduralConstantPropagation().run(ast);
+		return ast;
+	}
+
+	@Test
+	public void testSameConstant() {
+		final String code = SCALE
+				+ "int g;\n"
+				+ "int main() {\n"
+				+ "	g = 5;\n"
+				+ "	int a = g;\n"
+				+ "	return scale(a, 4) + scale(a + 1, 4);\n"
+				+ "}\n";
+		assertFalse(names(function(propagate(code), "scale")).contains("k"));
+	}
+
+	@Test
+	public void testDifferentConstants() {
+		final String code = SELECT
+				+ "int g;\n"
+				+ "int main() {\n"
+				+ "	g = 5;\n"
+				+ "	int a = g;\n"
+				+ "	return select(a, 0) + select(a, 1) * 10 + select(a, 2) * 100;\n"
+				+ "}\n";
+		final AST ast = propagate(code);
+		int copies = 0;
+		for (final FunctionDefinition f : ast.getFunctionDefinitions())
+			if (f.getName().getText().startsWith("select__spec")) {
+				assertFalse(names(f).contains("mode"));
+				copies++;
+			}
+		assertEquals(3, copies);
+		assertFalse(names(function(ast, "main")).contains("select"));
+	}
+
+	@Test
+	public void testVaryingArgument() {
+		final String code = SELECT
+				+ "int g;\n"
+				+ "int main() {\n"
+				+ "	g = 1;\n"
+				+ "	return select(4, g) + select(4, 0) * 10;\n"
+				+ "}\n";
+		assertTrue(names(function(propagate(code), "select")).contains("mode"));
+	}
+
+	@Test
+	public void testWithoutMain() {
+		final String code = SCALE
+				+ "int f(int a) {\n"
+				+ "	return scale(a, 4) + scale(a + 1, 4);\n"
+				+ "}\n";
+		assertTrue(names(function(propagate(code), "scale")).contains("k"));
+	}
+}
@@ -0,0 +1,109 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.optimization.LocalPromotion;
+import tinycc.implementation.optimization.Statements;
+
+public class LocalPromotionTests extends OptimizingCompilerTests {
+	private static final String SHADOWED = ""
+			+ "int f(int n) {\n"
+			+ "	int s = 0;\n"
+			+ "	{\n"
+			+ "		int i = 0;\n"
+			+ "		while (i < n) {\n"
+			+ "			s = s + i;\n"
+			+ "			i = i + 1;\n"
+			+ "		}\n"
+			+ "	}\n"
+			+ "	{\n"
+			+ "		int i = 1;\n"
+			+ "		while (i < n) {\n"
+			+ "			s = s + i * i;\n"
+			+ "			i = i + 1;\n"
+			+ "		}\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	/**
+	 * Promotes the locals of a program and returns the names declared in the
+	 * given function, checking that no name is declared twice.
+	 */
+	private Set<String> declarations(final String code, final String name) {
+		final AST ast = checkedAST(code);
+		new LocalPromotion().run(ast);
+		final FunctionDefinition f = function(ast, name);
+		final Set<String> names = new HashSet<>();
+		final int[] declarations = { 0 };
+		Statements.forEachDeclaration(f.getBody(), d -> {
+			names.add(d.getName().getText());
+			declarations[0]++;
+		});
+		assertEquals(declarations[0], names.size());
+		return names;
+	}
+
+	@Test
+	public void testShadowedLocalsAreRenamed() {
+		assertEquals(3, declarations(SHADOWED, "f").size());
+	}
+
+	@Test
+	public void testAddressTakenLocalKeepsName() {
+		final String code = ""
+				+ "int g(int *p) {\n"
+				+ "	*p = *p + 5;\n"
+				+ "	return 0;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int x = 1;\n"
+				+ "	{\n"
+				+ "		int x = 2;\n"
+				+ "		g(&x);\n"
+				+ "		if (x != 7)\n"
+				+ "			return 0 - 1;\n"
+				+ "	}\n"
+				+ "	return x;\n"
+				+ "}\n";
+		final Set<String> names = declarations(code, "main");
+		assertEquals(2, names.size());
+		assertTrue(names.contains("x"));
+	}
+
+	@Test
+	public void testShadowedLocalsInRegisters() throws MarsException {
+		assertEquals(0, count(compile(SHADOWED, 1), "lw"));
+		assertEquals(0, count(compile(SHADOWED, 1), "sw"));
+		assertReturns(40, SHADOWED + "int main() { return f(5); }\n");
+	}
+
+	@Test
+	public void testAddressTakenLocalStaysInMemory() throws MarsException {
+		final String code = ""
+				+ "int g(int *p) {\n"
+				+ "	*p = *p + 5;\n"
+				+ "	return 0;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int x = 1;\n"
+				+ "	{\n"
+				+ "		int x = 2;\n"
+				+ "		g(&x);\n"
+				+ "		if (x != 7)\n"
+				+ "			return 0 - 1;\n"
+				+ "	}\n"
+				+ "	return x;\n"
+				+ "}\n";
+		assertReturns(1, code);
+	}
+}
@@ -0,0 +1,130 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.LoopInvariantCodeMotion;
+
+public class LoopInvariantCodeMotionTests extends OptimizingCompilerTests {
+
+	/**
+	 * Runs the pass on a program and returns the body of f from its first
+	 * loop on.
+	 */
+	private String loop(final String code) {
+		final AST ast = checkedAST(code);
+		new LoopInvariantCodeMotion().run(ast);
+		final String body = function(ast, "f").getBody().toString();
+		assertTrue(body, body.contains("While["));
+		return body.substring(body.indexOf("While["));
+	}
+
+	@Test
+	public void testProduct() {
+		final String code = ""
+				+ "int f(int a, int b, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + a * b;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(code);
+		assertFalse(loop, loop.contains("Binary_*"));
+	}
+
+	@Test
+	public void testVariantOperandStaysInLoop() {
+		final String code = ""
+				+ "int f(int a, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + a * i;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(code);
+		assertTrue(loop, loop.contains("Binary_*"));
+	}
+
+	@Test
+	public void testDivisionStaysInLoop() {
+		final String code = ""
+				+ "int f(int a, int b, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + a / b;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(code);
+		assertTrue(loop, loop.contains("Binary_/"));
+	}
+
+	@Test
+	public void testLoadWrittenThroughAlias() {
+		final String code = ""
+				+ "int f(int *p, int *q, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n && *p < 100) {\n"
+				+ "		s = s + *p;\n"
+				+ "		*q = s;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(code);
+		assertTrue(loop, loop.contains("Binary_<[Unary_*"));
+	}
+
+	@Test
+	public void testNestedLoops() {
+		final String code = ""
+				+ "int f(int a, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		int j = 0;\n"
+				+ "		while (j < n) {\n"
+				+ "			s = s + a * a + i;\n"
+				+ "			j = j + 1;\n"
+				+ "		}\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String loop = loop(code);
+		assertFalse(loop, loop.contains("Binary_*"));
+	}
+
+	@Test
+	public void testGlobalWrittenByCall() throws MarsException {
+		final String code = ""
+				+ "int g;\n"
+				+ "void increment() {\n"
+				+ "	g = g + 1;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < 3) {\n"
+				+ "		s = s + g * 2;\n"
+				+ "		increment();\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		assertReturns(6, code);
+	}
+}
@@ -0,0 +1,118 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.LoopScalarReplacement;
+import tinycc.implementation.optimization.Statements;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+
+public class LoopScalarReplacementTests extends OptimizingCompilerTests {
+
+	/**
+	 * Returns the first while loop of a statement, or null if there is none.
+	 */
+	private static WhileStatement loop(final Statement s) {
+		if (s instanceof WhileStatement)
+			return (WhileStatement) s;
+		if (s instanceof BlockStatement)
+			for (final Statement t : ((BlockStatement) s).getStatements()) {
+				final WhileStatement loop = loop(t);
+				if (loop != null)
+					return loop;
+			}
+		return null;
+	}
+
+	/**
+	 * Runs the pass on a program and returns the names used by the loop of
+	 * f.
+	 */
+	private Set<String> replace(final String code) {
+		final AST ast = checkedAST(code);
+		new LoopScalarReplacement().run(ast);
+		final Set<String> names = new HashSet<>();
+		Statements.collectNames(loop(function(ast, "f").getBody()), names);
+		return names;
+	}
+
+	@Test
+	public void testSum() {
+		final String code = ""
+				+ "int sum;\n"
+				+ "void f(int n) {\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		sum = sum + i;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "}\n";
+		assertFalse(replace(code).contains("sum"));
+	}
+
+	@Test
+	public void testReturnInLoop() {
+		final String code = ""
+				+ "int sum;\n"
+				+ "int f(int n) {\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		sum = sum + i;\n"
+				+ "		if (sum > 10)\n"
+				+ "			return i;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return 0 - 1;\n"
+				+ "}\n";
+		// The global is only stored back in front of the return.
+		assertTrue(replace(code).contains("sum"));
+		final AST ast = checkedAST(code);
+		new LoopScalarReplacement().run(ast);
+		final String loop = loop(function(ast, "f").getBody()).toString();
+		assertEquals(loop, 3, loop.split("Binary_=", -1).length - 1);
+	}
+
+	@Test
+	public void testCallReadsGlobal() {
+		final String code = ""
+				+ "int sum;\n"
+				+ "int seen;\n"
+				+ "void look() {\n"
+				+ "	seen = seen + sum;\n"
+				+ "}\n"
+				+ "void f() {\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < 4) {\n"
+				+ "		sum = sum + i;\n"
+				+ "		look();\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "}\n";
+		assertTrue(replace(code).contains("sum"));
+	}
+
+	@Test
+	public void testStoreThroughPointer() {
+		final String code = ""
+				+ "int sum;\n"
+				+ "int f(int *p, int n) {\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		sum = sum + i;\n"
+				+ "		*p = *p * 2;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return sum;\n"
+				+ "}\n";
+		assertTrue(replace(code).contains("sum"));
+	}
+}
@@ -0,0 +1,138 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.LoopUnrolling;
+
+public class LoopUnrollingTests extends OptimizingCompilerTests {
+	private static final String COUNT = ""
+			+ "int f(int i, int n) {\n"
+			+ "	int s = 0;\n"
+			+ "	while (i < n) {\n"
+			+ "		s = s + 1;\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	/**
+	 * Unrolls the loops of a program and returns the body of f.
+	 */
+	private String unroll(final String code) {
+		final AST ast = checkedAST(code);
+		new LoopUnrolling().run(ast);
+		return function(ast, "f").getBody().toString();
+	}
+
+	private static int occurrences(final String body, final String text) {
+		return body.split(Pattern.quote(text), -1).length - 1;
+	}
+
+	@Test
+	public void testConstantTripCount() {
+		final String code = ""
+				+ "int f(int x) {\n"
+				+ "	int s = x;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < 3) {\n"
+				+ "		s = s * 3 + i;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final String body = unroll(code);
+		assertEquals(body, 0, occurrences(body, "While["));
+		assertEquals(body, 3, occurrences(body, "Binary_*"));
+	}
+
+	@Test
+	public void testRemainder() {
+		final String body = unroll(COUNT);
+		// The unrolled main loop is followed by the original loop.
+		assertEquals(body, 2, occurrences(body, "While["));
+		assertEquals(body, 5, occurrences(body, "Binary_+[Var_test.c:4:7,Const_1]"));
+	}
+
+	@Test
+	public void testNotCounted() {
+		final String code = ""
+				+ "int f(int *p, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		if (p[i])\n"
+				+ "			i = i + 2;\n"
+				+ "		else\n"
+				+ "			i = i + 1;\n"
+				+ "		s = s + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		assertEquals(1, occurrences(unroll(code), "While["));
+	}
+
+	@Test
+	public void testOuterLoopKept() {
+		final String code = ""
+				+ "int f(int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int j = 0;\n"
+				+ "	while (j < n) {\n"
+				+ "		int i = 0;\n"
+				+ "		while (i < n) {\n"
+				+ "			s = s + i;\n"
+				+ "			i = i + 1;\n"
+				+ "		}\n"
+				+ "		j = j + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		// Only the inner loop is unrolled.
+		assertEquals(3, occurrences(unroll(code), "While["));
+	}
+
+	@Test
+	public void testBoundNearMaximum() throws MarsException {
+		// n - i would overflow if it were computed before i < n.
+		final String code = COUNT
+				+ "int main() {\n"
+				+ "	int a = f(2147483640, 2147483647);\n"
+				+ "	int b = f(0 - 2147483647 - 1, 0 - 2147483647 + 2);\n"
+				+ "	return a * 10 + b;\n"
+				+ "}\n";
+		assertReturns(73, code);
+	}
+
+	@Test
+	public void testEmptyAndNegativeRange() throws MarsException {
+		final String code = COUNT
+				+ "int main() {\n"
+				+ "	return f(5, 5) + f(5, 0 - 5) * 10 + f(0 - 3, 6) * 100;\n"
+				+ "}\n";
+		assertReturns(900, code);
+	}
+
+	@Test
+	public void testLargerStep() throws MarsException {
+		final String code = ""
+				+ "int f(int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + i;\n"
+				+ "		i = i + 3;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return f(10) * 100 + f(11);\n"
+				+ "}\n";
+		assertReturns(1818, code);
+	}
+}
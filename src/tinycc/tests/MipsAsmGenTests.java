@@ -0,0 +1,129 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import prog2.tests.MarsUtil;
+import tinycc.implementation.Compiler;
+import tinycc.mipsasmgen.DataLabel;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.MipsAsmGen;
+
+public class MipsAsmGenTests extends OptimizingCompilerTests {
+	private static final String PROGRAM = "" //
+			+ "int f(int a) { if (a < 3) return 1; return a; }\n" //
+			+ "int g(int a) { while (1) { if (a > 10) return a; a = a + 1; } return 0; }\n" //
+			+ "int main() {\n" //
+			+ "	int x = 3;\n" //
+			+ "	x = x + 1;\n" //
+			+ "	x = x + 2;\n" //
+			+ "	return f(x) + g(x);\n" //
+			+ "}\n";
+
+	private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	private final MipsAsmGen gen = new MipsAsmGen(new PrintStream(baos));
+
+	/**
+	 * Compiles a program at the given level with the peephole optimizer
+	 * enabled or disabled, or in its default setting if peephole is null.
+	 */
+	private Compiler generate(final String cCode, final int level, final Boolean peephole,
+			final ByteArrayOutputStream out) {
+		final Compiler c = optimize(cCode, level);
+		if (peephole != null)
+			c.setPeephole(peephole);
+		c.generateCode(new MipsAsmGen(new PrintStream(out)));
+		return c;
+	}
+
+	private static int fired(final Compiler c) {
+		int n = 0;
+		for (final int count : c.getPeepholeOptimizer().getCounters().values())
+			n += count;
+		return n;
+	}
+
+	@Test
+	public void testNothingPrintedBeforeFlush() {
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.ZERO, 42);
+		assertEquals("", baos.toString());
+		assertEquals(1, gen.getInstructions().size());
+		gen.flush();
+		assertTrue(baos.toString().contains("addiu"));
+		assertTrue(baos.toString().contains("42"));
+	}
+
+	@Test
+	public void testFlushClearsBuffer() {
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.ZERO, 42);
+		gen.flush();
+		assertTrue(gen.getInstructions().isEmpty());
+		final String first = baos.toString();
+		gen.flush();
+		assertEquals(first, baos.toString());
+	}
+
+	@Test
+	public void testRemovedInstructionNotPrinted() {
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.ZERO, 42);
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T1, GPRegister.ZERO, 7);
+		gen.getInstructions().remove(0);
+		gen.flush();
+		assertEquals(0, count(baos.toString(), "42"));
+		assertEquals(1, count(baos.toString(), "$t1"));
+	}
+
+	@Test
+	public void testSegmentsSwitchedOnFlush() {
+		final DataLabel x = gen.makeDataLabel("x");
+		gen.emitWord(x, 3);
+		gen.emitInstruction(MemoryInstruction.LW, GPRegister.T0, x, 0, null);
+		gen.flush();
+		final String asm = baos.toString();
+		assertTrue(asm, asm.indexOf(".data") >= 0);
+		assertTrue(asm, asm.indexOf(".data") < asm.indexOf(".word"));
+		assertTrue(asm, asm.indexOf(".word") < asm.indexOf(".text"));
+		assertTrue(asm, asm.indexOf(".text") < asm.indexOf("lw"));
+	}
+
+	@Test
+	public void testGenerateCodeFlushes() throws MarsException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generate(PROGRAM, 2, null, out);
+		assertTrue(out.toString().contains("main:"));
+		assertEquals(run(PROGRAM, 0), new MarsUtil(out.toString()).run());
+	}
+
+	@Test
+	public void testPeepholeOnlyWhenOptimizing() {
+		assertEquals(0, fired(generate(PROGRAM, 0, null, new ByteArrayOutputStream())));
+		assertTrue(fired(generate(PROGRAM, 0, true, new ByteArrayOutputStream())) > 0);
+	}
+
+	@Test
+	public void testPeepholeDisabled() {
+		final ByteArrayOutputStream with = new ByteArrayOutputStream();
+		final ByteArrayOutputStream without = new ByteArrayOutputStream();
+		generate(PROGRAM, 0, true, with);
+		assertEquals(0, fired(generate(PROGRAM, 0, false, without)));
+		assertTrue(with.toString().split("\n").length < without.toString().split("\n").length);
+	}
+
+	@Test
+	public void testPeepholePreservesResults() throws MarsException {
+		final int expected = run(PROGRAM, 0);
+		for (int level = 0; level <= 2; level++) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			generate(PROGRAM, level, true, out);
+			assertEquals("-O" + level, expected, new MarsUtil(out.toString()).run());
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import prog2.tests.FatalDiagnostic;
+import prog2.tests.MarsException;
+import prog2.tests.MarsUtil;
+import tinycc.implementation.Compiler;
+import tinycc.implementation.optimization.PassManager;
+import tinycc.implementation.optimization.Remarks;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.parser.Lexer;
+
+public class OptimizationSchedulerTests extends OptimizingCompilerTests {
+	private static final String CODE = ""
+			+ "int g;\n"
+			+ "int cold(int x) {\n"
+			+ "	int a = x * 2 + 1;\n"
+			+ "	int b = a * a - x;\n"
+			+ "	int c = b / 3 + a;\n"
+			+ "	int d = c * b - a;\n"
+			+ "	int e = d % 7 + c;\n"
+			+ "	return a + b + c + d + e;\n"
+			+ "}\n"
+			+ "int hot(int x) {\n"
+			+ "	if (x > 0)\n"
+			+ "		return x * 3 + 1;\n"
+			+ "	return 0 - x;\n"
+			+ "}\n"
+			+ "int main() {\n"
+			+ "	int s = cold(g + 3);\n"
+			+ "	int i = 0;\n"
+			+ "	while (i < 10) {\n"
+			+ "		int j = 0;\n"
+			+ "		while (j < 10) {\n"
+			+ "			s = s + hot(i - j);\n"
+			+ "			j = j + 1;\n"
+			+ "		}\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	/**
+	 * Optimizes the program with a work budget.
+	 *
+	 * @return The names of the remarks of the scheduler, followed by the
+	 *         function they are about.
+	 */
+	private List<String> schedule(final String code, final long budget) {
+		final PassManager passes = new PassManager(2);
+		passes.setWorkBudget(budget);
+		passes.getRemarks().setEnabled(true);
+		passes.run(checkedAST(code));
+		final List<String> decisions = new ArrayList<>();
+		for (final Remarks.Remark r : passes.getRemarks().getRemarks())
+			if (r.getPass().equals("scheduler"))
+				decisions.add(r.getName() + " " + r.getMessage().substring(1, r.getMessage().indexOf('\'', 1)));
+		return decisions;
+	}
+
+	@Test
+	public void testNoBudget() {
+		final List<String> decisions = schedule(CODE, 0);
+		assertEquals(3, decisions.size());
+		for (final String d : decisions)
+			assertTrue(d, d.startsWith("Skipped"));
+	}
+
+	@Test
+	public void testLargeBudget() {
+		final List<String> decisions = schedule(CODE, Long.MAX_VALUE);
+		assertEquals(3, decisions.size());
+		for (final String d : decisions)
+			assertTrue(d, d.startsWith("Full"));
+	}
+
+	@Test
+	public void testHotFunctionFirst() {
+		long budget = 1;
+		List<String> decisions = schedule(CODE, budget);
+		while (!decisions.toString().contains("Full")) {
+			budget = budget * 2;
+			decisions = schedule(CODE, budget);
+		}
+		assertTrue(decisions.toString(), decisions.contains("Full hot"));
+		assertFalse(decisions.toString(), decisions.contains("Full cold"));
+	}
+
+	@Test
+	public void testDeterministic() {
+		for (long budget = 16; budget < 100000; budget *= 4)
+			assertEquals(schedule(CODE, budget), schedule(CODE, budget));
+	}
+
+	@Test
+	public void testUnreachableFunctionsNotRanked() {
+		final String unused = "int unused(int x) {\n	return cold(x) + hot(x);\n}\n";
+		final List<String> decisions = schedule(CODE + unused, Long.MAX_VALUE);
+		assertEquals(decisions.toString(), 3, decisions.size());
+		assertFalse(decisions.toString(), decisions.contains("Full unused"));
+	}
+
+	@Test
+	public void testBudgetKeepsResult() throws MarsException {
+		final int expected = run(CODE, 0);
+		for (long budget = 16; budget < 100000; budget *= 4) {
+			final FatalDiagnostic d = new FatalDiagnostic();
+			final Compiler c = new Compiler(d);
+			c.parseTranslationUnit(new Lexer(d, new StringReader(CODE), INPUT_NAME));
+			c.checkSemantics();
+			c.getPassManager().setWorkBudget(budget);
+			c.performOptimizations();
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			c.generateCode(new MipsAsmGen(new PrintStream(baos)));
+			assertEquals("budget " + budget, expected, new MarsUtil(baos.toString()).run());
+		}
+	}
+}
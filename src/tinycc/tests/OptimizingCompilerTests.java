@@ -0,0 +1,158 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import prog2.tests.CompilerTests;
+import prog2.tests.FatalDiagnostic;
+import prog2.tests.MarsException;
+import prog2.tests.MarsUtil;
+import tinycc.implementation.AST;
+import tinycc.implementation.Compiler;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.optimization.PassManager;
+import tinycc.implementation.optimization.Statements;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.parser.Lexer;
+
+/**
+ * Base class of the tests which compile a program with the optimizer.
+ *
+ * Every method compiles the program with a fresh compiler, so a test may
+ * compile the same program at several optimization levels.
+ */
+public abstract class OptimizingCompilerTests extends CompilerTests {
+
+	/**
+	 * Parses and checks a program.
+	 *
+	 * @param cCode The input program.
+	 * @return The compiler, ready to optimize the program.
+	 */
+	protected Compiler check(final String cCode) {
+		final FatalDiagnostic d = new FatalDiagnostic();
+		final Compiler c = new Compiler(d);
+		try {
+			c.parseTranslationUnit(new Lexer(d, new StringReader(cCode), INPUT_NAME));
+			c.checkSemantics();
+		} catch (Exception e) {
+			fail("Failed to compile:\n" + e);
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the checked but not yet optimized translation unit of a
+	 * program, e.g. to run a single pass on it.
+	 */
+	protected AST checkedAST(final String cCode) {
+		return (AST) check(cCode).getASTFactory();
+	}
+
+	/**
+	 * Parses, checks and optimizes a program at the given level.
+	 *
+	 * @param cCode    The input program.
+	 * @param level    The optimization level.
+	 * @param disabled The names of the passes not to run.
+	 * @return The compiler, ready to generate code.
+	 */
+	protected Compiler optimize(final String cCode, final int level, final String... disabled) {
+		final Compiler c = check(cCode);
+		c.getPassManager().setLevel(level);
+		for (final String name : disabled)
+			c.getPassManager().disable(name);
+		if (level > 0)
+			c.performOptimizations();
+		return c;
+	}
+
+	/**
+	 * Returns the optimized translation unit of a program.
+	 */
+	protected AST optimizedAST(final String cCode, final int level, final String... disabled) {
+		return (AST) optimize(cCode, level, disabled).getASTFactory();
+	}
+
+	/**
+	 * Returns the definition of a function in a translation unit, or null if
+	 * there is none.
+	 */
+	protected static FunctionDefinition function(final AST ast, final String name) {
+		for (final FunctionDefinition f : ast.getFunctionDefinitions())
+			if (f.getName().getText().equals(name))
+				return f;
+		return null;
+	}
+
+	/**
+	 * Returns the names of the variables and functions used in the body of a
+	 * function.
+	 */
+	protected static Set<String> names(final FunctionDefinition f) {
+		final Set<String> names = new HashSet<>();
+		Statements.collectNames(f.getBody(), names);
+		return names;
+	}
+
+	/**
+	 * Compiles a program at the given level to MIPS assembly.
+	 */
+	protected String compile(final String cCode, final int level, final String... disabled) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		optimize(cCode, level, disabled).generateCode(new MipsAsmGen(new PrintStream(baos)));
+		return baos.toString();
+	}
+
+	/**
+	 * Compiles a program at the given level and runs it.
+	 *
+	 * @return The value returned by main.
+	 */
+	protected int run(final String cCode, final int level, final String... disabled) throws MarsException {
+		return new MarsUtil(compile(cCode, level, disabled)).run();
+	}
+
+	/**
+	 * Checks that a program returns the expected value at every optimization
+	 * level.
+	 */
+	protected void assertReturns(final int expected, final String cCode) throws MarsException {
+		for (int level = 0; level <= PassManager.MAX_LEVEL; level++)
+			assertEquals("-O" + level, expected, run(cCode, level));
+	}
+
+	/**
+	 * Returns how often a pass performed a transformation while the program
+	 * was optimized at the given level.
+	 *
+	 * @param pass     The name of the pass.
+	 * @param name     The name of its remark, e.g. "Inlined".
+	 * @param disabled The names of the passes not to run.
+	 */
+	protected int counter(final String cCode, final int level, final String pass, final String name,
+			final String... disabled) {
+		final Map<String, Integer> counters = optimize(cCode, level, disabled).getPassManager().getRemarks().getCounters()
+				.get(pass);
+		return counters == null || !counters.containsKey(name) ? 0 : counters.get(name);
+	}
+
+	/**
+	 * Returns the number of lines of the assembly which contain the given
+	 * text.
+	 */
+	protected static int count(final String asm, final String text) {
+		int n = 0;
+		for (final String line : asm.split("\n"))
+			if (line.contains(text))
+				n++;
+		return n;
+	}
+}
@@ -0,0 +1,74 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.Compiler;
+import tinycc.implementation.expression.FunctionDefinition;
+
+public class ParallelOptimizationTests extends OptimizingCompilerTests {
+	private static final int FUNCTIONS = 24;
+
+	/**
+	 * Returns a program with many functions, each of which most passes
+	 * change.
+	 */
+	private static String program() {
+		final StringBuilder code = new StringBuilder("int g;\n");
+		for (int i = 0; i < FUNCTIONS; i++) {
+			code.append("int f" + i + "(int n) {\n");
+			code.append("	int s = " + i + ";\n");
+			code.append("	int i = 0;\n");
+			code.append("	while (i < n) {\n");
+			code.append("		s = s + i * (n + " + i + ");\n");
+			code.append("		g = g + 1;\n");
+			code.append("		i = i + 1;\n");
+			code.append("	}\n");
+			if (i > 0)
+				code.append("	s = s + f" + (i - 1) + "(n - 1);\n");
+			code.append("	return s;\n");
+			code.append("}\n");
+		}
+		code.append("int main() {\n	g = 0;\n	return f" + (FUNCTIONS - 1) + "(g + 5) + g;\n}\n");
+		return code.toString();
+	}
+
+	/**
+	 * Optimizes the program with the given number of threads.
+	 *
+	 * @return The names and bodies of the optimized functions.
+	 */
+	private String optimizeWith(final String cCode, final int parallelism) {
+		final Compiler c = check(cCode);
+		c.getPassManager().setParallelism(parallelism);
+		c.performOptimizations();
+		final StringBuilder out = new StringBuilder();
+		for (final FunctionDefinition f : ((AST) c.getASTFactory()).getFunctionDefinitions())
+			out.append(f.getName().getText() + " " + f.getBody() + "\n");
+		return out.toString();
+	}
+
+	@Test
+	public void testSameOutput() {
+		final String code = program();
+		final String sequential = optimizeWith(code, 1);
+		for (int run = 0; run < 5; run++)
+			assertEquals(sequential, optimizeWith(code, 4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism() {
+		check(program()).getPassManager().setParallelism(0);
+	}
+
+	@Test
+	public void testResult() throws MarsException {
+		final String code = program();
+		final int expected = run(code, 0);
+		for (int level = 1; level <= 2; level++)
+			assertEquals(expected, run(code, level));
+	}
+}
@@ -0,0 +1,101 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import tinycc.implementation.optimization.PassManager;
+
+public class PassManagerTests extends OptimizingCompilerTests {
+	private static final String CODE = ""
+			+ "int square(int x) {\n"
+			+ "	return x * x;\n"
+			+ "}\n"
+			+ "int main() {\n"
+			+ "	int s = 0;\n"
+			+ "	int i = 0;\n"
+			+ "	while (i < 10) {\n"
+			+ "		s = s + square(i);\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	private static final Set<String> CHEAP = new HashSet<>(Arrays.asList("local-promotion", "constant-folding",
+			"control-flow-simplification", "pure-call-elimination", "load-forwarding", "dead-code-elimination"));
+
+	private static List<String> names(final PassManager passes) {
+		final List<String> names = new ArrayList<>();
+		for (final PassManager.Statistics s : passes.getStatistics())
+			names.add(s.getName());
+		return names;
+	}
+
+	private PassManager run(final PassManager passes) {
+		passes.run(checkedAST(CODE));
+		return passes;
+	}
+
+	@Test
+	public void testLevelZero() {
+		assertTrue(optimize(CODE, 0).getPassManager().getStatistics().isEmpty());
+		assertTrue(names(run(new PassManager(0))).isEmpty());
+	}
+
+	@Test
+	public void testLevelOne() {
+		final List<String> names = names(run(new PassManager(1)));
+		assertFalse(names.isEmpty());
+		assertTrue(CHEAP.containsAll(names));
+	}
+
+	@Test
+	public void testLevelTwo() {
+		final List<String> names = names(run(new PassManager(2)));
+		assertTrue(names.contains("function-inlining"));
+		assertTrue(names.contains("loop-unrolling"));
+		assertTrue(names.containsAll(CHEAP));
+	}
+
+	@Test
+	public void testEnableAndDisable() {
+		final PassManager passes = new PassManager(1);
+		passes.enable("loop-unrolling");
+		passes.disable("dead-code-elimination");
+		final List<String> names = names(run(passes));
+		assertTrue(names.contains("loop-unrolling"));
+		assertFalse(names.contains("dead-code-elimination"));
+		assertFalse(names.contains("function-inlining"));
+	}
+
+	@Test
+	public void testStatistics() {
+		final List<PassManager.Statistics> statistics = run(new PassManager(2)).getStatistics();
+		for (int i = 0; i < statistics.size(); i++) {
+			final PassManager.Statistics s = statistics.get(i);
+			assertTrue(s.getNanoseconds() >= 0);
+			if (!s.hasChanged())
+				assertEquals(s.getName(), s.getSizeBefore(), s.getSizeAfter());
+			if (i > 0)
+				assertEquals(s.getName(), statistics.get(i - 1).getSizeAfter(), s.getSizeBefore());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLevel() {
+		new PassManager(PassManager.MAX_LEVEL + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPass() {
+		new PassManager().disable("no-such-pass");
+	}
+}
@@ -0,0 +1,319 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import tinycc.mipsasmgen.BranchInstruction;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.JumpInstruction;
+import tinycc.mipsasmgen.JumpRegisterInstruction;
+import tinycc.mipsasmgen.MemoryInstruction;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.PeepholeOptimizer;
+import tinycc.mipsasmgen.RegisterInstruction;
+import tinycc.mipsasmgen.TextLabel;
+
+public class PeepholeOptimizerTests {
+	private final PeepholeOptimizer peephole = new PeepholeOptimizer();
+
+	/**
+	 * Returns the assembly of the code emitted by the given function.
+	 */
+	private static String asm(final Consumer<MipsAsmGen> code) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final MipsAsmGen gen = new MipsAsmGen(new PrintStream(baos));
+		code.accept(gen);
+		gen.flush();
+		return baos.toString();
+	}
+
+	/**
+	 * Returns the assembly of the code emitted by the given function after
+	 * the peephole optimizer ran over it.
+	 */
+	private String optimized(final Consumer<MipsAsmGen> code) {
+		return asm(gen -> {
+			code.accept(gen);
+			peephole.run(gen);
+		});
+	}
+
+	private void assertOptimized(final Consumer<MipsAsmGen> expected, final Consumer<MipsAsmGen> code) {
+		assertEquals(asm(expected), optimized(code));
+	}
+
+	private void assertUnchanged(final Consumer<MipsAsmGen> code) {
+		assertOptimized(code, code);
+	}
+
+	private int fired(final String rule) {
+		return peephole.getCounters().get(rule);
+	}
+
+	private static void push(final MipsAsmGen gen, final GPRegister r) {
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.SP, GPRegister.SP, -4);
+		gen.emitInstruction(MemoryInstruction.SW, r, null, 0, GPRegister.SP);
+	}
+
+	private static void pop(final MipsAsmGen gen) {
+		gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.SP, GPRegister.SP, 4);
+	}
+
+	@Test
+	public void testStoreLoad() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.T0, GPRegister.ZERO);
+		}, gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 8, GPRegister.SP);
+		});
+		assertEquals(1, fired("store-load"));
+	}
+
+	@Test
+	public void testStoreLoadSameRegister() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+		}, gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T0, null, 8, GPRegister.SP);
+		});
+	}
+
+	@Test
+	public void testStoreLoadOtherAddress() {
+		assertUnchanged(gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 4, GPRegister.SP);
+		});
+		assertUnchanged(gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 8, GPRegister.FP);
+		});
+		assertEquals(0, fired("store-load"));
+	}
+
+	@Test
+	public void testDeadPush() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		}, gen -> {
+			push(gen, GPRegister.T0);
+			pop(gen);
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		});
+		assertEquals(1, fired("dead-push"));
+	}
+
+	@Test
+	public void testDeadPushAround() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.T2, GPRegister.T3);
+		}, gen -> {
+			push(gen, GPRegister.T0);
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.T2, GPRegister.T3);
+			pop(gen);
+		});
+		assertEquals(1, fired("dead-push"));
+	}
+
+	@Test
+	public void testPushReadNotRemoved() {
+		// The instruction in between accesses the memory.
+		assertUnchanged(gen -> {
+			push(gen, GPRegister.T0);
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 4, GPRegister.SP);
+			pop(gen);
+		});
+		// The instruction in between uses the stack pointer.
+		assertUnchanged(gen -> {
+			push(gen, GPRegister.T0);
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.SP, GPRegister.T3);
+			pop(gen);
+		});
+		assertEquals(0, fired("dead-push"));
+	}
+
+	@Test
+	public void testAddImmediates() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 7);
+		}, gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 4);
+		});
+		assertEquals(1, fired("add-immediates"));
+	}
+
+	@Test
+	public void testAddImmediatesCancel() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		}, gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, -3);
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		});
+	}
+
+	@Test
+	public void testAddImmediatesOutOfRange() {
+		assertUnchanged(gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 30000);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 30000);
+		});
+		assertUnchanged(gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T1, GPRegister.T1, 4);
+		});
+	}
+
+	@Test
+	public void testSelfMove() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		}, gen -> {
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T0, GPRegister.T0, GPRegister.ZERO);
+			gen.emitInstruction(RegisterInstruction.OR, GPRegister.T1, GPRegister.ZERO, GPRegister.T1);
+			gen.emitInstruction(ImmediateInstruction.SLL, GPRegister.T2, GPRegister.T2, 0);
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		});
+		assertEquals(3, fired("self-move"));
+	}
+
+	@Test
+	public void testNopKept() {
+		assertUnchanged(gen -> {
+			gen.emitInstruction(ImmediateInstruction.SLL, GPRegister.ZERO, GPRegister.ZERO, 0);
+			gen.emitInstruction(RegisterInstruction.SUBU, GPRegister.T0, GPRegister.ZERO, GPRegister.T0);
+		});
+	}
+
+	@Test
+	public void testBranchOverJump() {
+		assertOptimized(gen -> {
+			final TextLabel skip = gen.makeTextLabel("skip");
+			final TextLabel target = gen.makeTextLabel("target");
+			gen.emitInstruction(BranchInstruction.BNE, GPRegister.T0, GPRegister.T1, target);
+			gen.emitLabel(skip);
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+			gen.emitLabel(target);
+		}, gen -> {
+			final TextLabel skip = gen.makeTextLabel("skip");
+			final TextLabel target = gen.makeTextLabel("target");
+			gen.emitInstruction(BranchInstruction.BEQ, GPRegister.T0, GPRegister.T1, skip);
+			gen.emitInstruction(JumpInstruction.J, target);
+			gen.emitLabel(skip);
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+			gen.emitLabel(target);
+		});
+		assertEquals(1, fired("branch-over-jump"));
+	}
+
+	@Test
+	public void testJumpToNext() {
+		assertOptimized(gen -> {
+			gen.emitLabel(gen.makeTextLabel("next"));
+		}, gen -> {
+			final TextLabel next = gen.makeTextLabel("next");
+			gen.emitInstruction(JumpInstruction.J, next);
+			gen.emitLabel(next);
+		});
+		assertEquals(1, fired("jump-to-next"));
+	}
+
+	@Test
+	public void testUnreachable() {
+		assertOptimized(gen -> {
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+			gen.emitLabel(gen.makeTextLabel("other"));
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 1);
+		}, gen -> {
+			gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 2);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T1, GPRegister.T1, 3);
+			gen.emitLabel(gen.makeTextLabel("other"));
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 1);
+		});
+		assertEquals(2, fired("unreachable"));
+	}
+
+	@Test
+	public void testLabelsBlockMatching() {
+		assertUnchanged(gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitLabel(gen.makeTextLabel("join"));
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 4);
+		});
+		assertUnchanged(gen -> {
+			gen.emitInstruction(MemoryInstruction.SW, GPRegister.T0, null, 8, GPRegister.SP);
+			gen.emitLabel(gen.makeTextLabel("join"));
+			gen.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 8, GPRegister.SP);
+		});
+	}
+
+	@Test
+	public void testReplacementCompletesPattern() {
+		// Removing the self move joins the two additions.
+		assertOptimized(gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 7);
+		}, gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.T1, GPRegister.ZERO);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 4);
+		});
+		assertEquals(1, fired("self-move"));
+		assertEquals(1, fired("add-immediates"));
+	}
+
+	@Test
+	public void testDisabledRule() {
+		peephole.disable("add-immediates");
+		final Consumer<MipsAsmGen> code = gen -> {
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 3);
+			gen.emitInstruction(ImmediateInstruction.ADDIU, GPRegister.T0, GPRegister.T0, 4);
+		};
+		assertUnchanged(code);
+		peephole.enable("add-immediates");
+		assertFalse(optimized(code).equals(asm(code)));
+		assertEquals(1, fired("add-immediates"));
+	}
+
+	@Test
+	public void testRunReturnsFired() {
+		final MipsAsmGen gen = new MipsAsmGen(new PrintStream(new ByteArrayOutputStream()));
+		gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T0, GPRegister.T0, GPRegister.ZERO);
+		gen.emitInstruction(RegisterInstruction.ADDU, GPRegister.T1, GPRegister.T1, GPRegister.ZERO);
+		assertEquals(2, peephole.run(gen));
+		assertTrue(gen.getInstructions().isEmpty());
+		assertEquals(0, peephole.run(gen));
+	}
+
+	@Test
+	public void testRuleNames() {
+		assertEquals(PeepholeOptimizer.getRuleNames(), new ArrayList<>(peephole.getCounters().keySet()));
+		for (final String name : PeepholeOptimizer.getRuleNames())
+			assertTrue(PeepholeOptimizer.hasRule(name));
+		assertFalse(PeepholeOptimizer.hasRule("no-such-rule"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDisableUnknownRule() {
+		peephole.disable("no-such-rule");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEnableUnknownRule() {
+		peephole.enable("no-such-rule");
+	}
+}
@@ -0,0 +1,38 @@
+package tinycc.tests;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+
+/**
+ * Runs programs through the whole pipeline: semantic analysis, optimization
+ * at every level, code generation and the peephole optimizer.
+ */
+public class PipelineTests extends OptimizingCompilerTests {
+
+	@Test
+	public void testCheckedProgram() throws MarsException {
+		final String code = ""
+				+ "int z;\n"
+				+ "void swap(int *a, int *b);\n"
+				+ "int foo(int x, int y) {\n"
+				+ "	x = x + (y * z) / sizeof(z) - (0 - 5);\n"
+				+ "	y = 1337;\n"
+				+ "	if ((z = 1000) < x) {\n"
+				+ "		return x;\n"
+				+ "	} else {\n"
+				+ "		swap(&x, &y);\n"
+				+ "		return foo(x, y);\n"
+				+ "	}\n"
+				+ "}\n"
+				+ "void swap(int *a, int *b) {\n"
+				+ "	int t = *a;\n"
+				+ "	*a = *b;\n"
+				+ "	*b = t;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return foo(42, 42);\n"
+				+ "}\n";
+		assertReturns(13092, code);
+	}
+}
@@ -0,0 +1,114 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.FunctionEffects;
+import tinycc.implementation.optimization.LoopInvariantCodeMotion;
+import tinycc.implementation.optimization.PureCallElimination;
+
+public class PureCallTests extends OptimizingCompilerTests {
+	private static final String FUNCTIONS = ""
+			+ "int g;\n"
+			+ "int square(int x) {\n"
+			+ "	return x * x + 1;\n"
+			+ "}\n"
+			+ "int quotient(int x, int y) {\n"
+			+ "	return x / y;\n"
+			+ "}\n"
+			+ "int get(int x) {\n"
+			+ "	return g + x;\n"
+			+ "}\n"
+			+ "int bump(int x) {\n"
+			+ "	g = g + x;\n"
+			+ "	return g;\n"
+			+ "}\n";
+
+	private static final String RECURSIVE = ""
+			+ "int count(int n) {\n"
+			+ "	if (n == 0)\n"
+			+ "		return 0;\n"
+			+ "	return count(n - 1) + 1;\n"
+			+ "}\n";
+
+	/**
+	 * Returns the number of calls in the body of f after the pass.
+	 */
+	private int calls(final String code) {
+		final AST ast = checkedAST(code);
+		new PureCallElimination().run(ast);
+		return function(ast, "f").getBody().toString().split("Call_", -1).length - 1;
+	}
+
+	@Test
+	public void testEffects() {
+		final FunctionEffects effects = new FunctionEffects(checkedAST(FUNCTIONS + RECURSIVE));
+		assertTrue(effects.isSpeculatable("square"));
+		assertTrue(effects.isConst("quotient"));
+		assertFalse(effects.isSpeculatable("quotient"));
+		assertTrue(effects.isPure("get"));
+		assertFalse(effects.isConst("get"));
+		assertFalse(effects.isPure("bump"));
+		assertFalse(effects.isPure("count"));
+		assertTrue(effects.isEvaluable("count"));
+	}
+
+	@Test
+	public void testRepeatedCall() {
+		final String code = FUNCTIONS
+				+ "int f(int a) {\n"
+				+ "	int x = square(a) + 1;\n"
+				+ "	int y = square(a) * 2;\n"
+				+ "	return x + y;\n"
+				+ "}\n";
+		assertEquals(1, calls(code));
+	}
+
+	@Test
+	public void testArgumentChanges() {
+		final String code = FUNCTIONS
+				+ "int f(int a) {\n"
+				+ "	int x = square(a);\n"
+				+ "	a = a + 1;\n"
+				+ "	int y = square(a);\n"
+				+ "	return x * 100 + y;\n"
+				+ "}\n";
+		assertEquals(2, calls(code));
+	}
+
+	@Test
+	public void testMemoryChanges() {
+		final String code = FUNCTIONS
+				+ "int f(int a) {\n"
+				+ "	int x = get(a);\n"
+				+ "	g = 3;\n"
+				+ "	int y = get(a);\n"
+				+ "	int z = bump(a);\n"
+				+ "	return x * 100 + y * 10 + z + bump(a);\n"
+				+ "}\n";
+		assertEquals(4, calls(code));
+	}
+
+	@Test
+	public void testHoistedFromLoop() {
+		final String code = FUNCTIONS
+				+ "int f(int a, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + square(a);\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final AST ast = checkedAST(code);
+		new LoopInvariantCodeMotion().run(ast);
+		final String body = function(ast, "f").getBody().toString();
+		assertTrue(body, body.contains("Call_"));
+		assertFalse(body, body.substring(body.indexOf("While[")).contains("Call_"));
+	}
+}
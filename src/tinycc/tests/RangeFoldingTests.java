@@ -0,0 +1,163 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import tinycc.implementation.AST;
+import tinycc.implementation.optimization.ConstantFolding;
+import tinycc.implementation.optimization.DeadCodeElimination;
+import tinycc.implementation.optimization.RangeFolding;
+
+public class RangeFoldingTests extends OptimizingCompilerTests {
+	private static final String NEVER = "int never();\n";
+
+	/**
+	 * Folds the comparisons of a program by range, cleans up the affected
+	 * statements and returns the names used by f.
+	 */
+	private Set<String> fold(final String code) {
+		final AST ast = checkedAST(code);
+		new RangeFolding().run(ast);
+		new ConstantFolding().run(ast);
+		new DeadCodeElimination().run(ast);
+		return names(function(ast, "f"));
+	}
+
+	@Test
+	public void testNestedCondition() {
+		final String code = NEVER
+				+ "int f(int x) {\n"
+				+ "	if (x > 5) {\n"
+				+ "		if (x > 3)\n"
+				+ "			return 1;\n"
+				+ "		return never();\n"
+				+ "	}\n"
+				+ "	return 2;\n"
+				+ "}\n";
+		assertFalse(fold(code).contains("never"));
+	}
+
+	@Test
+	public void testUndecidedCondition() {
+		final String code = NEVER
+				+ "int f(int x) {\n"
+				+ "	if (x > 5) {\n"
+				+ "		if (x > 7)\n"
+				+ "			return 1;\n"
+				+ "		return never();\n"
+				+ "	}\n"
+				+ "	return 2;\n"
+				+ "}\n";
+		assertTrue(fold(code).contains("never"));
+	}
+
+	@Test
+	public void testLogicalChain() {
+		final String code = NEVER
+				+ "int f(int x, int y) {\n"
+				+ "	if (x > 0 && x < 10) {\n"
+				+ "		if ((x < 20 || never()) && (y || x > 10))\n"
+				+ "			return 1;\n"
+				+ "		return 2;\n"
+				+ "	}\n"
+				+ "	return 3;\n"
+				+ "}\n";
+		assertFalse(fold(code).contains("never"));
+	}
+
+	@Test
+	public void testLoopCounter() {
+		final String code = NEVER
+				+ "int f() {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < 10) {\n"
+				+ "		if (i > 20)\n"
+				+ "			s = s + never();\n"
+				+ "		s = s + i;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		assertFalse(fold(code).contains("never"));
+	}
+
+	@Test
+	public void testCharLoadBounded() {
+		final String code = NEVER
+				+ "int f(char *s) {\n"
+				+ "	if (*s > 255 || *s < 0 - 128)\n"
+				+ "		return never();\n"
+				+ "	return *s;\n"
+				+ "}\n";
+		assertFalse(fold(code).contains("never"));
+	}
+
+	@Test
+	public void testCharLoadAtBound() throws MarsException {
+		final String code = ""
+				+ "void *malloc(int n);\n"
+				+ "int f(char *s) {\n"
+				+ "	if (*s > 126)\n"
+				+ "		return 1;\n"
+				+ "	if (*s < 0 - 127)\n"
+				+ "		return 2;\n"
+				+ "	return 3;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	char *s = malloc(4);\n"
+				+ "	*s = 127;\n"
+				+ "	int a = f(s);\n"
+				+ "	*s = 128;\n"
+				+ "	int b = f(s);\n"
+				+ "	*s = 5;\n"
+				+ "	return a * 100 + b * 10 + f(s);\n"
+				+ "}\n";
+		assertReturns(123, code);
+	}
+
+	@Test
+	public void testCharLoadIsSigned() {
+		final String code = NEVER
+				+ "int f(char *s) {\n"
+				+ "	if (*s > 127 || *s < 0 - 128)\n"
+				+ "		return never();\n"
+				+ "	return *s;\n"
+				+ "}\n";
+		assertEquals(0, count(compile(code, 2), "never"));
+	}
+
+	@Test
+	public void testCharResultKeepsFittingValue() {
+		final String code = ""
+				+ "char f(int x) {\n"
+				+ "	return x & 63;\n"
+				+ "}\n";
+		assertEquals(1, count(compile(code, 1), "sra"));
+		assertEquals(0, count(compile(code, 2), "sra"));
+	}
+
+	@Test
+	public void testCharResultTruncatesWideValue() throws MarsException {
+		final String code = ""
+				+ "char f(int x) {\n"
+				+ "	return x & 255;\n"
+				+ "}\n"
+				+ "int g(int x) {\n"
+				+ "	char c = x & 127;\n"
+				+ "	char d = x & 255;\n"
+				+ "	return c + d;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	return f(200) + g(200) + g(100);\n"
+				+ "}\n";
+		assertEquals(2, count(compile(code, 2), "sra"));
+		assertReturns(0 - 56 + 72 - 56 + 100 + 100, code);
+	}
+}
@@ -0,0 +1,227 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import prog2.tests.MarsException;
+import prog2.tests.MarsUtil;
+import tinycc.implementation.codegen.CallingConvention;
+import tinycc.implementation.codegen.GraphColoringAllocator;
+import tinycc.implementation.codegen.LinearScanAllocator;
+import tinycc.implementation.codegen.Liveness;
+import tinycc.implementation.codegen.MachineFunction;
+import tinycc.implementation.codegen.MachineInstruction;
+import tinycc.implementation.codegen.RegisterAllocator;
+import tinycc.implementation.codegen.VirtualRegister;
+import tinycc.mipsasmgen.GPRegister;
+import tinycc.mipsasmgen.ImmediateInstruction;
+import tinycc.mipsasmgen.JumpRegisterInstruction;
+import tinycc.mipsasmgen.MipsAsmGen;
+import tinycc.mipsasmgen.RegisterInstruction;
+import tinycc.mipsasmgen.TextLabel;
+
+public class RegisterAllocationTests extends OptimizingCompilerTests {
+	private static final String PRESSURE = "" //
+			+ "int id(int x) { return x; }\n" //
+			+ "int main() {\n" //
+			+ "	int a = id(1); int b = id(2); int c = id(3); int d = id(4);\n" //
+			+ "	int e = id(5); int f = id(6); int g = id(7); int h = id(8);\n" //
+			+ "	int i = id(9); int j = id(10); int k = id(11); int l = id(12);\n" //
+			+ "	int m = id(13); int n = id(14); int o = id(15); int p = id(16);\n" //
+			+ "	int q = id(17); int r = id(18); int s = id(19); int t = id(20);\n" //
+			+ "	int u = id(21); int v = id(22); int w = id(23); int x = id(24);\n" //
+			+ "	int y = id(25); int z = id(26);\n" //
+			+ "	return a*1 + b*2 + c*3 + d*4 + e*5 + f*6 + g*7 + h*8 + i*9 + j*10 + k*11 + l*12 + m*13\n" //
+			+ "		+ n*14 + o*15 + p*16 + q*17 + r*18 + s*19 + t*20 + u*21 + v*22 + w*23 + x*24 + y*25\n" //
+			+ "		+ z*26;\n" //
+			+ "}\n";
+
+	private static final String COPIES = "" //
+			+ "int f(int n) {\n" //
+			+ "	int a = n; int b = 0; int i = 0;\n" //
+			+ "	while (i < n) {\n" //
+			+ "		int t = a;\n" //
+			+ "		a = b + i;\n" //
+			+ "		b = t;\n" //
+			+ "		i = i + 1;\n" //
+			+ "	}\n" //
+			+ "	return a * 3 + b;\n" //
+			+ "}\n" //
+			+ "int main() { return f(10) + f(7); }\n";
+
+	private static final String ARGUMENTS = "" //
+			+ "int max(int a, int b) { return a > b ? a : b; }\n" //
+			+ "int sub(int a, int b) { return a - b; }\n" //
+			+ "int swap(int a, int b) { return sub(b, a) * 10 + sub(a, b + 1); }\n" //
+			+ "int main() { return max(swap(3, 8), 2) + max(4, swap(8, 3)); }\n";
+
+	/** The passes which would remove the calls of id. */
+	private static final String[] KEEP_CALLS = { "function-inlining", "constant-call-evaluation",
+			"interprocedural-constant-propagation" };
+
+	/**
+	 * Creates a function which computes the sum of 0 to n - 1, keeping all
+	 * summands live at once, and optionally calls clobber in between.
+	 */
+	private static MachineFunction pressure(final MipsAsmGen gen, final int n, final TextLabel clobber) {
+		final MachineFunction f = new MachineFunction("main", gen.makeTextLabel("main"),
+				gen.makeUniqueTextLabel("exit"));
+		final List<VirtualRegister> values = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			final VirtualRegister r = f.newRegister();
+			f.add(MachineInstruction.immediate(ImmediateInstruction.ADDIU, r, VirtualRegister.of(GPRegister.ZERO), i));
+			values.add(r);
+		}
+		if (clobber != null)
+			f.add(MachineInstruction.call(clobber, null, 0));
+		VirtualRegister sum = values.get(0);
+		for (int i = 1; i < n; i++) {
+			final VirtualRegister next = f.newRegister();
+			f.add(MachineInstruction.register(RegisterInstruction.ADDU, next, sum, values.get(i)));
+			sum = next;
+		}
+		f.add(MachineInstruction.move(VirtualRegister.of(GPRegister.V0), sum));
+		f.add(MachineInstruction.jump(f.getExit()));
+		return f;
+	}
+
+	/**
+	 * Emits a function which sets all caller-saved registers to zero.
+	 */
+	private static TextLabel clobber(final MipsAsmGen gen) {
+		final TextLabel label = gen.makeTextLabel("clobber");
+		gen.emitLabel(label);
+		for (final GPRegister r : CallingConvention.CALLER_SAVED)
+			gen.emitInstruction(RegisterInstruction.ADDU, r, GPRegister.ZERO, GPRegister.ZERO);
+		gen.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+		return label;
+	}
+
+	/**
+	 * Allocates the registers of the function and checks that the values
+	 * which are live at the same time get different registers, and that the
+	 * values live across a call get callee-saved ones.
+	 */
+	private static Map<VirtualRegister, GPRegister> allocate(final RegisterAllocator allocator,
+			final MachineFunction f) {
+		final Map<VirtualRegister, GPRegister> assignment = allocator.allocate(f);
+		final Liveness liveness = new Liveness(f);
+		for (final VirtualRegister r : liveness.getRegisters()) {
+			assertTrue(r.toString(), assignment.get(r) != null);
+			if (liveness.isLiveAcrossCall(r))
+				assertTrue(r.toString(), CallingConvention.isCalleeSaved(assignment.get(r)));
+		}
+		for (int i = 0; i < f.getCode().size(); i++) {
+			final BitSet live = liveness.getLiveOut(i);
+			final Map<GPRegister, VirtualRegister> holders = new HashMap<>();
+			for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+				final VirtualRegister r = liveness.getRegister(id);
+				final VirtualRegister other = holders.put(assignment.get(r), r);
+				assertTrue(r + " and " + other + " share " + assignment.get(r), other == null);
+			}
+		}
+		return assignment;
+	}
+
+	/**
+	 * Allocates and runs the sum of 0 to n - 1.
+	 */
+	private static int runPressure(final RegisterAllocator allocator, final int n, final boolean call)
+			throws MarsException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final MipsAsmGen gen = new MipsAsmGen(new PrintStream(baos));
+		final TextLabel clobber = call ? clobber(gen) : null;
+		final MachineFunction f = pressure(gen, n, clobber);
+		f.emit(gen, allocate(allocator, f));
+		gen.flush();
+		return new MarsUtil(baos.toString()).run();
+	}
+
+	@Test
+	public void testLinearScanFewRegisters() throws MarsException {
+		assertEquals(45, runPressure(new LinearScanAllocator(), 10, false));
+	}
+
+	@Test
+	public void testGraphColoringFewRegisters() throws MarsException {
+		assertEquals(45, runPressure(new GraphColoringAllocator(), 10, false));
+	}
+
+	@Test
+	public void testLinearScanSpills() throws MarsException {
+		assertEquals(40 * 39 / 2, runPressure(new LinearScanAllocator(), 40, false));
+	}
+
+	@Test
+	public void testGraphColoringSpills() throws MarsException {
+		assertEquals(40 * 39 / 2, runPressure(new GraphColoringAllocator(), 40, false));
+	}
+
+	@Test
+	public void testLinearScanAcrossCall() throws MarsException {
+		assertEquals(45, runPressure(new LinearScanAllocator(), 10, true));
+		assertEquals(20 * 19 / 2, runPressure(new LinearScanAllocator(), 20, true));
+	}
+
+	@Test
+	public void testGraphColoringAcrossCall() throws MarsException {
+		assertEquals(45, runPressure(new GraphColoringAllocator(), 10, true));
+		assertEquals(20 * 19 / 2, runPressure(new GraphColoringAllocator(), 20, true));
+	}
+
+	@Test
+	public void testCalleeSavedRestored() {
+		for (int level = 1; level <= 2; level++) {
+			final String asm = compile(PRESSURE, level, KEEP_CALLS);
+			assertEquals(26, count(asm, "jal"));
+			// The values live across the calls are held in callee-saved
+			// registers, which main saves and restores.
+			int used = 0;
+			for (final GPRegister r : CallingConvention.CALLEE_SAVED) {
+				if (count(asm, r.toString()) == 0)
+					continue;
+				used++;
+				assertEquals(r.toString(), 1, count(asm, "sw      " + r + ","));
+				assertEquals(r.toString(), 1, count(asm, "lw      " + r + ","));
+			}
+			assertEquals("-O" + level, CallingConvention.CALLEE_SAVED.length, used);
+		}
+	}
+
+	@Test
+	public void testPressure() throws MarsException {
+		int expected = 0;
+		for (int i = 1; i <= 26; i++)
+			expected += i * i;
+		assertReturns(expected, PRESSURE);
+		for (int level = 1; level <= 2; level++)
+			assertEquals("-O" + level, expected, run(PRESSURE, level, KEEP_CALLS));
+	}
+
+	@Test
+	public void testCoalescing() throws MarsException {
+		assertReturns(run(COPIES, 0), COPIES);
+		assertTrue(count(compile(COPIES, 2), ", $zero") < count(compile(COPIES, 1), ", $zero"));
+	}
+
+	@Test
+	public void testArgumentCopiesCoalesced() throws MarsException {
+		assertEquals(48, run(ARGUMENTS, 0));
+		for (int level = 1; level <= 2; level++)
+			assertEquals("-O" + level, 48, run(ARGUMENTS, level, KEEP_CALLS));
+		final String asm = compile(ARGUMENTS, 2, KEEP_CALLS);
+		assertTrue(count(asm, ", $zero") < count(compile(ARGUMENTS, 1, KEEP_CALLS), ", $zero"));
+		// sub computes its result from the argument registers into $v0.
+		assertEquals(1, count(asm, "$v0, $a0, $a1"));
+	}
+}
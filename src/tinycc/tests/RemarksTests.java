@@ -0,0 +1,254 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import tinycc.driver.TinyC;
+import tinycc.implementation.Compiler;
+import tinycc.implementation.optimization.PassManager;
+import tinycc.implementation.optimization.Remarks;
+
+public class RemarksTests extends OptimizingCompilerTests {
+	private static final String CODE = ""
+			+ "int square(int x) {\n"
+			+ "	return x * x;\n"
+			+ "}\n"
+			+ "int f(int a, int n) {\n"
+			+ "	int s = 0;\n"
+			+ "	int i = 0;\n"
+			+ "	while (i < n) {\n"
+			+ "		s = s + square(a) + a * a;\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s;\n"
+			+ "}\n";
+
+	private static final String LOOP = ""
+			+ "int sq(int x) { return x * x; }\n"
+			+ "int main() {\n"
+			+ "	int s = 0;\n"
+			+ "	int i = 0;\n"
+			+ "	while (i < 4) {\n"
+			+ "		s = s + sq(i);\n"
+			+ "		i = i + 1;\n"
+			+ "	}\n"
+			+ "	return s + 2 * 3;\n"
+			+ "}\n";
+
+	private static final String PASSES = ""
+			+ "int g;\n"
+			+ "int *a;\n"
+			+ "int fact(int n, int acc) { if (n == 0) return acc; return fact(n - 1, acc * n); }\n"
+			+ "int scale(int x, int k) { int s = 0; while (x > 0) { s = s + k; x = x - 1; } return s; }\n"
+			+ "int sum(int *p, int n) { int s = 0; int i = 0; while (i < n) { s = s + p[i]; i = i + 1; } return s; }\n"
+			+ "int count(int *p, int n) { int i = 0; while (i < n) { g = g + 1; i = i + 1; } *p = 3; return *p; }\n"
+			+ "int unused() { return 1; }\n"
+			+ "int main() { return fact(5, 1) + scale(4, 3) + sum(a, 10) + count(a, 3); }\n";
+
+	/**
+	 * Optimizes the program with remark messages enabled.
+	 */
+	private Remarks remarks(final String code) {
+		final Compiler c = check(code);
+		c.getPassManager().getRemarks().setEnabled(true);
+		c.performOptimizations();
+		return c.getPassManager().getRemarks();
+	}
+
+	/**
+	 * Compiles a program with the driver and returns what it printed to the
+	 * error stream.
+	 */
+	private static String compileWithDriver(final Path dir, final String code, final String... options)
+			throws IOException {
+		final Path in = dir.resolve("test.c");
+		Files.write(in, code.getBytes(StandardCharsets.UTF_8));
+		final String[] args = new String[options.length + 4];
+		System.arraycopy(options, 0, args, 0, options.length);
+		args[options.length] = "-c";
+		args[options.length + 1] = "-o";
+		args[options.length + 2] = dir.resolve("test.s").toString();
+		args[options.length + 3] = in.toString();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		assertEquals(0, TinyC.run(new PrintStream(err), args));
+		return err.toString().replace(in.toString(), "test.c");
+	}
+
+	@Test
+	public void testCounters() {
+		assertEquals(1, counter(CODE, 2, "function-inlining", "Inlined"));
+		assertTrue(counter(CODE, 2, "loop-invariant-code-motion", "Hoisted") > 0);
+		assertTrue(counter(CODE, 2, "loop-unrolling", "Unrolled") > 0);
+	}
+
+	@Test
+	public void testNoCountersWithoutOptimization() {
+		assertTrue(optimize(CODE, 0).getPassManager().getRemarks().getCounters().isEmpty());
+	}
+
+	@Test
+	public void testMessagesOnlyWhenEnabled() {
+		assertTrue(optimize(CODE, 2).getPassManager().getRemarks().getRemarks().isEmpty());
+		final List<Remarks.Remark> remarks = remarks(CODE).getRemarks();
+		assertTrue(remarks.size() > 0);
+		for (final Remarks.Remark r : remarks) {
+			assertTrue(r.getPass(), r.getLocation() != null);
+			assertEquals(INPUT_NAME, r.getLocation().getInputName());
+		}
+	}
+
+	@Test
+	public void testPrintMatchingPasses() {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		remarks(CODE).print(new PrintStream(baos), Pattern.compile("function-inlining"), null);
+		assertEquals("test.c:8:17: remark: 'square' inlined into 'f' [-Rpass=function-inlining]\n",
+				baos.toString());
+	}
+
+	@Test
+	public void testMissedRemarks() {
+		final String code = ""
+				+ "int n;\n"
+				+ "int g(int k) { int s = 0; while (k) { s = s + k; k = k - 1; } return s; }\n"
+				+ "int main() {\n"
+				+ "	n = 3;\n"
+				+ "	return g(n) + 1;\n"
+				+ "}\n";
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		remarks(code).print(new PrintStream(baos), null, Pattern.compile("function-inlining"));
+		assertEquals("test.c:5:10: remark: 'g' not inlined into 'main': its body is not a single return statement"
+				+ " [-Rpass-missed=function-inlining]\n", baos.toString());
+		assertEquals(1, counter(code, 2, "function-inlining", "NotInlined"));
+	}
+
+	@Test
+	public void testEveryChangeIsCounted() {
+		final Compiler c = optimize(PASSES, 2);
+		final Map<String, Map<String, Integer>> counters = c.getPassManager().getRemarks().getCounters();
+		for (final PassManager.Statistics s : c.getPassManager().getStatistics()) {
+			if (s.hasChanged()) {
+				assertTrue(s.getName(), counters.containsKey(s.getName()));
+			}
+		}
+	}
+
+	@Test
+	public void testPassCounters() {
+		assertEquals(1, counter(PASSES, 2, "tail-recursion-elimination", "Eliminated"));
+		assertEquals(2, counter(PASSES, 2, "constant-call-evaluation", "Evaluated"));
+		assertEquals(2, counter(PASSES, 2, "interprocedural-constant-propagation", "Propagated"));
+		assertEquals(1, counter(PASSES, 2, "load-forwarding", "Forwarded"));
+		assertEquals(1, counter(PASSES, 2, "loop-scalar-replacement", "Replaced"));
+		assertEquals(1, counter(PASSES, 2, "induction-variable-strength-reduction", "Reduced"));
+		assertTrue(counter(PASSES, 2, "dead-code-elimination", "RemovedFunction") > 0);
+	}
+
+	@Test
+	public void testRangeFoldingCounter() {
+		final String code = ""
+				+ "int never();\n"
+				+ "int f(int x) {\n"
+				+ "	if (x > 5) {\n"
+				+ "		if (x > 3)\n"
+				+ "			return 1;\n"
+				+ "		return never();\n"
+				+ "	}\n"
+				+ "	return 2;\n"
+				+ "}\n";
+		assertEquals(1, counter(code, 2, "range-folding", "Folded"));
+	}
+
+	@Test
+	public void testPassedRemarkLocation() {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		remarks(PASSES).print(new PrintStream(baos), Pattern.compile("tail-recursion-elimination"), null);
+		assertEquals("test.c:3:5: remark: tail recursion of 'fact' turned into a loop"
+				+ " [-Rpass=tail-recursion-elimination]\n", baos.toString());
+	}
+
+	@Test
+	public void testLoadNotHoisted() {
+		final String code = ""
+				+ "int f(int *p, int *q, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		*q = i;\n"
+				+ "		s = s + *p;\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n";
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		remarks(code).print(new PrintStream(baos), null, Pattern.compile("loop-invariant-code-motion"));
+		assertEquals("test.c:6:11: remark: load not hoisted out of the loop at line 4: it may be written in the loop"
+				+ " [-Rpass-missed=loop-invariant-code-motion]\n", baos.toString());
+		assertEquals(1, counter(code, 2, "loop-invariant-code-motion", "NotHoisted"));
+	}
+
+	@Test
+	public void testDriverPassedRemarks() throws IOException {
+		final Path dir = Files.createTempDirectory("remarks");
+		final String remarks = compileWithDriver(dir, LOOP, "-O2", "-Rpass=function-inlining|loop-unrolling");
+		assertEquals(""
+				+ "test.c:6:13: remark: 'sq' inlined into 'main' [-Rpass=function-inlining]\n"
+				+ "test.c:5:2: remark: unrolled a loop by a factor of 4 [-Rpass=loop-unrolling]\n",
+				remarks.replace("\r\n", "\n"));
+	}
+
+	@Test
+	public void testDriverMissedRemarks() throws IOException {
+		final String code = ""
+				+ "int n;\n"
+				+ "int g(int k) { int s = 0; while (k) { s = s + k; k = k - 1; } return s; }\n"
+				+ "int main() {\n"
+				+ "	n = 3;\n"
+				+ "	return g(n) + 1;\n"
+				+ "}\n";
+		final Path dir = Files.createTempDirectory("remarks");
+		final String remarks = compileWithDriver(dir, code, "-O2", "-Rpass-missed=function-inlining");
+		assertEquals("test.c:5:10: remark: 'g' not inlined into 'main': its body is not a single return statement"
+				+ " [-Rpass-missed=function-inlining]\n", remarks.replace("\r\n", "\n"));
+	}
+
+	@Test
+	public void testDriverNoRemarksByDefault() throws IOException {
+		final Path dir = Files.createTempDirectory("remarks");
+		assertEquals("", compileWithDriver(dir, LOOP, "-O2"));
+	}
+
+	@Test
+	public void testDriverCountersFile() throws IOException {
+		final Path dir = Files.createTempDirectory("remarks");
+		compileWithDriver(dir, LOOP, "-O2");
+		final Path json = dir.resolve("test.opt.json");
+		assertTrue(Files.exists(json));
+		final String counters = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+		assertTrue(counters.contains("\"level\": 2"));
+		assertTrue(counters.matches("(?s).*\"name\": \"function-inlining\", \"runs\": 1, \"changed\": 1,"
+				+ "[^\\n]*\"counters\": \\{\"Inlined\": 1\\}.*"));
+		assertTrue(counters.matches("(?s).*\"name\": \"loop-unrolling\",[^\\n]*\"counters\": \\{\"Unrolled\": 1\\}.*"));
+		assertTrue(counters.matches("(?s).*\"name\": \"constant-folding\",[^\\n]*\"counters\": \\{\"Folded\": 1\\}.*"));
+	}
+
+	@Test
+	public void testDriverNoCountersFileWithoutOptimization() throws IOException {
+		final Path dir = Files.createTempDirectory("remarks");
+		compileWithDriver(dir, LOOP);
+		assertTrue(Files.exists(dir.resolve("test.s")));
+		assertFalse(Files.exists(dir.resolve("test.opt.json")));
+	}
+}
@@ -0,0 +1,109 @@
+package tinycc.tests;
+
+import org.junit.Test;
+
+import prog2.tests.CompilerTests;
+
+public class SemanticAnalysisTests extends CompilerTests {
+
+	@Test
+	public void testDeclarationsAndPointers() {
+		final String code = ""
+				+ "void *get_scratch();\n"
+				+ "int count(char *s);\n"
+				+ "int count(char *s) {\n"
+				+ "	int n = 0;\n"
+				+ "	while (s[n]) n = n + 1;\n"
+				+ "	return n;\n"
+				+ "}\n"
+				+ "int main() {\n"
+				+ "	int *p = get_scratch();\n"
+				+ "	char *q = 0;\n"
+				+ "	int a = 1;\n"
+				+ "	{ int a = 2; p[a] = a; }\n"
+				+ "	if (q == 0 && p != 0) q = \"abc\";\n"
+				+ "	return count(q) + (p + 1 - p) + sizeof(a) + (a ? *p : 0);\n"
+				+ "}\n";
+		checkCode(code);
+	}
+
+	@Test
+	public void testUndeclaredFunction() {
+		checkCodeNegative("int f() { return g(); }\nint g() { return 1; }", 1, 18);
+	}
+
+	@Test
+	public void testRedeclaredParameter() {
+		checkCodeNegative("int f(int a) {\n	int a;\n	return a;\n}", 2, 6);
+	}
+
+	@Test
+	public void testConflictingTypes() {
+		checkCodeNegative("int g(int x);\nint g(char x) { return x; }", 2, 5);
+	}
+
+	@Test
+	public void testRedefinition() {
+		checkCodeNegative("int f() { return 1; }\nint f() { return 2; }", 2, 5);
+	}
+
+	@Test
+	public void testVoidVariable() {
+		checkCodeNegative("int main() {\n	void v;\n	return 0;\n}", 2, 7);
+	}
+
+	@Test
+	public void testIncompatiblePointers() {
+		checkCodeNegative("int main() {\n	int *p;\n	char *q;\n	p = q;\n	return 0;\n}", 4, 4);
+	}
+
+	@Test
+	public void testPointerAddition() {
+		checkCodeNegative("int f(int *p) {\n	return p + p;\n}", 2, 11);
+	}
+
+	@Test
+	public void testDereferenceVoidPointer() {
+		checkCodeNegative("int f(void *p) {\n	return *p;\n}", 2, 9);
+	}
+
+	@Test
+	public void testVoidValue() {
+		checkCodeNegative("void f() {}\nint main() {\n	return f() + 1;\n}", 3, 13);
+	}
+
+	@Test
+	public void testReturnValueInVoidFunction() {
+		checkCodeNegative("void f() {\n	return 1;\n}", 2, 2);
+	}
+
+	@Test
+	public void testArgumentCount() {
+		checkCodeNegative("int f(int a, int b) {\n	return f(1);\n}", 2, 10);
+	}
+
+	@Test
+	public void testArgumentType() {
+		checkCodeNegative("int f(int *a) {\n	return f(1);\n}", 2, 11);
+	}
+
+	@Test
+	public void testAssignToRvalue() {
+		checkCodeNegative("int main() {\n	1 = 2;\n	return 0;\n}", 2, 4);
+	}
+
+	@Test
+	public void testAddressOfRvalue() {
+		checkCodeNegative("int main() {\n	int *p = &1;\n	return 0;\n}", 2, 11);
+	}
+
+	@Test
+	public void testCallNonFunction() {
+		checkCodeNegative("int main() {\n	int x = 0;\n	return x();\n}", 3, 10);
+	}
+
+	@Test
+	public void testConditionalArms() {
+		checkCodeNegative("int f(int *p, char *c) {\n	return *(1 ? p : c);\n}", 2, 13);
+	}
+}
@@ -0,0 +1,100 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tinycc.implementation.AST;
+import tinycc.implementation.expression.FunctionDefinition;
+import tinycc.implementation.optimization.TailRecursionElimination;
+
+public class TailRecursionTests extends OptimizingCompilerTests {
+
+	/**
+	 * Runs the pass on a program and returns the given function.
+	 */
+	private FunctionDefinition eliminate(final String code, final String name) {
+		final AST ast = checkedAST(code);
+		new TailRecursionElimination().run(ast);
+		return function(ast, name);
+	}
+
+	private void assertLoop(final String code, final String name) {
+		final FunctionDefinition f = eliminate(code, name);
+		assertFalse(names(f).contains(name));
+		assertTrue(f.getBody().toString().contains("While["));
+	}
+
+	@Test
+	public void testTailCall() {
+		final String code = ""
+				+ "int gcd(int a, int b) {\n"
+				+ "	if (b == 0)\n"
+				+ "		return a;\n"
+				+ "	return gcd(b, a % b);\n"
+				+ "}\n";
+		assertLoop(code, "gcd");
+	}
+
+	@Test
+	public void testProductAccumulator() {
+		final String code = ""
+				+ "int fact(int n) {\n"
+				+ "	if (n <= 1)\n"
+				+ "		return 1;\n"
+				+ "	return n * fact(n - 1);\n"
+				+ "}\n";
+		assertLoop(code, "fact");
+	}
+
+	@Test
+	public void testSumAccumulatorWithSeveralReturns() {
+		final String code = ""
+				+ "int sum(int n) {\n"
+				+ "	if (n == 0)\n"
+				+ "		return 0;\n"
+				+ "	if (n == 1)\n"
+				+ "		return 1;\n"
+				+ "	return sum(n - 1) + n;\n"
+				+ "}\n";
+		assertLoop(code, "sum");
+	}
+
+	@Test
+	public void testStatementsAfterReturningBranch() {
+		final String code = ""
+				+ "int f(int n, int acc) {\n"
+				+ "	if (n > 0) {\n"
+				+ "		acc = acc + n;\n"
+				+ "		return f(n - 1, acc);\n"
+				+ "	}\n"
+				+ "	acc = acc * 2;\n"
+				+ "	return acc;\n"
+				+ "}\n";
+		assertLoop(code, "f");
+	}
+
+	@Test
+	public void testNonCommutativeOperator() {
+		final String code = ""
+				+ "int f(int n) {\n"
+				+ "	if (n == 0)\n"
+				+ "		return 0;\n"
+				+ "	return n - f(n - 1);\n"
+				+ "}\n";
+		assertTrue(names(eliminate(code, "f")).contains("f"));
+	}
+
+	@Test
+	public void testAddressTaken() {
+		final String code = ""
+				+ "int f(int n, int *p) {\n"
+				+ "	int x = n;\n"
+				+ "	if (n == 0)\n"
+				+ "		return *p;\n"
+				+ "	return f(n - 1, &x);\n"
+				+ "}\n";
+		assertTrue(names(eliminate(code, "f")).contains("f"));
+	}
+}